@@ -27,9 +27,13 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.kairosdb.core.aggregator.*;
 import org.kairosdb.core.datapoints.*;
 import org.kairosdb.core.datastore.GuiceQueryPluginFactory;
+import org.kairosdb.core.datastore.HotTailStore;
+import org.kairosdb.core.datastore.IngestDispatcher;
 import org.kairosdb.core.datastore.KairosDatastore;
 import org.kairosdb.core.datastore.QueryPluginFactory;
 import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SlidingWindowCache;
 import org.kairosdb.core.groupby.*;
 import org.kairosdb.core.http.rest.json.QueryParser;
 import org.kairosdb.core.jobs.CacheFileCleaner;
@@ -87,6 +91,10 @@ public class CoreModule extends AbstractModule
 		bind(MetricRegistry.class).in(Singleton.class);
 		bind(QueryQueuingManager.class).in(Singleton.class);
 		bind(KairosDatastore.class).in(Singleton.class);
+		bind(IngestDispatcher.class).in(Singleton.class);
+		bind(HotTailStore.class).in(Singleton.class);
+		bind(SlidingWindowCache.class).in(Singleton.class);
+		bind(ResultBufferPool.class).in(Singleton.class);
 		bind(AggregatorFactory.class).to(GuiceAggregatorFactory.class).in(Singleton.class);
 		bind(GroupByFactory.class).to(GuiceGroupByFactory.class).in(Singleton.class);
 		bind(QueryPluginFactory.class).to(GuiceQueryPluginFactory.class).in(Singleton.class);
@@ -1,5 +1,6 @@
 package org.kairosdb.core.admin;
 
+import com.codahale.metrics.Gauge;
 import com.github.benmanes.caffeine.cache.Cache;
 
 import javax.annotation.Nonnull;
@@ -12,4 +13,13 @@ public interface CacheMetricsProvider extends InternalMetricsProvider {
      * @param cache     the cache instance that provides the statistics
      */
     void registerCache(@Nonnull String cacheName, @Nonnull final Cache<?, ?> cache);
+
+    /**
+     * Registers a single gauge for a cache that is not backed by Caffeine.
+     *
+     * @param cacheName  the unique cache name that will be used as part of the metrics key
+     * @param metricName the metric name within the cache, e.g. "hit-count"
+     * @param gauge      the gauge providing the value
+     */
+    void registerGauge(@Nonnull String cacheName, @Nonnull String metricName, @Nonnull Gauge<? extends Number> gauge);
 }
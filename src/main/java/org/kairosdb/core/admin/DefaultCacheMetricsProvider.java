@@ -82,6 +82,16 @@ public class DefaultCacheMetricsProvider implements CacheMetricsProvider {
         }
     }
 
+    @Override
+    public void registerGauge(@Nonnull final String cacheName, @Nonnull final String metricName,
+                              @Nonnull final Gauge<? extends Number> gauge) {
+        checkNotNull(cacheName, "cacheName can't be null");
+        checkNotNull(metricName, "metricName can't be null");
+        checkNotNull(gauge, "gauge can't be null");
+
+        metricRegistry.register(name(CACHE_PREFIX, cacheName, metricName), gauge);
+    }
+
     private Gauge<Number> createGauge(final CacheMetrics metric, final Cache<?, ?> cache) {
         return () -> {
             final CacheStats stats = cache.stats();
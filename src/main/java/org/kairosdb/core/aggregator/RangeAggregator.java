@@ -133,6 +133,11 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		m_alignStartTime = align;
 	}
 
+	public boolean isAlignStartTime()
+	{
+		return m_alignStartTime;
+	}
+
 	/**
 	 Setting this to true will cause the aggregation range to be aligned based on
 	 the sampling size.  For example if your sample size is either milliseconds,
@@ -157,6 +162,44 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 		m_startTime = startTime;
     }
 
+	/**
+	 Returns true if all data points from startTime to endTime, both inclusive, fall into the
+	 first range and are aggregated together.
+	 */
+	public boolean isSingleRange(long startTime, long endTime)
+	{
+		long rangeStart = m_alignSampling ? alignRangeBoundary(m_startTime) : m_startTime;
+		if (rangeStart > startTime)
+			return false;
+
+		long rangeEnd = getUnitField(GregorianChronology.getInstance(m_timeZone))
+				.add(rangeStart, m_sampling.getValue());
+		return endTime < rangeEnd;
+	}
+
+	private DateTimeField getUnitField(Chronology chronology)
+	{
+		switch (m_sampling.getUnit())
+		{
+			case YEARS:
+				return chronology.year();
+			case MONTHS:
+				return chronology.monthOfYear();
+			case WEEKS:
+				return chronology.weekOfWeekyear();
+			case DAYS:
+				return chronology.dayOfMonth();
+			case HOURS:
+				return chronology.hourOfDay();
+			case MINUTES:
+				return chronology.minuteOfHour();
+			case SECONDS:
+				return chronology.secondOfDay();
+			default:
+				return chronology.millisOfSecond();
+		}
+	}
+
 	/**
 	 Return a RangeSubAggregator that will be used to aggregate data over a
 	 discrete range of data points.  This is called once per grouped data series.
@@ -203,36 +246,7 @@ public abstract class RangeAggregator implements Aggregator, TimezoneAware
 			m_subAggregator = subAggregator;
 			m_dpIterator = new ArrayList<DataPoint>().iterator();
 
-			Chronology chronology = GregorianChronology.getInstance(m_timeZone);
-
-			TimeUnit tu = m_sampling.getUnit();
-			switch (tu)
-			{
-				case YEARS:
-					m_unitField = chronology.year();
-					break;
-				case MONTHS:
-					m_unitField = chronology.monthOfYear();
-					break;
-				case WEEKS:
-					m_unitField = chronology.weekOfWeekyear();
-					break;
-				case DAYS:
-					m_unitField = chronology.dayOfMonth();
-					break;
-				case HOURS:
-					m_unitField = chronology.hourOfDay();
-					break;
-				case MINUTES:
-					m_unitField = chronology.minuteOfHour();
-					break;
-				case SECONDS:
-					m_unitField = chronology.secondOfDay();
-					break;
-				default:
-					m_unitField = chronology.millisOfSecond();
-					break;
-			}
+			m_unitField = getUnitField(GregorianChronology.getInstance(m_timeZone));
 		}
 
 
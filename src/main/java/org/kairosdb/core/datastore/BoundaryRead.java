@@ -0,0 +1,26 @@
+package org.kairosdb.core.datastore;
+
+/**
+ Data points of each series a datastore has to read for a query. A query that only asks for the first or
+ last value over its whole time range can be answered from the oldest and newest data point of every series.
+ */
+public enum BoundaryRead
+{
+	/**
+	 All data points in the time range of the query.
+	 */
+	ALL,
+	OLDEST,
+	NEWEST,
+	OLDEST_AND_NEWEST;
+
+	public boolean readsOldest()
+	{
+		return this == OLDEST || this == OLDEST_AND_NEWEST;
+	}
+
+	public boolean readsNewest()
+	{
+		return this == NEWEST || this == OLDEST_AND_NEWEST;
+	}
+}
@@ -0,0 +1,205 @@
+package org.kairosdb.core.datastore;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.util.ByteBufferDataInput;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoding of the data points of a row in version 2 cache files.
+ * <p>
+ * Timestamps are written as zig-zag varint delta of deltas, a row of evenly spaced points takes one byte per
+ * timestamp. Long values are written as zig-zag varint delta to the previous value. Double values are XORed with
+ * the previous value and only the bytes between the leading and trailing zero bytes of the result are written,
+ * after a header byte holding both counts. Values of other types are written in their own serialized form.
+ */
+class CachedPointCodec {
+    static final byte GENERIC = 0;
+    static final byte LONG = 1;
+    static final byte DOUBLE = 2;
+
+    private CachedPointCodec() {
+    }
+
+    /**
+     * Returns the value encoding for rows of the data store type.
+     */
+    static byte forType(KairosDataPointFactory dataPointFactory, String dataType) {
+        final DataPointFactory factory = dataPointFactory.getFactoryForDataStoreType(dataType);
+        if (factory instanceof LongDataPointFactory)
+            return LONG;
+        if (factory instanceof DoubleDataPointFactory)
+            return DOUBLE;
+        return GENERIC;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static long readVarLong(ByteBuffer in) throws EOFException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining())
+                throw new EOFException();
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new EOFException("Malformed varint");
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the points of one row, in the order they are read.
+     */
+    static class Encoder {
+        // A point takes at most two varints of ten bytes
+        private final byte[] m_scratch = new byte[20];
+        private final byte m_codec;
+        private long m_lastTimestamp;
+        private long m_lastDelta;
+        private long m_lastValue;
+
+        Encoder(byte codec) {
+            m_codec = codec;
+        }
+
+        byte getCodec() {
+            return m_codec;
+        }
+
+        /**
+         * Writes the point with a single write to the output, apart from values of other types.
+         */
+        void write(DataOutput out, DataPoint dataPoint) throws IOException {
+            final long delta = dataPoint.getTimestamp() - m_lastTimestamp;
+            int length = putVarLong(m_scratch, 0, zigZag(delta - m_lastDelta));
+            m_lastTimestamp = dataPoint.getTimestamp();
+            m_lastDelta = delta;
+
+            switch (m_codec) {
+                case LONG:
+                    final long value = dataPoint.getLongValue();
+                    length = putVarLong(m_scratch, length, zigZag(value - m_lastValue));
+                    m_lastValue = value;
+                    out.write(m_scratch, 0, length);
+                    break;
+                case DOUBLE:
+                    final long bits = Double.doubleToRawLongBits(dataPoint.getDoubleValue());
+                    length = putXor(m_scratch, length, bits ^ m_lastValue);
+                    m_lastValue = bits;
+                    out.write(m_scratch, 0, length);
+                    break;
+                default:
+                    out.write(m_scratch, 0, length);
+                    dataPoint.writeValueToBuffer(out);
+            }
+        }
+
+        private static int putVarLong(byte[] bytes, int offset, long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[offset++] = (byte) value;
+            return offset;
+        }
+
+        private static int putXor(byte[] bytes, int offset, long xor) {
+            if (xor == 0) {
+                bytes[offset++] = (byte) (8 << 4);
+                return offset;
+            }
+            final int leading = Long.numberOfLeadingZeros(xor) >>> 3;
+            final int trailing = Long.numberOfTrailingZeros(xor) >>> 3;
+            bytes[offset++] = (byte) (leading << 4 | trailing);
+            for (int i = 7 - leading; i >= trailing; i--) {
+                bytes[offset++] = (byte) (xor >>> (i << 3));
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * Reads the points of one row from a buffer holding exactly the row.
+     */
+    static class Decoder {
+        private final KairosDataPointFactory m_dataPointFactory;
+        private final String m_dataType;
+        private final byte m_codec;
+        private final DataPointFactory m_factory;
+        private final ByteBufferDataInput m_input;
+        private long m_lastTimestamp;
+        private long m_lastDelta;
+        private long m_lastValue;
+
+        Decoder(KairosDataPointFactory dataPointFactory, String dataType, byte codec, ByteBuffer row) {
+            m_dataPointFactory = dataPointFactory;
+            m_dataType = dataType;
+            m_codec = codec;
+            m_factory = dataPointFactory.getFactoryForDataStoreType(dataType);
+            m_input = new ByteBufferDataInput(row);
+        }
+
+        DataPoint next() throws IOException {
+            final ByteBuffer buffer = m_input.getBuffer();
+            m_lastDelta += unZigZag(readVarLong(buffer));
+            m_lastTimestamp += m_lastDelta;
+
+            switch (m_codec) {
+                case LONG:
+                    m_lastValue += unZigZag(readVarLong(buffer));
+                    return ((LongDataPointFactory) m_factory).createDataPoint(m_lastTimestamp, m_lastValue);
+                case DOUBLE:
+                    m_lastValue ^= readXor();
+                    return ((DoubleDataPointFactory) m_factory).createDataPoint(m_lastTimestamp,
+                            Double.longBitsToDouble(m_lastValue));
+                default:
+                    return m_dataPointFactory.createDataPoint(m_dataType, m_lastTimestamp, m_input);
+            }
+        }
+
+        private long readXor() throws IOException {
+            final int header = m_input.readUnsignedByte();
+            final int leading = header >>> 4;
+            final int trailing = header & 0x0F;
+            long xor = 0;
+            for (int i = 8 - leading - trailing; i > 0; i--) {
+                xor = xor << 8 | m_input.readUnsignedByte();
+            }
+            return xor << (trailing << 3);
+        }
+    }
+}
@@ -26,14 +26,34 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Query results written to a data and an index file, so they can be read again by queries within the cache time.
+ * <p>
+ * Version 1 files hold every timestamp as long and the index as serialized objects. Version 2 files encode the points
+ * of a row with {@link CachedPointCodec}, hold the tags and types of the index in a string dictionary, and are read
+ * from a memory mapped data file. Files are always written in one version, opening a file detects its version.
+ * <p>
+ * Results of queries without cache time are kept in a buffer of the {@link ResultBufferPool} and only written to
+ * the files once they grow over its maximum result size.
+ */
 public class CachedSearchResult implements QueryCallback {
     private static final Logger logger = LoggerFactory.getLogger(CachedSearchResult.class);
 
     static final int WRITE_BUFFER_SIZE = 500;
 
+    static final int FORMAT_V1 = 1;
+    static final int FORMAT_V2 = 2;
+
+    /**
+     * Start of version 2 index files, version 1 index files start with the object stream magic 0xACED.
+     */
+    private static final int INDEX_MAGIC = 0x4B435632;
+
     private String m_metricName;
     private List<FilePositionMarker> m_dataPointSets;
     private FilePositionMarker m_currentFilePositionMarker;
@@ -47,6 +67,11 @@ public class CachedSearchResult implements QueryCallback {
     private KairosDataPointFactory m_dataPointFactory;
     private StringPool m_stringPool;
     private int m_maxReadBufferSize = 8192;  //Default value in BufferedInputStream
+    private int m_formatVersion;
+    private ByteBuffer m_mappedData;
+    private ResultBufferPool m_bufferPool;
+    private SpillingOutputStream m_memoryOutput;
+    private DataOutputStream m_output;
 
 
     private static File getIndexFile(String baseFileName) {
@@ -61,8 +86,10 @@ public class CachedSearchResult implements QueryCallback {
         return (new File(dataFileName));
     }
 
-    private CachedSearchResult(String metricName, File dataFile, File indexFile, KairosDataPointFactory datatPointFactory) {
+    private CachedSearchResult(String metricName, File dataFile, File indexFile, KairosDataPointFactory datatPointFactory,
+                               int formatVersion) {
         m_metricName = metricName;
+        m_formatVersion = formatVersion;
         m_indexFile = indexFile;
         m_dataPointSets = new ArrayList<>();
         m_dataFile = dataFile;
@@ -79,6 +106,24 @@ public class CachedSearchResult implements QueryCallback {
         m_dataOutputStream = BufferedDataOutputStream.create(m_randomAccessFile, 0L);
     }
 
+    private void openOutput() throws IOException {
+        if (m_bufferPool != null && m_bufferPool.isEnabled()) {
+            m_memoryOutput = new SpillingOutputStream(m_bufferPool, () -> {
+                deleteFiles(m_dataFile, m_indexFile);
+                openCacheFile();
+                return m_dataOutputStream;
+            });
+            m_output = new DataOutputStream(m_memoryOutput);
+        } else {
+            openCacheFile();
+            m_output = m_dataOutputStream;
+        }
+    }
+
+    private long getPosition() {
+        return m_memoryOutput != null ? m_memoryOutput.size() : m_dataOutputStream.getPosition();
+    }
+
     private void calculateMaxReadBufferSize() {
         //Reduce the max buffer size when we have a lot of rows to conserve memory
         if (m_dataPointSets.size() > 100000) {
@@ -94,7 +139,22 @@ public class CachedSearchResult implements QueryCallback {
      * Reads the index file into memory
      */
     private void loadIndex() throws IOException, ClassNotFoundException {
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(m_indexFile));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_indexFile)))) {
+            in.mark(4);
+            if (in.readInt() == INDEX_MAGIC) {
+                loadIndexV2(in);
+            } else {
+                in.reset();
+                loadIndexV1(new ObjectInputStream(in));
+            }
+        }
+
+        m_readFromCache = true;
+        calculateMaxReadBufferSize();
+    }
+
+    private void loadIndexV1(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        m_formatVersion = FORMAT_V1;
         int size = in.readInt();
         for (int i = 0; i < size; i++) {
             //open the cache file only if there will be data point groups returned
@@ -105,18 +165,43 @@ public class CachedSearchResult implements QueryCallback {
             marker.readExternal(in);
             m_dataPointSets.add(marker);
         }
+    }
 
+    private void loadIndexV2(DataInputStream in) throws IOException {
+        m_formatVersion = FORMAT_V2;
+        final String[] strings = new String[(int) CachedPointCodec.readVarLong(in)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
 
-        m_readFromCache = true;
-        in.close();
+        final int size = (int) CachedPointCodec.readVarLong(in);
+        if (size > 0)
+            openCacheFile();
 
-        calculateMaxReadBufferSize();
+        for (int i = 0; i < size; i++) {
+            final long startPosition = CachedPointCodec.readVarLong(in);
+            final long endPosition = startPosition + CachedPointCodec.readVarLong(in);
+            final int dataPointCount = (int) CachedPointCodec.readVarLong(in);
+            final String dataType = strings[(int) CachedPointCodec.readVarLong(in)];
+            final byte codec = in.readByte();
+            final int tagCount = (int) CachedPointCodec.readVarLong(in);
+            final Map<String, String> tags = new HashMap<>(tagCount * 2);
+            for (int j = 0; j < tagCount; j++) {
+                tags.put(strings[(int) CachedPointCodec.readVarLong(in)], strings[(int) CachedPointCodec.readVarLong(in)]);
+            }
+            m_dataPointSets.add(new FilePositionMarker(startPosition, endPosition, tags, dataType, dataPointCount, codec));
+        }
     }
 
     private void saveIndex() throws IOException {
         if (m_readFromCache)
             return; //No need to save if we read it from the file
 
+        if (m_formatVersion == FORMAT_V2) {
+            saveIndexV2();
+            return;
+        }
+
         ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(m_indexFile));
 
         // FIXME write out a type lookup table
@@ -130,21 +215,100 @@ public class CachedSearchResult implements QueryCallback {
         out.close();
     }
 
+    private void saveIndexV2() throws IOException {
+        final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (FilePositionMarker marker : m_dataPointSets) {
+            dictionary.putIfAbsent(marker.m_dataType, dictionary.size());
+            for (Map.Entry<String, String> tag : marker.m_tags.entrySet()) {
+                dictionary.putIfAbsent(tag.getKey(), dictionary.size());
+                dictionary.putIfAbsent(tag.getValue(), dictionary.size());
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_indexFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            CachedPointCodec.writeVarLong(out, dictionary.size());
+            for (String string : dictionary.keySet()) {
+                out.writeUTF(string);
+            }
+
+            CachedPointCodec.writeVarLong(out, m_dataPointSets.size());
+            for (FilePositionMarker marker : m_dataPointSets) {
+                CachedPointCodec.writeVarLong(out, marker.m_startPosition);
+                CachedPointCodec.writeVarLong(out, marker.m_endPosition - marker.m_startPosition);
+                CachedPointCodec.writeVarLong(out, marker.m_dataPointCount);
+                CachedPointCodec.writeVarLong(out, dictionary.get(marker.m_dataType));
+                out.writeByte(marker.m_codec);
+                CachedPointCodec.writeVarLong(out, marker.m_tags.size());
+                for (Map.Entry<String, String> tag : marker.m_tags.entrySet()) {
+                    CachedPointCodec.writeVarLong(out, dictionary.get(tag.getKey()));
+                    CachedPointCodec.writeVarLong(out, dictionary.get(tag.getValue()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps the data file for reading, once all rows are written.
+     */
+    private void mapDataFile() throws IOException {
+        final long length = m_randomAccessFile.length();
+        // Larger files are mapped row by row
+        if (length <= Integer.MAX_VALUE)
+            m_mappedData = m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+
+    /**
+     * Returns a buffer holding exactly the bytes of the row, sharing the mapped file.
+     */
+    private ByteBuffer mapRow(long startPosition, long endPosition) throws IOException {
+        if (m_mappedData == null) {
+            return m_randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, startPosition,
+                    endPosition - startPosition);
+        }
+
+        final ByteBuffer row = m_mappedData.duplicate();
+        row.limit((int) endPosition);
+        row.position((int) startPosition);
+        return row;
+    }
+
 
     public static CachedSearchResult createCachedSearchResult(String metricName,
                                                               String baseFileName, KairosDataPointFactory dataPointFactory) {
+        return createCachedSearchResult(metricName, baseFileName, dataPointFactory, FORMAT_V2);
+    }
+
+    static CachedSearchResult createCachedSearchResult(String metricName, String baseFileName,
+                                                       KairosDataPointFactory dataPointFactory, int formatVersion) {
         File dataFile = getDataFile(baseFileName);
         File indexFile = getIndexFile(baseFileName);
 
         //Just in case the file are there.
+        deleteFiles(dataFile, indexFile);
+
+        return new CachedSearchResult(metricName, dataFile, indexFile, dataPointFactory, formatVersion);
+    }
+
+    /**
+     * Creates a result kept in memory up to the maximum result size of the pool, in the version 2 format. Results
+     * kept in memory are not written to the cache files, so only queries without cache time should use them.
+     */
+    static CachedSearchResult createMemoryResult(String metricName, String baseFileName,
+                                                 KairosDataPointFactory dataPointFactory, ResultBufferPool bufferPool) {
+        CachedSearchResult ret = new CachedSearchResult(metricName, getDataFile(baseFileName),
+                getIndexFile(baseFileName), dataPointFactory, FORMAT_V2);
+        ret.m_bufferPool = bufferPool;
+        return ret;
+    }
+
+    private static void deleteFiles(File dataFile, File indexFile) {
         if (!dataFile.delete()) {
             logger.debug("Could not delete file {}, seems it is deleted already", dataFile.getAbsolutePath());
         }
         if (!indexFile.delete()) {
             logger.debug("Could not delete file {}, seems it is deleted already", indexFile.getAbsolutePath());
         }
-
-        return new CachedSearchResult(metricName, dataFile, indexFile, dataPointFactory);
     }
 
     /**
@@ -159,7 +323,7 @@ public class CachedSearchResult implements QueryCallback {
         long now = System.currentTimeMillis();
 
         if (dataFile.exists() && indexFile.exists() && ((now - dataFile.lastModified()) < ((long) cacheTime * 1000))) {
-            CachedSearchResult ret = new CachedSearchResult(metricName, dataFile, indexFile, dataPointFactory);
+            CachedSearchResult ret = new CachedSearchResult(metricName, dataFile, indexFile, dataPointFactory, FORMAT_V1);
             try {
                 ret.loadIndex();
                 return ret;
@@ -175,13 +339,13 @@ public class CachedSearchResult implements QueryCallback {
      * Call when finished adding datapoints to the cache file
      */
     public void endDataPoints() throws IOException {
-        if (m_randomAccessFile == null)
+        if (m_output == null)
             return;
 
         //flushWriteBuffer();
-        m_dataOutputStream.flush();
+        m_output.flush();
 
-        long curPosition = m_dataOutputStream.getPosition();
+        long curPosition = getPosition();
         if (m_dataPointSets.size() != 0)
             m_dataPointSets.get(m_dataPointSets.size() - 1).setEndPosition(curPosition);
 
@@ -193,6 +357,12 @@ public class CachedSearchResult implements QueryCallback {
      */
     private void close() {
         try {
+            if (m_memoryOutput != null && !m_memoryOutput.isSpilled()) {
+                //Nothing was written to the cache files
+                m_memoryOutput.release();
+                return;
+            }
+
             if (m_randomAccessFile != null) {
                 m_randomAccessFile.close();
             }
@@ -216,21 +386,27 @@ public class CachedSearchResult implements QueryCallback {
      * expected to be in ascending time order and have the same tags.
      */
     public void startDataPointSet(String type, Map<String, String> tags) throws IOException {
-        if (m_randomAccessFile == null)
-            openCacheFile();
+        if (m_output == null)
+            openOutput();
 
         endDataPoints();
 
-        long curPosition = m_dataOutputStream.getPosition();
+        long curPosition = getPosition();
         m_currentFilePositionMarker = new FilePositionMarker(curPosition, tags, type);
+        if (m_formatVersion == FORMAT_V2)
+            m_currentFilePositionMarker.setEncoder(new CachedPointCodec.Encoder(CachedPointCodec.forType(m_dataPointFactory, type)));
         m_dataPointSets.add(m_currentFilePositionMarker);
     }
 
 
     @Override
     public void addDataPoint(DataPoint datapoint) throws IOException {
-        m_dataOutputStream.writeLong(datapoint.getTimestamp());
-        datapoint.writeValueToBuffer(m_dataOutputStream);
+        if (m_currentFilePositionMarker.m_encoder != null) {
+            m_currentFilePositionMarker.m_encoder.write(m_output, datapoint);
+        } else {
+            m_output.writeLong(datapoint.getTimestamp());
+            datapoint.writeValueToBuffer(m_output);
+        }
 
         m_currentFilePositionMarker.incrementDataPointCount();
     }
@@ -239,6 +415,20 @@ public class CachedSearchResult implements QueryCallback {
         List<DataPointRow> ret = new ArrayList<>();
         MemoryMonitor mm = new MemoryMonitor(20);
 
+        if (m_memoryOutput != null) {
+            m_memoryOutput.recordResult();
+            if (!m_memoryOutput.isSpilled())
+                m_mappedData = m_memoryOutput.getBuffer();
+        }
+
+        if (m_formatVersion == FORMAT_V2 && m_mappedData == null && m_randomAccessFile != null) {
+            try {
+                mapDataFile();
+            } catch (IOException e) {
+                logger.error("Unable to map cache file " + m_dataFile, e);
+            }
+        }
+
         for (FilePositionMarker dpSet : m_dataPointSets) {
             ret.add(dpSet.iterator());
             m_closeCounter.incrementAndGet();
@@ -259,6 +449,8 @@ public class CachedSearchResult implements QueryCallback {
         private Map<String, String> m_tags;
         private String m_dataType;
         private int m_dataPointCount;
+        private byte m_codec;
+        private CachedPointCodec.Encoder m_encoder;
 
 
         public FilePositionMarker() {
@@ -275,6 +467,21 @@ public class CachedSearchResult implements QueryCallback {
             m_dataType = dataType;
         }
 
+        public FilePositionMarker(long startPosition, long endPosition, Map<String, String> tags, String dataType,
+                                  int dataPointCount, byte codec) {
+            m_startPosition = startPosition;
+            m_endPosition = endPosition;
+            m_tags = tags;
+            m_dataType = dataType;
+            m_dataPointCount = dataPointCount;
+            m_codec = codec;
+        }
+
+        void setEncoder(CachedPointCodec.Encoder encoder) {
+            m_encoder = encoder;
+            m_codec = encoder.getCodec();
+        }
+
         void setEndPosition(long endPosition) {
             m_endPosition = endPosition;
         }
@@ -288,7 +495,9 @@ public class CachedSearchResult implements QueryCallback {
         }
 
         @Override
-        public CachedDataPointRow iterator() {
+        public DataPointRow iterator() {
+            if (m_formatVersion == FORMAT_V2)
+                return new MappedDataPointRow(m_tags, m_startPosition, m_endPosition, m_dataType, m_dataPointCount, m_codec);
             return new CachedDataPointRow(m_tags, m_startPosition, m_endPosition, m_dataType, m_dataPointCount);
         }
 
@@ -429,4 +638,98 @@ public class CachedSearchResult implements QueryCallback {
             return String.format("CachedDataPointRow{m_metricName='%s', m_tags=%s}", m_metricName, m_tags);
         }
     }
+
+    //===========================================================================
+    /**
+     * Row of a version 2 file, decoding its points straight from the mapped data file.
+     */
+    private class MappedDataPointRow implements DataPointRow {
+        private final Map<String, String> m_tags;
+        private final long m_startPosition;
+        private final long m_endPosition;
+        private final String m_dataType;
+        private final int m_dataPointCount;
+        private final byte m_codec;
+        private CachedPointCodec.Decoder m_decoder;
+        private int m_dataPointsRead = 0;
+
+        MappedDataPointRow(Map<String, String> tags, long startPosition, long endPosition, String dataType,
+                           int dataPointCount, byte codec) {
+            m_tags = tags;
+            m_startPosition = startPosition;
+            m_endPosition = endPosition;
+            m_dataType = dataType;
+            m_dataPointCount = dataPointCount;
+            m_codec = codec;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (m_dataPointsRead < m_dataPointCount);
+        }
+
+        @Override
+        public DataPoint next() {
+            DataPoint ret = null;
+
+            try {
+                if (m_decoder == null) {
+                    m_decoder = new CachedPointCodec.Decoder(m_dataPointFactory, m_dataType, m_codec,
+                            mapRow(m_startPosition, m_endPosition));
+                }
+
+                ret = m_decoder.next();
+            } catch (IOException ioe) {
+                logger.error("Error reading next data point.", ioe);
+            }
+
+            m_dataPointsRead++;
+
+            //Release the buffer, not all rows are read at once when grouping
+            if (m_dataPointsRead == m_dataPointCount)
+                m_decoder = null;
+
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getName() {
+            return m_metricName;
+        }
+
+        @Override
+        public String getDatastoreType() {
+            return m_dataType;
+        }
+
+        @Override
+        public Set<String> getTagNames() {
+            return m_tags.keySet();
+        }
+
+        @Override
+        public String getTagValue(String tag) {
+            return m_tags.get(tag);
+        }
+
+        @Override
+        public void close() {
+            decrementClose();
+        }
+
+        @Override
+        public int getDataPointCount() {
+            return m_dataPointCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("MappedDataPointRow{m_metricName='%s', m_tags=%s}", m_metricName, m_tags);
+        }
+    }
 }
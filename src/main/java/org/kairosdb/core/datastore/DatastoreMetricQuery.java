@@ -34,6 +34,14 @@ public interface DatastoreMetricQuery
 
 	Order getOrder();
 
+	/**
+	 Data points of each series the query needs, datastores that can't read only some of them read all.
+	 */
+	default BoundaryRead getBoundaryRead()
+	{
+		return BoundaryRead.ALL;
+	}
+
 	List<QueryPlugin> getPlugins();
 
     DatastoreMetricQueryMetadata getMeta();
@@ -27,7 +27,9 @@ public interface DatastoreQuery
 	public List<DataPointGroup> execute() throws DatastoreException;
 
 	/**
-	 This is the number of data points before any aggregation is performed
+	 This is the number of data points read from the datastore before any aggregation is performed.
+	 Queries answered from boundary data points (see {@link BoundaryRead}) only read the oldest and
+	 newest data point of each series, so they count at most two data points per series.
 	 @return
 	 */
 	public int getSampleSize();
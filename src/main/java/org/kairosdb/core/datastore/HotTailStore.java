@@ -0,0 +1,456 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointListener;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDBService;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.util.TagMatcherCompiler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the last minutes of the long and double series ingested by this node in memory, so queries for a recent
+ * window are answered without reading Cassandra.
+ * <p>
+ * Points are kept per series in {@link TailBlock}s. For every metric the store tracks since when it holds all points
+ * this node ingested: from the first point received, moved forward past points it could not keep, like points out of
+ * order, of other types or dropped for the memory cap. A query is answered only if it starts within that coverage and
+ * within the retention. Which series exist is only known from the ingested points, so the store is only complete if
+ * all points of a metric are sent to the same node, which is why it is disabled by default.
+ */
+public class HotTailStore implements DataPointListener, KairosMetricReporter, KairosDBService {
+    private static final Logger logger = LoggerFactory.getLogger(HotTailStore.class);
+
+    public static final String ENABLED_PROPERTY = "kairosdb.query.hot_tail.enabled";
+    public static final String RETENTION_PROPERTY = "kairosdb.query.hot_tail.retention_minutes";
+    public static final String MAX_MEMORY_PROPERTY = "kairosdb.query.hot_tail.max_memory_mb";
+
+    public static final String HITS = "kairosdb.query.hot_tail.hits";
+    public static final String MISSES = "kairosdb.query.hot_tail.misses";
+    public static final String MEMORY = "kairosdb.query.hot_tail.memory_bytes";
+    public static final String SERIES = "kairosdb.query.hot_tail.series";
+    public static final String METRICS = "kairosdb.query.hot_tail.metrics";
+    public static final String COVERED_METRICS = "kairosdb.query.hot_tail.covered_metrics";
+    public static final String REJECTED = "kairosdb.query.hot_tail.rejected";
+
+    private static final long TRIM_INTERVAL_MS = 10_000;
+    private static final int MEMORY_TRIM_STEPS = 8;
+    private static final int TAG_MATCHER_CACHE_SIZE = 1_000;
+
+    private final String m_hostname;
+    private final LongSupplier m_clock;
+    private final long m_startTime;
+
+    @Inject(optional = true)
+    @Named(ENABLED_PROPERTY)
+    private boolean m_enabled = false;
+
+    @Inject(optional = true)
+    @Named(RETENTION_PROPERTY)
+    private long m_retentionMinutes = 60;
+
+    @Inject(optional = true)
+    @Named(MAX_MEMORY_PROPERTY)
+    private long m_maxMemoryMb = 512;
+
+    private final ConcurrentMap<String, MetricTail> m_metrics = new ConcurrentHashMap<>();
+    private final TagMatcherCompiler m_tagMatcherCompiler = new TagMatcherCompiler(TAG_MATCHER_CACHE_SIZE);
+    private final AtomicLong m_bytes = new AtomicLong();
+    private final AtomicLong m_seriesCount = new AtomicLong();
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_uncoveredMisses = new AtomicLong();
+    private final AtomicLong m_unsupportedMisses = new AtomicLong();
+    private final AtomicLong m_rejected = new AtomicLong();
+
+    private volatile ScheduledExecutorService m_trimmer;
+
+    @Inject
+    public HotTailStore(@Named("HOSTNAME") String hostname) {
+        this(hostname, System::currentTimeMillis);
+    }
+
+    private HotTailStore(String hostname, LongSupplier clock) {
+        m_hostname = checkNotNull(hostname);
+        m_clock = clock;
+        m_startTime = clock.getAsLong();
+    }
+
+    @VisibleForTesting
+    HotTailStore(String hostname, LongSupplier clock, long retentionMinutes, long maxMemoryMb) {
+        this(hostname, clock);
+        m_enabled = true;
+        m_retentionMinutes = retentionMinutes;
+        m_maxMemoryMb = maxMemoryMb;
+    }
+
+    @Override
+    public void start() {
+        if (!m_enabled)
+            return;
+
+        logger.warn("Keeping the last {} minutes of ingested series in memory, at most {} MB",
+                m_retentionMinutes, m_maxMemoryMb);
+        m_trimmer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("hot-tail-trimmer-%d").setDaemon(true).build());
+        m_trimmer.scheduleWithFixedDelay(this::trim, TRIM_INTERVAL_MS, TRIM_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        final ScheduledExecutorService trimmer = m_trimmer;
+        if (trimmer != null)
+            trimmer.shutdownNow();
+    }
+
+    @Override
+    public void dataPoint(String metricName, SortedMap<String, String> tags, DataPoint dataPoint) {
+        if (!m_enabled)
+            return;
+
+        final long now = m_clock.getAsLong();
+        final long timestamp = dataPoint.getTimestamp();
+        if (timestamp < now - getRetentionMs())
+            return;
+
+        final String type = dataPoint.getDataStoreDataType();
+        final long valueBits;
+        if (LongDataPointFactoryImpl.DST_LONG.equals(type) && dataPoint.isLong()) {
+            valueBits = dataPoint.getLongValue();
+        } else if (DoubleDataPointFactoryImpl.DST_DOUBLE.equals(type) && dataPoint.isDouble()) {
+            valueBits = Double.doubleToRawLongBits(dataPoint.getDoubleValue());
+        } else {
+            getMetric(metricName, now).uncover(timestamp);
+            return;
+        }
+
+        final List<Object> seriesKey = Arrays.asList(type, tags);
+        while (true) {
+            final MetricTail metric = getMetric(metricName, now);
+            Series series = metric.m_series.get(seriesKey);
+            if (series == null) {
+                if (m_bytes.get() >= getMaxBytes()) {
+                    // New series only take memory once trimming freed some
+                    m_rejected.incrementAndGet();
+                    metric.uncover(timestamp);
+                    return;
+                }
+                synchronized (metric) {
+                    if (metric.m_removed)
+                        continue;
+                    series = metric.m_series.computeIfAbsent(seriesKey, key -> {
+                        m_seriesCount.incrementAndGet();
+                        return new Series(ImmutableSortedMap.copyOfSorted(tags), type);
+                    });
+                }
+            }
+
+            synchronized (series) {
+                if (series.m_removed)
+                    continue;
+                final long before = series.m_bytes;
+                if (!series.append(timestamp, valueBits)) {
+                    metric.uncover(timestamp);
+                    return;
+                }
+                m_bytes.addAndGet(series.m_bytes - before);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the rows of the query if the store holds all of its points, otherwise null.
+     */
+    public List<DataPointRow> query(DatastoreMetricQuery query) {
+        if (!m_enabled)
+            return null;
+
+        if (!query.getPlugins().isEmpty()) {
+            m_unsupportedMisses.incrementAndGet();
+            return null;
+        }
+
+        final MetricTail metric = m_metrics.get(query.getName());
+        if (metric == null || query.getStartTime() < getCoveredFrom(metric, m_clock.getAsLong())) {
+            m_uncoveredMisses.incrementAndGet();
+            return null;
+        }
+
+        final TagFilter filter = new TagFilter(query.getTags(), m_tagMatcherCompiler);
+        final List<DataPointRow> rows = new ArrayList<>();
+        for (Series series : metric.m_series.values()) {
+            if (!filter.matches(series.m_tags))
+                continue;
+
+            final DataPointRowImpl row = new DataPointRowImpl();
+            row.setName(query.getName());
+            for (Map.Entry<String, String> tag : series.m_tags.entrySet()) {
+                row.addTag(tag.getKey(), tag.getValue());
+            }
+            final boolean isLong = LongDataPointFactoryImpl.DST_LONG.equals(series.m_type);
+            synchronized (series) {
+                series.decode(query.getStartTime(), query.getEndTime(), (timestamp, valueBits) ->
+                        row.addDataPoint(isLong ? new LongDataPoint(timestamp, valueBits)
+                                : new DoubleDataPoint(timestamp, Double.longBitsToDouble(valueBits))));
+            }
+            if (row.getDataPointCount() > 0)
+                rows.add(row);
+        }
+
+        m_hits.incrementAndGet();
+        return rows;
+    }
+
+    /**
+     * Drops all points of the metric, for example because some of them were deleted. Queries are answered again
+     * once the store holds the points ingested from now on.
+     */
+    public void invalidate(String metricName) {
+        final MetricTail metric = m_metrics.remove(metricName);
+        if (metric == null)
+            return;
+
+        synchronized (metric) {
+            metric.m_removed = true;
+        }
+        for (Series series : metric.m_series.values()) {
+            removeSeries(metric, series);
+        }
+    }
+
+    /**
+     * Drops blocks that are older than the retention, and the oldest blocks until the memory cap is kept.
+     */
+    @VisibleForTesting
+    void trim() {
+        try {
+            final long now = m_clock.getAsLong();
+            final long retentionMs = getRetentionMs();
+            long cutoff = now - retentionMs;
+            trim(cutoff);
+
+            for (int i = 0; i < MEMORY_TRIM_STEPS && m_bytes.get() > getMaxBytes(); i++) {
+                cutoff += retentionMs / MEMORY_TRIM_STEPS;
+                trim(cutoff);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to trim hot tail", e);
+        }
+    }
+
+    private void trim(long cutoff) {
+        for (Map.Entry<String, MetricTail> entry : m_metrics.entrySet()) {
+            final MetricTail metric = entry.getValue();
+            for (Series series : metric.m_series.values()) {
+                synchronized (series) {
+                    final long before = series.m_bytes;
+                    final long dropped = series.dropBefore(cutoff);
+                    m_bytes.addAndGet(series.m_bytes - before);
+                    if (dropped != Long.MIN_VALUE)
+                        metric.uncover(dropped);
+                }
+                if (series.isEmpty())
+                    removeSeries(metric, series);
+            }
+
+            synchronized (metric) {
+                if (metric.m_series.isEmpty()) {
+                    metric.m_removed = true;
+                    m_metrics.remove(entry.getKey(), metric);
+                }
+            }
+        }
+    }
+
+    private void removeSeries(MetricTail metric, Series series) {
+        synchronized (series) {
+            if (series.m_removed || (!metric.m_removed && !series.isEmpty()))
+                return;
+            series.m_removed = true;
+            m_bytes.addAndGet(-series.m_bytes);
+            m_seriesCount.decrementAndGet();
+        }
+        metric.m_series.values().remove(series);
+    }
+
+    private MetricTail getMetric(String metricName, long now) {
+        return m_metrics.computeIfAbsent(metricName, name -> new MetricTail(Math.max(now, m_startTime)));
+    }
+
+    private long getCoveredFrom(MetricTail metric, long now) {
+        return Math.max(metric.m_coveredFrom.get(), now - getRetentionMs());
+    }
+
+    private long getRetentionMs() {
+        return TimeUnit.MINUTES.toMillis(m_retentionMinutes);
+    }
+
+    private long getMaxBytes() {
+        return m_maxMemoryMb * 1024 * 1024;
+    }
+
+    @Override
+    public List<DataPointSet> getMetrics(long now) {
+        List<DataPointSet> ret = new ArrayList<>();
+        if (!m_enabled)
+            return ret;
+
+        final long retentionStart = now - getRetentionMs();
+        long covered = 0;
+        for (MetricTail metric : m_metrics.values()) {
+            if (metric.m_coveredFrom.get() <= retentionStart)
+                covered++;
+        }
+
+        ret.add(newDataPointSet(HITS, new LongDataPoint(now, m_hits.getAndSet(0))));
+        DataPointSet uncovered = newDataPointSet(MISSES, new LongDataPoint(now, m_uncoveredMisses.getAndSet(0)));
+        uncovered.addTag("reason", "uncovered");
+        ret.add(uncovered);
+        DataPointSet unsupported = newDataPointSet(MISSES, new LongDataPoint(now, m_unsupportedMisses.getAndSet(0)));
+        unsupported.addTag("reason", "unsupported");
+        ret.add(unsupported);
+        ret.add(newDataPointSet(MEMORY, new LongDataPoint(now, m_bytes.get())));
+        ret.add(newDataPointSet(SERIES, new LongDataPoint(now, m_seriesCount.get())));
+        ret.add(newDataPointSet(METRICS, new LongDataPoint(now, m_metrics.size())));
+        ret.add(newDataPointSet(COVERED_METRICS, new LongDataPoint(now, covered)));
+        ret.add(newDataPointSet(REJECTED, new LongDataPoint(now, m_rejected.getAndSet(0))));
+        return ret;
+    }
+
+    private DataPointSet newDataPointSet(String name, DataPoint dataPoint) {
+        DataPointSet dps = new DataPointSet(name);
+        dps.addTag("host", m_hostname);
+        dps.addDataPoint(dataPoint);
+        return dps;
+    }
+
+    private static class MetricTail {
+        private final ConcurrentMap<List<Object>, Series> m_series = new ConcurrentHashMap<>();
+        private final AtomicLong m_coveredFrom;
+        private boolean m_removed;
+
+        private MetricTail(long coveredFrom) {
+            m_coveredFrom = new AtomicLong(coveredFrom);
+        }
+
+        /**
+         * Records that the store misses a point with the given timestamp.
+         */
+        private void uncover(long timestamp) {
+            m_coveredFrom.accumulateAndGet(timestamp + 1, Math::max);
+        }
+    }
+
+    private static class Series {
+        private final SortedMap<String, String> m_tags;
+        private final String m_type;
+        private final ArrayDeque<TailBlock> m_blocks = new ArrayDeque<>();
+        private long m_bytes;
+        private boolean m_removed;
+
+        private Series(SortedMap<String, String> tags, String type) {
+            m_tags = tags;
+            m_type = type;
+        }
+
+        /**
+         * Returns false if the point is not newer than the last point of the series.
+         */
+        private boolean append(long timestamp, long valueBits) {
+            TailBlock block = m_blocks.peekLast();
+            if (block != null && timestamp <= block.getLastTimestamp())
+                return false;
+
+            if (block == null || block.isFull()) {
+                if (block != null) {
+                    m_bytes -= block.getSizeInBytes();
+                    block.seal();
+                    m_bytes += block.getSizeInBytes();
+                }
+                block = new TailBlock();
+                m_blocks.addLast(block);
+            } else {
+                m_bytes -= block.getSizeInBytes();
+            }
+            block.append(timestamp, valueBits);
+            m_bytes += block.getSizeInBytes();
+            return true;
+        }
+
+        /**
+         * Drops the blocks whose points are all older than the cutoff.
+         *
+         * @return newest timestamp dropped, {@link Long#MIN_VALUE} if nothing was dropped
+         */
+        private long dropBefore(long cutoff) {
+            long dropped = Long.MIN_VALUE;
+            while (!m_blocks.isEmpty() && m_blocks.peekFirst().getLastTimestamp() < cutoff) {
+                final TailBlock block = m_blocks.removeFirst();
+                m_bytes -= block.getSizeInBytes();
+                dropped = block.getLastTimestamp();
+            }
+            return dropped;
+        }
+
+        private boolean isEmpty() {
+            return m_blocks.isEmpty();
+        }
+
+        private void decode(long start, long end, TailBlock.PointConsumer consumer) {
+            for (TailBlock block : m_blocks) {
+                block.decode(start, end, consumer);
+            }
+        }
+    }
+
+    /**
+     * Tag filter of a query, matched with the same compiled matchers as the Cassandra row keys.
+     */
+    private static class TagFilter {
+        private final Map<String, TagMatcherCompiler.TagMatcher> m_matchers = new HashMap<>();
+
+        private TagFilter(SetMultimap<String, String> tags, TagMatcherCompiler compiler) {
+            for (String tag : tags.keySet()) {
+                m_matchers.put(tag, compiler.compile(tags.get(tag)));
+            }
+        }
+
+        private boolean matches(SortedMap<String, String> seriesTags) {
+            for (Map.Entry<String, TagMatcherCompiler.TagMatcher> entry : m_matchers.entrySet()) {
+                final String value = seriesTags.get(entry.getKey());
+                if (value == null || !entry.getValue().matches(value))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.kairosdb.core.datastore;
+
+/**
+ * Bounds the time the writes of one ingest request wait for the datastore in total, instead of each write waiting
+ * on its own. The deadline starts with the first wait of the request.
+ * <p>
+ * The batch of a request binds its deadline to the thread writing its points, datastores look it up with
+ * {@link #current()}.
+ */
+public class IngestDeadline {
+    private static final ThreadLocal<IngestDeadline> CURRENT = new ThreadLocal<>();
+
+    private volatile long m_deadlineNanos;
+    private volatile boolean m_started;
+
+    /**
+     * Returns the deadline of the request written by this thread, null outside of ingest requests.
+     */
+    public static IngestDeadline current() {
+        return CURRENT.get();
+    }
+
+    void bind() {
+        CURRENT.set(this);
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Returns how long the calling write may still wait, starting the deadline if this is the first wait of the
+     * request.
+     *
+     * @param maxWaitNanos time all writes of the request may wait together
+     */
+    public long remainingNanos(long maxWaitNanos) {
+        final long now = System.nanoTime();
+        if (!m_started) {
+            synchronized (this) {
+                if (!m_started) {
+                    m_deadlineNanos = now + maxWaitNanos;
+                    m_started = true;
+                }
+            }
+        }
+        return Math.max(0, m_deadlineNanos - now);
+    }
+}
@@ -0,0 +1,444 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDBService;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Spreads the data points of an ingest request over a fixed set of worker shards, so a large
+ * request is written on several cores instead of only on the request thread.
+ * <p>
+ * Points are routed by a hash of metric name and tags, so all points of a series go to the same
+ * single threaded shard and are written in the order they were added. The request thread collects
+ * points per shard in chunks and blocks while the queue of a shard is full, which passes the
+ * datastore's backpressure on to the client. {@link Batch#await()} returns once every shard has
+ * written its part of the request. All writes of a request share one {@link IngestDeadline}.
+ */
+public class IngestDispatcher implements KairosDBService, KairosMetricReporter {
+    private static final Logger logger = LoggerFactory.getLogger(IngestDispatcher.class);
+
+    public static final String SHARDS_PROPERTY = "kairosdb.ingest.dispatcher.shards";
+    public static final String QUEUE_SIZE_PROPERTY = "kairosdb.ingest.dispatcher.queue_size";
+    public static final String CHUNK_SIZE_PROPERTY = "kairosdb.ingest.dispatcher.chunk_size";
+
+    public static final String QUEUE_DEPTH = "kairosdb.ingest.dispatcher.queue_depth";
+    public static final String SHARD_DATAPOINTS = "kairosdb.ingest.dispatcher.datapoints";
+    public static final String SHARD_SKEW = "kairosdb.ingest.dispatcher.skew";
+
+    private static final long STOP_TIMEOUT_MS = 10000;
+
+    private final KairosDatastore m_datastore;
+    private final String m_hostname;
+
+    /**
+     * Number of shards, 0 writes on the request thread as before.
+     */
+    @Inject(optional = true)
+    @Named(SHARDS_PROPERTY)
+    private int m_shardCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of chunks a shard queues before the request threads block.
+     */
+    @Inject(optional = true)
+    @Named(QUEUE_SIZE_PROPERTY)
+    private int m_queueSize = 64;
+
+    /**
+     * Number of data points handed to a shard at once.
+     */
+    @Inject(optional = true)
+    @Named(CHUNK_SIZE_PROPERTY)
+    private int m_chunkSize = 256;
+
+    private volatile Shard[] m_shards;
+    private volatile boolean m_stopped;
+
+    @Inject
+    public IngestDispatcher(KairosDatastore datastore, @Named("HOSTNAME") String hostname) {
+        m_datastore = checkNotNull(datastore);
+        m_hostname = checkNotNull(hostname);
+    }
+
+    @VisibleForTesting
+    IngestDispatcher(KairosDatastore datastore, String hostname, int shardCount, int queueSize, int chunkSize) {
+        this(datastore, hostname);
+        m_shardCount = shardCount;
+        m_queueSize = queueSize;
+        m_chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns a batch writing directly to the datastore on the calling thread, used where no
+     * dispatcher is available.
+     */
+    public static Batch directBatch(KairosDatastore datastore) {
+        return new DirectBatch(checkNotNull(datastore));
+    }
+
+    /**
+     * Starts a new batch, one per ingest request. A batch is used by a single thread only.
+     */
+    public Batch newBatch() {
+        // Requests arriving during shutdown are written directly
+        Shard[] shards = m_stopped ? new Shard[0] : getShards();
+        if (shards.length == 0)
+            return new DirectBatch(m_datastore);
+        return new ShardedBatch(shards, m_chunkSize);
+    }
+
+    @Override
+    public void start() {
+        getShards();
+    }
+
+    /**
+     * Sends new requests to the datastore directly and waits a while for the queued chunks. The
+     * shard threads are daemons and keep running, so requests already started still complete.
+     */
+    @Override
+    public void stop() {
+        m_stopped = true;
+        Shard[] shards = m_shards;
+        if (shards == null)
+            return;
+
+        long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (Shard shard : shards) {
+            while (!shard.m_queue.isEmpty() && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Shard[] getShards() {
+        Shard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    checkArgument(m_shardCount >= 0, SHARDS_PROPERTY + " must not be negative");
+                    checkArgument(m_queueSize > 0, QUEUE_SIZE_PROPERTY + " must be positive");
+                    checkArgument(m_chunkSize > 0, CHUNK_SIZE_PROPERTY + " must be positive");
+
+                    ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                            .setNameFormat("ingest-shard-%d").setDaemon(true).build();
+                    shards = new Shard[m_shardCount];
+                    for (int i = 0; i < shards.length; i++) {
+                        shards[i] = new Shard(m_queueSize);
+                        threadFactory.newThread(shards[i]).start();
+                    }
+                    m_shards = shards;
+                    logger.info("Ingest dispatcher started with {} shards", shards.length);
+                }
+            }
+        }
+        return shards;
+    }
+
+    @Override
+    public List<DataPointSet> getMetrics(long now) {
+        Shard[] shards = m_shards;
+        List<DataPointSet> ret = new ArrayList<>();
+        if (shards == null || shards.length == 0)
+            return ret;
+
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < shards.length; i++) {
+            long written = shards[i].m_written.getAndSet(0);
+            total += written;
+            max = Math.max(max, written);
+
+            ret.add(newDataPointSet(QUEUE_DEPTH, i, new LongDataPoint(now, shards[i].m_queue.size())));
+            ret.add(newDataPointSet(SHARD_DATAPOINTS, i, new LongDataPoint(now, written)));
+        }
+
+        // Busiest shard relative to an even spread, 1 means the series hash evenly
+        if (total != 0) {
+            DataPointSet skew = new DataPointSet(SHARD_SKEW);
+            skew.addTag("host", m_hostname);
+            skew.addDataPoint(new DoubleDataPoint(now, (double) max * shards.length / total));
+            ret.add(skew);
+        }
+        return ret;
+    }
+
+    private DataPointSet newDataPointSet(String name, int shard, DataPoint dataPoint) {
+        DataPointSet dps = new DataPointSet(name);
+        dps.addTag("host", m_hostname);
+        dps.addTag("shard", String.valueOf(shard));
+        dps.addDataPoint(dataPoint);
+        return dps;
+    }
+
+    static int seriesHash(String metricName, ImmutableSortedMap<String, String> tags) {
+        int hash = metricName.hashCode() * 31 + tags.hashCode();
+        // Spread the bits, String hashes of similar names differ mostly in the low bits
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The data points of one ingest request.
+     */
+    public interface Batch {
+        /**
+         * Adds a data point, it may be written before or after this returns.
+         *
+         * @throws DatastoreException if an earlier write of this batch failed
+         */
+        void add(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+                throws DatastoreException;
+
+        /**
+         * Writes the remaining points and waits until all points of the batch are written.
+         *
+         * @throws DatastoreException the first write failure of the batch
+         */
+        void await() throws DatastoreException;
+
+        /**
+         * Drops the points not handed to a shard yet and waits for the others, for a request that
+         * failed while being parsed. Does nothing after {@link #await()}.
+         */
+        void abort();
+    }
+
+    private static class DirectBatch implements Batch {
+        private final KairosDatastore m_datastore;
+        private final IngestDeadline m_deadline = new IngestDeadline();
+
+        private DirectBatch(KairosDatastore datastore) {
+            m_datastore = datastore;
+        }
+
+        @Override
+        public void add(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+                throws DatastoreException {
+            m_deadline.bind();
+            try {
+                m_datastore.putDataPoint(metricName, tags, dataPoint, ttl);
+            } finally {
+                IngestDeadline.unbind();
+            }
+        }
+
+        @Override
+        public void await() {
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    private class ShardedBatch implements Batch {
+        private final Shard[] m_shards;
+        private final Chunk[] m_chunks;
+        private final int m_chunkSize;
+        private final Semaphore m_completed = new Semaphore(0);
+        private final IngestDeadline m_deadline = new IngestDeadline();
+        private volatile DatastoreException m_failure;
+        private int m_submitted;
+        private boolean m_done;
+
+        private ShardedBatch(Shard[] shards, int chunkSize) {
+            m_shards = shards;
+            m_chunks = new Chunk[shards.length];
+            m_chunkSize = chunkSize;
+        }
+
+        @Override
+        public void add(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+                throws DatastoreException {
+            DatastoreException failure = m_failure;
+            if (failure != null)
+                throw failure;
+
+            int shard = (seriesHash(metricName, tags) & Integer.MAX_VALUE) % m_shards.length;
+            Chunk chunk = m_chunks[shard];
+            if (chunk == null) {
+                chunk = new Chunk(this, m_chunkSize);
+                m_chunks[shard] = chunk;
+            }
+            chunk.add(metricName, tags, dataPoint, ttl);
+            if (chunk.m_size == m_chunkSize) {
+                m_chunks[shard] = null;
+                submit(shard, chunk);
+            }
+        }
+
+        @Override
+        public void await() throws DatastoreException {
+            if (m_done)
+                return;
+
+            for (int i = 0; i < m_chunks.length; i++) {
+                if (m_chunks[i] != null) {
+                    Chunk chunk = m_chunks[i];
+                    m_chunks[i] = null;
+                    submit(i, chunk);
+                }
+            }
+            waitForCompletion();
+
+            if (m_failure != null)
+                throw m_failure;
+        }
+
+        @Override
+        public void abort() {
+            if (m_done)
+                return;
+
+            for (int i = 0; i < m_chunks.length; i++)
+                m_chunks[i] = null;
+            try {
+                waitForCompletion();
+            } catch (DatastoreException e) {
+                logger.warn("Interrupted while waiting for an aborted ingest batch", e);
+            }
+        }
+
+        private void submit(int shard, Chunk chunk) throws DatastoreException {
+            try {
+                m_shards[shard].m_queue.put(chunk);
+                m_submitted++;
+                // A chunk queued after its shard exited is failed here instead
+                if (m_shards[shard].m_exited)
+                    m_shards[shard].rejectQueued();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DatastoreException("Interrupted while queueing data points", e);
+            }
+        }
+
+        private void waitForCompletion() throws DatastoreException {
+            m_done = true;
+            try {
+                m_completed.acquire(m_submitted);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DatastoreException("Interrupted while waiting for data points to be written", e);
+            }
+        }
+
+        private synchronized void fail(DatastoreException e) {
+            if (m_failure == null)
+                m_failure = e;
+        }
+    }
+
+    private static class Chunk {
+        private final ShardedBatch m_batch;
+        private final String[] m_metricNames;
+        private final ImmutableSortedMap<String, String>[] m_tags;
+        private final DataPoint[] m_dataPoints;
+        private final int[] m_ttls;
+        private int m_size;
+
+        @SuppressWarnings("unchecked")
+        private Chunk(ShardedBatch batch, int capacity) {
+            m_batch = batch;
+            m_metricNames = new String[capacity];
+            m_tags = new ImmutableSortedMap[capacity];
+            m_dataPoints = new DataPoint[capacity];
+            m_ttls = new int[capacity];
+        }
+
+        private void add(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl) {
+            m_metricNames[m_size] = metricName;
+            m_tags[m_size] = tags;
+            m_dataPoints[m_size] = dataPoint;
+            m_ttls[m_size] = ttl;
+            m_size++;
+        }
+    }
+
+    private class Shard implements Runnable {
+        private final BlockingQueue<Chunk> m_queue;
+        private final AtomicLong m_written = new AtomicLong();
+        private volatile boolean m_exited;
+
+        private Shard(int queueSize) {
+            m_queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    write(m_queue.take());
+                } catch (InterruptedException e) {
+                    logger.warn("Ingest shard interrupted, failing its queued data points");
+                    m_exited = true;
+                    rejectQueued();
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Throwable e) {
+                    logger.error("Unexpected error in ingest shard", e);
+                }
+            }
+        }
+
+        /**
+         * Fails the chunks no thread will write anymore, so the requests waiting for them return.
+         */
+        private void rejectQueued() {
+            Chunk chunk;
+            while ((chunk = m_queue.poll()) != null) {
+                chunk.m_batch.fail(new DatastoreException("Ingest shard stopped before writing data points"));
+                chunk.m_batch.m_completed.release();
+            }
+        }
+
+        private void write(Chunk chunk) {
+            ShardedBatch batch = chunk.m_batch;
+            batch.m_deadline.bind();
+            try {
+                // Once a write of the batch failed the request is answered with that error, so the
+                // rest of it is not written
+                for (int i = 0; i < chunk.m_size && batch.m_failure == null; i++) {
+                    m_datastore.putDataPoint(chunk.m_metricNames[i], chunk.m_tags[i], chunk.m_dataPoints[i],
+                            chunk.m_ttls[i]);
+                    m_written.incrementAndGet();
+                }
+            } catch (DatastoreException e) {
+                batch.fail(e);
+            } catch (RuntimeException e) {
+                logger.error("Failed to write data points", e);
+                batch.fail(new DatastoreException(e));
+            } finally {
+                IngestDeadline.unbind();
+                batch.m_completed.release();
+            }
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.kairosdb.core.aggregator.Aggregator;
 import org.kairosdb.core.aggregator.LimitAggregator;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.exception.DataPointDroppedException;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.groupby.*;
 import org.kairosdb.core.http.rest.metrics.CacheFilesMetricsProvider;
@@ -69,6 +70,9 @@ public class KairosDatastore implements KairosMetricReporter {
     private final QueryQueuingManager m_queuingManager;
     private final List<DataPointListener> m_dataPointListeners;
     private final KairosDataPointFactory m_dataPointFactory;
+    private final HotTailStore m_hotTailStore;
+    private final ResultBufferPool m_resultBufferPool;
+    private final SlidingWindowCache m_slidingWindowCache;
 
     private String m_baseCacheDir;
     private volatile String m_cacheDir;
@@ -90,11 +94,16 @@ public class KairosDatastore implements KairosMetricReporter {
 
     @Inject
     public KairosDatastore(Datastore datastore, QueryQueuingManager queuingManager,
-                           List<DataPointListener> dataPointListeners, KairosDataPointFactory dataPointFactory, Tracer tracer) {
+                           List<DataPointListener> dataPointListeners, KairosDataPointFactory dataPointFactory, Tracer tracer,
+                           HotTailStore hotTailStore, ResultBufferPool resultBufferPool,
+                           SlidingWindowCache slidingWindowCache) {
         m_datastore = checkNotNull(datastore);
         m_dataPointListeners = checkNotNull(dataPointListeners);
         m_queuingManager = checkNotNull(queuingManager);
         m_dataPointFactory = dataPointFactory;
+        m_hotTailStore = checkNotNull(hotTailStore);
+        m_resultBufferPool = checkNotNull(resultBufferPool);
+        m_slidingWindowCache = checkNotNull(slidingWindowCache);
 
         m_baseCacheDir = System.getProperty("java.io.tmpdir") + "/kairos_cache/";
 
@@ -224,7 +233,12 @@ public class KairosDatastore implements KairosMetricReporter {
                              ImmutableSortedMap<String, String> tags,
                              DataPoint dataPoint, int ttl) throws DatastoreException {
         //Add to datastore first.
-        m_datastore.putDataPoint(metricName, tags, dataPoint, ttl);
+        try {
+            m_datastore.putDataPoint(metricName, tags, dataPoint, ttl);
+        } catch (DataPointDroppedException e) {
+            // Listeners only see points the datastore stored
+            return;
+        }
 
         for (DataPointListener dataPointListener : m_dataPointListeners) {
             dataPointListener.dataPoint(metricName, tags, dataPoint);
@@ -284,6 +298,8 @@ public class KairosDatastore implements KairosMetricReporter {
 
         try {
             m_datastore.deleteDataPoints(metric);
+            m_hotTailStore.invalidate(metric.getName());
+            m_slidingWindowCache.invalidate(metric.getName());
         } catch (Exception e) {
             throw new DatastoreException(e);
         }
@@ -396,6 +412,9 @@ public class KairosDatastore implements KairosMetricReporter {
         String hashString = metric.getCacheString();
         if (hashString == null)
             hashString = String.valueOf(System.currentTimeMillis());
+        else if (metric.getBoundaryRead() != BoundaryRead.ALL)
+            // The cache string does not cover aggregators, keep partial reads apart from full ones
+            hashString += ":" + metric.getBoundaryRead();
 
         MessageDigest messageDigest = MessageDigest.getInstance("MD5");
         byte[] digest = messageDigest.digest(hashString.getBytes(StandardCharsets.UTF_8));
@@ -446,12 +465,13 @@ public class KairosDatastore implements KairosMetricReporter {
             try (Scope scope = tracer.scopeManager().activate(span)) {
                 CachedSearchResult cachedResults = null;
 
-                List<DataPointRow> returnedRows = null;
+                List<DataPointRow> returnedRows = m_hotTailStore.query(m_metric);
+                span.setTag("hot_tail", returnedRows != null);
 
                 try {
                     String tempFile = m_cacheDir + m_cacheFilename;
 
-                    if (m_metric.getCacheTime() > 0) {
+                    if (returnedRows == null && m_metric.getCacheTime() > 0) {
                         cachedResults = CachedSearchResult.openCachedSearchResult(m_metric.getName(),
                                 tempFile, m_metric.getCacheTime(), m_dataPointFactory);
                         if (cachedResults != null) {
@@ -462,9 +482,20 @@ public class KairosDatastore implements KairosMetricReporter {
                         }
                     }
 
-                    if (cachedResults == null) {
-                        cachedResults = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
-                                tempFile, m_dataPointFactory);
+                    if (returnedRows == null) {
+                        returnedRows = m_slidingWindowCache.query(m_metric, m_datastore);
+                        span.setTag("sliding_window", returnedRows != null);
+                    }
+
+                    if (returnedRows == null) {
+                        //Results that are not cached for later queries stay in memory if they are small enough
+                        if (m_metric.getCacheTime() > 0) {
+                            cachedResults = CachedSearchResult.createCachedSearchResult(m_metric.getName(),
+                                    tempFile, m_dataPointFactory);
+                        } else {
+                            cachedResults = CachedSearchResult.createMemoryResult(m_metric.getName(),
+                                    tempFile, m_dataPointFactory, m_resultBufferPool);
+                        }
                         m_datastore.queryDatabase(m_metric, cachedResults);
                         returnedRows = cachedResults.getRows();
                         span.setTag("cached", false);
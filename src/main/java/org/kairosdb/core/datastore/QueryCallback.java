@@ -16,4 +16,12 @@ public interface QueryCallback
 	void addDataPoint(DataPoint datapoint) throws IOException;
 	void startDataPointSet(String dataType, Map<String, String> tags) throws IOException;
 	void endDataPoints() throws IOException;
+
+	/**
+	 Called before {@link #endDataPoints()} when some data points of the query could not be read, the data points
+	 passed to the callback are incomplete.
+	 */
+	default void readFailed()
+	{
+	}
 }
@@ -18,7 +18,11 @@ package org.kairosdb.core.datastore;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
 import org.kairosdb.core.aggregator.Aggregator;
+import org.kairosdb.core.aggregator.FirstAggregator;
+import org.kairosdb.core.aggregator.LastAggregator;
+import org.kairosdb.core.aggregator.RangeAggregator;
 import org.kairosdb.core.groupby.GroupBy;
+import org.kairosdb.core.groupby.TagGroupBy;
 import org.kairosdb.util.Preconditions;
 
 import java.util.*;
@@ -191,6 +195,42 @@ public class QueryMetric implements DatastoreMetricQuery
 		return (order);
 	}
 
+	/**
+	 Recognizes queries whose only aggregator is first or last with a single range covering the whole
+	 query. Their result only depends on the oldest and newest data point of each series, as long as
+	 series are grouped by tags only.
+	 */
+	@Override
+	public BoundaryRead getBoundaryRead()
+	{
+		if (limit != 0 || aggregators.size() != 1)
+			return (BoundaryRead.ALL);
+
+		for (GroupBy groupBy : groupBys)
+		{
+			if (!(groupBy instanceof TagGroupBy))
+				return (BoundaryRead.ALL);
+		}
+
+		Aggregator aggregator = aggregators.get(0);
+		if (!(aggregator instanceof FirstAggregator) && !(aggregator instanceof LastAggregator))
+			return (BoundaryRead.ALL);
+
+		RangeAggregator rangeAggregator = (RangeAggregator) aggregator;
+		if (!rangeAggregator.isSingleRange(getStartTime(), getEndTime()))
+			return (BoundaryRead.ALL);
+
+		boolean ascending = order == Order.ASC;
+		if (aggregator instanceof FirstAggregator)
+			return (ascending ? BoundaryRead.OLDEST : BoundaryRead.NEWEST);
+
+		//The last value carries the time of the first data point unless it is aligned to the range start
+		if (rangeAggregator.isAlignStartTime())
+			return (ascending ? BoundaryRead.NEWEST : BoundaryRead.OLDEST);
+
+		return (BoundaryRead.OLDEST_AND_NEWEST);
+	}
+
 	@Override
 	public List<QueryPlugin> getPlugins()
 	{
@@ -0,0 +1,146 @@
+package org.kairosdb.core.datastore;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Buffers for query results and responses that are kept in memory instead of temporary files, see
+ * {@link SpillingOutputStream}.
+ * <p>
+ * Buffers have power of two capacities from {@link #MIN_BUFFER_SIZE} up to the maximum result size and are kept by
+ * capacity for reuse, as long as the idle buffers stay within the pool size.
+ */
+public class ResultBufferPool implements KairosMetricReporter {
+    public static final String MAX_RESULT_SIZE_PROPERTY = "kairosdb.query.result_buffer.max_result_size_kb";
+    public static final String POOL_SIZE_PROPERTY = "kairosdb.query.result_buffer.pool_size_mb";
+    public static final String DIRECT_PROPERTY = "kairosdb.query.result_buffer.direct";
+
+    public static final String RESULTS = "kairosdb.query.result_buffer.results";
+    public static final String SPILL_RATE = "kairosdb.query.result_buffer.spill_rate";
+    public static final String POOLED_BYTES = "kairosdb.query.result_buffer.pooled_bytes";
+
+    static final int MIN_BUFFER_SIZE = 16 * 1024;
+
+    private final String m_hostname;
+
+    /**
+     * Size up to which a result is kept in memory, 0 writes all results to files.
+     */
+    @Inject(optional = true)
+    @Named(MAX_RESULT_SIZE_PROPERTY)
+    private int m_maxResultSizeKb = 1024;
+
+    @Inject(optional = true)
+    @Named(POOL_SIZE_PROPERTY)
+    private long m_poolSizeMb = 64;
+
+    @Inject(optional = true)
+    @Named(DIRECT_PROPERTY)
+    private boolean m_direct = false;
+
+    private final ConcurrentMap<Integer, Queue<ByteBuffer>> m_buffers = new ConcurrentHashMap<>();
+    private final AtomicLong m_pooledBytes = new AtomicLong();
+    private final AtomicLong m_memoryResults = new AtomicLong();
+    private final AtomicLong m_spilledResults = new AtomicLong();
+
+    @Inject
+    public ResultBufferPool(@Named("HOSTNAME") String hostname) {
+        m_hostname = checkNotNull(hostname);
+    }
+
+    ResultBufferPool(String hostname, int maxResultSizeKb, long poolSizeMb) {
+        this(hostname);
+        m_maxResultSizeKb = maxResultSizeKb;
+        m_poolSizeMb = poolSizeMb;
+    }
+
+    public boolean isEnabled() {
+        return m_maxResultSizeKb > 0;
+    }
+
+    int getMaxResultSize() {
+        return m_maxResultSizeKb * 1024;
+    }
+
+    /**
+     * Returns an empty buffer of at least the capacity, which must not exceed the maximum result size.
+     */
+    ByteBuffer acquire(int minCapacity) {
+        final int capacity = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1);
+        final Queue<ByteBuffer> buffers = m_buffers.get(capacity);
+        final ByteBuffer pooled = buffers == null ? null : buffers.poll();
+        if (pooled != null) {
+            m_pooledBytes.addAndGet(-capacity);
+            pooled.clear();
+            return pooled;
+        }
+        return m_direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Returns the buffer to the pool, nothing may read it afterwards.
+     */
+    void release(ByteBuffer buffer) {
+        final int capacity = buffer.capacity();
+        if (m_pooledBytes.addAndGet(capacity) > m_poolSizeMb * 1024 * 1024) {
+            m_pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        m_buffers.computeIfAbsent(capacity, k -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+
+    void recordResult(boolean spilled) {
+        if (spilled)
+            m_spilledResults.incrementAndGet();
+        else
+            m_memoryResults.incrementAndGet();
+    }
+
+    long getPooledBytes() {
+        return m_pooledBytes.get();
+    }
+
+    @Override
+    public List<DataPointSet> getMetrics(long now) {
+        List<DataPointSet> ret = new ArrayList<>();
+        if (!isEnabled())
+            return ret;
+
+        final long memory = m_memoryResults.getAndSet(0);
+        final long spilled = m_spilledResults.getAndSet(0);
+
+        DataPointSet memoryResults = newDataPointSet(RESULTS, new LongDataPoint(now, memory));
+        memoryResults.addTag("storage", "memory");
+        ret.add(memoryResults);
+        DataPointSet spilledResults = newDataPointSet(RESULTS, new LongDataPoint(now, spilled));
+        spilledResults.addTag("storage", "file");
+        ret.add(spilledResults);
+        if (memory + spilled > 0)
+            ret.add(newDataPointSet(SPILL_RATE, new DoubleDataPoint(now, (double) spilled / (memory + spilled))));
+        ret.add(newDataPointSet(POOLED_BYTES, new LongDataPoint(now, m_pooledBytes.get())));
+        return ret;
+    }
+
+    private DataPointSet newDataPointSet(String name, DataPoint dataPoint) {
+        DataPointSet dps = new DataPointSet(name);
+        dps.addTag("host", m_hostname);
+        dps.addDataPoint(dataPoint);
+        return dps;
+    }
+}
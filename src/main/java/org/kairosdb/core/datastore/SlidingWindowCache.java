@@ -0,0 +1,550 @@
+package org.kairosdb.core.datastore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the raw rows of recent queries, so a query refreshed over a sliding window, like "the last 6 hours" every
+ * 30 seconds, only reads the data points written since its previous run.
+ * <p>
+ * Windows are kept by the cache string of the query, which holds relative start and end times as given and not
+ * resolved. A query whose window starts and ends no earlier than the kept one reads the data points from the end of
+ * the kept window, minus an overlap for late data, up to its own end. Points that slid out of the window are dropped.
+ * Points written later than the overlap are missed, so windows are read completely again after a maximum age.
+ */
+public class SlidingWindowCache implements KairosMetricReporter {
+    private static final Logger logger = LoggerFactory.getLogger(SlidingWindowCache.class);
+
+    public static final String MAX_DATA_POINTS_PROPERTY = "kairosdb.query.sliding_window.max_data_points";
+    public static final String LATE_DATA_PROPERTY = "kairosdb.query.sliding_window.late_data_seconds";
+    public static final String MAX_AGE_PROPERTY = "kairosdb.query.sliding_window.max_age_seconds";
+
+    public static final String QUERIES = "kairosdb.query.sliding_window.queries";
+    public static final String REUSED_DATA_POINTS = "kairosdb.query.sliding_window.reused_data_points";
+    public static final String READ_DATA_POINTS = "kairosdb.query.sliding_window.read_data_points";
+    public static final String CACHED_DATA_POINTS = "kairosdb.query.sliding_window.cached_data_points";
+
+    private final KairosDataPointFactory m_dataPointFactory;
+    private final String m_hostname;
+    private final LongSupplier m_clock;
+
+    /**
+     * Data points kept over all windows, 0 disables the cache.
+     */
+    @Inject(optional = true)
+    @Named(MAX_DATA_POINTS_PROPERTY)
+    private long m_maxDataPoints = 0;
+
+    @Inject(optional = true)
+    @Named(LATE_DATA_PROPERTY)
+    private long m_lateDataSeconds = 120;
+
+    @Inject(optional = true)
+    @Named(MAX_AGE_PROPERTY)
+    private long m_maxAgeSeconds = 1800;
+
+    private volatile Cache<String, Window> m_windows;
+
+    private final AtomicLong m_fullQueries = new AtomicLong();
+    private final AtomicLong m_deltaQueries = new AtomicLong();
+    private final AtomicLong m_reusedDataPoints = new AtomicLong();
+    private final AtomicLong m_readDataPoints = new AtomicLong();
+
+    @Inject
+    public SlidingWindowCache(KairosDataPointFactory dataPointFactory, @Named("HOSTNAME") String hostname) {
+        this(dataPointFactory, hostname, System::currentTimeMillis);
+    }
+
+    private SlidingWindowCache(KairosDataPointFactory dataPointFactory, String hostname, LongSupplier clock) {
+        m_dataPointFactory = dataPointFactory;
+        m_hostname = checkNotNull(hostname);
+        m_clock = clock;
+    }
+
+    @VisibleForTesting
+    SlidingWindowCache(KairosDataPointFactory dataPointFactory, LongSupplier clock, long maxDataPoints,
+                       long lateDataSeconds, long maxAgeSeconds) {
+        this(dataPointFactory, "hostname", clock);
+        m_maxDataPoints = maxDataPoints;
+        m_lateDataSeconds = lateDataSeconds;
+        m_maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Returns the rows of the query, read completely or only from the end of the previous window, or null if the
+     * query can't be kept as a window.
+     */
+    public List<DataPointRow> query(QueryMetric metric, Datastore datastore) throws DatastoreException {
+        final Cache<String, Window> windows = getWindows();
+        final String key = metric.getCacheString();
+        // Reads cut by a limit or to the boundaries of a series can't be extended, windows are kept in ascending order
+        if (windows == null || key == null || metric.getLimit() != 0 || metric.getBoundaryRead() != BoundaryRead.ALL
+                || metric.getOrder() != Order.ASC || !metric.getPlugins().isEmpty())
+            return null;
+
+        final long now = m_clock.getAsLong();
+        final long start = metric.getStartTime();
+        final long end = metric.getEndTime();
+        final Window previous = windows.getIfPresent(key);
+
+        final Window window;
+        final boolean complete;
+        if (previous != null && previous.m_start <= start && previous.m_end <= end
+                && now - previous.m_createdAt < TimeUnit.SECONDS.toMillis(m_maxAgeSeconds)) {
+            final long deltaStart = Math.max(start, previous.m_end - TimeUnit.SECONDS.toMillis(m_lateDataSeconds));
+            final WindowCollector delta = new WindowCollector();
+            datastore.queryDatabase(new TimeRangeQuery(metric, deltaStart, end), delta);
+
+            window = previous.slide(start, deltaStart, end, delta.getSeries());
+            complete = !delta.m_readFailed;
+            m_deltaQueries.incrementAndGet();
+            m_readDataPoints.addAndGet(delta.m_dataPoints);
+            m_reusedDataPoints.addAndGet(window.m_dataPoints - delta.m_dataPoints);
+        } else {
+            final WindowCollector collector = new WindowCollector();
+            datastore.queryDatabase(metric, collector);
+
+            window = new Window(metric.getName(), start, end, now, collector.getSeries());
+            complete = !collector.m_readFailed;
+            m_fullQueries.incrementAndGet();
+            m_readDataPoints.addAndGet(collector.m_dataPoints);
+        }
+
+        // Later queries would only read past the end of a window, so data points missing from it would stay missing
+        if (complete && window.m_dataPoints <= m_maxDataPoints)
+            windows.put(key, window);
+        else
+            windows.invalidate(key);
+
+        return window.getRows();
+    }
+
+    /**
+     * Drops the windows of the metric, for example because some of its data points were deleted.
+     */
+    public void invalidate(String metricName) {
+        final Cache<String, Window> windows = m_windows;
+        if (windows != null)
+            windows.asMap().values().removeIf(window -> window.m_metricName.equals(metricName));
+    }
+
+    private Cache<String, Window> getWindows() {
+        Cache<String, Window> windows = m_windows;
+        if (windows == null && m_maxDataPoints > 0) {
+            synchronized (this) {
+                windows = m_windows;
+                if (windows == null) {
+                    logger.warn("Keeping sliding query windows of at most {} data points", m_maxDataPoints);
+                    windows = Caffeine.newBuilder()
+                            .maximumWeight(m_maxDataPoints)
+                            .weigher((String key, Window window) -> (int) Math.min(Integer.MAX_VALUE, window.m_dataPoints))
+                            .expireAfterAccess(m_maxAgeSeconds, TimeUnit.SECONDS)
+                            .build();
+                    m_windows = windows;
+                }
+            }
+        }
+        return windows;
+    }
+
+    @Override
+    public List<DataPointSet> getMetrics(long now) {
+        List<DataPointSet> ret = new ArrayList<>();
+        final Cache<String, Window> windows = m_windows;
+        if (windows == null)
+            return ret;
+
+        DataPointSet full = newDataPointSet(QUERIES, new LongDataPoint(now, m_fullQueries.getAndSet(0)));
+        full.addTag("read", "full");
+        ret.add(full);
+        DataPointSet delta = newDataPointSet(QUERIES, new LongDataPoint(now, m_deltaQueries.getAndSet(0)));
+        delta.addTag("read", "delta");
+        ret.add(delta);
+        ret.add(newDataPointSet(REUSED_DATA_POINTS, new LongDataPoint(now, m_reusedDataPoints.getAndSet(0))));
+        ret.add(newDataPointSet(READ_DATA_POINTS, new LongDataPoint(now, m_readDataPoints.getAndSet(0))));
+
+        long cached = 0;
+        for (Window window : windows.asMap().values()) {
+            cached += window.m_dataPoints;
+        }
+        ret.add(newDataPointSet(CACHED_DATA_POINTS, new LongDataPoint(now, cached)));
+        return ret;
+    }
+
+    private DataPointSet newDataPointSet(String name, DataPoint dataPoint) {
+        DataPointSet dps = new DataPointSet(name);
+        dps.addTag("host", m_hostname);
+        dps.addDataPoint(dataPoint);
+        return dps;
+    }
+
+    /**
+     * Raw rows of a query from start to end, immutable so queries can share them.
+     */
+    private class Window {
+        private final String m_metricName;
+        private final long m_start;
+        private final long m_end;
+        private final long m_createdAt;
+        private final Map<List<Object>, SeriesPoints> m_series;
+        private final long m_dataPoints;
+
+        private Window(String metricName, long start, long end, long createdAt, Map<List<Object>, SeriesPoints> series) {
+            m_metricName = metricName;
+            m_start = start;
+            m_end = end;
+            m_createdAt = createdAt;
+            m_series = series;
+            long dataPoints = 0;
+            for (SeriesPoints points : series.values()) {
+                dataPoints += points.m_count;
+            }
+            m_dataPoints = dataPoints;
+        }
+
+        /**
+         * Returns the window from start to end, with the points of this window before the delta start and the
+         * points read from there on.
+         */
+        private Window slide(long start, long deltaStart, long end, Map<List<Object>, SeriesPoints> delta) {
+            final Map<List<Object>, SeriesPoints> series = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, SeriesPoints> entry : m_series.entrySet()) {
+                final SeriesPoints kept = entry.getValue().slice(start, deltaStart);
+                final SeriesPoints read = delta.remove(entry.getKey());
+                final SeriesPoints points = read == null ? kept : SeriesPoints.concat(Arrays.asList(kept, read));
+                if (points.m_count > 0)
+                    series.put(entry.getKey(), points);
+            }
+            series.putAll(delta);
+            return new Window(m_metricName, start, end, m_createdAt, series);
+        }
+
+        private List<DataPointRow> getRows() {
+            final List<DataPointRow> rows = new ArrayList<>(m_series.size());
+            for (SeriesPoints points : m_series.values()) {
+                rows.add(new WindowRow(m_metricName, points));
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Data points of one series in ascending order, timestamps and serialized values.
+     */
+    private static class SeriesPoints {
+        private final String m_type;
+        private final SortedMap<String, String> m_tags;
+        private final long[] m_timestamps;
+        private final byte[] m_values;
+        private final int[] m_offsets;
+        private final int m_count;
+
+        /**
+         * @param offsets start of the value of each point and the end of the last value
+         */
+        private SeriesPoints(String type, SortedMap<String, String> tags, long[] timestamps, byte[] values,
+                             int[] offsets, int count) {
+            m_type = type;
+            m_tags = tags;
+            m_timestamps = timestamps;
+            m_values = values;
+            m_offsets = offsets;
+            m_count = count;
+        }
+
+        /**
+         * Returns the points from start, inclusive, to end, exclusive.
+         */
+        private SeriesPoints slice(long start, long end) {
+            final int from = lowerBound(start);
+            final int to = lowerBound(end);
+            if (from == 0 && to == m_count)
+                return this;
+
+            final int[] offsets = new int[to - from + 1];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = m_offsets[from + i] - m_offsets[from];
+            }
+            return new SeriesPoints(m_type, m_tags, Arrays.copyOfRange(m_timestamps, from, to),
+                    Arrays.copyOfRange(m_values, m_offsets[from], m_offsets[to]), offsets, to - from);
+        }
+
+        private int lowerBound(long timestamp) {
+            int low = 0;
+            int high = m_count;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (m_timestamps[mid] < timestamp)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * Appends the parts, which must not overlap in time and be given in ascending order.
+         */
+        private static SeriesPoints concat(List<SeriesPoints> parts) {
+            int count = 0;
+            int bytes = 0;
+            for (SeriesPoints part : parts) {
+                count += part.m_count;
+                bytes += part.m_offsets[part.m_count];
+            }
+
+            final long[] timestamps = new long[count];
+            final byte[] values = new byte[bytes];
+            final int[] offsets = new int[count + 1];
+            int index = 0;
+            int offset = 0;
+            for (SeriesPoints part : parts) {
+                System.arraycopy(part.m_timestamps, 0, timestamps, index, part.m_count);
+                System.arraycopy(part.m_values, 0, values, offset, part.m_offsets[part.m_count]);
+                for (int i = 0; i < part.m_count; i++) {
+                    offsets[index + i] = offset + part.m_offsets[i];
+                }
+                index += part.m_count;
+                offset += part.m_offsets[part.m_count];
+            }
+            offsets[count] = offset;
+
+            final SeriesPoints first = parts.get(0);
+            return new SeriesPoints(first.m_type, first.m_tags, timestamps, values, offsets, count);
+        }
+    }
+
+    /**
+     * Collects the data points read for a window by series. A series may be read from several partitions, each
+     * in ascending order but in any order to each other.
+     */
+    private static class WindowCollector implements QueryCallback {
+        private final Map<List<Object>, List<SeriesPoints>> m_parts = new LinkedHashMap<>();
+
+        private List<Object> m_key;
+        private String m_type;
+        private SortedMap<String, String> m_tags;
+        private final List<Long> m_timestamps = new ArrayList<>();
+        private final List<Integer> m_offsets = new ArrayList<>();
+        private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+        private final DataOutputStream m_values = new DataOutputStream(m_bytes);
+        private long m_dataPoints;
+        private boolean m_readFailed;
+
+        @Override
+        public void startDataPointSet(String dataType, Map<String, String> tags) throws IOException {
+            endDataPoints();
+            m_type = dataType;
+            m_tags = ImmutableSortedMap.copyOf(tags);
+            m_key = Arrays.asList(dataType, m_tags);
+        }
+
+        @Override
+        public void addDataPoint(DataPoint datapoint) throws IOException {
+            m_timestamps.add(datapoint.getTimestamp());
+            m_offsets.add(m_bytes.size());
+            datapoint.writeValueToBuffer(m_values);
+            m_dataPoints++;
+        }
+
+        @Override
+        public void endDataPoints() throws IOException {
+            if (m_key == null)
+                return;
+
+            if (!m_timestamps.isEmpty()) {
+                final byte[] values = m_bytes.toByteArray();
+                final int count = m_timestamps.size();
+                final long[] timestamps = new long[count];
+                final int[] offsets = new int[count + 1];
+                for (int i = 0; i < count; i++) {
+                    timestamps[i] = m_timestamps.get(i);
+                    offsets[i] = m_offsets.get(i);
+                }
+                offsets[count] = values.length;
+                m_parts.computeIfAbsent(m_key, k -> new ArrayList<>())
+                        .add(new SeriesPoints(m_type, m_tags, timestamps, values, offsets, count));
+            }
+            m_key = null;
+            m_timestamps.clear();
+            m_offsets.clear();
+            m_bytes.reset();
+        }
+
+        @Override
+        public void readFailed() {
+            m_readFailed = true;
+        }
+
+        private Map<List<Object>, SeriesPoints> getSeries() throws DatastoreException {
+            try {
+                endDataPoints();
+            } catch (IOException e) {
+                throw new DatastoreException(e);
+            }
+
+            final Map<List<Object>, SeriesPoints> series = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, List<SeriesPoints>> entry : m_parts.entrySet()) {
+                final List<SeriesPoints> parts = entry.getValue();
+                parts.sort(Comparator.comparingLong(part -> part.m_timestamps[0]));
+                series.put(entry.getKey(), parts.size() == 1 ? parts.get(0) : SeriesPoints.concat(parts));
+            }
+            return series;
+        }
+    }
+
+    private class WindowRow implements DataPointRow {
+        private final String m_metricName;
+        private final SeriesPoints m_points;
+        private ByteArrayDataInput m_input;
+        private int m_position;
+
+        private WindowRow(String metricName, SeriesPoints points) {
+            m_metricName = metricName;
+            m_points = points;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_position < m_points.m_count;
+        }
+
+        @Override
+        public DataPoint next() {
+            if (m_input == null)
+                m_input = ByteStreams.newDataInput(m_points.m_values);
+
+            try {
+                return m_dataPointFactory.createDataPoint(m_points.m_type, m_points.m_timestamps[m_position++], m_input);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read data point of " + m_metricName, e);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return m_metricName;
+        }
+
+        @Override
+        public String getDatastoreType() {
+            return m_points.m_type;
+        }
+
+        @Override
+        public Set<String> getTagNames() {
+            return m_points.m_tags.keySet();
+        }
+
+        @Override
+        public String getTagValue(String tag) {
+            return m_points.m_tags.get(tag);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getDataPointCount() {
+            return m_points.m_count;
+        }
+    }
+
+    /**
+     * Query reading another time range than the query it wraps.
+     */
+    private static class TimeRangeQuery implements DatastoreMetricQuery {
+        private final DatastoreMetricQuery m_query;
+        private final long m_startTime;
+        private final long m_endTime;
+
+        private TimeRangeQuery(DatastoreMetricQuery query, long startTime, long endTime) {
+            m_query = query;
+            m_startTime = startTime;
+            m_endTime = endTime;
+        }
+
+        @Override
+        public String getName() {
+            return m_query.getName();
+        }
+
+        @Override
+        public SetMultimap<String, String> getTags() {
+            return m_query.getTags();
+        }
+
+        @Override
+        public long getStartTime() {
+            return m_startTime;
+        }
+
+        @Override
+        public long getEndTime() {
+            return m_endTime;
+        }
+
+        @Override
+        public int getLimit() {
+            return m_query.getLimit();
+        }
+
+        @Override
+        public Order getOrder() {
+            return m_query.getOrder();
+        }
+
+        @Override
+        public BoundaryRead getBoundaryRead() {
+            return m_query.getBoundaryRead();
+        }
+
+        @Override
+        public List<QueryPlugin> getPlugins() {
+            return m_query.getPlugins();
+        }
+
+        @Override
+        public DatastoreMetricQueryMetadata getMeta() {
+            return m_query.getMeta();
+        }
+
+        @Override
+        public void setMeta(DatastoreMetricQueryMetadata datastoreMetricQueryMetadata) {
+            m_query.setMeta(datastoreMetricQueryMetadata);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.kairosdb.core.datastore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output kept in a buffer of the {@link ResultBufferPool} until it grows over the maximum result size. Then the
+ * written bytes are copied to the output opened by the spill target and all further writes go there.
+ * <p>
+ * Not thread safe. The buffer goes back to the pool on {@link #release()}, after which the bytes returned by
+ * {@link #getBuffer()} must not be read anymore.
+ */
+public class SpillingOutputStream extends OutputStream {
+    /**
+     * Opens the output a result is written to once it is too large for memory.
+     */
+    public interface SpillTarget {
+        OutputStream open() throws IOException;
+    }
+
+    private final ResultBufferPool m_pool;
+    private final SpillTarget m_spillTarget;
+    private ByteBuffer m_buffer;
+    private OutputStream m_spilled;
+    private long m_size;
+    private boolean m_recorded;
+
+    public SpillingOutputStream(ResultBufferPool pool, SpillTarget spillTarget) {
+        m_pool = pool;
+        m_spillTarget = spillTarget;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (reserve(1))
+            m_buffer.put((byte) b);
+        else
+            m_spilled.write(b);
+        m_size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (reserve(len))
+            m_buffer.put(b, off, len);
+        else
+            m_spilled.write(b, off, len);
+        m_size += len;
+    }
+
+    /**
+     * Makes room for the bytes in the buffer and returns true, or returns false once the output is spilled.
+     */
+    private boolean reserve(int bytes) throws IOException {
+        if (m_spilled != null)
+            return false;
+
+        final long size = m_size + bytes;
+        if (size > m_pool.getMaxResultSize()) {
+            spill();
+            return false;
+        }
+
+        if (m_buffer == null) {
+            m_buffer = m_pool.acquire((int) size);
+        } else if (m_buffer.remaining() < bytes) {
+            final ByteBuffer grown = m_pool.acquire((int) Math.max(size, 2L * m_buffer.capacity()));
+            m_buffer.flip();
+            grown.put(m_buffer);
+            m_pool.release(m_buffer);
+            m_buffer = grown;
+        }
+        return true;
+    }
+
+    private void spill() throws IOException {
+        m_spilled = m_spillTarget.open();
+        if (m_buffer != null) {
+            final ByteBuffer written = m_buffer.duplicate();
+            written.flip();
+            if (written.hasArray()) {
+                m_spilled.write(written.array(), written.arrayOffset(), written.remaining());
+            } else {
+                final byte[] bytes = new byte[written.remaining()];
+                written.get(bytes);
+                m_spilled.write(bytes);
+            }
+            m_pool.release(m_buffer);
+            m_buffer = null;
+        }
+    }
+
+    public boolean isSpilled() {
+        return m_spilled != null;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Returns the written bytes, from position 0 to the limit, if the output was not spilled.
+     */
+    public ByteBuffer getBuffer() {
+        if (m_spilled != null)
+            throw new IllegalStateException("Output was spilled");
+
+        final ByteBuffer written = m_buffer == null ? ByteBuffer.allocate(0) : m_buffer.duplicate();
+        written.flip();
+        return written;
+    }
+
+    /**
+     * Counts the output as kept in memory or spilled in the metrics of the pool, once it is complete.
+     */
+    public void recordResult() {
+        if (!m_recorded) {
+            m_recorded = true;
+            m_pool.recordResult(isSpilled());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (m_spilled != null)
+            m_spilled.flush();
+    }
+
+    /**
+     * Copies the bytes written so far to the output, only for outputs that were not spilled.
+     */
+    public void writeBufferTo(OutputStream output) throws IOException {
+        final ByteBuffer written = getBuffer();
+        if (written.hasArray()) {
+            output.write(written.array(), written.arrayOffset(), written.remaining());
+        } else {
+            final byte[] chunk = new byte[Math.min(written.remaining(), 8192)];
+            while (written.hasRemaining()) {
+                final int length = Math.min(chunk.length, written.remaining());
+                written.get(chunk, 0, length);
+                output.write(chunk, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool. The spilled output is not closed, it belongs to the spill target.
+     */
+    public void release() {
+        if (m_buffer != null) {
+            m_pool.release(m_buffer);
+            m_buffer = null;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.kairosdb.core.datastore;
+
+import java.util.Arrays;
+
+/**
+ * Compressed data points of one series, encoded as in Facebook's Gorilla paper: timestamps as delta of deltas,
+ * values as the XOR with the previous value. Values are the raw bits of a long or double, regular series mostly
+ * take one or two bits per timestamp and a few bits per value.
+ * <p>
+ * Points are appended in ascending timestamp order until the block is full, then the block is sealed and only read.
+ * Not thread safe, the owning series synchronizes access.
+ */
+class TailBlock {
+    static final int MAX_POINTS = 128;
+
+    private static final int OVERHEAD_BYTES = 80;
+    private static final int LEADING_BITS = 5;
+    private static final int MAX_LEADING = (1 << LEADING_BITS) - 1;
+
+    interface PointConsumer {
+        void accept(long timestamp, long valueBits);
+    }
+
+    private long[] m_bits = new long[4];
+    private int m_bitCount;
+    private int m_count;
+
+    private long m_firstTimestamp;
+    private long m_lastTimestamp;
+    private long m_lastDelta;
+    private long m_lastValue;
+    private int m_lastLeading = -1;
+    private int m_lastTrailing;
+
+    /**
+     * Appends a point newer than all points of the block.
+     */
+    void append(long timestamp, long valueBits) {
+        if (m_count == 0) {
+            m_firstTimestamp = timestamp;
+            writeBits(valueBits, 64);
+        } else {
+            final long delta = timestamp - m_lastTimestamp;
+            writeTimestamp(delta - m_lastDelta);
+            writeValue(valueBits ^ m_lastValue);
+            m_lastDelta = delta;
+        }
+        m_lastTimestamp = timestamp;
+        m_lastValue = valueBits;
+        m_count++;
+    }
+
+    boolean isFull() {
+        return m_count >= MAX_POINTS;
+    }
+
+    /**
+     * Drops the unused capacity of a block that is not appended to anymore.
+     */
+    void seal() {
+        m_bits = Arrays.copyOf(m_bits, (m_bitCount + 63) >>> 6);
+    }
+
+    int getCount() {
+        return m_count;
+    }
+
+    long getFirstTimestamp() {
+        return m_firstTimestamp;
+    }
+
+    long getLastTimestamp() {
+        return m_lastTimestamp;
+    }
+
+    long getSizeInBytes() {
+        return OVERHEAD_BYTES + 8L * m_bits.length;
+    }
+
+    /**
+     * Passes the points with a timestamp from start to end, both inclusive, to the consumer in ascending order.
+     */
+    void decode(long start, long end, PointConsumer consumer) {
+        if (m_count == 0 || m_lastTimestamp < start || m_firstTimestamp > end) {
+            return;
+        }
+
+        final Reader reader = new Reader();
+        long timestamp = m_firstTimestamp;
+        long value = reader.readBits(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < m_count; i++) {
+            if (i > 0) {
+                delta += reader.readTimestamp();
+                timestamp += delta;
+                if (reader.readBit()) {
+                    if (reader.readBit()) {
+                        leading = (int) reader.readBits(LEADING_BITS);
+                        final int significant = (int) reader.readBits(6) + 1;
+                        trailing = 64 - leading - significant;
+                    }
+                    value ^= reader.readBits(64 - leading - trailing) << trailing;
+                }
+            }
+            if (timestamp > end) {
+                return;
+            }
+            if (timestamp >= start) {
+                consumer.accept(timestamp, value);
+            }
+        }
+    }
+
+    private void writeTimestamp(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0b0, 1);
+        } else if (fits(deltaOfDelta, 7)) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (fits(deltaOfDelta, 9)) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (fits(deltaOfDelta, 12)) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValue(long xor) {
+        if (xor == 0) {
+            writeBits(0b0, 1);
+            return;
+        }
+
+        final int leading = Math.min(Long.numberOfLeadingZeros(xor), MAX_LEADING);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if (m_lastLeading >= 0 && leading >= m_lastLeading && trailing >= m_lastTrailing) {
+            // Meaningful bits fit into the window of the previous value
+            writeBits(0b10, 2);
+            writeBits(xor >>> m_lastTrailing, 64 - m_lastLeading - m_lastTrailing);
+        } else {
+            final int significant = 64 - leading - trailing;
+            writeBits(0b11, 2);
+            writeBits(leading, LEADING_BITS);
+            writeBits(significant - 1, 6);
+            writeBits(xor >>> trailing, significant);
+            m_lastLeading = leading;
+            m_lastTrailing = trailing;
+        }
+    }
+
+    private static boolean fits(long value, int bits) {
+        final long bound = 1L << (bits - 1);
+        return value >= -bound && value < bound;
+    }
+
+    private static long mask(int bits) {
+        return bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    private void writeBits(long value, int bits) {
+        final int needed = (m_bitCount + bits + 63) >>> 6;
+        if (needed > m_bits.length) {
+            m_bits = Arrays.copyOf(m_bits, Math.max(needed, m_bits.length * 2));
+        }
+
+        value &= mask(bits);
+        final int index = m_bitCount >>> 6;
+        final int free = 64 - (m_bitCount & 63);
+        if (bits <= free) {
+            m_bits[index] |= value << (free - bits);
+        } else {
+            final int rest = bits - free;
+            m_bits[index] |= value >>> rest;
+            m_bits[index + 1] |= value << (64 - rest);
+        }
+        m_bitCount += bits;
+    }
+
+    private class Reader {
+        private int m_position;
+
+        boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        long readTimestamp() {
+            if (!readBit()) {
+                return 0;
+            }
+            if (!readBit()) {
+                return signed(readBits(7), 7);
+            }
+            if (!readBit()) {
+                return signed(readBits(9), 9);
+            }
+            if (!readBit()) {
+                return signed(readBits(12), 12);
+            }
+            return readBits(64);
+        }
+
+        long readBits(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            final int index = m_position >>> 6;
+            final int free = 64 - (m_position & 63);
+            m_position += bits;
+            if (bits <= free) {
+                return (m_bits[index] >>> (free - bits)) & mask(bits);
+            }
+            final int rest = bits - free;
+            return ((m_bits[index] & mask(free)) << rest) | (m_bits[index + 1] >>> (64 - rest));
+        }
+
+        private long signed(long value, int bits) {
+            return (value << (64 - bits)) >> (64 - bits);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.kairosdb.core.exception;
+
+/**
+ * Thrown by a datastore that did not store a data point on purpose, for
+ * example when an ingest quota samples a metric down. This is not an error
+ * for the sender, but the point must not reach the data point listeners.
+ */
+public class DataPointDroppedException extends DatastoreException
+{
+	public DataPointDroppedException(String message)
+	{
+		super(message);
+	}
+
+	/**
+	 * Dropping can happen for a large share of the points of a busy metric,
+	 * the stack trace is never looked at.
+	 */
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		return this;
+	}
+}
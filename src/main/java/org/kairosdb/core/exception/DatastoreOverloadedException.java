@@ -0,0 +1,13 @@
+package org.kairosdb.core.exception;
+
+/**
+ * Thrown when the datastore cannot accept more writes right now. The caller
+ * is expected to retry the same request later.
+ */
+public class DatastoreOverloadedException extends DatastoreException
+{
+	public DatastoreOverloadedException(String message)
+	{
+		super(message);
+	}
+}
@@ -0,0 +1,22 @@
+package org.kairosdb.core.exception;
+
+/**
+ * Thrown when a metric exceeds its ingest quota. Unlike an overloaded
+ * datastore, retrying the same request does not help until the sender
+ * slows down or stops creating new series.
+ */
+public class QuotaExceededException extends DatastoreException
+{
+	private final String m_metricName;
+
+	public QuotaExceededException(String metricName, String message)
+	{
+		super(message);
+		m_metricName = metricName;
+	}
+
+	public String getMetricName()
+	{
+		return m_metricName;
+	}
+}
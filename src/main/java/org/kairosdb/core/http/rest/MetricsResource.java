@@ -38,12 +38,20 @@ import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
 import org.kairosdb.core.datastore.DataPointGroup;
 import org.kairosdb.core.datastore.DatastoreQuery;
+import org.kairosdb.core.datastore.IngestDispatcher;
 import org.kairosdb.core.datastore.KairosDatastore;
 import org.kairosdb.core.datastore.QueryMetric;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SpillingOutputStream;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.kairosdb.core.exception.QuotaExceededException;
 import org.kairosdb.core.formatter.DataFormatter;
 import org.kairosdb.core.formatter.FormatterException;
 import org.kairosdb.core.formatter.JsonFormatter;
 import org.kairosdb.core.formatter.JsonResponse;
+import org.kairosdb.core.http.rest.binary.BinaryDataPointsParser;
+import org.kairosdb.core.http.rest.binary.BinaryFormatException;
+import org.kairosdb.core.http.rest.binary.BinaryRequestTooLargeException;
 import org.kairosdb.core.http.rest.json.*;
 import org.kairosdb.core.http.rest.metrics.QueryMeasurementProvider;
 import org.kairosdb.core.opentracing.HttpHeadersCarrier;
@@ -80,9 +88,12 @@ public class MetricsResource implements KairosMetricReporter {
 	public static final String INGEST_COUNT = "kairosdb.http.ingest_count";
 	public static final String INGEST_TIME = "kairosdb.http.ingest_time";
 	public static final String QUERY_DATAPOINTS_REQUESTED = "kairosdb.http.datapoints_requested";
+	public static final String INGEST_REJECTED = "kairosdb.http.ingest_rejected";
 	public static final String QUERY_URL = "/datapoints/query";
 
 	private final KairosDatastore datastore;
+	private final IngestDispatcher ingestDispatcher;
+	private final ResultBufferPool m_resultBufferPool;
 	private final Map<String, DataFormatter> formatters = new HashMap<String, DataFormatter>();
 	private final QueryParser queryParser;
 	private final QueryAutocompleter queryAutocompleter;
@@ -94,12 +105,19 @@ public class MetricsResource implements KairosMetricReporter {
 	private final AtomicInteger m_ingestedDataPoints = new AtomicInteger();
 	private final AtomicInteger m_ingestTime = new AtomicInteger();
 	private final AtomicLong m_datapointsCount = new AtomicLong();
+	private final AtomicLong m_rejectedIngestRequests = new AtomicLong();
 
 	private final KairosDataPointFactory m_kairosDataPointFactory;
 
 	public static final String READ_TIMEOUT = "kairosdb.datastore.datapoints.read.timeout";
 	public static final String ARTIFACT_VERSION = "kairosdb.datastore.artifact.version";
 	public static final String DEPLOYMENT_ID = "kairosdb.datastore.deployment.id";
+	public static final String INGEST_RETRY_AFTER = "kairosdb.http.ingest.retry_after_seconds";
+	public static final String MAX_BINARY_REQUEST_BYTES = "kairosdb.http.ingest.max_binary_request_bytes";
+
+	// Not in Response.Status of JAX-RS 1
+	private static final int REQUEST_ENTITY_TOO_LARGE = 413;
+	private static final int TOO_MANY_REQUESTS = 429;
 
 	@Inject(optional = true)
 	@Named(READ_TIMEOUT)
@@ -113,6 +131,20 @@ public class MetricsResource implements KairosMetricReporter {
 	@Named(DEPLOYMENT_ID)
 	private String m_deploymentId = "2.0-z-d1";
 
+	/**
+	 * Value of the Retry-After header sent when ingestion is shed because the datastore is overloaded.
+	 */
+	@Inject(optional = true)
+	@Named(INGEST_RETRY_AFTER)
+	private int m_ingestRetryAfterSeconds = 5;
+
+	/**
+	 * Size of the series of one binary ingest request, which are held in memory until the whole request was checked.
+	 */
+	@Inject(optional = true)
+	@Named(MAX_BINARY_REQUEST_BYTES)
+	private int m_maxBinaryRequestBytes = BinaryDataPointsParser.DEFAULT_MAX_REQUEST_BYTES;
+
 	@Inject
 	private LongDataPointFactory m_longDataPointFactory = new LongDataPointFactoryImpl();
 
@@ -132,8 +164,12 @@ public class MetricsResource implements KairosMetricReporter {
 							QueryAutocompleter queryAutocompleter,
 							KairosDataPointFactory dataPointFactory,
 							QueryMeasurementProvider queryMeasurementProvider,
-							Tracer tracer) {
+							Tracer tracer,
+							IngestDispatcher ingestDispatcher,
+							ResultBufferPool resultBufferPool) {
 		this.datastore = checkNotNull(datastore);
+		this.ingestDispatcher = checkNotNull(ingestDispatcher);
+		m_resultBufferPool = checkNotNull(resultBufferPool);
 		this.queryParser = checkNotNull(queryParser);
 		this.queryAutocompleter = queryAutocompleter;
 		this.queryMeasurementProvider = checkNotNull(queryMeasurementProvider);
@@ -232,6 +268,48 @@ public class MetricsResource implements KairosMetricReporter {
 		return (add(httpHeaders, gzipInputStream));
 	}
 
+	@POST
+	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+	@Consumes(BinaryDataPointsParser.CONTENT_TYPE)
+	@Path("/datapoints")
+	public Response addBinary(@Context HttpHeaders httpHeaders, InputStream binary) {
+		Span span = createSpan("datapoints_insert_binary", httpHeaders);
+
+		try (Scope scope = tracer.scopeManager().activate(span)) {
+			BinaryDataPointsParser parser = new BinaryDataPointsParser(datastore,
+					new BufferedInputStream(binary, 64 * 1024), m_kairosDataPointFactory, ingestDispatcher,
+					m_maxBinaryRequestBytes);
+			ValidationErrors validationErrors = parser.parse();
+
+			span.log("datapoint_count: " + parser.getDataPointCount());
+			m_ingestedDataPoints.addAndGet(parser.getDataPointCount());
+			m_ingestTime.addAndGet(parser.getIngestTime());
+
+			if (!validationErrors.hasErrors())
+				return setHeaders(Response.status(Response.Status.NO_CONTENT)).build();
+			else {
+				JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+				for (String errorMessage : validationErrors.getErrors()) {
+					builder.addError(errorMessage);
+				}
+				return builder.build();
+			}
+		} catch (BinaryRequestTooLargeException e) {
+			Tags.ERROR.set(span, Boolean.TRUE);
+			span.log(e.getMessage());
+			return setHeaders(Response.status(REQUEST_ENTITY_TOO_LARGE).entity(new ErrorResponse(e.getMessage()))).build();
+		} catch (BinaryFormatException e) {
+			JsonResponseBuilder builder = new JsonResponseBuilder(Response.Status.BAD_REQUEST);
+			Tags.ERROR.set(span, Boolean.TRUE);
+			span.log(e.getMessage());
+			return builder.addError(e.getMessage()).build();
+		} catch (Exception | OutOfMemoryError e) {
+			return ingestFailure(span, e);
+		} finally {
+			span.finish();
+		}
+	}
+
 	@POST
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints")
@@ -240,7 +318,7 @@ public class MetricsResource implements KairosMetricReporter {
 
 		try (Scope scope = tracer.scopeManager().activate(span)) {
 			DataPointsParser parser = new DataPointsParser(datastore, new InputStreamReader(json, "UTF-8"),
-					gson, m_kairosDataPointFactory);
+					gson, m_kairosDataPointFactory, ingestDispatcher);
 			ValidationErrors validationErrors = parser.parse();
 
 			span.log("datapoint_count: " + parser.getDataPointCount());
@@ -271,21 +349,36 @@ public class MetricsResource implements KairosMetricReporter {
 			Tags.ERROR.set(span, Boolean.TRUE);
 			span.log(e.getMessage());
 			return builder.addError(e.getMessage()).build();
-		} catch (Exception e) {
-			logger.error("Failed to add metric.", e);
-			Tags.ERROR.set(span, Boolean.TRUE);
-			span.log(e.getMessage());
-			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
-		} catch (OutOfMemoryError e) {
-			logger.error("Out of memory error.", e);
-			Tags.ERROR.set(span, Boolean.TRUE);
-			span.log(e.getMessage());
-			return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+		} catch (Exception | OutOfMemoryError e) {
+			return ingestFailure(span, e);
 		} finally {
 			span.finish();
 		}
 	}
 
+	/**
+	 * Response to an ingest request that failed for reasons other than its format, the same for all ingest formats.
+	 */
+	private Response ingestFailure(Span span, Throwable e) {
+		Tags.ERROR.set(span, Boolean.TRUE);
+		span.log(e.getMessage());
+
+		if (e instanceof QuotaExceededException)
+			return setHeaders(Response.status(TOO_MANY_REQUESTS).entity(new ErrorResponse(e.getMessage()))).build();
+
+		if (e instanceof DatastoreOverloadedException) {
+			m_rejectedIngestRequests.incrementAndGet();
+			return setHeaders(Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(new ErrorResponse(e.getMessage())))
+					.header("Retry-After", m_ingestRetryAfterSeconds).build();
+		}
+
+		if (e instanceof OutOfMemoryError)
+			logger.error("Out of memory error.", e);
+		else
+			logger.error("Failed to add metric.", e);
+		return setHeaders(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(new ErrorResponse(e.getMessage()))).build();
+	}
+
 	@OPTIONS
 	@Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
 	@Path("/datapoints/query/tags")
@@ -305,8 +398,8 @@ public class MetricsResource implements KairosMetricReporter {
 		Span span = createSpan("datapoints_query_tags", httpHeaders);
 
 		try (Scope scope = tracer.scopeManager().activate(span)) {
-			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
-			BufferedWriter writer = new BufferedWriter(new FileWriter(respFile));
+			ResponseStreamingOutput response = new ResponseStreamingOutput();
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
 
 			JsonResponse jsonResponse = new JsonResponse(writer);
 
@@ -337,9 +430,9 @@ public class MetricsResource implements KairosMetricReporter {
 			jsonResponse.end();
 			writer.flush();
 			writer.close();
+			response.finish();
 
-			ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
-					new FileStreamingOutput(respFile));
+			ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(response);
 
 			setHeaders(responseBuilder);
 			return responseBuilder.build();
@@ -416,8 +509,8 @@ public class MetricsResource implements KairosMetricReporter {
 
 		final Span span = createSpan("datapoints_query", httpHeaders);
 		try (Scope scope = tracer.scopeManager().activate(span)) {
-			File respFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(respFile), "UTF-8"));
+			ResponseStreamingOutput response = new ResponseStreamingOutput();
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
 			JsonResponse jsonResponse = new JsonResponse(writer);
 			jsonResponse.begin();
 			List<QueryMetric> queries = queryParser.parseQueryMetric(json);
@@ -476,9 +569,9 @@ public class MetricsResource implements KairosMetricReporter {
 					jsonResponse.end();
 					writer.flush();
 					writer.close();
+					response.finish();
 
-					ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(
-							new FileStreamingOutput(respFile));
+					ResponseBuilder responseBuilder = Response.status(Response.Status.OK).entity(response);
 
 					setHeaders(responseBuilder);
 					return responseBuilder.build();
@@ -676,6 +769,7 @@ public class MetricsResource implements KairosMetricReporter {
 		int time = m_ingestTime.getAndSet(0);
 		int count = m_ingestedDataPoints.getAndSet(0);
 		long requestedCount = m_datapointsCount.getAndSet(0);
+		long rejectedCount = m_rejectedIngestRequests.getAndSet(0);
 
 		DataPointSet dpsCount = new DataPointSet(INGEST_COUNT);
 		DataPointSet dpsTime = new DataPointSet(INGEST_TIME);
@@ -694,6 +788,11 @@ public class MetricsResource implements KairosMetricReporter {
 
 		ret.add(dpsRequestedCount);
 
+		DataPointSet dpsRejected = new DataPointSet(INGEST_REJECTED);
+		dpsRejected.addTag("host", hostName);
+		dpsRejected.addDataPoint(m_longDataPointFactory.createDataPoint(now, rejectedCount));
+		ret.add(dpsRejected);
+
 		if (count != 0){
 			ret.add(dpsCount);
 			ret.add(dpsTime);
@@ -750,6 +849,51 @@ public class MetricsResource implements KairosMetricReporter {
 		}
 	}
 
+	/**
+	 Response kept in a pooled buffer, or in a temporary file once it grows over the maximum result size.
+	 */
+	public class ResponseStreamingOutput implements StreamingOutput, SpillingOutputStream.SpillTarget {
+		private final SpillingOutputStream m_output = new SpillingOutputStream(m_resultBufferPool, this);
+		private File m_responseFile;
+		private OutputStream m_fileOutput;
+
+		public OutputStream getOutputStream() {
+			return m_output;
+		}
+
+		@Override
+		public OutputStream open() throws IOException {
+			m_responseFile = File.createTempFile("kairos", ".json", new File(datastore.getCacheDir()));
+			m_fileOutput = new BufferedOutputStream(new FileOutputStream(m_responseFile));
+			return m_fileOutput;
+		}
+
+		/**
+		 Call once the response is written.
+		 */
+		public void finish() throws IOException {
+			m_output.flush();
+			if (m_fileOutput != null)
+				m_fileOutput.close();
+			m_output.recordResult();
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException, WebApplicationException {
+			if (m_responseFile != null) {
+				new FileStreamingOutput(m_responseFile).write(output);
+				return;
+			}
+
+			try {
+				m_output.writeBufferTo(output);
+				output.flush();
+			} finally {
+				m_output.release();
+			}
+		}
+	}
+
 	public Span createSpan(String spanName, HttpHeaders httpHeaders) {
 		HttpHeadersCarrier carrier = new HttpHeadersCarrier(httpHeaders.getRequestHeaders());
 		SpanContext spanContext = tracer.extract(Format.Builtin.HTTP_HEADERS, carrier);
@@ -0,0 +1,436 @@
+package org.kairosdb.core.http.rest.binary;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.JsonPrimitive;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datastore.IngestDispatcher;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.http.rest.json.ValidationErrors;
+import org.kairosdb.util.CharacterSet;
+import org.kairosdb.util.TagInterner;
+import org.kairosdb.util.Validator;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ Reads data points in the compact binary ingest format and adds them as it walks through the
+ stream, the same way {@link org.kairosdb.core.http.rest.json.DataPointsParser} does for JSON.
+ <p>
+ A request is the magic number followed by length prefixed series and a zero length that marks
+ the end:
+ <pre>
+ request    := int32 0x4B444231 ("KDB1"), (varint length, series)*, varint 0
+ series     := newStrings, name, ttl, tagCount, (tagName, tagValue)*, valueType, pointCount, point*
+ newStrings := varint count, (varint byteLength, UTF-8 bytes)*
+ name, tagName, tagValue := varint index into the strings of the request
+ ttl        := varint seconds, 0 uses the default
+ valueType  := byte 0 for long, 1 for double
+ point      := zigzag varint delta to the previous timestamp (the first to 0), value
+ value      := zigzag varint for long, 8 byte big-endian IEEE 754 for double
+ </pre>
+ Strings are added to the dictionary of the request by the series that first uses them, so later
+ series only refer to them by index. Varints are unsigned LEB128.
+ <p>
+ The whole request is read and its structure checked before the first data point is added, so a
+ truncated or malformed request stores nothing and the client can retry it as a whole. Requests
+ whose series take more than the maximum request size are rejected while reading, so a request
+ never holds more than that in memory.
+ */
+public class BinaryDataPointsParser
+{
+	public static final String CONTENT_TYPE = "application/x-kairosdb-binary";
+	public static final int MAGIC = 0x4B444231;
+
+	public static final byte TYPE_LONG = 0;
+	public static final byte TYPE_DOUBLE = 1;
+
+	public static final int DEFAULT_MAX_REQUEST_BYTES = 64 * 1024 * 1024;
+
+	private static final byte UNCHECKED = 0;
+	private static final byte VALID = 1;
+	private static final byte INVALID = 2;
+
+	private final KairosDatastore datastore;
+	private final IngestDispatcher dispatcher;
+	private final InputStream inputStream;
+	private final KairosDataPointFactory dataPointFactory;
+	private final int maxRequestBytes;
+
+	private final List<String> strings = new ArrayList<>();
+	private final Set<String> tagNames = new HashSet<>();
+	private byte[] stringStates = new byte[256];
+	private byte[] body = new byte[64 * 1024];
+	private int[] seriesEnds = new int[64];
+
+	private int dataPointCount;
+	private int ingestTime;
+	private IngestDispatcher.Batch batch;
+
+	public BinaryDataPointsParser(KairosDatastore datastore, InputStream stream,
+	                              KairosDataPointFactory dataPointFactory)
+	{
+		this(datastore, stream, dataPointFactory, null, DEFAULT_MAX_REQUEST_BYTES);
+	}
+
+	/**
+	 @param dispatcher writes the data points on the ingest shards, if null they are written on
+	 the calling thread
+	 @param maxRequestBytes bytes the series of one request may take in total
+	 */
+	public BinaryDataPointsParser(KairosDatastore datastore, InputStream stream,
+	                              KairosDataPointFactory dataPointFactory, IngestDispatcher dispatcher,
+	                              int maxRequestBytes)
+	{
+		this.datastore = checkNotNull(datastore);
+		this.dispatcher = dispatcher;
+		this.inputStream = checkNotNull(stream);
+		this.dataPointFactory = checkNotNull(dataPointFactory);
+		this.maxRequestBytes = maxRequestBytes;
+	}
+
+	public int getDataPointCount()
+	{
+		return dataPointCount;
+	}
+
+	public int getIngestTime()
+	{
+		return ingestTime;
+	}
+
+	public ValidationErrors parse() throws IOException, DatastoreException
+	{
+		long start = System.currentTimeMillis();
+		ValidationErrors validationErrors = new ValidationErrors();
+		batch = dispatcher != null ? dispatcher.newBatch() : IngestDispatcher.directBatch(datastore);
+
+		try
+		{
+			if (readInt() != MAGIC)
+				throw new BinaryFormatException("Invalid start of binary data points.");
+
+			int count = readSeries();
+			for (int i = 0; i < count; i++)
+			{
+				ByteBuffer buffer = seriesBuffer(i);
+				try
+				{
+					checkSeries(buffer, i);
+				}
+				catch (BufferUnderflowException e)
+				{
+					throw new BinaryFormatException("metric[" + i + "] is truncated.");
+				}
+				if (buffer.hasRemaining())
+					throw new BinaryFormatException("metric[" + i + "] has " + buffer.remaining() + " unexpected trailing bytes.");
+			}
+
+			for (int i = 0; i < count; i++)
+				validateAndAddDataPoints(seriesBuffer(i), validationErrors, i);
+
+			batch.await();
+		}
+		catch (EOFException e)
+		{
+			throw new BinaryFormatException("Unexpected end of binary data points.");
+		}
+		finally
+		{
+			batch.abort();
+			inputStream.close();
+		}
+
+		ingestTime = (int) (System.currentTimeMillis() - start);
+
+		return validationErrors;
+	}
+
+	/**
+	 Reads all series of the request into the body, returns the number of series.
+	 */
+	private int readSeries() throws IOException
+	{
+		int count = 0;
+		int size = 0;
+		long length;
+		while ((length = readVarint(inputStream)) != 0)
+		{
+			if (length < 0)
+				throw new BinaryFormatException("metric[" + count + "] has an invalid length of " + length + " bytes.");
+			if (size + length > maxRequestBytes)
+				throw new BinaryRequestTooLargeException("Binary data points are larger than " + maxRequestBytes + " bytes.");
+
+			if (body.length < size + length)
+				body = Arrays.copyOf(body, (int) Math.min(maxRequestBytes, Math.max(size + length, body.length * 2L)));
+			readFully(body, size, (int) length);
+			size += (int) length;
+
+			if (count == seriesEnds.length)
+				seriesEnds = Arrays.copyOf(seriesEnds, count * 2);
+			seriesEnds[count++] = size;
+		}
+		return count;
+	}
+
+	private ByteBuffer seriesBuffer(int index)
+	{
+		int start = index == 0 ? 0 : seriesEnds[index - 1];
+		return ByteBuffer.wrap(body, start, seriesEnds[index] - start);
+	}
+
+	/**
+	 Walks through a series without adding its data points. Adds the new strings of the series to
+	 the dictionary and checks that the declared counts fit into the series.
+	 */
+	private void checkSeries(ByteBuffer buffer, int count) throws BinaryFormatException
+	{
+		int newStrings = readVarint(buffer);
+		for (int i = 0; i < newStrings; i++)
+			addString(buffer);
+
+		String context = "metric[" + count + "]";
+		string(readVarint(buffer));
+		readVarint(buffer);
+		int tagCount = readVarint(buffer);
+		tagNames.clear();
+		for (int i = 0; i < tagCount; i++)
+		{
+			if (!tagNames.add(string(readVarint(buffer))))
+				throw new BinaryFormatException(context + " has duplicate tag names.");
+			string(readVarint(buffer));
+		}
+
+		byte valueType = buffer.get();
+		if (valueType != TYPE_LONG && valueType != TYPE_DOUBLE)
+			throw new BinaryFormatException(context + " has an unknown value type " + valueType + ".");
+
+		int pointCount = readVarint(buffer);
+		// A long point takes at least two bytes, a double point nine
+		int minPointBytes = valueType == TYPE_LONG ? 2 : 1 + Double.BYTES;
+		if ((long) pointCount * minPointBytes > buffer.remaining())
+			throw new BinaryFormatException(context + " declares " + pointCount + " data points but is truncated.");
+		skipPoints(buffer, valueType, pointCount);
+	}
+
+	/**
+	 Adds the data points of a series that passed {@link #checkSeries}.
+	 */
+	private void validateAndAddDataPoints(ByteBuffer buffer, ValidationErrors errors, int count) throws IOException, DatastoreException
+	{
+		ValidationErrors validationErrors = new ValidationErrors();
+
+		// Already in the dictionary
+		int newStrings = readVarint(buffer);
+		for (int i = 0; i < newStrings; i++)
+		{
+			int length = readVarint(buffer);
+			buffer.position(buffer.position() + length);
+		}
+
+		String context = "metric[" + count + "]";
+		String name = string(readVarint(buffer));
+		if (Validator.isNotNullOrEmpty(validationErrors, context + ".name", name))
+			context = context + "(name=" + name + ")";
+
+		int ttl = readVarint(buffer);
+		int tagCount = readVarint(buffer);
+		Validator.isGreaterThanOrEqualTo(validationErrors, context + ".tags count", tagCount, 1);
+
+		ImmutableSortedMap.Builder<String, String> tags = ImmutableSortedMap.naturalOrder();
+		for (int i = 0; i < tagCount; i++)
+		{
+			int nameIndex = readVarint(buffer);
+			int valueIndex = readVarint(buffer);
+			String tagName = string(nameIndex);
+			String tagValue = string(valueIndex);
+
+			String tagContext = context + ".tag[" + i + "]";
+			if (Validator.isNotNullOrEmpty(validationErrors, tagContext + ".name", tagName))
+			{
+				tagContext = context + ".tag[" + tagName + "]";
+				isValidCharacterSet(validationErrors, tagContext, nameIndex);
+			}
+			if (Validator.isNotNullOrEmpty(validationErrors, tagContext + ".value", tagValue))
+				isValidCharacterSet(validationErrors, tagContext + ".value", valueIndex);
+
+			tags.put(tagName, tagValue);
+		}
+
+		byte valueType = buffer.get();
+		String type = valueType == TYPE_LONG ? "long" : "double";
+
+		DataPointFactory factory = dataPointFactory.getFactoryForType(type);
+		if (factory == null)
+			validationErrors.addErrorMessage("Unregistered data point type '" + type + "'");
+
+		int pointCount = readVarint(buffer);
+		if (validationErrors.hasErrors())
+		{
+			skipPoints(buffer, valueType, pointCount);
+			errors.add(validationErrors);
+			return;
+		}
+
+		ImmutableSortedMap<String, String> tagMap = tags.build();
+		long timestamp = 0;
+		for (int i = 0; i < pointCount; i++)
+		{
+			timestamp += readZigZag(buffer);
+			DataPoint dataPoint;
+			if (valueType == TYPE_LONG)
+				dataPoint = createLongDataPoint(factory, type, timestamp, readZigZag(buffer));
+			else
+				dataPoint = createDoubleDataPoint(factory, type, timestamp, buffer.getDouble());
+
+			batch.add(name, tagMap, dataPoint, ttl);
+			dataPointCount++;
+		}
+	}
+
+	private DataPoint createLongDataPoint(DataPointFactory factory, String type, long timestamp, long value) throws IOException
+	{
+		if (factory instanceof LongDataPointFactory)
+			return ((LongDataPointFactory) factory).createDataPoint(timestamp, value);
+		return dataPointFactory.createDataPoint(type, timestamp, new JsonPrimitive(value));
+	}
+
+	private DataPoint createDoubleDataPoint(DataPointFactory factory, String type, long timestamp, double value) throws IOException
+	{
+		if (factory instanceof DoubleDataPointFactory)
+			return ((DoubleDataPointFactory) factory).createDataPoint(timestamp, value);
+		return dataPointFactory.createDataPoint(type, timestamp, new JsonPrimitive(value));
+	}
+
+	private static void skipPoints(ByteBuffer buffer, byte valueType, int pointCount)
+	{
+		for (int i = 0; i < pointCount; i++)
+		{
+			readVarintLong(buffer);
+			if (valueType == TYPE_LONG)
+				readVarintLong(buffer);
+			else if (buffer.remaining() < Double.BYTES)
+				throw new BufferUnderflowException();
+			else
+				buffer.position(buffer.position() + Double.BYTES);
+		}
+	}
+
+	private void addString(ByteBuffer buffer) throws BinaryFormatException
+	{
+		int length = readVarint(buffer);
+		if (length > buffer.remaining())
+			throw new BufferUnderflowException();
+
+		strings.add(TagInterner.intern(new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8)));
+		buffer.position(buffer.position() + length);
+
+		if (strings.size() > stringStates.length)
+			stringStates = Arrays.copyOf(stringStates, stringStates.length * 2);
+	}
+
+	private String string(int index) throws BinaryFormatException
+	{
+		if (index >= strings.size())
+			throw new BinaryFormatException("Unknown string index " + index + ".");
+		return strings.get(index);
+	}
+
+	/**
+	 Each string of the request goes through the character set check once, no matter how many
+	 series use it.
+	 */
+	private boolean isValidCharacterSet(ValidationErrors validationErrors, String context, int index)
+	{
+		if (stringStates[index] == UNCHECKED)
+			stringStates[index] = CharacterSet.isValidTagNameValue(strings.get(index)) ? VALID : INVALID;
+
+		if (stringStates[index] == VALID)
+			return true;
+		return Validator.isValidateCharacterSet(validationErrors, context, strings.get(index));
+	}
+
+	private int readInt() throws IOException
+	{
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value = (value << 8) | readByte(inputStream);
+		return value;
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException
+	{
+		int end = offset + length;
+		while (offset < end)
+		{
+			int read = inputStream.read(bytes, offset, end - offset);
+			if (read < 0)
+				throw new EOFException();
+			offset += read;
+		}
+	}
+
+	private static int readByte(InputStream stream) throws IOException
+	{
+		int b = stream.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private static long readVarint(InputStream stream) throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte(stream);
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new BinaryFormatException("Invalid varint.");
+	}
+
+	private static int readVarint(ByteBuffer buffer) throws BinaryFormatException
+	{
+		long value = readVarintLong(buffer);
+		if (value < 0 || value > Integer.MAX_VALUE)
+			throw new BinaryFormatException("Invalid count or index " + value + ".");
+		return (int) value;
+	}
+
+	private static long readVarintLong(ByteBuffer buffer)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new BufferUnderflowException();
+	}
+
+	private static long readZigZag(ByteBuffer buffer)
+	{
+		long value = readVarintLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
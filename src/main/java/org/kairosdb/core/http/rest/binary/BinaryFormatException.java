@@ -0,0 +1,15 @@
+package org.kairosdb.core.http.rest.binary;
+
+import java.io.IOException;
+
+/**
+ Thrown when a binary ingest request does not follow the format read by
+ {@link BinaryDataPointsParser}.
+ */
+public class BinaryFormatException extends IOException
+{
+	public BinaryFormatException(String message)
+	{
+		super(message);
+	}
+}
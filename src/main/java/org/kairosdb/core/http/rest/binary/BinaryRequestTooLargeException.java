@@ -0,0 +1,13 @@
+package org.kairosdb.core.http.rest.binary;
+
+/**
+ Thrown when the series of a binary ingest request add up to more bytes than the parser keeps in
+ memory for one request.
+ */
+public class BinaryRequestTooLargeException extends BinaryFormatException
+{
+	public BinaryRequestTooLargeException(String message)
+	{
+		super(message);
+	}
+}
@@ -19,25 +19,37 @@ package org.kairosdb.core.http.rest.json;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.internal.LazilyParsedNumber;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 import io.opentracing.Span;
 import io.opentracing.util.GlobalTracer;
+import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.datapoints.DataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.IngestDispatcher;
 import org.kairosdb.core.datastore.KairosDatastore;
 import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.util.TagInterner;
 import org.kairosdb.util.Util;
 import org.kairosdb.util.Validator;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -46,13 +58,21 @@ import static com.google.common.base.Preconditions.checkState;
  * Originally used Jackson to parse, but this approach failed for a very large JSON because
  * everything was in memory and we would run out of memory. This parser adds metrics as it walks
  * through the stream.
+ *
+ * Metrics are read token by token into a reused NewMetric instead of being bound by Gson, so
+ * only the data points, tag maps and the strings themselves are allocated per metric.
  */
 public class DataPointsParser
 {
+	private static final int VALIDATED_STRINGS_MAX_SIZE = 16 * 1024;
+
 	private final KairosDatastore datastore;
+	private final IngestDispatcher dispatcher;
 	private final Reader inputStream;
-	private final Gson gson;
 	private final KairosDataPointFactory dataPointFactory;
+	private final TypeAdapter<JsonElement> jsonElementAdapter;
+	private final NewMetric metric = new NewMetric();
+	private final Set<String> validatedStrings = new HashSet<>();
 
 	public int getDataPointCount()
 	{
@@ -66,14 +86,26 @@ public class DataPointsParser
 
 	private int dataPointCount;
 	private int ingestTime;
+	private IngestDispatcher.Batch batch;
 
 	public DataPointsParser(KairosDatastore datastore, Reader stream, Gson gson,
 	                        KairosDataPointFactory dataPointFactory)
+	{
+		this(datastore, stream, gson, dataPointFactory, null);
+	}
+
+	/**
+	 @param dispatcher writes the data points on the ingest shards, if null they are written on
+	 the calling thread
+	 */
+	public DataPointsParser(KairosDatastore datastore, Reader stream, Gson gson,
+	                        KairosDataPointFactory dataPointFactory, IngestDispatcher dispatcher)
 	{
 		this.datastore = checkNotNull(datastore);
+		this.dispatcher = dispatcher;
 		this.inputStream = checkNotNull(stream);
-		this.gson = gson;
 		this.dataPointFactory = dataPointFactory;
+		this.jsonElementAdapter = (gson != null ? gson : new Gson()).getAdapter(JsonElement.class);
 	}
 
 	public ValidationErrors parse() throws IOException, DatastoreException
@@ -82,11 +114,12 @@ public class DataPointsParser
 		ValidationErrors validationErrors = new ValidationErrors();
 
 		JsonReader reader = new JsonReader(inputStream);
+		batch = dispatcher != null ? dispatcher.newBatch() : IngestDispatcher.directBatch(datastore);
 
 		try
 		{
 			Span span = GlobalTracer.get().activeSpan();
-			List<String> list = new ArrayList<String>();
+			Set<String> names = span != null ? new LinkedHashSet<String>() : null;
 
 			int metricCount = 0;
 
@@ -100,16 +133,15 @@ public class DataPointsParser
 					{
 						NewMetric metric = parseMetric(reader);
 
-						if(!list.contains(metric.name)) {
-							list.add(metric.name);
-						}
+						if (names != null)
+							names.add(metric.name);
 
 						validateAndAddDataPoints(metric, validationErrors, metricCount);
 						metricCount++;
 					}
 
 					if ( span!= null) {
-						span.log("metric_name: " + list.toString());
+						span.log("metric_name: " + names.toString());
 					}
 				}
 				catch (EOFException e)
@@ -130,13 +162,16 @@ public class DataPointsParser
 			else
 				validationErrors.addErrorMessage("Invalid start of json.");
 
+			batch.await();
 		}
 		catch (EOFException e)
 		{
 			validationErrors.addErrorMessage("Invalid json. No content due to end of input.");
+			batch.await();
 		}
 		finally
 		{
+			batch.abort();
 			reader.close();
 		}
 
@@ -147,17 +182,215 @@ public class DataPointsParser
 
 	private NewMetric parseMetric(JsonReader reader)
 	{
-		NewMetric metric;
+		// Same leniency Gson applies while binding an object
+		boolean lenient = reader.isLenient();
+		reader.setLenient(true);
 		try
 		{
-			metric = gson.fromJson(reader, NewMetric.class);
+			if (reader.peek() == JsonToken.NULL)
+				throw new JsonSyntaxException("Invalid JSON");
+
+			metric.reset();
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				switch (reader.nextName())
+				{
+					case "name":
+						metric.name = readString(reader);
+						break;
+					case "timestamp":
+						metric.timestamp = readLong(reader);
+						break;
+					case "time":
+						metric.time = readLong(reader);
+						break;
+					case "value":
+						metric.value.read(reader, jsonElementAdapter);
+						metric.hasValue = true;
+						break;
+					case "tags":
+						readTags(reader);
+						break;
+					case "datapoints":
+						readDataPoints(reader);
+						break;
+					case "skip_validate":
+						metric.skip_validate = readBoolean(reader, metric.skip_validate);
+						break;
+					case "type":
+						metric.type = readString(reader);
+						break;
+					case "ttl":
+						metric.ttl = readInt(reader, metric.ttl);
+						break;
+					default:
+						reader.skipValue();
+				}
+			}
+			reader.endObject();
+			return metric;
+		}
+		catch (IllegalStateException | IOException e)
+		{
+			throw new JsonSyntaxException(e);
 		}
 		catch (IllegalArgumentException e)
 		{
 			// Happens when parsing data points where one of the pair is missing (timestamp or value)
 			throw new JsonSyntaxException("Invalid JSON");
 		}
-		return metric;
+		finally
+		{
+			reader.setLenient(lenient);
+		}
+	}
+
+	private void readTags(JsonReader reader) throws IOException
+	{
+		metric.tagCount = 0;
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return;
+		}
+
+		if (reader.peek() == JsonToken.BEGIN_ARRAY)
+		{
+			// Gson also accepts maps written as an array of key/value pairs
+			reader.beginArray();
+			while (reader.hasNext())
+			{
+				reader.beginArray();
+				String key = readString(reader);
+				putTag(key, readString(reader));
+				reader.endArray();
+			}
+			reader.endArray();
+		}
+		else
+		{
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				String key = reader.nextName();
+				putTag(key, readString(reader));
+			}
+			reader.endObject();
+		}
+	}
+
+	private void putTag(String key, String value)
+	{
+		for (int i = 0; i < metric.tagCount; i++)
+		{
+			if (Objects.equals(metric.tagNames[i], key))
+			{
+				if (metric.tagValues[i] != null)
+					throw new JsonSyntaxException("duplicate key: " + key);
+				metric.tagValues[i] = value;
+				return;
+			}
+		}
+
+		if (metric.tagCount == metric.tagNames.length)
+		{
+			metric.tagNames = Arrays.copyOf(metric.tagNames, metric.tagCount * 2);
+			metric.tagValues = Arrays.copyOf(metric.tagValues, metric.tagCount * 2);
+		}
+		metric.tagNames[metric.tagCount] = key;
+		metric.tagValues[metric.tagCount] = value;
+		metric.tagCount++;
+	}
+
+	private void readDataPoints(JsonReader reader) throws IOException
+	{
+		metric.dataPointCount = 0;
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return;
+		}
+
+		reader.beginArray();
+		while (reader.hasNext())
+		{
+			if (reader.peek() == JsonToken.NULL)
+				throw new JsonSyntaxException("Invalid JSON");
+
+			ParsedDataPoint dataPoint = metric.nextDataPoint();
+			reader.beginArray();
+			while (reader.hasNext())
+			{
+				if (dataPoint.length < dataPoint.elements.length)
+					dataPoint.elements[dataPoint.length].read(reader, jsonElementAdapter);
+				else
+					reader.skipValue();
+				dataPoint.length++;
+			}
+			reader.endArray();
+		}
+		reader.endArray();
+	}
+
+	private static String readString(JsonReader reader) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		if (token == JsonToken.BOOLEAN)
+			return Boolean.toString(reader.nextBoolean());
+		return reader.nextString();
+	}
+
+	private static Long readLong(JsonReader reader) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return null;
+		}
+		try
+		{
+			return reader.nextLong();
+		}
+		catch (NumberFormatException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private static int readInt(JsonReader reader, int current) throws IOException
+	{
+		if (reader.peek() == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return current;
+		}
+		try
+		{
+			return reader.nextInt();
+		}
+		catch (NumberFormatException e)
+		{
+			throw new JsonSyntaxException(e);
+		}
+	}
+
+	private static boolean readBoolean(JsonReader reader, boolean current) throws IOException
+	{
+		JsonToken token = reader.peek();
+		if (token == JsonToken.NULL)
+		{
+			reader.nextNull();
+			return current;
+		}
+		if (token == JsonToken.STRING)
+			return Boolean.parseBoolean(reader.nextString());
+		return reader.nextBoolean();
 	}
 
 	private class Context
@@ -250,6 +483,21 @@ public class DataPointsParser
 		}
 	}
 
+	private String findType(JsonValue value)
+	{
+		if (value.kind == JsonValue.NUMBER || (value.kind == JsonValue.STRING && Util.isNumber(value.text)))
+		{
+			if (value.text.indexOf('.') == -1)
+				return "long";
+			else
+				return "double";
+		}
+		else if (value.kind == JsonValue.STRING)
+			return "string";
+		else
+			return findType(value.toJsonElement());
+	}
+
 	private String findType(JsonElement value)
 	{
 		checkState(value.isJsonPrimitive());
@@ -272,6 +520,49 @@ public class DataPointsParser
 			return "string";
 	}
 
+	/**
+	 Creates long and double data points straight from the parsed text, everything else goes
+	 through the registered factory with a JsonElement.
+	 */
+	private DataPoint createDataPoint(String type, long timestamp, JsonValue value) throws IOException
+	{
+		if (value.kind == JsonValue.NUMBER || value.kind == JsonValue.STRING)
+		{
+			DataPointFactory factory = dataPointFactory.getFactoryForType(type);
+			if (factory != null && factory.getClass() == LongDataPointFactoryImpl.class)
+				return ((LongDataPointFactory) factory).createDataPoint(timestamp, value.getAsLong());
+			if (factory != null && factory.getClass() == DoubleDataPointFactoryImpl.class)
+				return ((DoubleDataPointFactory) factory).createDataPoint(timestamp, value.getAsDouble());
+		}
+
+		return dataPointFactory.createDataPoint(type, timestamp, value.toJsonElement());
+	}
+
+	private static boolean isNotNullOrEmpty(ValidationErrors validationErrors, Object context, JsonValue value)
+	{
+		if (value.kind == JsonValue.NUMBER || value.kind == JsonValue.STRING)
+			return Validator.isNotNullOrEmpty(validationErrors, context, value.text);
+		return Validator.isNotNullOrEmpty(validationErrors, context, value.toJsonElement());
+	}
+
+	/**
+	 Tag names and values repeat across the metrics of a request, so each distinct string only goes
+	 through the character set check once per request. Past the maximum size further strings are
+	 checked every time.
+	 */
+	private boolean isValidCharacterSet(ValidationErrors validationErrors, Object context, String value)
+	{
+		if (validatedStrings.contains(value))
+			return true;
+
+		if (!Validator.isValidateCharacterSet(validationErrors, context, value))
+			return false;
+
+		if (validatedStrings.size() < VALIDATED_STRINGS_MAX_SIZE)
+			validatedStrings.add(value);
+		return true;
+	}
+
 	private boolean validateAndAddDataPoints(NewMetric metric, ValidationErrors errors, int count) throws DatastoreException, IOException
 	{
 		ValidationErrors validationErrors = new ValidationErrors();
@@ -286,29 +577,34 @@ public class DataPointsParser
 			}
 
 			if (metric.getTimestamp() != null)
-				Validator.isNotNullOrEmpty(validationErrors, context.setAttribute("value"), metric.getValue());
-			else if (metric.getValue() != null && !metric.getValue().isJsonNull())
+			{
+				if (metric.hasValue)
+					isNotNullOrEmpty(validationErrors, context.setAttribute("value"), metric.value);
+				else
+					Validator.isNotNullOrEmpty(validationErrors, context.setAttribute("value"), (JsonElement) null);
+			}
+			else if (metric.hasValue && metric.value.kind != JsonValue.NULL)
 				Validator.isNotNull(validationErrors, context.setAttribute("timestamp"), metric.getTimestamp());
 //				Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("timestamp"), metric.getTimestamp(), 1);
 
 
-			if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), metric.getTags().size(), 1))
+			if (Validator.isGreaterThanOrEqualTo(validationErrors, context.setAttribute("tags count"), metric.tagCount, 1))
 			{
-				int tagCount = 0;
 				SubContext tagContext = new SubContext(context.setAttribute(null), "tag");
 
-				for (Map.Entry<String, String> entry : metric.getTags().entrySet())
+				for (int tagCount = 0; tagCount < metric.tagCount; tagCount++)
 				{
+					String name = metric.tagNames[tagCount];
+					String value = metric.tagValues[tagCount];
+
 					tagContext.setCount(tagCount);
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), entry.getKey()))
+					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("name"), name))
 					{
-						tagContext.setName(entry.getKey());
-						Validator.isValidateCharacterSet(validationErrors, tagContext, entry.getKey());
+						tagContext.setName(name);
+						isValidCharacterSet(validationErrors, tagContext, name);
 					}
-					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), entry.getValue()))
-						Validator.isValidateCharacterSet(validationErrors, tagContext, entry.getValue());
-
-					tagCount++;
+					if (Validator.isNotNullOrEmpty(validationErrors, tagContext.setAttribute("value"), value))
+						isValidCharacterSet(validationErrors, tagContext, value);
 				}
 			}
 		}
@@ -316,31 +612,31 @@ public class DataPointsParser
 
 		if (!validationErrors.hasErrors())
 		{
-			//DataPointSet dataPointSet = new DataPointSet(metric.getName(), metric.getTags(), Collections.<DataPoint>emptyList());
-			ImmutableSortedMap<String, String> tags = ImmutableSortedMap.copyOf(metric.getTags());
+			ImmutableSortedMap<String, String> tags = metric.getTags();
 
-			if (metric.getTimestamp() != null && metric.getValue() != null)
+			if (metric.getTimestamp() != null && metric.hasValue)
 			{
 				String type = metric.getType();
 				if (type == null)
-					type = findType(metric.getValue());
+					type = findType(metric.value);
 
 				if (dataPointFactory.isRegisteredType(type))
 				{
-					datastore.putDataPoint(metric.getName(), tags, dataPointFactory.createDataPoint(
-							type, metric.getTimestamp(), metric.getValue()), metric.getTtl());
+					batch.add(metric.getName(), tags,
+							createDataPoint(type, metric.getTimestamp(), metric.value), metric.getTtl());
 					dataPointCount++;
 				}
 				else
 					validationErrors.addErrorMessage("Unregistered data point type '"+type+"'");
 			}
 
-			if (metric.getDatapoints() != null && metric.getDatapoints().length > 0)
+			if (metric.dataPointCount > 0)
 			{
 				int contextCount = 0;
 				SubContext dataPointContext = new SubContext(context, "datapoints");
-				for (JsonElement[] dataPoint : metric.getDatapoints())
+				for (int i = 0; i < metric.dataPointCount; i++)
 				{
+					ParsedDataPoint dataPoint = metric.dataPoints[i];
 					dataPointContext.setCount(contextCount);
 					if (dataPoint.length < 1)
 					{
@@ -354,22 +650,23 @@ public class DataPointsParser
 					}
 					else
 					{
+						JsonValue value = dataPoint.elements[1];
 						Long timestamp = null;
-						if (!dataPoint[0].isJsonNull())
-							timestamp = dataPoint[0].getAsLong();
+						if (dataPoint.elements[0].kind != JsonValue.NULL)
+							timestamp = dataPoint.elements[0].getAsLong();
 
 						if (metric.validate() && !Validator.isNotNull(validationErrors, dataPointContext.setAttribute("timestamp"), timestamp))
 							continue;
 
 						String type = metric.getType();
 						if (dataPoint.length > 2)
-							type = dataPoint[2].getAsString();
-						
-						if (!Validator.isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), dataPoint[1]))
+							type = dataPoint.elements[2].getAsString();
+
+						if (!isNotNullOrEmpty(validationErrors, dataPointContext.setAttribute("value"), value))
 							continue;
 
 						if (type == null)
-							type = findType(dataPoint[1]);
+							type = findType(value);
 
 						if (!dataPointFactory.isRegisteredType(type))
 						{
@@ -377,8 +674,8 @@ public class DataPointsParser
 							continue;
 						}
 
-						datastore.putDataPoint(metric.getName(), tags,
-								dataPointFactory.createDataPoint(type, timestamp, dataPoint[1]), metric.getTtl());
+						batch.add(metric.getName(), tags,
+								createDataPoint(type, timestamp, value), metric.getTtl());
 						dataPointCount ++;
 					}
 					contextCount++;
@@ -391,18 +688,143 @@ public class DataPointsParser
 		return !validationErrors.hasErrors();
 	}
 
-	@SuppressWarnings({"MismatchedReadAndWriteOfArray", "UnusedDeclaration"})
-	private class NewMetric
+	/**
+	 A JSON value as read from the stream. Numbers and strings keep their text, other values are
+	 read into a JsonElement.
+	 */
+	private static class JsonValue
+	{
+		private static final int NULL = 0;
+		private static final int NUMBER = 1;
+		private static final int STRING = 2;
+		private static final int ELEMENT = 3;
+
+		private int kind;
+		private String text;
+		private JsonElement element;
+
+		private void read(JsonReader reader, TypeAdapter<JsonElement> adapter) throws IOException
+		{
+			text = null;
+			element = null;
+			switch (reader.peek())
+			{
+				case NUMBER:
+					kind = NUMBER;
+					text = reader.nextString();
+					break;
+				case STRING:
+					kind = STRING;
+					text = reader.nextString();
+					break;
+				case NULL:
+					kind = NULL;
+					reader.nextNull();
+					break;
+				default:
+					kind = ELEMENT;
+					element = adapter.read(reader);
+			}
+		}
+
+		private JsonElement toJsonElement()
+		{
+			switch (kind)
+			{
+				case NUMBER:
+					return new JsonPrimitive(new LazilyParsedNumber(text));
+				case STRING:
+					return new JsonPrimitive(text);
+				case NULL:
+					return JsonNull.INSTANCE;
+				default:
+					return element;
+			}
+		}
+
+		private long getAsLong()
+		{
+			if (kind == NUMBER)
+			{
+				try
+				{
+					return Long.parseLong(text);
+				}
+				catch (NumberFormatException e)
+				{
+					return new LazilyParsedNumber(text).longValue();
+				}
+			}
+			if (kind == STRING)
+				return Long.parseLong(text);
+			return toJsonElement().getAsLong();
+		}
+
+		private double getAsDouble()
+		{
+			if (kind == NUMBER || kind == STRING)
+				return Double.parseDouble(text);
+			return toJsonElement().getAsDouble();
+		}
+
+		private String getAsString()
+		{
+			if (kind == NUMBER || kind == STRING)
+				return text;
+			return toJsonElement().getAsString();
+		}
+	}
+
+	private static class ParsedDataPoint
+	{
+		private final JsonValue[] elements = {new JsonValue(), new JsonValue(), new JsonValue()};
+		private int length;
+	}
+
+	/**
+	 Fields of the metric being parsed. One instance is reused for all metrics of a request.
+	 */
+	private static class NewMetric
 	{
 		private String name;
-		private Long timestamp = null;
-		private Long time = null;
-		private JsonElement value;
-		private Map<String, String> tags;
-		private JsonElement[][] datapoints;
-		private boolean skip_validate = false;
+		private Long timestamp;
+		private Long time;
+		private final JsonValue value = new JsonValue();
+		private boolean hasValue;
+		private String[] tagNames = new String[8];
+		private String[] tagValues = new String[8];
+		private int tagCount;
+		private ParsedDataPoint[] dataPoints = new ParsedDataPoint[0];
+		private int dataPointCount;
+		private boolean skip_validate;
 		private String type;
-		private int ttl = 0;
+		private int ttl;
+
+		private void reset()
+		{
+			name = null;
+			timestamp = null;
+			time = null;
+			hasValue = false;
+			tagCount = 0;
+			dataPointCount = 0;
+			skip_validate = false;
+			type = null;
+			ttl = 0;
+		}
+
+		private ParsedDataPoint nextDataPoint()
+		{
+			if (dataPointCount == dataPoints.length)
+			{
+				dataPoints = Arrays.copyOf(dataPoints, Math.max(16, dataPointCount * 2));
+				for (int i = dataPointCount; i < dataPoints.length; i++)
+					dataPoints[i] = new ParsedDataPoint();
+			}
+			ParsedDataPoint dataPoint = dataPoints[dataPointCount++];
+			dataPoint.length = 0;
+			return dataPoint;
+		}
 
 		private String getName()
 		{
@@ -417,19 +839,12 @@ public class DataPointsParser
 				return timestamp;
 		}
 
-		public JsonElement getValue()
-		{
-			return value;
-		}
-
-		public Map<String, String> getTags()
-		{
-			return tags != null ? tags : Collections.<String, String>emptyMap();
-		}
-
-		private JsonElement[][] getDatapoints()
+		public ImmutableSortedMap<String, String> getTags()
 		{
-			return datapoints;
+			ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+			for (int i = 0; i < tagCount; i++)
+				builder.put(TagInterner.intern(tagNames[i]), TagInterner.intern(tagValues[i]));
+			return builder.build();
 		}
 
 		private boolean validate()
@@ -441,4 +856,4 @@ public class DataPointsParser
 
 		public int getTtl() { return ttl; }
 	}
-}
\ No newline at end of file
+}
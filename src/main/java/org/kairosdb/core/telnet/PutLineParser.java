@@ -0,0 +1,215 @@
+package org.kairosdb.core.telnet;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.util.TagInterner;
+
+import java.nio.charset.Charset;
+import java.text.ParseException;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ Parses telnet commands straight from the bytes read off the connection.
+ <pre>
+ put &lt;metric&gt; &lt;timestamp&gt; &lt;value&gt; &lt;tag=value&gt; ...
+ putm &lt;metric&gt; &lt;timestamp in milliseconds&gt; &lt;value&gt; &lt;tag=value&gt; ...
+ </pre>
+ The timestamp of put is taken as seconds when it is below 3000000000, otherwise as
+ milliseconds. Values with a '.' or an exponent are doubles, all others longs. At least one tag
+ is required.
+ <p>
+ Only the metric name and the tags become Strings, numbers are parsed in place. A parser is not
+ thread safe, the results of the last parsed line are kept until the next one.
+ */
+public class PutLineParser
+{
+	private static final long SECONDS_THRESHOLD = 3000000000L;
+
+	private final LongDataPointFactory longDataPointFactory;
+	private final DoubleDataPointFactory doubleDataPointFactory;
+
+	private String metricName;
+	private ImmutableSortedMap<String, String> tags;
+	private DataPoint dataPoint;
+
+	// Bounds of the current token
+	private int tokenStart;
+	private int tokenEnd;
+
+	public PutLineParser(LongDataPointFactory longDataPointFactory, DoubleDataPointFactory doubleDataPointFactory)
+	{
+		this.longDataPointFactory = longDataPointFactory;
+		this.doubleDataPointFactory = doubleDataPointFactory;
+	}
+
+	/**
+	 Parses the line in bytes[start, end), without the line terminator.
+
+	 @return true if the line held a data point, false for an empty line
+	 @throws ParseException if the line is not a valid command
+	 */
+	public boolean parse(byte[] bytes, int start, int end) throws ParseException
+	{
+		if (end > start && bytes[end - 1] == '\r')
+			end--;
+
+		tokenEnd = start;
+		if (!nextToken(bytes, end))
+			return false;
+
+		boolean milliseconds;
+		if (tokenEquals(bytes, "put"))
+			milliseconds = false;
+		else if (tokenEquals(bytes, "putm"))
+			milliseconds = true;
+		else
+			throw new ParseException("Unknown command '" + token(bytes, ISO_8859_1) + "'", tokenStart - start);
+
+		requireToken(bytes, end, start, "metric name");
+		String name = token(bytes, UTF_8);
+
+		requireToken(bytes, end, start, "timestamp");
+		long timestamp = parseLong(bytes, start, "timestamp");
+		if (!milliseconds && timestamp < SECONDS_THRESHOLD)
+			timestamp *= 1000;
+
+		requireToken(bytes, end, start, "value");
+		DataPoint point;
+		if (isDouble(bytes))
+		{
+			try
+			{
+				point = doubleDataPointFactory.createDataPoint(timestamp,
+						Double.parseDouble(token(bytes, ISO_8859_1)));
+			}
+			catch (NumberFormatException e)
+			{
+				throw new ParseException("Invalid value '" + token(bytes, ISO_8859_1) + "'", tokenStart - start);
+			}
+		}
+		else
+			point = longDataPointFactory.createDataPoint(timestamp, parseLong(bytes, start, "value"));
+
+		ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+		int tagCount = 0;
+		while (nextToken(bytes, end))
+		{
+			int separator = -1;
+			for (int i = tokenStart; i < tokenEnd; i++)
+			{
+				byte b = bytes[i];
+				if (b == '=' && separator == -1)
+					separator = i;
+				else if (b == '=' || b == ':')
+					throw new ParseException("Tag '" + token(bytes, UTF_8) + "' may contain any character except colon ':', and equals '='", i - start);
+			}
+			if (separator <= tokenStart || separator == tokenEnd - 1)
+				throw new ParseException("Invalid tag '" + token(bytes, UTF_8) + "', expected name=value", tokenStart - start);
+
+			builder.put(TagInterner.intern(new String(bytes, tokenStart, separator - tokenStart, UTF_8)),
+					TagInterner.intern(new String(bytes, separator + 1, tokenEnd - separator - 1, UTF_8)));
+			tagCount++;
+		}
+		if (tagCount == 0)
+			throw new ParseException("Metric '" + name + "' needs at least one tag", end - start);
+
+		try
+		{
+			tags = builder.build();
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new ParseException("Metric '" + name + "' has duplicate tags", end - start);
+		}
+		metricName = name;
+		dataPoint = point;
+		return true;
+	}
+
+	public String getMetricName()
+	{
+		return metricName;
+	}
+
+	public ImmutableSortedMap<String, String> getTags()
+	{
+		return tags;
+	}
+
+	public DataPoint getDataPoint()
+	{
+		return dataPoint;
+	}
+
+	private boolean nextToken(byte[] bytes, int end)
+	{
+		int i = tokenEnd;
+		while (i < end && (bytes[i] == ' ' || bytes[i] == '\t'))
+			i++;
+		tokenStart = i;
+		while (i < end && bytes[i] != ' ' && bytes[i] != '\t')
+			i++;
+		tokenEnd = i;
+		return tokenEnd > tokenStart;
+	}
+
+	private void requireToken(byte[] bytes, int end, int start, String field) throws ParseException
+	{
+		if (!nextToken(bytes, end))
+			throw new ParseException("Missing " + field, end - start);
+	}
+
+	private boolean tokenEquals(byte[] bytes, String value)
+	{
+		if (tokenEnd - tokenStart != value.length())
+			return false;
+		for (int i = 0; i < value.length(); i++)
+		{
+			if (bytes[tokenStart + i] != value.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isDouble(byte[] bytes)
+	{
+		for (int i = tokenStart; i < tokenEnd; i++)
+		{
+			byte b = bytes[i];
+			if (b == '.' || b == 'e' || b == 'E' || b == 'N' || b == 'I')
+				return true;
+		}
+		return false;
+	}
+
+	private long parseLong(byte[] bytes, int start, String field) throws ParseException
+	{
+		int i = tokenStart;
+		boolean negative = bytes[i] == '-';
+		if (negative || bytes[i] == '+')
+			i++;
+		if (i == tokenEnd)
+			throw new ParseException("Invalid " + field + " '" + token(bytes, ISO_8859_1) + "'", tokenStart - start);
+
+		// Accumulated negatively, so Long.MIN_VALUE fits
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+		for (; i < tokenEnd; i++)
+		{
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9 || result < limit / 10 || result * 10 < limit + digit)
+				throw new ParseException("Invalid " + field + " '" + token(bytes, ISO_8859_1) + "'", i - start);
+			result = result * 10 - digit;
+		}
+		return negative ? result : -result;
+	}
+
+	private String token(byte[] bytes, Charset charset)
+	{
+		return new String(bytes, tokenStart, tokenEnd - tokenStart, charset);
+	}
+}
@@ -0,0 +1,19 @@
+package org.kairosdb.core.telnet;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TelnetModule extends AbstractModule
+{
+	public static final Logger logger = LoggerFactory.getLogger(TelnetModule.class);
+
+	@Override
+	protected void configure()
+	{
+		logger.info("Configuring module TelnetModule");
+
+		bind(TelnetServer.class).in(Singleton.class);
+	}
+}
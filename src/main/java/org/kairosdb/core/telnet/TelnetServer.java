@@ -0,0 +1,509 @@
+package org.kairosdb.core.telnet;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDBService;
+import org.kairosdb.core.datapoints.DoubleDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPointFactory;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.kairosdb.core.exception.KairosDBException;
+import org.kairosdb.core.exception.QuotaExceededException;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Accepts the telnet line protocol ("put metric timestamp value tag=value ...") on any number of
+ concurrent connections. A single selector thread reads and parses the lines, see
+ {@link PutLineParser}, and hands the data points to a small worker pool in batches, which adds
+ them through {@link KairosDatastore} so the data point listeners see them as well. When the
+ workers fall behind the selector thread writes the batch itself, which stops reading from all
+ connections until the datastore catches up.
+ */
+public class TelnetServer implements KairosDBService, KairosMetricReporter, Runnable
+{
+	public static final Logger logger = LoggerFactory.getLogger(TelnetServer.class);
+
+	public static final String TELNET_ADDRESS_PROPERTY = "kairosdb.telnet.address";
+	public static final String TELNET_PORT_PROPERTY = "kairosdb.telnet.port";
+	public static final String TELNET_MAX_COMMAND_SIZE_PROPERTY = "kairosdb.telnet.max_command_size";
+	public static final String TELNET_BATCH_SIZE_PROPERTY = "kairosdb.telnet.batch_size";
+	public static final String TELNET_WORKER_THREADS_PROPERTY = "kairosdb.telnet.worker_threads";
+	public static final String TELNET_WORKER_QUEUE_SIZE_PROPERTY = "kairosdb.telnet.worker_queue_size";
+
+	public static final String CONNECTIONS = "kairosdb.telnet.connections";
+	public static final String CONNECTIONS_ACCEPTED = "kairosdb.telnet.connections_accepted";
+	public static final String BYTES_READ = "kairosdb.telnet.bytes_read";
+	public static final String DATAPOINTS = "kairosdb.telnet.datapoints";
+	public static final String PARSE_ERRORS = "kairosdb.telnet.parse_errors";
+	public static final String WRITE_ERRORS = "kairosdb.telnet.write_errors";
+	public static final String QUOTA_REJECTIONS = "kairosdb.telnet.quota_rejections";
+	public static final String ACCEPT_ERRORS = "kairosdb.telnet.accept_errors";
+
+	// Time new connections are not accepted after accepting one failed, for example with too many open files
+	private static final long ACCEPT_BACKOFF_MS = 1000;
+
+	private final KairosDatastore m_datastore;
+	private final LongDataPointFactory m_longDataPointFactory;
+	private final PutLineParser m_parser;
+
+	@Inject(optional = true)
+	@Named(TELNET_ADDRESS_PROPERTY)
+	private String m_address = "0.0.0.0";
+
+	@Inject(optional = true)
+	@Named(TELNET_PORT_PROPERTY)
+	private int m_port = 4242;
+
+	@Inject(optional = true)
+	@Named(TELNET_MAX_COMMAND_SIZE_PROPERTY)
+	private int m_maxCommandSize = 1024;
+
+	@Inject(optional = true)
+	@Named(TELNET_BATCH_SIZE_PROPERTY)
+	private int m_batchSize = 500;
+
+	@Inject(optional = true)
+	@Named(TELNET_WORKER_THREADS_PROPERTY)
+	private int m_workerThreads = 2;
+
+	@Inject(optional = true)
+	@Named(TELNET_WORKER_QUEUE_SIZE_PROPERTY)
+	private int m_workerQueueSize = 16;
+
+	@Inject
+	@Named("HOSTNAME")
+	private String m_hostName = "localhost";
+
+	private Selector m_selector;
+	private ServerSocketChannel m_serverChannel;
+	private SelectionKey m_acceptKey;
+	private long m_acceptPausedUntil;
+	private ThreadPoolExecutor m_workers;
+	private Thread m_selectorThread;
+	private volatile boolean m_keepRunning = true;
+
+	private Batch m_batch;
+
+	private final AtomicInteger m_connections = new AtomicInteger();
+	private final AtomicLong m_connectionsAccepted = new AtomicLong();
+	private final AtomicLong m_bytesRead = new AtomicLong();
+	private final AtomicLong m_dataPoints = new AtomicLong();
+	private final AtomicLong m_parseErrors = new AtomicLong();
+	private final AtomicLong m_writeErrors = new AtomicLong();
+	private final AtomicLong m_quotaRejections = new AtomicLong();
+	private final AtomicLong m_acceptErrors = new AtomicLong();
+
+	@Inject
+	public TelnetServer(KairosDatastore datastore, LongDataPointFactory longDataPointFactory,
+	                    DoubleDataPointFactory doubleDataPointFactory)
+	{
+		m_datastore = datastore;
+		m_longDataPointFactory = longDataPointFactory;
+		m_parser = new PutLineParser(longDataPointFactory, doubleDataPointFactory);
+	}
+
+	@VisibleForTesting
+	TelnetServer(KairosDatastore datastore, LongDataPointFactory longDataPointFactory,
+	             DoubleDataPointFactory doubleDataPointFactory, String address, int port, int batchSize)
+	{
+		this(datastore, longDataPointFactory, doubleDataPointFactory);
+		m_address = address;
+		m_port = port;
+		m_batchSize = batchSize;
+	}
+
+	@Override
+	public void start() throws KairosDBException
+	{
+		try
+		{
+			m_selector = Selector.open();
+			m_serverChannel = ServerSocketChannel.open();
+			m_serverChannel.bind(new InetSocketAddress(m_address, m_port));
+			m_serverChannel.configureBlocking(false);
+			m_acceptKey = m_serverChannel.register(m_selector, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException e)
+		{
+			throw new KairosDBException("Unable to listen for telnet connections on " + m_address + ":" + m_port, e);
+		}
+
+		m_workers = new ThreadPoolExecutor(m_workerThreads, m_workerThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(m_workerQueueSize),
+				new ThreadFactoryBuilder().setNameFormat("telnet-writer-%d").setDaemon(true).build(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		m_batch = new Batch(m_batchSize);
+
+		m_selectorThread = new Thread(this, "telnet-selector");
+		m_selectorThread.start();
+		logger.info("Listening for telnet connections on " + m_serverChannel.socket().getLocalSocketAddress());
+	}
+
+	@Override
+	public void stop()
+	{
+		m_keepRunning = false;
+		if (m_selector == null)
+			return;
+
+		m_selector.wakeup();
+		try
+		{
+			m_selectorThread.join(10000);
+			m_workers.shutdown();
+			m_workers.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@VisibleForTesting
+	int getLocalPort()
+	{
+		return m_serverChannel.socket().getLocalPort();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (m_keepRunning)
+			{
+				select();
+
+				Iterator<SelectionKey> keys = m_selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					if (!key.isValid())
+						continue;
+
+					try
+					{
+						if (key.isAcceptable())
+							accept();
+						else if (key.isReadable())
+							read(key);
+					}
+					catch (RuntimeException e)
+					{
+						// Only this connection is lost, the others and the server socket keep going
+						logger.warn("Failed to handle telnet connection", e);
+						if (key != m_acceptKey)
+							close(key);
+					}
+				}
+
+				// Whatever was read in this round goes out now, batches only fill up under load
+				flush();
+			}
+		}
+		catch (IOException e)
+		{
+			logger.error("Telnet server stopped", e);
+		}
+		finally
+		{
+			for (SelectionKey key : m_selector.keys())
+				close(key);
+			try
+			{
+				m_selector.close();
+			}
+			catch (IOException e)
+			{
+				logger.warn("Failed to close telnet selector", e);
+			}
+		}
+	}
+
+	/**
+	 Waits for ready connections. While accepts are paused it only waits until they resume.
+	 */
+	private void select() throws IOException
+	{
+		if (m_acceptPausedUntil == 0)
+		{
+			m_selector.select();
+			return;
+		}
+
+		long wait = m_acceptPausedUntil - System.currentTimeMillis();
+		if (wait > 0)
+			m_selector.select(wait);
+		if (System.currentTimeMillis() >= m_acceptPausedUntil)
+		{
+			m_acceptPausedUntil = 0;
+			m_acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+		}
+	}
+
+	private void accept()
+	{
+		SocketChannel channel;
+		try
+		{
+			channel = acceptChannel();
+		}
+		catch (IOException e)
+		{
+			// The pending connection stays in the backlog, accepting it right away would most likely fail again
+			m_acceptErrors.incrementAndGet();
+			logger.warn("Failed to accept telnet connection, pausing accepts for " + ACCEPT_BACKOFF_MS + " ms", e);
+			m_acceptKey.interestOps(0);
+			m_acceptPausedUntil = System.currentTimeMillis() + ACCEPT_BACKOFF_MS;
+			return;
+		}
+		if (channel == null)
+			return;
+
+		try
+		{
+			channel.configureBlocking(false);
+			channel.register(m_selector, SelectionKey.OP_READ, new Connection(m_maxCommandSize));
+		}
+		catch (IOException e)
+		{
+			m_acceptErrors.incrementAndGet();
+			logger.warn("Failed to set up telnet connection", e);
+			try
+			{
+				channel.close();
+			}
+			catch (IOException closeFailure)
+			{
+				logger.debug("Failed to close telnet connection", closeFailure);
+			}
+			return;
+		}
+		m_connections.incrementAndGet();
+		m_connectionsAccepted.incrementAndGet();
+	}
+
+	@VisibleForTesting
+	SocketChannel acceptChannel() throws IOException
+	{
+		return m_serverChannel.accept();
+	}
+
+	private void read(SelectionKey key)
+	{
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		ByteBuffer buffer = connection.m_buffer;
+
+		int read;
+		try
+		{
+			read = channel.read(buffer);
+		}
+		catch (IOException e)
+		{
+			logger.debug("Failed to read from telnet connection", e);
+			close(key);
+			return;
+		}
+
+		if (read < 0)
+		{
+			close(key);
+			return;
+		}
+		m_bytesRead.addAndGet(read);
+
+		byte[] bytes = buffer.array();
+		int end = buffer.position();
+		int lineStart = 0;
+		for (int i = 0; i < end; i++)
+		{
+			if (bytes[i] != '\n')
+				continue;
+
+			if (connection.m_discarding)
+				connection.m_discarding = false;
+			else
+				parseLine(bytes, lineStart, i);
+			lineStart = i + 1;
+		}
+
+		if (lineStart == 0 && end == buffer.capacity())
+		{
+			// No line end in a full buffer, drop everything up to the next one
+			if (!connection.m_discarding)
+			{
+				m_parseErrors.incrementAndGet();
+				logger.debug("Dropping telnet command longer than " + m_maxCommandSize + " bytes");
+			}
+			connection.m_discarding = true;
+			buffer.clear();
+		}
+		else
+		{
+			buffer.limit(end);
+			buffer.position(lineStart);
+			buffer.compact();
+		}
+	}
+
+	private void parseLine(byte[] bytes, int start, int end)
+	{
+		try
+		{
+			if (m_parser.parse(bytes, start, end))
+			{
+				m_batch.add(m_parser.getMetricName(), m_parser.getTags(), m_parser.getDataPoint());
+				if (m_batch.size() >= m_batchSize)
+					flush();
+			}
+		}
+		catch (ParseException e)
+		{
+			m_parseErrors.incrementAndGet();
+			logger.debug("Invalid telnet command: " + e.getMessage());
+		}
+	}
+
+	private void flush()
+	{
+		if (m_batch.size() == 0)
+			return;
+
+		final Batch batch = m_batch;
+		m_batch = new Batch(m_batchSize);
+		m_workers.execute(() -> write(batch));
+	}
+
+	private void write(Batch batch)
+	{
+		for (int i = 0; i < batch.size(); i++)
+		{
+			try
+			{
+				m_datastore.putDataPoint(batch.m_names.get(i), batch.m_tags.get(i), batch.m_dataPoints.get(i), 0);
+				m_dataPoints.incrementAndGet();
+			}
+			catch (DatastoreOverloadedException e)
+			{
+				// The rest of the batch would be rejected as well
+				m_writeErrors.addAndGet(batch.size() - i);
+				logger.debug("Dropping telnet data points: " + e.getMessage());
+				return;
+			}
+			catch (QuotaExceededException e)
+			{
+				// Expected while a sender is over its quota, counted instead of logged per line
+				m_quotaRejections.incrementAndGet();
+			}
+			catch (DatastoreException e)
+			{
+				m_writeErrors.incrementAndGet();
+				logger.error("Failed to add telnet data point", e);
+			}
+		}
+	}
+
+	private void close(SelectionKey key)
+	{
+		key.cancel();
+		try
+		{
+			key.channel().close();
+		}
+		catch (IOException e)
+		{
+			logger.debug("Failed to close telnet connection", e);
+		}
+		if (key.attachment() instanceof Connection)
+			m_connections.decrementAndGet();
+	}
+
+	@Override
+	public List<DataPointSet> getMetrics(long now)
+	{
+		List<DataPointSet> ret = new ArrayList<>();
+		ret.add(newDataPointSet(CONNECTIONS, now, m_connections.get()));
+		ret.add(newDataPointSet(CONNECTIONS_ACCEPTED, now, m_connectionsAccepted.getAndSet(0)));
+		ret.add(newDataPointSet(BYTES_READ, now, m_bytesRead.getAndSet(0)));
+		ret.add(newDataPointSet(DATAPOINTS, now, m_dataPoints.getAndSet(0)));
+		ret.add(newDataPointSet(PARSE_ERRORS, now, m_parseErrors.getAndSet(0)));
+		ret.add(newDataPointSet(WRITE_ERRORS, now, m_writeErrors.getAndSet(0)));
+		ret.add(newDataPointSet(QUOTA_REJECTIONS, now, m_quotaRejections.getAndSet(0)));
+		ret.add(newDataPointSet(ACCEPT_ERRORS, now, m_acceptErrors.getAndSet(0)));
+		return ret;
+	}
+
+	private DataPointSet newDataPointSet(String name, long now, long value)
+	{
+		DataPointSet dps = new DataPointSet(name);
+		dps.addTag("host", m_hostName);
+		dps.addDataPoint(m_longDataPointFactory.createDataPoint(now, value));
+		return dps;
+	}
+
+	private static class Connection
+	{
+		private final ByteBuffer m_buffer;
+		private boolean m_discarding;
+
+		private Connection(int maxCommandSize)
+		{
+			m_buffer = ByteBuffer.allocate(maxCommandSize);
+		}
+	}
+
+	private static class Batch
+	{
+		private final List<String> m_names;
+		private final List<ImmutableSortedMap<String, String>> m_tags;
+		private final List<DataPoint> m_dataPoints;
+
+		private Batch(int size)
+		{
+			m_names = new ArrayList<>(size);
+			m_tags = new ArrayList<>(size);
+			m_dataPoints = new ArrayList<>(size);
+		}
+
+		private void add(String name, ImmutableSortedMap<String, String> tags, DataPoint dataPoint)
+		{
+			m_names.add(name);
+			m_tags.add(tags);
+			m_dataPoints.add(dataPoint);
+		}
+
+		private int size()
+		{
+			return m_names.size();
+		}
+	}
+}
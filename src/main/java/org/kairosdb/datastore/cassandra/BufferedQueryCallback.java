@@ -0,0 +1,140 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.base.Throwables;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.util.MemoryMonitor;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the data point sets of one {@link CQLQueryRunner} in memory, so runners can read concurrently while their
+ * results are still handed to the query callback one runner after another.
+ * <p>
+ * The heap is checked while points are buffered, a query running out of memory fails on its reading threads before
+ * all of its runners are complete.
+ */
+class BufferedQueryCallback implements QueryCallback {
+    private final MemoryMonitor m_memoryMonitor;
+    private final List<BufferedSet> m_sets = new ArrayList<>();
+    private BufferedSet m_current;
+
+    /**
+     * @param memoryMonitor used by this buffer only, memory monitors are not thread safe
+     */
+    BufferedQueryCallback(MemoryMonitor memoryMonitor) {
+        m_memoryMonitor = memoryMonitor;
+    }
+
+    /**
+     * Runs the query runners, up to the given parallelism at a time on the executor. Each runner reads into its own
+     * buffer, the buffers are handed to the callback in the order of the runners, so the callback sees the same
+     * sequence as with runners executed one after another.
+     */
+    static void runInOrder(List<CQLQueryRunner> runners, QueryCallback queryCallback, ExecutorService executor,
+                           int parallelism, MemoryMonitor mm) throws IOException {
+        if (runners.size() <= 1 || parallelism <= 1) {
+            for (CQLQueryRunner runner : runners) {
+                runner.runQuery();
+
+                mm.checkMemoryAndThrowException();
+            }
+            return;
+        }
+
+        final Deque<Future<BufferedQueryCallback>> window = new ArrayDeque<>(parallelism);
+        final Iterator<CQLQueryRunner> pending = runners.iterator();
+        try {
+            while (window.size() < parallelism && pending.hasNext()) {
+                window.addLast(submit(executor, pending.next()));
+            }
+            while (!window.isEmpty()) {
+                final BufferedQueryCallback result = await(window.removeFirst());
+                if (pending.hasNext()) {
+                    mm.checkMemoryAndThrowException();
+                    window.addLast(submit(executor, pending.next()));
+                }
+                result.replayTo(queryCallback);
+
+                mm.checkMemoryAndThrowException();
+            }
+        } finally {
+            for (Future<BufferedQueryCallback> future : window) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static Future<BufferedQueryCallback> submit(ExecutorService executor, CQLQueryRunner runner) {
+        return executor.submit(() -> {
+            final BufferedQueryCallback buffer = new BufferedQueryCallback(new MemoryMonitor(20));
+            runner.runQuery(buffer);
+            return buffer;
+        });
+    }
+
+    private static BufferedQueryCallback await(Future<BufferedQueryCallback> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for query runner", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            Throwables.throwIfInstanceOf(cause, IOException.class);
+            Throwables.throwIfUnchecked(cause);
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void startDataPointSet(String dataType, Map<String, String> tags) {
+        m_current = new BufferedSet(dataType, tags);
+        m_sets.add(m_current);
+    }
+
+    @Override
+    public void addDataPoint(DataPoint datapoint) {
+        m_current.m_dataPoints.add(datapoint);
+
+        m_memoryMonitor.checkMemoryAndThrowException();
+    }
+
+    @Override
+    public void endDataPoints() {
+        // Ended by the receiving callback once all runners are replayed
+    }
+
+    /**
+     * Passes the buffered sets to the callback in the order they were read.
+     */
+    void replayTo(QueryCallback queryCallback) throws IOException {
+        for (BufferedSet set : m_sets) {
+            queryCallback.startDataPointSet(set.m_dataType, set.m_tags);
+            for (DataPoint dataPoint : set.m_dataPoints) {
+                queryCallback.addDataPoint(dataPoint);
+            }
+        }
+        m_sets.clear();
+    }
+
+    private static class BufferedSet {
+        private final String m_dataType;
+        private final Map<String, String> m_tags;
+        private final List<DataPoint> m_dataPoints = new ArrayList<>();
+
+        private BufferedSet(String dataType, Map<String, String> tags) {
+            m_dataType = dataType;
+            m_tags = tags;
+        }
+    }
+}
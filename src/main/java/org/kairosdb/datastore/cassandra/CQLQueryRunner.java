@@ -16,6 +16,7 @@
 package org.kairosdb.datastore.cassandra;
 
 import com.datastax.driver.core.*;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.datapoints.*;
 import org.kairosdb.core.datastore.Order;
@@ -24,9 +25,18 @@ import org.kairosdb.util.KDataInput;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import static com.datastax.driver.core.ProtocolVersion.NEWEST_SUPPORTED;
 
@@ -35,6 +45,7 @@ import static org.kairosdb.datastore.cassandra.CassandraDatastore.*;
 public class CQLQueryRunner {
     public static final DataPointsRowKeySerializer ROW_KEY_SERIALIZER = new DataPointsRowKeySerializer();
     public static final TypeCodec<Integer> INTEGER_CODEC = CodecRegistry.DEFAULT_INSTANCE.codecFor(DataType.cint());
+    private static final int PREFETCH_THRESHOLD = 100;
 
     private final Session m_session;
     private final PreparedStatement m_dataPointQuery;
@@ -44,6 +55,8 @@ public class CQLQueryRunner {
     private long m_endTime; // relative row time
     private long m_rowWidth;
     private QueryCallback m_queryCallback;
+    private final int m_limit;
+    private final QueryReadTracker m_reads;
 
     private final KairosDataPointFactory m_kairosDataPointFactory;
 
@@ -52,10 +65,33 @@ public class CQLQueryRunner {
                           List<DataPointsRowKey> rowKeys, long startTime, long endTime, long rowWidth,
                           QueryCallback csResult,
                           int limit, Order order) {
+        this(session, dataPointQuery, kairosDataPointFactory, rowKeys, startTime, endTime, rowWidth, csResult, limit,
+                order, new QueryReadTracker(0, latencyMs -> {
+                }));
+    }
+
+    /**
+     * @param dataPointQuery data point query in the given order, with a LIMIT as fourth parameter if limit is set
+     * @param limit          data points to read per series at most, 0 for no limit
+     * @param reads          limits and measures the partition reads in flight across all runners of a query
+     */
+    public CQLQueryRunner(Session session, PreparedStatement dataPointQuery,
+                          KairosDataPointFactory kairosDataPointFactory,
+                          List<DataPointsRowKey> rowKeys, long startTime, long endTime, long rowWidth,
+                          QueryCallback csResult,
+                          int limit, Order order, QueryReadTracker reads) {
         m_session = session;
         m_dataPointQuery = dataPointQuery;
 
-        m_rowKeys = rowKeys;
+        m_limit = Math.max(0, limit);
+        if (m_limit > 0) {
+            // Partitions are read in the order of the query, so a series is complete once enough points were read
+            Comparator<DataPointsRowKey> byTime = Comparator.comparingLong(DataPointsRowKey::getTimestamp);
+            m_rowKeys = new ArrayList<>(rowKeys);
+            m_rowKeys.sort(order == Order.DESC ? byTime.reversed() : byTime);
+        } else {
+            m_rowKeys = rowKeys;
+        }
         m_kairosDataPointFactory = kairosDataPointFactory;
 
         m_startTime = startTime;
@@ -63,15 +99,18 @@ public class CQLQueryRunner {
         m_rowWidth = rowWidth;
 
         m_queryCallback = csResult;
+        m_reads = reads;
     }
 
     private static class KeyFuturePair {
-        DataPointsRowKey key;
-        ResultSetFuture future;
+        final DataPointsRowKey key;
+        final ResultSetFuture future;
+        final long rangeMs;
 
-        public KeyFuturePair(DataPointsRowKey key, ResultSetFuture future) {
+        KeyFuturePair(DataPointsRowKey key, ResultSetFuture future, long rangeMs) {
             this.key = key;
             this.future = future;
+            this.rangeMs = rangeMs;
         }
     }
 
@@ -90,63 +129,206 @@ public class CQLQueryRunner {
     }
 
     public void runQuery() throws IOException {
-        List<KeyFuturePair> futureResults = new ArrayList<>(m_rowKeys.size());
-
-        for (DataPointsRowKey k : m_rowKeys) {
-            BoundStatement query = m_dataPointQuery.bind();
-            query.setFetchSize(1000);
-
-            ByteBuffer startRange = INTEGER_CODEC.serialize(getStarTime(m_startTime, k.getTimestamp()), NEWEST_SUPPORTED);
-            ByteBuffer endRange = INTEGER_CODEC.serialize(getEndTime(m_endTime, k.getTimestamp(), m_rowWidth), NEWEST_SUPPORTED);
+        runQuery(m_queryCallback);
+    }
 
-            query.setBytes(1, startRange);
-            query.setBytes(2, endRange);
+    /**
+     * Reads the rows and hands their data points to the given callback instead of the one of the constructor.
+     * <p>
+     * Reads are sent as long as the query has permits left and decoded in the order they complete, so a slow
+     * partition does not hold up the ones after it. The callback is only called from the calling thread.
+     * <p>
+     * With a limit, the partitions of a series are read one after another and the remaining ones are skipped as soon
+     * as the series has as many data points as the limit.
+     */
+    public void runQuery(QueryCallback queryCallback) throws IOException {
+        final BlockingQueue<KeyFuturePair> completed = new LinkedBlockingQueue<>();
+        final SeriesReads series = new SeriesReads(m_rowKeys);
+        DataPointsRowKey next = null;
+        int inFlight = 0;
 
-            ByteBuffer rowKey = ROW_KEY_SERIALIZER.toByteBuffer(k).duplicate();
-            query.setBytes(0, rowKey);
+        while (inFlight > 0 || next != null || series.hasNext()) {
+            // Block for a permit only when there is nothing of our own to decode meanwhile
+            while ((next != null || (next = series.next()) != null)
+                    && (inFlight == 0 ? acquire() : m_reads.tryAcquire())) {
+                submit(next, completed);
+                next = null;
+                inFlight++;
+            }
+            if (inFlight == 0) {
+                continue;
+            }
 
-            ResultSetFuture rs = m_session.executeAsync(query);
-            futureResults.add(new KeyFuturePair(k, rs));
-        }
+            final KeyFuturePair f;
+            try {
+                f = completed.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading data points", e);
+            }
+            inFlight--;
 
-        for (KeyFuturePair f : futureResults) {
             ResultSet rs = null;
             try {
                 rs = f.future.getUninterruptibly();
             } catch (Throwable t) {
                 logger.error("Failed to get result", t);
+                m_reads.failed();
+                series.completed(f.key, 0);
                 continue;
             }
 
-            DataPointsRowKey k = f.key;
+            series.completed(f.key, decode(f, rs, queryCallback));
+        }
+    }
+
+    private boolean acquire() {
+        m_reads.acquire();
+        return true;
+    }
+
+    private void submit(DataPointsRowKey k, BlockingQueue<KeyFuturePair> completed) {
+        final long rowTime = k.getTimestamp();
+        final long rangeMs = Math.min(m_endTime, rowTime + m_rowWidth) - Math.max(m_startTime, rowTime) + 1;
+
+        BoundStatement query = m_dataPointQuery.bind();
+        query.setFetchSize(m_reads.fetchSize(rangeMs));
+
+        ByteBuffer startRange = INTEGER_CODEC.serialize(getStarTime(m_startTime, rowTime), NEWEST_SUPPORTED);
+        ByteBuffer endRange = INTEGER_CODEC.serialize(getEndTime(m_endTime, rowTime, m_rowWidth), NEWEST_SUPPORTED);
+
+        query.setBytes(1, startRange);
+        query.setBytes(2, endRange);
+
+        ByteBuffer rowKey = ROW_KEY_SERIALIZER.toByteBuffer(k).duplicate();
+        query.setBytes(0, rowKey);
+        if (m_limit > 0) {
+            query.setInt(3, m_limit);
+        }
+
+        final long submitNanos = System.nanoTime();
+        final ResultSetFuture rs;
+        try {
+            rs = m_session.executeAsync(query);
+        } catch (RuntimeException e) {
+            m_reads.completed(submitNanos);
+            throw e;
+        }
+        final KeyFuturePair pair = new KeyFuturePair(k, rs, rangeMs);
+        rs.addListener(() -> {
+            m_reads.completed(submitNanos);
+            completed.add(pair);
+        }, MoreExecutors.directExecutor());
+    }
 
-            Map<String, String> tags = k.getTags();
-            String type = k.getDataType();
+    /**
+     * @return number of data points decoded
+     */
+    private long decode(KeyFuturePair f, ResultSet rs, QueryCallback queryCallback) throws IOException {
+        DataPointsRowKey k = f.key;
 
-            DataPointFactory dataPointFactory = m_kairosDataPointFactory.getFactoryForDataStoreType(type);
+        Map<String, String> tags = k.getTags();
+        String type = k.getDataType();
 
-            m_queryCallback.startDataPointSet(type, tags);
-            for (Row r : rs) {
-                int columnTime = INTEGER_CODEC.deserialize(r.getBytes("column1"), NEWEST_SUPPORTED);
-                ByteBuffer value = r.getBytes("value");
+        DataPointFactory dataPointFactory = m_kairosDataPointFactory.getFactoryForDataStoreType(type);
 
-                long timestamp = getColumnTimestamp(k.getTimestamp(), columnTime);
+        queryCallback.startDataPointSet(type, tags);
+        long columns = 0;
+        for (Row r : rs) {
+            if (columns++ == 0) {
+                m_reads.firstRow();
+            }
+            // Fetch the next page while this one is decoded
+            if (rs.getAvailableWithoutFetching() <= PREFETCH_THRESHOLD && !rs.isFullyFetched()) {
+                rs.fetchMoreResults();
+            }
 
-                if (type == LegacyDataPointFactory.DATASTORE_TYPE) {
-                    if (isLongValue(columnTime)) {
-                        m_queryCallback.addDataPoint(
-                                new LegacyLongDataPoint(timestamp,
-                                        ValueSerializer.getLongFromByteBuffer(value)));
-                    } else {
-                        m_queryCallback.addDataPoint(
-                                new LegacyDoubleDataPoint(timestamp,
-                                        ValueSerializer.getDoubleFromByteBuffer(value)));
-                    }
+            int columnTime = INTEGER_CODEC.deserialize(r.getBytes("column1"), NEWEST_SUPPORTED);
+            ByteBuffer value = r.getBytes("value");
+
+            long timestamp = getColumnTimestamp(k.getTimestamp(), columnTime);
+
+            if (type == LegacyDataPointFactory.DATASTORE_TYPE) {
+                if (isLongValue(columnTime)) {
+                    queryCallback.addDataPoint(
+                            new LegacyLongDataPoint(timestamp,
+                                    ValueSerializer.getLongFromByteBuffer(value)));
                 } else {
-                    m_queryCallback.addDataPoint(
-                            dataPointFactory.getDataPoint(timestamp, KDataInput.createInput(value.array())));
+                    queryCallback.addDataPoint(
+                            new LegacyDoubleDataPoint(timestamp,
+                                    ValueSerializer.getDoubleFromByteBuffer(value)));
                 }
+            } else {
+                queryCallback.addDataPoint(
+                        dataPointFactory.getDataPoint(timestamp, KDataInput.createInput(value.array())));
             }
         }
+        // A partition cut off by the limit says nothing about the density of the data
+        if (m_limit == 0 || columns < m_limit) {
+            m_reads.observe(columns, f.rangeMs);
+        }
+        return columns;
+    }
+
+    /**
+     * Hands out the row keys to read in order. Without a limit every key is read right away. With a limit, the next
+     * partition of a series is held back while one of it is being read and dropped once the series is complete.
+     */
+    private class SeriesReads {
+        private final Deque<DataPointsRowKey> m_ready;
+        private final Set<Object> m_reading = new HashSet<>();
+        private final Map<Object, Deque<DataPointsRowKey>> m_waiting = new HashMap<>();
+        private final Map<Object, Long> m_dataPoints = new HashMap<>();
+
+        SeriesReads(List<DataPointsRowKey> rowKeys) {
+            m_ready = new ArrayDeque<>(rowKeys);
+        }
+
+        boolean hasNext() {
+            return !m_ready.isEmpty();
+        }
+
+        /**
+         * @return next key to read, null if none can be read until a read in flight completed
+         */
+        DataPointsRowKey next() {
+            while (!m_ready.isEmpty()) {
+                final DataPointsRowKey key = m_ready.poll();
+                if (m_limit == 0) {
+                    return key;
+                }
+                final Object id = seriesId(key);
+                if (m_dataPoints.getOrDefault(id, 0L) >= m_limit) {
+                    continue;
+                }
+                if (m_reading.add(id)) {
+                    return key;
+                }
+                m_waiting.computeIfAbsent(id, k -> new ArrayDeque<>()).add(key);
+            }
+            return null;
+        }
+
+        void completed(DataPointsRowKey key, long dataPoints) {
+            if (m_limit == 0) {
+                return;
+            }
+            final Object id = seriesId(key);
+            m_reading.remove(id);
+            m_dataPoints.merge(id, dataPoints, Long::sum);
+
+            final Deque<DataPointsRowKey> waiting = m_waiting.get(id);
+            if (waiting != null) {
+                // Read before keys of other series that came later in the order of the query
+                m_ready.addFirst(waiting.poll());
+                if (waiting.isEmpty()) {
+                    m_waiting.remove(id);
+                }
+            }
+        }
+
+        private Object seriesId(DataPointsRowKey key) {
+            return Arrays.asList(key.getDataType(), key.getTags());
+        }
     }
 }
@@ -35,6 +35,22 @@ public class CassandraConfiguration {
 	private static final String HOST_LIST_PROPERTY = "kairosdb.datastore.cassandra.host_list";
 	private static final String CASSANDRA_PORT = "kairosdb.datastore.cassandra.port";
 	private static final String QUERY_SAMPLING_PERCENTAGE = "kairosdb.datastore.cassandra.query_sampling_percentage";
+	private static final String WRITE_BATCH_WINDOW_MS = "kairosdb.datastore.cassandra.write_batch_window_ms";
+	private static final String WRITE_BATCH_MAX_SIZE = "kairosdb.datastore.cassandra.write_batch_max_size";
+	private static final String SERIES_TEMPLATE_CACHE_SIZE = "kairosdb.datastore.cassandra.series_template_cache_size";
+	private static final String MAX_IN_FLIGHT_WRITES = "kairosdb.datastore.cassandra.max_in_flight_writes";
+	private static final String IN_FLIGHT_WRITE_WAIT_MS = "kairosdb.datastore.cassandra.in_flight_write_wait_ms";
+	private static final String QUOTA_MAX_POINTS_PER_SECOND = "kairosdb.datastore.cassandra.quota.max_points_per_second";
+	private static final String QUOTA_MAX_NEW_SERIES_PER_MINUTE = "kairosdb.datastore.cassandra.quota.max_new_series_per_minute";
+	private static final String QUOTA_POLICY = "kairosdb.datastore.cassandra.quota.policy";
+	private static final String QUOTA_SKETCH_WIDTH = "kairosdb.datastore.cassandra.quota.sketch_width";
+	private static final String SPOOL_DIRECTORY = "kairosdb.datastore.cassandra.spool.directory";
+	private static final String SPOOL_SEGMENT_SIZE_MB = "kairosdb.datastore.cassandra.spool.segment_size_mb";
+	private static final String SPOOL_MAX_SIZE_MB = "kairosdb.datastore.cassandra.spool.max_size_mb";
+	private static final String SPOOL_REPLAY_RATE = "kairosdb.datastore.cassandra.spool.replay_rate";
+	private static final String QUERY_RUNNER_THREADS = "kairosdb.datastore.cassandra.query_runner_threads";
+	private static final String QUERY_RUNNER_PARALLELISM = "kairosdb.datastore.cassandra.query_runner_parallelism";
+	private static final String QUERY_MAX_CONCURRENT_READS = "kairosdb.datastore.cassandra.query_max_concurrent_reads";
 	@Inject(optional=true)
 	@Named(CASSANDRA_INDEX_TAG_LIST)
 	private String m_indexTagList = "key,application_id,stack_name";
@@ -110,6 +126,73 @@ public class CassandraConfiguration {
 	@Inject(optional=true)
 	@Named(QUERY_SAMPLING_PERCENTAGE)
 	private int querySamplingPercentage = 20;
+	/**
+	 * How long writes are held to be grouped per partition. Zero disables batching.
+	 */
+	@Inject(optional=true)
+	@Named(WRITE_BATCH_WINDOW_MS)
+	private long m_writeBatchWindowMs = 10;
+	@Inject(optional=true)
+	@Named(WRITE_BATCH_MAX_SIZE)
+	private int m_writeBatchMaxSize = 100;
+	/**
+	 * Number of series whose serialized row key is cached on the write path. Zero disables the cache.
+	 */
+	@Inject(optional=true)
+	@Named(SERIES_TEMPLATE_CACHE_SIZE)
+	private int m_seriesTemplateCacheSize = 100_000;
+	/**
+	 * Maximum number of write statements buffered or waiting for Cassandra. Zero disables the limit.
+	 */
+	@Inject(optional=true)
+	@Named(MAX_IN_FLIGHT_WRITES)
+	private int m_maxInFlightWrites = 20000;
+	@Inject(optional=true)
+	@Named(IN_FLIGHT_WRITE_WAIT_MS)
+	private long m_inFlightWriteWaitMs = 500;
+	/**
+	 * Per metric limits on data points and on new row keys, which each cost index writes. Zero disables a limit.
+	 */
+	@Inject(optional=true)
+	@Named(QUOTA_MAX_POINTS_PER_SECOND)
+	private long m_quotaMaxPointsPerSecond = 0;
+	@Inject(optional=true)
+	@Named(QUOTA_MAX_NEW_SERIES_PER_MINUTE)
+	private long m_quotaMaxNewSeriesPerMinute = 0;
+	@Inject(optional=true)
+	@Named(QUOTA_POLICY)
+	private IngestQuota.Policy m_quotaPolicy = IngestQuota.Policy.REJECT;
+	@Inject(optional=true)
+	@Named(QUOTA_SKETCH_WIDTH)
+	private int m_quotaSketchWidth = 16384;
+	/**
+	 * Local spool for data points that could not be written while Cassandra is degraded. Empty disables it.
+	 */
+	@Inject(optional=true)
+	@Named(SPOOL_DIRECTORY)
+	private String m_spoolDirectory = "";
+	@Inject(optional=true)
+	@Named(SPOOL_SEGMENT_SIZE_MB)
+	private int m_spoolSegmentSizeMb = 64;
+	@Inject(optional=true)
+	@Named(SPOOL_MAX_SIZE_MB)
+	private long m_spoolMaxSizeMb = 1024;
+	@Inject(optional=true)
+	@Named(SPOOL_REPLAY_RATE)
+	private int m_spoolReplayRate = 5000;
+	/**
+	 * Query runners of all queries share one pool of threads. A single query has at most the given number of
+	 * runners and partition reads in flight.
+	 */
+	@Inject(optional=true)
+	@Named(QUERY_RUNNER_THREADS)
+	private int m_queryRunnerThreads = 16;
+	@Inject(optional=true)
+	@Named(QUERY_RUNNER_PARALLELISM)
+	private int m_queryRunnerParallelism = 4;
+	@Inject(optional=true)
+	@Named(QUERY_MAX_CONCURRENT_READS)
+	private int m_queryMaxConcurrentReads = 512;
 
 	// Needed for inject to work
 	@SuppressWarnings("unused")
@@ -237,6 +320,70 @@ public class CassandraConfiguration {
 		this.querySamplingPercentage = querySamplingPercentage;
 	}
 
+	public long getWriteBatchWindowMs() {
+		return m_writeBatchWindowMs;
+	}
+
+	public int getWriteBatchMaxSize() {
+		return m_writeBatchMaxSize;
+	}
+
+	public int getSeriesTemplateCacheSize() {
+		return m_seriesTemplateCacheSize;
+	}
+
+	public int getMaxInFlightWrites() {
+		return m_maxInFlightWrites;
+	}
+
+	public long getInFlightWriteWaitMs() {
+		return m_inFlightWriteWaitMs;
+	}
+
+	public long getQuotaMaxPointsPerSecond() {
+		return m_quotaMaxPointsPerSecond;
+	}
+
+	public long getQuotaMaxNewSeriesPerMinute() {
+		return m_quotaMaxNewSeriesPerMinute;
+	}
+
+	public IngestQuota.Policy getQuotaPolicy() {
+		return m_quotaPolicy;
+	}
+
+	public int getQuotaSketchWidth() {
+		return m_quotaSketchWidth;
+	}
+
+	public String getSpoolDirectory() {
+		return m_spoolDirectory;
+	}
+
+	public int getSpoolSegmentSizeMb() {
+		return m_spoolSegmentSizeMb;
+	}
+
+	public long getSpoolMaxSizeMb() {
+		return m_spoolMaxSizeMb;
+	}
+
+	public int getSpoolReplayRate() {
+		return m_spoolReplayRate;
+	}
+
+	public int getQueryRunnerThreads() {
+		return m_queryRunnerThreads;
+	}
+
+	public int getQueryRunnerParallelism() {
+		return m_queryRunnerParallelism;
+	}
+
+	public int getQueryMaxConcurrentReads() {
+		return m_queryMaxConcurrentReads;
+	}
+
 	public static enum ADDRESS_TRANSLATOR_TYPE {
 		NONE,
 		EC2
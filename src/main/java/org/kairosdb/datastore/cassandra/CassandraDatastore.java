@@ -17,6 +17,9 @@ package org.kairosdb.datastore.cassandra;
 
 import com.datastax.driver.core.*;
 import com.google.common.collect.*;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import io.opentracing.Scope;
@@ -30,25 +33,33 @@ import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.datapoints.LegacyDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datastore.*;
+import org.kairosdb.core.exception.DataPointDroppedException;
 import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.kairosdb.core.exception.QuotaExceededException;
 import org.kairosdb.core.reporting.KairosMetricReporter;
 import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpConfiguration;
 import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpLogic;
+import org.kairosdb.datastore.cassandra.cache.CacheSnapshotter;
+import org.kairosdb.datastore.cassandra.cache.IndexBucketCache;
 import org.kairosdb.datastore.cassandra.cache.RowKeyCache;
 import org.kairosdb.datastore.cassandra.cache.StringKeyCache;
-import org.kairosdb.util.KDataOutput;
+import org.kairosdb.util.ByteArenaOutput;
 import org.kairosdb.util.MemoryMonitor;
+import org.kairosdb.util.TagMatcherCompiler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -63,6 +74,9 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
     private static final String ROW_TIME_KEY_INDEX_SPLIT_INSERT = "INSERT INTO row_time_key_split_index (metric_name, tag_name, tag_value, column1, time_bucket) VALUES (?, ?, ?, ?, ?) USING TTL ?";
     private static final String ROW_TIME_KEY_INDEX_INSERT = "INSERT INTO row_time_key_index (key, column1, time_bucket) VALUES (?, ?, ?) USING TTL ?";
 
+    private static final String ROW_TIME_KEY_INDEX_TABLE = "row_time_key_index";
+    private static final String ROW_TIME_KEY_SPLIT_INDEX_TABLE = "row_time_key_split_index";
+
     private static final String DATA_POINTS_INSERT = "INSERT INTO data_points (key, column1, value) VALUES (?, ?, ?) USING TTL ?";
 
 
@@ -72,11 +86,28 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
     private static final String QUERY_ROW_TIME_KEY_INDEX = "SELECT column1 FROM row_time_key_index WHERE key = ? AND time_bucket = ? LIMIT ?";
 
     private static final String QUERY_DATA_POINTS = "SELECT column1, value FROM data_points WHERE key = ? AND column1 >= ? and column1 < ? ORDER BY column1 ASC";
+    private static final String QUERY_DATA_POINTS_DESC = "SELECT column1, value FROM data_points WHERE key = ? AND column1 >= ? and column1 < ? ORDER BY column1 DESC";
+    private static final String QUERY_DATA_POINTS_LIMIT = QUERY_DATA_POINTS + " LIMIT ?";
+    private static final String QUERY_DATA_POINTS_DESC_LIMIT = QUERY_DATA_POINTS_DESC + " LIMIT ?";
+
+    /**
+     * Distinct tag filters whose compiled matchers are kept across queries.
+     */
+    private static final int TAG_MATCHER_CACHE_SIZE = 10_000;
 
     private static final int LONG_FLAG = 0x0;
     private static final int FLOAT_FLAG = 0x1;
 
-    private static final DataPointsRowKeySerializer DATA_POINTS_ROW_KEY_SERIALIZER = new DataPointsRowKeySerializer();
+    /**
+     * Column names and values of data points are written into per-thread arenas, the resulting buffers stay
+     * valid until the batch writer has sent them.
+     */
+    private static final ThreadLocal<ByteArenaOutput> WRITE_ARENA = ThreadLocal.withInitial(ByteArenaOutput::new);
+
+    // Replay waits this long after the last failed write
+    private static final long SPOOL_REPLAY_BACKOFF_MS = 10_000;
+
+    private static final String QUERY_MEASURES_PREFIX = "kairosdb.queries.";
 
     private final long m_rowWidthRead;
     private final long m_rowWidthWrite;
@@ -99,16 +130,33 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
     private final PreparedStatement m_psQueryRowTimeKeyIndex;
     private final PreparedStatement m_psQueryRowTimeKeySplitIndex;
     private final PreparedStatement m_psQueryDataPoints;
+    private final PreparedStatement m_psQueryDataPointsDesc;
+    private final PreparedStatement m_psQueryDataPointsLimit;
+    private final PreparedStatement m_psQueryDataPointsDescLimit;
+
+    private final DataPointsRowKeySerializer m_rowKeySerializer;
+    private final TagMatcherCompiler m_tagMatcherCompiler = new TagMatcherCompiler(TAG_MATCHER_CACHE_SIZE);
+
+    private final InFlightWriteBudget m_writeBudget;
+    private final PartitionBatchWriter m_batchWriter;
+    private final IngestQuota m_ingestQuota;
+    private final WriteSpool m_spool;
+    private final SpoolReplayer m_spoolReplayer;
+    private final ExecutorService m_queryRunnerExecutor;
+    private final Histogram m_inFlightPeak;
+    private final Histogram m_timeToFirstRow;
+    private final Histogram m_partitionLatency;
 
     private final RowKeyCache rowKeyCache;
     private final StringKeyCache metricNameCache;
     private final StringKeyCache tagNameCache;
+    private final CacheSnapshotter m_cacheSnapshotter;
+    private final IndexBucketCache m_indexBucketCache;
 
     private final KairosDataPointFactory m_kairosDataPointFactory;
     private final LongDataPointFactory m_longDataPointFactory;
 
-    private final CacheWarmingUpLogic m_cacheWarmingUpLogic;
-    private final CacheWarmingUpConfiguration m_cacheWarmingUpConfiguration;
+    private final NextBucketWarmer m_nextBucketWarmer;
 
     private final CassandraConsistencyLevelConfiguration m_cassandraConsistencyLevelConfiguration;
 
@@ -124,6 +172,8 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
     private final AtomicLong m_rowKeySplitIndexRowsInserted = new AtomicLong();
     private final AtomicLong m_readRowLimitExceededCount = new AtomicLong();
     private final AtomicLong m_filteredRowLimitExceededCount = new AtomicLong();
+    private final AtomicLong m_spooledWrites = new AtomicLong();
+    private final AtomicLong m_spoolRejectedWrites = new AtomicLong();
     @javax.inject.Inject
     @Named("HOSTNAME")
     private String hostName = "localhost";
@@ -141,12 +191,17 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
                               RowKeyCache rowKeyCache,
                               @Named(METRIC_NAME_CACHE) StringKeyCache metricNameCache,
                               @Named(TAG_NAME_CACHE) StringKeyCache tagNameCache,
+                              CacheSnapshotter cacheSnapshotter,
+                              IndexBucketCache indexBucketCache,
+                              IngestQuota ingestQuota,
+                              MetricRegistry metricRegistry,
                               Tracer tracer
     ) {
         m_cassandraConfiguration = cassandraConfiguration;
         this.rowKeyCache = rowKeyCache;
         this.metricNameCache = metricNameCache;
         this.tagNameCache = tagNameCache;
+        m_indexBucketCache = indexBucketCache;
 
         logger.warn("Setting tag index: {}", cassandraConfiguration.getIndexTagList());
         m_indexTagList = parseIndexTagList(cassandraConfiguration.getIndexTagList());
@@ -154,8 +209,6 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         m_cassandraClient = cassandraClient;
         m_kairosDataPointFactory = kairosDataPointFactory;
         m_longDataPointFactory = longDataPointFactory;
-        m_cacheWarmingUpLogic = cacheWarmingUpLogic;
-        m_cacheWarmingUpConfiguration = cacheWarmingUpConfiguration;
         m_cassandraConsistencyLevelConfiguration = cassandraConsistencyLevelConfiguration;
 
         m_session = m_cassandraClient.getKeyspaceSession();
@@ -168,11 +221,47 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         m_psQueryRowTimeKeyIndex = m_session.prepare(QUERY_ROW_TIME_KEY_INDEX).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
         m_psQueryRowTimeKeySplitIndex = m_session.prepare(QUERY_ROW_TIME_KEY_SPLIT_INDEX).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
         m_psQueryDataPoints = m_session.prepare(QUERY_DATA_POINTS).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
+        m_psQueryDataPointsDesc = m_session.prepare(QUERY_DATA_POINTS_DESC).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
+        m_psQueryDataPointsLimit = m_session.prepare(QUERY_DATA_POINTS_LIMIT).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
+        m_psQueryDataPointsDescLimit = m_session.prepare(QUERY_DATA_POINTS_DESC_LIMIT).setConsistencyLevel(cassandraConfiguration.getDataReadLevel());
+
+        m_rowKeySerializer = new DataPointsRowKeySerializer(false, cassandraConfiguration.getSeriesTemplateCacheSize());
+
+        m_writeBudget = new InFlightWriteBudget(cassandraConfiguration.getMaxInFlightWrites(),
+                cassandraConfiguration.getInFlightWriteWaitMs());
+        m_spool = openSpool(cassandraConfiguration);
+        m_batchWriter = new PartitionBatchWriter(m_session, m_writeBudget, cassandraConfiguration.getWriteBatchWindowMs(),
+                cassandraConfiguration.getWriteBatchMaxSize(), this::handleFailedWrite);
+        m_ingestQuota = ingestQuota;
 
         m_rowWidthRead = cassandraConfiguration.getRowWidthRead();
         m_rowWidthWrite = cassandraConfiguration.getRowWidthWrite();
 
+        m_nextBucketWarmer = new NextBucketWarmer(cacheWarmingUpConfiguration, cacheWarmingUpLogic, this::warmRowKey,
+                m_rowWidthWrite, System::currentTimeMillis);
+        m_nextBucketWarmer.start();
+
+        // Reported with the other query measurements through their prefix
+        m_inFlightPeak = metricRegistry.histogram(QUERY_MEASURES_PREFIX + "cassandra.reads_in_flight_peak");
+        m_timeToFirstRow = metricRegistry.histogram(QUERY_MEASURES_PREFIX + "cassandra.time_to_first_row");
+        m_partitionLatency = metricRegistry.histogram(QUERY_MEASURES_PREFIX + "cassandra.partition_latency");
+
+        m_queryRunnerExecutor = Executors.newFixedThreadPool(Math.max(1, cassandraConfiguration.getQueryRunnerThreads()),
+                new ThreadFactoryBuilder().setNameFormat("cql-query-runner-%d").setDaemon(true).build());
+
+        if (m_spool != null) {
+            m_spoolReplayer = new SpoolReplayer(m_spool, this::replaySpooledWrite, this::isWritePathHealthy,
+                    cassandraConfiguration.getSpoolReplayRate());
+            m_spoolReplayer.start();
+        } else {
+            m_spoolReplayer = null;
+        }
+
         this.tracer = tracer;
+
+        // Fill the write caches before ingest starts, otherwise every active series rewrites its index entries
+        m_cacheSnapshotter = cacheSnapshotter;
+        m_cacheSnapshotter.restore();
     }
 
     long getRowWidthRead() {
@@ -201,8 +290,34 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         return mapBuilder.build();
     }
 
+    private static WriteSpool openSpool(CassandraConfiguration configuration) {
+        if (configuration.getSpoolDirectory().isEmpty()) {
+            return null;
+        }
+        final int segmentSize = Math.min(configuration.getSpoolSegmentSizeMb(), 1024) * 1024 * 1024;
+        try {
+            return new WriteSpool(new File(configuration.getSpoolDirectory()), segmentSize,
+                    configuration.getSpoolMaxSizeMb() * 1024 * 1024, System::currentTimeMillis);
+        } catch (IOException e) {
+            // Ingestion still works without the spool, it just can't ride out an outage
+            logger.error("Failed to open write spool in {}, continuing without it", configuration.getSpoolDirectory(), e);
+            return null;
+        }
+    }
+
     @Override
     public void close() {
+        try {
+            m_cacheSnapshotter.snapshot();
+        } catch (IOException e) {
+            logger.error("Failed to write cache snapshot on shutdown", e);
+        }
+        m_nextBucketWarmer.close();
+        m_queryRunnerExecutor.shutdownNow();
+        if (m_spoolReplayer != null) {
+            m_spoolReplayer.close();
+        }
+        m_batchWriter.close();
         m_session.close();
         m_cassandraClient.close();
     }
@@ -213,92 +328,199 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
                              DataPoint dataPoint,
                              int ttl) throws DatastoreException {
         try {
+            if (!m_ingestQuota.acceptPoint(metricName)) {
+                throw new DataPointDroppedException("Data point of metric " + metricName + " sampled out by quota");
+            }
+
             Span span = GlobalTracer.get().activeSpan();
             //time the data is written.
             if (0 == ttl) {
                 ttl = m_cassandraConfiguration.getDatapointTtl();
             }
 
-            int rowKeyTtl = 0;
-            //Row key will expire after configured ReadRowWidth
-            if (ttl != 0) {
-                rowKeyTtl = ttl + ((int) (m_rowWidthWrite / 1000));
-            }
+            final int rowKeyTtl = getRowKeyTtl(ttl);
 
             final long rowTime = calculateRowTimeWrite(dataPoint.getTimestamp());
             final DataPointsRowKey dataPointsRowKey = new DataPointsRowKey(metricName, rowTime, dataPoint.getDataStoreDataType(), tags);
-            final ByteBuffer serializedKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(dataPointsRowKey);
+            final ByteBuffer serializedKey = m_rowKeySerializer.toByteBuffer(dataPointsRowKey);
 
             // Write out the row key if it is not cached
             final boolean rowKeyKnown = rowKeyCache.isKnown(serializedKey);
             if (!rowKeyKnown) {
-                storeRowKeyReverseLookups(metricName, rowTime, serializedKey, rowKeyTtl, tags);
-                if (span != null) {
-                    span.setTag("cache_miss_row_key", Boolean.TRUE);
+                if (!m_ingestQuota.acceptNewSeries(metricName)) {
+                    throw new DataPointDroppedException("New series of metric " + metricName + " sampled out by quota");
                 }
+                writeRowKeyIndexes(dataPointsRowKey, serializedKey, rowKeyTtl, span);
+            } else {
+                // Known series are warmed for the next bucket as well, also those restored from a snapshot
+                m_nextBucketWarmer.track(dataPointsRowKey, rowKeyTtl);
+            }
 
-                rowKeyCache.put(serializedKey);
+            insertDataPoint(serializedKey, encodeColumnName(rowTime, dataPoint), encodeValue(dataPoint), ttl);
+        } catch (DatastoreOverloadedException e) {
+            // Kept locally until Cassandra catches up, if a spool is configured
+            if (spoolDataPoint(metricName, tags, dataPoint, ttl)) {
+                return;
+            }
+            throw e;
+        } catch (QuotaExceededException | DataPointDroppedException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error("Failed to put data point for metric={} tags={} ttl={}", metricName, tags, ttl);
+            throw new DatastoreException(e);
+        }
+    }
 
-                //Write metric name if not in cache
-                if (!metricNameCache.isKnown(metricName)) {
-                    if (span != null) {
-                        span.setTag("cache_miss_metric_name", Boolean.TRUE);
-                    }
-                    if (metricName.length() == 0) {
-                        logger.warn("Attempted to add empty metric name to string index. Row looks like: {}", dataPoint);
-                    }
-                    storeStringIndex(metricName, m_psInsertString, METRIC_NAME_BYTE_BUFFER);
-                    metricNameCache.put(metricName);
-                }
+    private void writeRowKeyIndexes(final DataPointsRowKey rowKey, final ByteBuffer serializedKey, final int rowKeyTtl,
+                                    final Span span) throws DatastoreOverloadedException {
+        final String metricName = rowKey.getMetricName();
+        storeRowKeyReverseLookups(metricName, rowKey.getTimestamp(), serializedKey, rowKeyTtl, rowKey.getTags());
+        if (span != null) {
+            span.setTag("cache_miss_row_key", Boolean.TRUE);
+        }
 
-                //Check tag names and values to write them out
-                for (final String tagName : tags.keySet()) {
-                    if (!tagNameCache.isKnown(tagName)) {
-                        if (span != null) {
-                            span.setTag("cache_miss_tag_name", Boolean.TRUE);
-                        }
-                        if (tagName.length() == 0) {
-                            logger.warn("Attempted to add empty tagName to string cache for metric: {}", metricName);
-                        }
-                        storeStringIndex(tagName, m_psInsertString, ROW_KEY_TAG_NAMES_BYTE_BUFFER);
-                        tagNameCache.put(tagName);
-                    }
-                }
+        rowKeyCache.put(serializedKey);
+        m_nextBucketWarmer.track(rowKey, rowKeyTtl);
+
+        //Write metric name if not in cache
+        if (!metricNameCache.isKnown(metricName)) {
+            if (span != null) {
+                span.setTag("cache_miss_metric_name", Boolean.TRUE);
             }
+            if (metricName.length() == 0) {
+                logger.warn("Attempted to add empty metric name to string index. Row looks like: {}", rowKey);
+            }
+            storeStringIndex(metricName, m_psInsertString, METRIC_NAME_BYTE_BUFFER);
+            metricNameCache.put(metricName);
+        }
 
-            if (m_cacheWarmingUpConfiguration.isEnabled()) {
-                long now = System.currentTimeMillis();
-                int interval = m_cacheWarmingUpConfiguration.getHeatingIntervalMinutes();
-                int rowSize = m_cacheWarmingUpConfiguration.getRowIntervalMinutes();
-                final long nextRowTime = calculateRowTimeWrite(dataPoint.getTimestamp() + m_rowWidthWrite);
-                final DataPointsRowKey nextBucketRowKey = new DataPointsRowKey(metricName, nextRowTime, dataPoint.getDataStoreDataType(), tags);
-                if (m_cacheWarmingUpLogic.isWarmingUpNeeded(nextBucketRowKey.hashCode(), now, nextRowTime, interval, rowSize)) {
-                    final ByteBuffer serializeNextKey = DATA_POINTS_ROW_KEY_SERIALIZER.toByteBuffer(nextBucketRowKey);
-                    if (!rowKeyCache.isKnown(serializeNextKey)) {
-                        storeRowKeyReverseLookups(metricName, nextRowTime, serializeNextKey, rowKeyTtl, tags);
-                        rowKeyCache.put(serializeNextKey);
-                        m_nextRowKeyIndexRowsInserted.incrementAndGet();
-                    }
+        //Check tag names and values to write them out
+        for (final String tagName : rowKey.getTags().keySet()) {
+            if (!tagNameCache.isKnown(tagName)) {
+                if (span != null) {
+                    span.setTag("cache_miss_tag_name", Boolean.TRUE);
+                }
+                if (tagName.length() == 0) {
+                    logger.warn("Attempted to add empty tagName to string cache for metric: {}", metricName);
                 }
+                storeStringIndex(tagName, m_psInsertString, ROW_KEY_TAG_NAMES_BYTE_BUFFER);
+                tagNameCache.put(tagName);
             }
+        }
+    }
 
-            int columnTime = getColumnName(rowTime, dataPoint.getTimestamp());
-            KDataOutput kDataOutput = new KDataOutput();
-            dataPoint.writeValueToBuffer(kDataOutput);
-
-            BoundStatement boundStatement = new BoundStatement(m_psInsertData);
-            boundStatement.setBytes(0, serializedKey);
-            ByteBuffer b = ByteBuffer.allocate(4);
-            b.putInt(columnTime);
-            b.rewind();
-            boundStatement.setBytes(1, b);
-            boundStatement.setBytes(2, ByteBuffer.wrap(kDataOutput.getBytes()));
-            boundStatement.setInt(3, ttl);
-            m_session.executeAsync(boundStatement);
-        } catch (Exception e) {
-            logger.error("Failed to put data point for metric={} tags={} ttl={}", metricName, tags, ttl);
-            throw new DatastoreException(e);
+    private void insertDataPoint(final ByteBuffer serializedKey, final ByteBuffer columnName, final ByteBuffer value,
+                                 final int ttl) throws DatastoreOverloadedException {
+        final BoundStatement boundStatement = new BoundStatement(m_psInsertData);
+        boundStatement.setBytes(0, serializedKey);
+        boundStatement.setBytes(1, columnName);
+        boundStatement.setBytes(2, value);
+        boundStatement.setInt(3, ttl);
+        m_batchWriter.add(serializedKey, boundStatement);
+    }
+
+    private static ByteBuffer encodeColumnName(final long rowTime, final DataPoint dataPoint) {
+        final ByteArenaOutput arena = WRITE_ARENA.get();
+        arena.start();
+        arena.writeInt(getColumnName(rowTime, dataPoint.getTimestamp()));
+        return arena.finish();
+    }
+
+    private static ByteBuffer encodeValue(final DataPoint dataPoint) throws IOException {
+        final ByteArenaOutput arena = WRITE_ARENA.get();
+        arena.start();
+        dataPoint.writeValueToBuffer(arena);
+        return arena.finish();
+    }
+
+    private int getRowKeyTtl(final int ttl) {
+        //Row key will expire after configured ReadRowWidth
+        return ttl == 0 ? 0 : ttl + ((int) (m_rowWidthWrite / 1000));
+    }
+
+    /**
+     * Appends the data point to the spool instead of writing it.
+     *
+     * @return false if there is no spool or it is full
+     */
+    private boolean spoolDataPoint(final String metricName, final SortedMap<String, String> tags,
+                                   final DataPoint dataPoint, final int ttl) {
+        if (m_spool == null) {
+            return false;
+        }
+        try {
+            final long rowTime = calculateRowTimeWrite(dataPoint.getTimestamp());
+            final ByteBuffer serializedKey = m_rowKeySerializer.toByteBuffer(
+                    new DataPointsRowKey(metricName, rowTime, dataPoint.getDataStoreDataType(), tags));
+            if (m_spool.append(serializedKey, encodeColumnName(rowTime, dataPoint), encodeValue(dataPoint), ttl)) {
+                m_spooledWrites.incrementAndGet();
+                return true;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to spool data point for metric={}", metricName, e);
+        }
+        m_spoolRejectedWrites.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Spools data point writes that failed in Cassandra. The row key of a failed index write is removed from the row
+     * key cache, so the indexes are written again with the next data point of the row or the replay of a spooled one.
+     */
+    private void handleFailedWrite(final Statement statement) {
+        if (!(statement instanceof BoundStatement)) {
+            return;
+        }
+        final BoundStatement boundStatement = (BoundStatement) statement;
+        final PreparedStatement preparedStatement = boundStatement.preparedStatement();
+        if (preparedStatement == m_psInsertRowTimeKey) {
+            rowKeyCache.invalidate(boundStatement.getBytes(1));
+        } else if (preparedStatement == m_psInsertRowTimeKeySplit) {
+            rowKeyCache.invalidate(boundStatement.getBytes(3));
+        } else if (preparedStatement == m_psInsertData && m_spool != null) {
+            if (m_spool.append(boundStatement.getBytes(0), boundStatement.getBytes(1), boundStatement.getBytes(2),
+                    boundStatement.getInt(3))) {
+                m_spooledWrites.incrementAndGet();
+            } else {
+                m_spoolRejectedWrites.incrementAndGet();
+            }
+        }
+    }
+
+    private void replaySpooledWrite(final WriteSpool.SpooledWrite write) throws DatastoreException {
+        int ttl = write.getTtl();
+        if (ttl != 0) {
+            // The TTL counts from the original write
+            final long ageSeconds = (System.currentTimeMillis() - write.getSpooledAt()) / 1000;
+            if (ageSeconds >= ttl) {
+                return;
+            }
+            ttl -= (int) ageSeconds;
+        }
+
+        final ByteBuffer serializedKey = write.getRowKey();
+        if (!rowKeyCache.isKnown(serializedKey)) {
+            final DataPointsRowKey rowKey = m_rowKeySerializer.fromByteBuffer(serializedKey.duplicate());
+            writeRowKeyIndexes(rowKey, serializedKey, getRowKeyTtl(ttl), null);
+        }
+        insertDataPoint(serializedKey, write.getColumnName(), write.getValue(), ttl);
+    }
+
+    private boolean isWritePathHealthy() {
+        final int maxInFlight = m_cassandraConfiguration.getMaxInFlightWrites();
+        return (maxInFlight <= 0 || m_writeBudget.getInFlight() < maxInFlight / 2)
+                && System.currentTimeMillis() - m_batchWriter.getLastFailureTime() > SPOOL_REPLAY_BACKOFF_MS;
+    }
+
+    private boolean warmRowKey(final DataPointsRowKey rowKey, final int rowKeyTtl) throws DatastoreOverloadedException {
+        final ByteBuffer serializedKey = m_rowKeySerializer.toByteBuffer(rowKey);
+        if (rowKeyCache.isKnown(serializedKey)) {
+            return false;
         }
+        storeRowKeyReverseLookups(rowKey.getMetricName(), rowKey.getTimestamp(), serializedKey, rowKeyTtl, rowKey.getTags());
+        rowKeyCache.put(serializedKey);
+        m_nextRowKeyIndexRowsInserted.incrementAndGet();
+        return true;
     }
 
     private void storeStringIndex(String value, PreparedStatement m_psInsertString, ByteBuffer key) {
@@ -310,15 +532,17 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
     }
 
     private void storeRowKeyReverseLookups(final String metricName, long rowTime, final ByteBuffer serializedKey, final int rowKeyTtl,
-                                           final Map<String, String> tags) {
+                                           final Map<String, String> tags) throws DatastoreOverloadedException {
         final BoundStatement bs = new BoundStatement(m_psInsertRowTimeKey);
         bs.setBytes(0, ByteBuffer.wrap(metricName.getBytes(UTF_8)));
         bs.setBytes(1, serializedKey);
         bs.setLong(2, rowTime);
         bs.setInt(3, rowKeyTtl);
 
-        m_session.executeAsync(bs);
+        m_batchWriter.add(Arrays.asList(ROW_TIME_KEY_INDEX_TABLE, metricName, rowTime), bs);
         m_rowKeyIndexRowsInserted.incrementAndGet();
+        // Closed buckets stay cached for long, a late or replayed row key would not be found otherwise
+        m_indexBucketCache.invalidate(new IndexBucketCache.Key(metricName, rowTime));
 
         final List<String> indexTags = getIndexTags(metricName);
         for (String split : indexTags) {
@@ -332,7 +556,7 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
 
     private void storeRowKeySplit(final String metricName,
                                   long rowTime, final ByteBuffer serializedKey, final int rowKeyTtl,
-                                  final String splitTagName, final String splitTagValue) {
+                                  final String splitTagName, final String splitTagValue) throws DatastoreOverloadedException {
         final BoundStatement bs = new BoundStatement(m_psInsertRowTimeKeySplit);
         bs.setString(0, metricName);
         bs.setString(1, splitTagName);
@@ -341,8 +565,9 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         bs.setLong(4, rowTime);
         bs.setInt(5, rowKeyTtl);
 
-        m_session.executeAsync(bs);
+        m_batchWriter.add(Arrays.asList(ROW_TIME_KEY_SPLIT_INDEX_TABLE, metricName, splitTagName, splitTagValue, rowTime), bs);
         m_rowKeySplitIndexRowsInserted.incrementAndGet();
+        m_indexBucketCache.invalidate(new IndexBucketCache.Key(metricName, splitTagName, splitTagValue, rowTime));
     }
 
     private Iterable<String> queryStringIndex(final String key) {
@@ -399,10 +624,13 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         List<CQLQueryRunner> runners = new ArrayList<>();
         List<DataPointsRowKey> queryKeys = new ArrayList<>();
 
-        PreparedStatement queryDataPoints = m_psQueryDataPoints.setConsistencyLevel(m_cassandraConsistencyLevelConfiguration.getReadLevel());
+        PreparedStatement queryDataPoints = getDataPointQuery(query).setConsistencyLevel(m_cassandraConsistencyLevelConfiguration.getReadLevel());
 
         MemoryMonitor mm = new MemoryMonitor(20);
 
+        final QueryReadTracker reads = new QueryReadTracker(m_cassandraConfiguration.getQueryMaxConcurrentReads(),
+                m_partitionLatency::update);
+
         List<DataPointsRowKey> sorted = new ArrayList<>(rowKeys);
         sorted.sort(Comparator.comparingLong(DataPointsRowKey::getTimestamp));
         rowKeys = sorted;
@@ -413,8 +641,23 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
 
             span.setTag("keys", rowKeys.size());
 
+            final BoundaryRead boundaryRead = query.getBoundaryRead();
+            if (boundaryRead != BoundaryRead.ALL) {
+                span.setTag("boundary_read", boundaryRead.toString());
+                rowKeys = addBoundaryRunners(query, boundaryRead, queryCallback, sorted, reads, runners);
+            }
+
             if (rowKeys.size() < 64) {
                 queryKeys.addAll(rowKeys);
+            } else if (query.getLimit() > 0) {
+                // A runner stops reading a series once it holds enough data points, so it gets all partitions of it
+                for (List<DataPointsRowKey> seriesKeys : groupBySeries(rowKeys, 64)) {
+                    runners.add(new CQLQueryRunner(m_session, queryDataPoints, m_kairosDataPointFactory,
+                            seriesKeys,
+                            query.getStartTime(), query.getEndTime(), m_rowWidthRead, queryCallback, query.getLimit(), query.getOrder(),
+                            reads));
+                    mm.checkMemoryAndThrowException();
+                }
             } else {
                 long currentTimeTier = 0L;
 
@@ -432,7 +675,8 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
                         // logger.info("Creating new query runner: metric={} size={} ts-delta={}", queryKeys.get(0).getMetricName(), queryKeys.size(), currentTimeTier - rowKey.getTimestamp());
                         runners.add(new CQLQueryRunner(m_session, queryDataPoints, m_kairosDataPointFactory,
                                 queryKeys,
-                                query.getStartTime(), query.getEndTime(), m_rowWidthRead, queryCallback, query.getLimit(), query.getOrder()));
+                                query.getStartTime(), query.getEndTime(), m_rowWidthRead, queryCallback, query.getLimit(), query.getOrder(),
+                                reads));
 
                         queryKeys = new ArrayList<>();
                         queryKeys.add(rowKey);
@@ -452,34 +696,128 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
                 // logger.info("Creating new runner for remaining keys: metric={} size={}", queryKeys.get(0).getMetricName(), queryKeys.size());
                 runners.add(new CQLQueryRunner(m_session, queryDataPoints, m_kairosDataPointFactory,
                         queryKeys,
-                        query.getStartTime(), query.getEndTime(), m_rowWidthRead, queryCallback, query.getLimit(), query.getOrder()));
+                        query.getStartTime(), query.getEndTime(), m_rowWidthRead, queryCallback, query.getLimit(), query.getOrder(),
+                        reads));
             }
 
             //Changing the check rate
             mm.setCheckRate(1);
             try {
-                // FIXME: Run this with multiple threads - not easily possible with how QueryCallback behaves
-                for (CQLQueryRunner runner : runners) {
-                    runner.runQuery();
+                BufferedQueryCallback.runInOrder(runners, queryCallback, m_queryRunnerExecutor,
+                        m_cassandraConfiguration.getQueryRunnerParallelism(), mm);
 
-                    mm.checkMemoryAndThrowException();
+                if (reads.getFailedReadCount() > 0) {
+                    Tags.ERROR.set(span, Boolean.TRUE);
+                    queryCallback.readFailed();
                 }
-
                 queryCallback.endDataPoints();
             } catch (IOException e) {
                 Tags.ERROR.set(span, Boolean.TRUE);
                 span.log(e.getMessage());
-                e.printStackTrace();
+                logger.error("Failed to read data points of {}", query.getName(), e);
+                queryCallback.readFailed();
             }
         } catch (Exception e) {
             Tags.ERROR.set(span, Boolean.TRUE);
             span.log(e.getMessage());
             throw e;
         } finally {
+            recordQueryReads(reads, span);
             span.finish();
         }
     }
 
+    /**
+     * Splits the row keys into groups of at least the given size, keeping all row keys of a series in one group.
+     */
+    static List<List<DataPointsRowKey>> groupBySeries(Collection<DataPointsRowKey> rowKeys, int minGroupSize) {
+        final Map<List<Object>, List<DataPointsRowKey>> series = new LinkedHashMap<>();
+        for (DataPointsRowKey rowKey : rowKeys) {
+            series.computeIfAbsent(Arrays.asList(rowKey.getDataType(), rowKey.getTags()), k -> new ArrayList<>())
+                    .add(rowKey);
+        }
+
+        final List<List<DataPointsRowKey>> groups = new ArrayList<>();
+        List<DataPointsRowKey> group = new ArrayList<>();
+        for (List<DataPointsRowKey> seriesKeys : series.values()) {
+            group.addAll(seriesKeys);
+            if (group.size() >= minGroupSize) {
+                groups.add(group);
+                group = new ArrayList<>();
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Adds runners reading only the oldest and/or newest data point of each numeric series, with LIMIT 1 reads
+     * walking the partitions of a series from the boundary inwards until one holds a data point. Other series
+     * pass the aggregators unchanged and are read completely.
+     *
+     * @return row keys that still have to be read completely
+     */
+    private List<DataPointsRowKey> addBoundaryRunners(DatastoreMetricQuery query, BoundaryRead boundaryRead,
+                                                      QueryCallback queryCallback, List<DataPointsRowKey> rowKeys,
+                                                      QueryReadTracker reads, List<CQLQueryRunner> runners) {
+        final List<DataPointsRowKey> boundaryKeys = new ArrayList<>();
+        final List<DataPointsRowKey> otherKeys = new ArrayList<>();
+        for (DataPointsRowKey rowKey : rowKeys) {
+            if (DataPoint.GROUP_NUMBER.equals(m_kairosDataPointFactory.getGroupType(rowKey.getDataType()))) {
+                boundaryKeys.add(rowKey);
+            } else {
+                otherKeys.add(rowKey);
+            }
+        }
+        if (boundaryKeys.isEmpty()) {
+            return otherKeys;
+        }
+
+        final ConsistencyLevel readLevel = m_cassandraConsistencyLevelConfiguration.getReadLevel();
+        if (boundaryRead.readsOldest()) {
+            runners.add(new CQLQueryRunner(m_session, m_psQueryDataPointsLimit.setConsistencyLevel(readLevel),
+                    m_kairosDataPointFactory, boundaryKeys, query.getStartTime(), query.getEndTime(), m_rowWidthRead,
+                    queryCallback, 1, Order.ASC, reads));
+        }
+        if (boundaryRead.readsNewest()) {
+            runners.add(new CQLQueryRunner(m_session, m_psQueryDataPointsDescLimit.setConsistencyLevel(readLevel),
+                    m_kairosDataPointFactory, boundaryKeys, query.getStartTime(), query.getEndTime(), m_rowWidthRead,
+                    queryCallback, 1, Order.DESC, reads));
+        }
+        return otherKeys;
+    }
+
+    /**
+     * Returns the data point query reading columns in the order of the query, with a LIMIT if the query has one.
+     */
+    private PreparedStatement getDataPointQuery(DatastoreMetricQuery query) {
+        final boolean descending = query.getOrder() == Order.DESC;
+        if (query.getLimit() > 0) {
+            return descending ? m_psQueryDataPointsDescLimit : m_psQueryDataPointsLimit;
+        }
+        return descending ? m_psQueryDataPointsDesc : m_psQueryDataPoints;
+    }
+
+    private void recordQueryReads(QueryReadTracker reads, Span span) {
+        if (reads.getReadCount() == 0) {
+            return;
+        }
+        m_inFlightPeak.update(reads.getPeakInFlight());
+        span.setTag("reads", reads.getReadCount());
+        if (reads.getFailedReadCount() > 0) {
+            span.setTag("failed_reads", reads.getFailedReadCount());
+        }
+        span.setTag("reads_in_flight_peak", reads.getPeakInFlight());
+
+        final long timeToFirstRow = reads.getTimeToFirstRowMs();
+        if (timeToFirstRow >= 0) {
+            m_timeToFirstRow.update(timeToFirstRow);
+            span.setTag("time_to_first_row_ms", timeToFirstRow);
+        }
+    }
+
     @Override
     @SuppressWarnings({"unused", "UnusedAssignment", "StatementWithEmptyBody"})
     public void deleteDataPoints(DatastoreMetricQuery deleteQuery) {
@@ -520,18 +858,49 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
 
     @Override
     public List<DataPointSet> getMetrics(long now) {
-        return Arrays.asList(
+        final List<DataPointSet> metrics = new ArrayList<>(Arrays.asList(
                 getDataPointSet(now, m_rowKeyIndexRowsInserted, "kairosdb.inserted.row_key_index"),
                 getDataPointSet(now, m_nextRowKeyIndexRowsInserted, "kairosdb.inserted.next_row_key_index"),
                 getDataPointSet(now, m_rowKeySplitIndexRowsInserted, "kairosdb.inserted.row_key_split_index"),
                 getDataPointSet(now, m_readRowLimitExceededCount, "kairosdb.limits.read_rows_exceeded"),
-                getDataPointSet(now, m_filteredRowLimitExceededCount, "kairosdb.limits.filtered_rows_exceeded")
-        );
+                getDataPointSet(now, m_filteredRowLimitExceededCount, "kairosdb.limits.filtered_rows_exceeded"),
+                getDataPointSet(now, m_batchWriter.getAndResetFlushCount(), "kairosdb.datastore.cassandra.write_batch.flushes"),
+                getDataPointSet(now, m_batchWriter.getAndResetFlushedStatements(), "kairosdb.datastore.cassandra.write_batch.statements"),
+                getDataPointSet(now, m_batchWriter.getAndResetMaxFlushSize(), "kairosdb.datastore.cassandra.write_batch.size_max"),
+                getDataPointSet(now, m_batchWriter.getAndResetAverageFlushLatency(), "kairosdb.datastore.cassandra.write_batch.latency_avg"),
+                getDataPointSet(now, m_batchWriter.getAndResetMaxFlushLatency(), "kairosdb.datastore.cassandra.write_batch.latency_max"),
+                getDataPointSet(now, m_batchWriter.getAndResetWriteFailures(), "kairosdb.datastore.cassandra.write_batch.failed_statements"),
+                getDataPointSet(now, m_batchWriter.getAndResetDroppedFailedWrites(), "kairosdb.datastore.cassandra.write_batch.failed_statements_dropped"),
+                getDataPointSet(now, m_batchWriter.getPendingPartitions(), "kairosdb.datastore.cassandra.write_batch.pending_partitions"),
+                getDataPointSet(now, m_writeBudget.getInFlight(), "kairosdb.datastore.cassandra.write_budget.in_flight"),
+                getDataPointSet(now, m_writeBudget.getAndResetWaitTime(), "kairosdb.datastore.cassandra.write_budget.wait_time"),
+                getDataPointSet(now, m_writeBudget.getAndResetWaitCount(), "kairosdb.datastore.cassandra.write_budget.waits"),
+                getDataPointSet(now, m_writeBudget.getAndResetRejected(), "kairosdb.datastore.cassandra.write_budget.rejected"),
+                getDataPointSet(now, m_nextBucketWarmer.getAndResetWritten(), "kairosdb.datastore.cassandra.warmup.written"),
+                getDataPointSet(now, m_nextBucketWarmer.getAndResetSkipped(), "kairosdb.datastore.cassandra.warmup.skipped"),
+                getDataPointSet(now, m_nextBucketWarmer.getAndResetDeferred(), "kairosdb.datastore.cassandra.warmup.deferred"),
+                getDataPointSet(now, m_nextBucketWarmer.getTrackedSeries(), "kairosdb.datastore.cassandra.warmup.tracked_series"),
+                getDataPointSet(now, m_nextBucketWarmer.getProgressPercent(), "kairosdb.datastore.cassandra.warmup.progress_percent")
+        ));
+
+        if (m_spool != null) {
+            metrics.add(getDataPointSet(now, m_spool.getBytes(), "kairosdb.datastore.cassandra.spool.size"));
+            metrics.add(getDataPointSet(now, m_spool.getRecords(), "kairosdb.datastore.cassandra.spool.records"));
+            metrics.add(getDataPointSet(now, m_spool.getOldestAge(), "kairosdb.datastore.cassandra.spool.age"));
+            metrics.add(getDataPointSet(now, m_spooledWrites, "kairosdb.datastore.cassandra.spool.spooled"));
+            metrics.add(getDataPointSet(now, m_spoolRejectedWrites, "kairosdb.datastore.cassandra.spool.rejected"));
+            metrics.add(getDataPointSet(now, m_spoolReplayer.getAndResetReplayed(), "kairosdb.datastore.cassandra.spool.replayed"));
+            metrics.add(getDataPointSet(now, m_spoolReplayer.getAndResetFailed(), "kairosdb.datastore.cassandra.spool.replay_failed"));
+        }
+        return metrics;
     }
 
     @SuppressWarnings("Duplicates")
     private DataPointSet getDataPointSet(long now, AtomicLong counter, String name) {
-        final long metric = counter.getAndSet(0);
+        return getDataPointSet(now, counter.getAndSet(0), name);
+    }
+
+    private DataPointSet getDataPointSet(long now, long metric, String name) {
         final DataPointSet dataPointSet = new DataPointSet(name);
         dataPointSet.addTag("host", hostName);
         dataPointSet.addDataPoint(m_longDataPointFactory.createDataPoint(now, metric));
@@ -617,76 +986,18 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         return ((columnName & 0x1) == LONG_FLAG);
     }
 
-    private static final Pattern GLOB_PATTERN = Pattern.compile("[?*]");
-
-    /**
-     * Convert a GLOB style pattern ("*" for any number of any char, "?" for exactly one char) to a regex pattern.
-     * <p>
-     * Code borrowed from Spring's AntPathMatcher.java (Apache 2 license)
-     */
-    static Pattern convertGlobToPattern(String pattern) {
-        StringBuilder patternBuilder = new StringBuilder();
-        Matcher matcher = GLOB_PATTERN.matcher(pattern);
-        int end = 0;
-        while (matcher.find()) {
-            patternBuilder.append(quote(pattern, end, matcher.start()));
-            String match = matcher.group();
-            if ("?".equals(match)) {
-                patternBuilder.append('.');
-            } else if ("*".equals(match)) {
-                patternBuilder.append(".*");
-            }
-            end = matcher.end();
-        }
-        patternBuilder.append(quote(pattern, end, pattern.length()));
-        return Pattern.compile(patternBuilder.toString());
-    }
-
-    private static String quote(String s, int start, int end) {
-        if (start == end) {
-            return "";
-        }
-        return Pattern.quote(s.substring(start, end));
-    }
-
-    /**
-     * Return whether the given input value matches any of the given GLOB-style patterns.
-     */
-    static boolean matchesAny(final String value, final Collection<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(value).matches()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private int filterAndAddKeys(DatastoreMetricQuery query, ResultSet rs, List<DataPointsRowKey> filteredRowKeys, String index) {
+    private int filterAndAddKeys(DatastoreMetricQuery query, Iterable<ByteBuffer> serializedKeys, List<DataPointsRowKey> filteredRowKeys, String index) {
         final DataPointsRowKeySerializer keySerializer = new DataPointsRowKeySerializer();
-        final SetMultimap<String, String> filterTags = query.getTags();
-        final SetMultimap<String, Pattern> tagPatterns = MultimapBuilder.hashKeys(filterTags.size()).hashSetValues().build();
-        for (Map.Entry<String, String> entry : filterTags.entries()) {
-            tagPatterns.put(entry.getKey(), convertGlobToPattern(entry.getValue()));
-        }
+        final RowKeyTagFilter tagFilter = new RowKeyTagFilter(query.getTags(), m_tagMatcherCompiler);
         int rowReadCount = 0;
-        for (Row r : rs) {
+        for (ByteBuffer serializedKey : serializedKeys) {
             rowReadCount++;
 
             checkReadRowsLimit(rowReadCount, filteredRowKeys.size(), m_cassandraConfiguration.getMaxRowsForKeysQuery(), query, index);
 
-            DataPointsRowKey key = keySerializer.fromByteBuffer(r.getBytes("column1"));
-            Map<String, String> tags = key.getTags();
-
-            boolean skipKey = false;
-            for (String tag : filterTags.keySet()) {
-                String value = tags.get(tag);
-                if (value == null || !matchesAny(value, tagPatterns.get(tag))) {
-                    skipKey = true;
-                    break;
-                }
-            }
-            if (!skipKey) {
-                filteredRowKeys.add(key);
+            // Only keys that are kept are deserialized
+            if (tagFilter.matches(serializedKey)) {
+                filteredRowKeys.add(keySerializer.fromByteBuffer(serializedKey));
             }
         }
 
@@ -781,31 +1092,51 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         final ByteBuffer metricName = ByteBuffer.wrap(query.getName().getBytes(StandardCharsets.UTF_8));
 
         final String index = "row_time_key_index";
-        List<ResultSetFuture> futures = calculateReadTimeBuckets(startTime, endTime)
+        List<IndexBucketRead> reads = calculateReadTimeBuckets(startTime, endTime)
                 .stream()
-                .map(bucket -> collectFromRowTimeKeyIndexAsync(metricName, bucket, limit))
+                .map(bucket -> readIndexBucket(new IndexBucketCache.Key(query.getName(), bucket), limit,
+                        () -> collectFromRowTimeKeyIndexAsync(metricName, bucket, limit)))
                 .collect(Collectors.toList());
 
-        return processRowKeyFutures(query, index, futures);
+        return processRowKeyReads(query, index, reads);
+    }
+
+    private IndexBucketRead readIndexBucket(IndexBucketCache.Key key, int limit, Supplier<ResultSetFuture> read) {
+        final List<ByteBuffer> cached = m_indexBucketCache.get(key);
+        return cached != null ? new IndexBucketRead(key, limit, cached, null) : new IndexBucketRead(key, limit, null, read.get());
     }
 
-    private List<DataPointsRowKey> processRowKeyFutures(DatastoreMetricQuery query, String index, List<ResultSetFuture> futures) {
+    private List<DataPointsRowKey> processRowKeyReads(DatastoreMetricQuery query, String index, List<IndexBucketRead> reads) {
         final List<DataPointsRowKey> rowKeys = new LinkedList<>();
-        Span span = GlobalTracer.get().activeSpan();
-        if (span != null) {
-            span.setTag("index_name", index);
-            span.setTag("buckets", futures.size());
-        }
+        int cachedBuckets = 0;
 
         int readCount = 0;
-        for (ResultSetFuture future : futures) {
-            final ResultSet rs = future.getUninterruptibly();
-            readCount += filterAndAddKeys(query, rs, rowKeys, index);
+        for (IndexBucketRead read : reads) {
+            final Iterable<ByteBuffer> serializedKeys;
+            if (read.m_cached != null) {
+                // Cached buffers are shared between queries
+                serializedKeys = Iterables.transform(read.m_cached, ByteBuffer::duplicate);
+                cachedBuckets++;
+            } else if (m_indexBucketCache.isEnabled()) {
+                final List<ByteBuffer> copies = copyRowKeys(read.m_future.getUninterruptibly());
+                m_indexBucketCache.put(read.m_key, copies, read.m_limit);
+                serializedKeys = Iterables.transform(copies, ByteBuffer::duplicate);
+            } else {
+                serializedKeys = Iterables.transform(read.m_future.getUninterruptibly(), r -> r.getBytes("column1"));
+            }
+            readCount += filterAndAddKeys(query, serializedKeys, rowKeys, index);
 
             final int filteredLimit = m_cassandraConfiguration.getMaxRowKeysForQuery();
             checkFilteredRowsLimit(readCount, rowKeys.size(), filteredLimit, query, index);
         }
 
+        Span span = GlobalTracer.get().activeSpan();
+        if (span != null) {
+            span.setTag("index_name", index);
+            span.setTag("buckets", reads.size());
+            span.setTag("cached_buckets", cachedBuckets);
+        }
+
         final boolean isCriticalQuery = readCount > 5000 || rowKeys.size() > 100;
         query.setMeta(new DatastoreMetricQueryMetadata(
                 isCriticalQuery ? "critical" : "simple",
@@ -822,12 +1153,28 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
                                                                     List<String> useSplit,
                                                                     long startTime, long endTime, int limit) {
         String index = "row_time_key_split_index:" + useSplitField;
-        List<ResultSetFuture> futures = calculateReadTimeBuckets(startTime, endTime)
+        List<IndexBucketRead> reads = calculateReadTimeBuckets(startTime, endTime)
                 .stream()
-                .flatMap(bucket -> useSplit.stream().map(useSplitValue -> collectFromRowTimeKeySplitIndexAsync(query, useSplitField, useSplitValue, bucket, limit)))
+                .flatMap(bucket -> useSplit.stream().map(useSplitValue -> readIndexBucket(
+                        new IndexBucketCache.Key(query.getName(), useSplitField, useSplitValue, bucket), limit,
+                        () -> collectFromRowTimeKeySplitIndexAsync(query, useSplitField, useSplitValue, bucket, limit))))
                 .collect(Collectors.toList());
 
-        return processRowKeyFutures(query, index, futures);
+        return processRowKeyReads(query, index, reads);
+    }
+
+    /**
+     * Copies the serialized keys out of the driver's frame buffers, so cached keys only hold their own bytes.
+     */
+    private static List<ByteBuffer> copyRowKeys(ResultSet rs) {
+        final List<ByteBuffer> rowKeys = new ArrayList<>(rs.getAvailableWithoutFetching());
+        for (Row r : rs) {
+            final ByteBuffer serializedKey = r.getBytes("column1");
+            final ByteBuffer copy = ByteBuffer.allocate(serializedKey.remaining());
+            copy.put(serializedKey.duplicate()).flip();
+            rowKeys.add(copy);
+        }
+        return Collections.unmodifiableList(rowKeys);
     }
 
     private ResultSetFuture collectFromRowTimeKeySplitIndexAsync(final DatastoreMetricQuery query,
@@ -857,6 +1204,23 @@ public class CassandraDatastore implements Datastore, KairosMetricReporter {
         return m_session.executeAsync(bs);
     }
 
+    /**
+     * Index bucket whose keys were found in the {@link IndexBucketCache} or are being read from Cassandra.
+     */
+    private static class IndexBucketRead {
+        private final IndexBucketCache.Key m_key;
+        private final int m_limit;
+        private final List<ByteBuffer> m_cached;
+        private final ResultSetFuture m_future;
+
+        private IndexBucketRead(IndexBucketCache.Key key, int limit, List<ByteBuffer> cached, ResultSetFuture future) {
+            m_key = key;
+            m_limit = limit;
+            m_cached = cached;
+            m_future = future;
+        }
+    }
+
     private class DeletingCallback implements QueryCallback {
         private SortedMap<String, String> m_currentTags;
         private DataPointsRowKey m_currentRow;
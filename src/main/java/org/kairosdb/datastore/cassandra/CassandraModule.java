@@ -67,6 +67,8 @@ public class CassandraModule extends AbstractModule
 		bind(CassandraDatastore.class).in(SINGLETON);
 		bind(CassandraConfiguration.class).in(SINGLETON);
 		bind(CassandraClient.class).to(CassandraClientImpl.class);
+		bind(IngestQuota.class).in(SINGLETON);
+		bind(IngestQuotaResource.class).in(SINGLETON);
 
 		bind(new TypeLiteral<List<RowKeyListener>>(){}).toProvider(RowKeyListenerProvider.class);
 
@@ -15,19 +15,24 @@
  */
 package org.kairosdb.datastore.cassandra;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import me.prettyprint.cassandra.serializers.AbstractSerializer;
 import org.kairosdb.core.datapoints.LegacyDataPointFactory;
-import org.kairosdb.util.StringPool;
+import org.kairosdb.util.CompactTagMap;
+import org.kairosdb.util.TagInterner;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.SortedMap;
 
 public class DataPointsRowKeySerializer extends AbstractSerializer<DataPointsRowKey>
 {
 	public static final Charset UTF8 = Charset.forName("UTF-8");
 
-	private StringPool m_stringPool;
+	private final boolean m_poolStrings;
+	private Cache<SeriesKey, SeriesTemplate> m_templateCache;
 
 	public DataPointsRowKeySerializer()
 	{
@@ -36,19 +41,34 @@ public class DataPointsRowKeySerializer extends AbstractSerializer<DataPointsRow
 
 	public DataPointsRowKeySerializer(boolean poolStrings)
 	{
-		if (poolStrings)
-			m_stringPool = new StringPool();
+		this(poolStrings, 0);
 	}
 
 	/**
-	 If we are pooling strings the string from the pool will be returned.
+	 @param poolStrings intern the strings of deserialized keys through the
+	 shared {@link TagInterner}
+	 @param templateCacheSize number of series whose serialized form is kept so
+	 that only the row timestamp has to be written for the next key of the same
+	 series.  Zero disables the cache.  The tag maps of cached keys must not be
+	 modified afterwards, which holds for keys built on the write path.
+	 */
+	public DataPointsRowKeySerializer(boolean poolStrings, int templateCacheSize)
+	{
+		m_poolStrings = poolStrings;
+
+		if (templateCacheSize > 0)
+			m_templateCache = Caffeine.newBuilder().maximumSize(templateCacheSize).build();
+	}
+
+	/**
+	 If we are pooling strings the interned string will be returned.
 	 @param str string
-	 @return returns the string or what's in the string pool if using a string pool
+	 @return returns the string or its interned instance if pooling strings
 	 */
 	private String getString(String str)
 	{
-		if (m_stringPool != null)
-			return (m_stringPool.getString(str));
+		if (m_poolStrings)
+			return (TagInterner.intern(str));
 		else
 			return (str);
 	}
@@ -59,52 +79,75 @@ public class DataPointsRowKeySerializer extends AbstractSerializer<DataPointsRow
 		ByteBuffer buffer = dataPointsRowKey.getSerializedBuffer();
 		if (buffer != null)
 		{
-			buffer = buffer.duplicate();
+			return buffer.duplicate();
 		}
-		else
+
+		SeriesTemplate template;
+		byte[] bytes;
+		if (m_templateCache != null)
 		{
-			int size = 8; //size of timestamp
-			byte[] metricName = dataPointsRowKey.getMetricName().getBytes(UTF8);
-			size += metricName.length;
-			size++; //Add one for null at end of string
-
-			//if the data type is null then we are creating a row key for the old
-			//format - this is for delete operations
-			byte[] dataType = null;
-			String dataTypeStr = dataPointsRowKey.getDataType();
-			if (!dataTypeStr.equals(LegacyDataPointFactory.DATASTORE_TYPE))
+			SeriesKey seriesKey = new SeriesKey(dataPointsRowKey);
+			template = m_templateCache.getIfPresent(seriesKey);
+			if (template == null)
 			{
-				dataType = dataPointsRowKey.getDataType().getBytes(UTF8);
-				size += dataType.length;
-				size += 2; //for null marker and datatype size
+				template = createTemplate(dataPointsRowKey);
+				m_templateCache.put(seriesKey.compact(), template);
 			}
+			bytes = Arrays.copyOf(template.m_bytes, template.m_bytes.length);
+		}
+		else
+		{
+			template = createTemplate(dataPointsRowKey);
+			bytes = template.m_bytes;
+		}
 
-			byte[] tagString = generateTagString(dataPointsRowKey.getTags()).getBytes(UTF8);
-			size += tagString.length;
+		buffer = ByteBuffer.wrap(bytes);
+		buffer.putLong(template.m_timestampOffset, dataPointsRowKey.getTimestamp());
+		if (template.m_hasDataType && dataPointsRowKey.isEndSearchKey())
+			bytes[template.m_timestampOffset + 8] = (byte)0xFF; //Only used for serialization of end search keys
 
-			buffer = ByteBuffer.allocate(size);
-			buffer.put(metricName); //Metric name is put in this way for sorting purposes
-			buffer.put((byte) 0x0);
-			buffer.putLong(dataPointsRowKey.getTimestamp());
-			if (dataType != null)
-			{
-				if (dataPointsRowKey.isEndSearchKey())
-					buffer.put((byte)0xFF); //Only used for serialization of end search keys
-				else
-					buffer.put((byte)0x0); //Marks the beginning of datatype
-				buffer.put((byte) dataType.length);
-				buffer.put(dataType);
-			}
-			buffer.put(tagString);
+		return buffer;
+	}
+
+	/**
+	 Serializes everything but the row timestamp, which is left zero.
+	 */
+	private SeriesTemplate createTemplate(DataPointsRowKey dataPointsRowKey)
+	{
+		int size = 8; //size of timestamp
+		byte[] metricName = dataPointsRowKey.getMetricName().getBytes(UTF8);
+		size += metricName.length;
+		size++; //Add one for null at end of string
+
+		//if the data type is null then we are creating a row key for the old
+		//format - this is for delete operations
+		byte[] dataType = null;
+		String dataTypeStr = dataPointsRowKey.getDataType();
+		if (!dataTypeStr.equals(LegacyDataPointFactory.DATASTORE_TYPE))
+		{
+			dataType = dataPointsRowKey.getDataType().getBytes(UTF8);
+			size += dataType.length;
+			size += 2; //for null marker and datatype size
+		}
 
-			buffer.flip();
-			buffer = buffer.duplicate();
+		byte[] tagString = generateTagString(dataPointsRowKey.getTags()).getBytes(UTF8);
+		size += tagString.length;
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.put(metricName); //Metric name is put in this way for sorting purposes
+		buffer.put((byte) 0x0);
+		buffer.putLong(0L);
+		if (dataType != null)
+		{
+			buffer.put((byte)0x0); //Marks the beginning of datatype
+			buffer.put((byte) dataType.length);
+			buffer.put(dataType);
 		}
+		buffer.put(tagString);
 
-		return buffer;
+		return new SeriesTemplate(buffer.array(), metricName.length + 1, dataType != null);
 	}
 
-
 	private String generateTagString(SortedMap<String, String> tags)
 	{
 		StringBuilder sb = new StringBuilder();
@@ -194,4 +237,74 @@ public class DataPointsRowKeySerializer extends AbstractSerializer<DataPointsRow
 
 		return rowKey;
 	}
+
+	private static class SeriesTemplate
+	{
+		private final byte[] m_bytes;
+		private final int m_timestampOffset;
+		private final boolean m_hasDataType;
+
+		private SeriesTemplate(byte[] bytes, int timestampOffset, boolean hasDataType)
+		{
+			m_bytes = bytes;
+			m_timestampOffset = timestampOffset;
+			m_hasDataType = hasDataType;
+		}
+	}
+
+	/**
+	 Identifies a series independent of the row time.
+	 */
+	private static class SeriesKey
+	{
+		private final String m_metricName;
+		private final String m_dataType;
+		private final SortedMap<String, String> m_tags;
+		private final int m_hashCode;
+
+		private SeriesKey(DataPointsRowKey rowKey)
+		{
+			this(rowKey.getMetricName(), rowKey.getDataType(), rowKey.getTags());
+		}
+
+		private SeriesKey(String metricName, String dataType, SortedMap<String, String> tags)
+		{
+			m_metricName = metricName;
+			m_dataType = dataType;
+			m_tags = tags;
+
+			int result = m_metricName.hashCode();
+			result = 31 * result + m_dataType.hashCode();
+			result = 31 * result + m_tags.hashCode();
+			m_hashCode = result;
+		}
+
+		/**
+		 Copy kept by the cache, the lookup key shares the strings and tag map
+		 of the data point being written.
+		 */
+		private SeriesKey compact()
+		{
+			return new SeriesKey(TagInterner.intern(m_metricName), m_dataType, CompactTagMap.copyOf(m_tags));
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+
+			SeriesKey that = (SeriesKey) o;
+			return m_hashCode == that.m_hashCode &&
+					m_metricName.equals(that.m_metricName) &&
+					m_dataType.equals(that.m_dataType) &&
+					m_tags.equals(that.m_tags);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return m_hashCode;
+		}
+	}
 }
@@ -0,0 +1,87 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.kairosdb.core.datastore.IngestDeadline;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of write statements that are buffered or waiting for Cassandra. A permit is taken when a
+ * statement is accepted and given back once its write completes, successfully or not.
+ */
+class InFlightWriteBudget {
+    private final int m_maxInFlight;
+    private final long m_maxWaitMs;
+    private final Semaphore m_permits;
+
+    private final AtomicLong m_waitTimeSum = new AtomicLong();
+    private final AtomicLong m_waitCount = new AtomicLong();
+    private final AtomicLong m_rejected = new AtomicLong();
+
+    InFlightWriteBudget(int maxInFlight, long maxWaitMs) {
+        m_maxInFlight = maxInFlight;
+        m_maxWaitMs = maxWaitMs;
+        m_permits = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    /**
+     * Takes a permit, waiting at most the configured time for one to be released. Within an ingest request the
+     * configured time bounds the waits of all its writes together.
+     *
+     * @throws DatastoreOverloadedException if no permit became available in time
+     */
+    void acquire() throws DatastoreOverloadedException {
+        acquire(IngestDeadline.current());
+    }
+
+    void acquire(IngestDeadline deadline) throws DatastoreOverloadedException {
+        if (m_maxInFlight <= 0 || m_permits.tryAcquire()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(m_maxWaitMs);
+        final long waitNanos = deadline == null ? maxWaitNanos : deadline.remainingNanos(maxWaitNanos);
+        boolean acquired = false;
+        try {
+            acquired = m_permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_waitTimeSum.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        m_waitCount.incrementAndGet();
+
+        if (!acquired) {
+            m_rejected.incrementAndGet();
+            throw new DatastoreOverloadedException(String.format(
+                    "Too many writes in flight (limit %d), retry later", m_maxInFlight));
+        }
+    }
+
+    void release(int permits) {
+        if (m_maxInFlight > 0) {
+            m_permits.release(permits);
+        }
+    }
+
+    int getInFlight() {
+        return m_maxInFlight <= 0 ? 0 : m_maxInFlight - m_permits.availablePermits();
+    }
+
+    /**
+     * Total time spent by writers waiting for a permit since the last call, in milliseconds.
+     */
+    long getAndResetWaitTime() {
+        return m_waitTimeSum.getAndSet(0);
+    }
+
+    long getAndResetWaitCount() {
+        return m_waitCount.getAndSet(0);
+    }
+
+    long getAndResetRejected() {
+        return m_rejected.getAndSet(0);
+    }
+}
@@ -0,0 +1,283 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.QuotaExceededException;
+import org.kairosdb.core.reporting.KairosMetricReporter;
+import org.kairosdb.util.CountMinSketch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Per metric limits on ingested data points and on new row keys, so a single sender that puts a timestamp or an id
+ * into a tag cannot flood the index and the row key cache.
+ * <p>
+ * Counts are kept per fixed window (a second for points, a minute for new series) in count-min sketches, so memory
+ * does not depend on the number of metrics and an estimate may only be too high. Over its limit a metric is either
+ * rejected with {@link QuotaExceededException} or sampled down towards the limit, depending on the policy. Metrics
+ * over their limit are remembered as offenders for the admin endpoint and the reported metrics.
+ */
+public class IngestQuota implements KairosMetricReporter {
+    public enum Policy {
+        REJECT,
+        SAMPLE
+    }
+
+    private static final long POINTS_WINDOW_MS = 1000;
+    private static final long SERIES_WINDOW_MS = 60_000;
+    private static final int MAX_OFFENDERS = 1000;
+    private static final long OFFENDER_RETENTION_MS = 3_600_000;
+    private static final int REPORTED_OFFENDERS = 10;
+
+    private final Window m_points;
+    private final Window m_series;
+    private final Policy m_policy;
+    private final LongSupplier m_clock;
+
+    private final ConcurrentMap<String, Offender> m_offenders = new ConcurrentHashMap<>();
+    private final AtomicLong m_rejectedPoints = new AtomicLong();
+    private final AtomicLong m_rejectedSeries = new AtomicLong();
+
+    @javax.inject.Inject
+    @Named("HOSTNAME")
+    private String hostName = "localhost";
+
+    @Inject
+    public IngestQuota(CassandraConfiguration configuration) {
+        this(configuration.getQuotaMaxPointsPerSecond(), configuration.getQuotaMaxNewSeriesPerMinute(),
+                configuration.getQuotaPolicy(), configuration.getQuotaSketchWidth(), System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    IngestQuota(long maxPointsPerSecond, long maxNewSeriesPerMinute, Policy policy, int sketchWidth,
+                LongSupplier clock) {
+        m_points = maxPointsPerSecond > 0 ? new Window(POINTS_WINDOW_MS, maxPointsPerSecond, sketchWidth) : null;
+        m_series = maxNewSeriesPerMinute > 0 ? new Window(SERIES_WINDOW_MS, maxNewSeriesPerMinute, sketchWidth) : null;
+        m_policy = policy;
+        m_clock = clock;
+    }
+
+    /**
+     * Counts a data point of the metric.
+     *
+     * @return false if the point is to be dropped by sampling
+     * @throws QuotaExceededException if the metric is over its limit and offenders are rejected
+     */
+    public boolean acceptPoint(String metricName) throws QuotaExceededException {
+        return m_points == null || accept(m_points, metricName, false);
+    }
+
+    /**
+     * Counts a new row key of the metric, called before its index entries are written.
+     *
+     * @return false if the series is to be dropped by sampling
+     * @throws QuotaExceededException if the metric is over its limit and offenders are rejected
+     */
+    public boolean acceptNewSeries(String metricName) throws QuotaExceededException {
+        return m_series == null || accept(m_series, metricName, true);
+    }
+
+    private boolean accept(Window window, String metricName, boolean newSeries) throws QuotaExceededException {
+        final long now = m_clock.getAsLong();
+        final long count = window.add(metricName, now);
+        if (count <= window.m_limit) {
+            return true;
+        }
+
+        // Past the limit each point or series is kept with probability limit / count
+        if (m_policy == Policy.SAMPLE && ThreadLocalRandom.current().nextLong(count) < window.m_limit) {
+            return true;
+        }
+
+        (newSeries ? m_rejectedSeries : m_rejectedPoints).incrementAndGet();
+        final Offender offender = offender(metricName);
+        if (offender != null) {
+            offender.offend(newSeries, count, now);
+        }
+
+        if (m_policy == Policy.REJECT) {
+            throw new QuotaExceededException(metricName, newSeries
+                    ? String.format("Metric '%s' exceeds its quota of %d new series per minute", metricName, window.m_limit)
+                    : String.format("Metric '%s' exceeds its quota of %d data points per second", metricName, window.m_limit));
+        }
+        return false;
+    }
+
+    private Offender offender(String metricName) {
+        final Offender offender = m_offenders.get(metricName);
+        if (offender != null || m_offenders.size() >= MAX_OFFENDERS) {
+            return offender;
+        }
+        return m_offenders.computeIfAbsent(metricName, Offender::new);
+    }
+
+    /**
+     * Returns the metrics with the most rejected or dropped points and series within the last hour.
+     */
+    public List<OffenderStatus> getTopOffenders(int limit) {
+        pruneOffenders(m_clock.getAsLong());
+
+        final List<OffenderStatus> offenders = new ArrayList<>();
+        for (final Offender offender : m_offenders.values()) {
+            offenders.add(new OffenderStatus(offender));
+        }
+        offenders.sort(Comparator.comparingLong(OffenderStatus::getRejectedTotal).reversed());
+        return offenders.size() > limit ? new ArrayList<>(offenders.subList(0, limit)) : offenders;
+    }
+
+    private void pruneOffenders(long now) {
+        m_offenders.values().removeIf(offender -> offender.m_lastOffense < now - OFFENDER_RETENTION_MS);
+    }
+
+    @Override
+    public List<DataPointSet> getMetrics(long now) {
+        final List<DataPointSet> ret = new ArrayList<>();
+        ret.add(getDataPointSet(now, "kairosdb.datastore.cassandra.quota.rejected_points", m_rejectedPoints.getAndSet(0)));
+        ret.add(getDataPointSet(now, "kairosdb.datastore.cassandra.quota.rejected_series", m_rejectedSeries.getAndSet(0)));
+        ret.add(getDataPointSet(now, "kairosdb.datastore.cassandra.quota.offenders", m_offenders.size()));
+
+        for (final OffenderStatus status : getTopOffenders(REPORTED_OFFENDERS)) {
+            final Offender offender = m_offenders.get(status.getMetricName());
+            final long unreported = offender != null ? offender.m_unreported.getAndSet(0) : 0;
+            if (unreported > 0) {
+                final DataPointSet dataPointSet = getDataPointSet(now, "kairosdb.datastore.cassandra.quota.offender_rejected",
+                        unreported);
+                dataPointSet.addTag("metric_name", status.getMetricName().replace(':', '_').replace('=', '_'));
+                ret.add(dataPointSet);
+            }
+        }
+        return ret;
+    }
+
+    private DataPointSet getDataPointSet(long now, String name, long value) {
+        final DataPointSet dataPointSet = new DataPointSet(name);
+        dataPointSet.addTag("host", hostName);
+        dataPointSet.addDataPoint(new LongDataPoint(now, value));
+        return dataPointSet;
+    }
+
+    private static class Sketch {
+        private final long m_start;
+        private final CountMinSketch m_counts;
+
+        private Sketch(long start, int width) {
+            m_start = start;
+            m_counts = new CountMinSketch(width);
+        }
+    }
+
+    private static class Window {
+        private final long m_lengthMs;
+        private final long m_limit;
+        private final int m_width;
+        private volatile Sketch m_current;
+
+        private Window(long lengthMs, long limit, int width) {
+            m_lengthMs = lengthMs;
+            m_limit = limit;
+            m_width = width;
+            m_current = new Sketch(0, width);
+        }
+
+        private long add(String key, long now) {
+            final long start = now - now % m_lengthMs;
+            Sketch sketch = m_current;
+            // Counts racing with the switch to a new window may land in the old one, close enough for a quota
+            if (start > sketch.m_start) {
+                synchronized (this) {
+                    sketch = m_current;
+                    if (start > sketch.m_start) {
+                        sketch = new Sketch(start, m_width);
+                        m_current = sketch;
+                    }
+                }
+            }
+            return sketch.m_counts.add(key, 1);
+        }
+    }
+
+    private static class Offender {
+        private final String m_metricName;
+        private final AtomicLong m_rejectedPoints = new AtomicLong();
+        private final AtomicLong m_rejectedSeries = new AtomicLong();
+        private final AtomicLong m_unreported = new AtomicLong();
+        private volatile long m_peakPoints;
+        private volatile long m_peakSeries;
+        private volatile long m_lastOffense;
+
+        private Offender(String metricName) {
+            m_metricName = metricName;
+        }
+
+        private void offend(boolean newSeries, long count, long now) {
+            if (newSeries) {
+                m_rejectedSeries.incrementAndGet();
+                m_peakSeries = Math.max(m_peakSeries, count);
+            } else {
+                m_rejectedPoints.incrementAndGet();
+                m_peakPoints = Math.max(m_peakPoints, count);
+            }
+            m_unreported.incrementAndGet();
+            m_lastOffense = now;
+        }
+    }
+
+    /**
+     * Snapshot of an offender as returned by the admin endpoint.
+     */
+    public static class OffenderStatus {
+        private final String m_metricName;
+        private final long m_rejectedPoints;
+        private final long m_rejectedSeries;
+        private final long m_peakPointsPerSecond;
+        private final long m_peakNewSeriesPerMinute;
+        private final long m_lastOffense;
+
+        private OffenderStatus(Offender offender) {
+            m_metricName = offender.m_metricName;
+            m_rejectedPoints = offender.m_rejectedPoints.get();
+            m_rejectedSeries = offender.m_rejectedSeries.get();
+            m_peakPointsPerSecond = offender.m_peakPoints;
+            m_peakNewSeriesPerMinute = offender.m_peakSeries;
+            m_lastOffense = offender.m_lastOffense;
+        }
+
+        public String getMetricName() {
+            return m_metricName;
+        }
+
+        public long getRejectedPoints() {
+            return m_rejectedPoints;
+        }
+
+        public long getRejectedSeries() {
+            return m_rejectedSeries;
+        }
+
+        public long getRejectedTotal() {
+            return m_rejectedPoints + m_rejectedSeries;
+        }
+
+        public long getPeakPointsPerSecond() {
+            return m_peakPointsPerSecond;
+        }
+
+        public long getPeakNewSeriesPerMinute() {
+            return m_peakNewSeriesPerMinute;
+        }
+
+        public long getLastOffense() {
+            return m_lastOffense;
+        }
+    }
+}
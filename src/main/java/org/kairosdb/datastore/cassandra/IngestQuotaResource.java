@@ -0,0 +1,49 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.inject.Inject;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lists the metrics that exceeded their ingest quota within the last hour.
+ */
+@Path("/api/v1/admin/quota")
+public class IngestQuotaResource {
+    private final IngestQuota m_ingestQuota;
+
+    @Inject
+    public IngestQuotaResource(IngestQuota ingestQuota) {
+        m_ingestQuota = checkNotNull(ingestQuota);
+    }
+
+    /**
+     * Returns the offenders with the most rejected or dropped points and series first.
+     *
+     * @param limit maximum number of offenders returned
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON + "; charset=UTF-8")
+    @Path("offenders")
+    public Response offenders(@QueryParam("limit") @DefaultValue("20") int limit) {
+        if (limit <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        final GenericEntity<List<IngestQuota.OffenderStatus>> entity =
+                new GenericEntity<List<IngestQuota.OffenderStatus>>(m_ingestQuota.getTopOffenders(limit)) {};
+        return Response.ok(entity)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Cache-Control", "no-cache")
+                .build();
+    }
+}
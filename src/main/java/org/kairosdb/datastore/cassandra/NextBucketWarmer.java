@@ -0,0 +1,219 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpConfiguration;
+import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpLogic;
+import org.kairosdb.util.CompactTagMap;
+import org.kairosdb.util.TagInterner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Writes the index entries of the next write bucket ahead of time, so the series of a bucket don't all miss the row
+ * key cache at the moment the bucket starts.
+ * <p>
+ * Series are tracked when they are written to the current bucket, once per bucket whether their row key was cached
+ * or not, so series known from a restored cache are warmed as well. A background thread writes their keys
+ * for the next bucket during the configured warm-up period, paced by {@link CacheWarmingUpLogic#getWarmUpProgress}
+ * and capped at a maximum rate. Warmed keys are tracked for the next bucket as well, they won't miss the cache there
+ * but still have to be warmed for the bucket after it.
+ */
+class NextBucketWarmer {
+    private static final Logger logger = LoggerFactory.getLogger(NextBucketWarmer.class);
+
+    private static final long TICK_MS = 1000;
+
+    interface RowKeyWarmer {
+        /**
+         * Writes the index entries of the row key unless it is already cached.
+         *
+         * @return true if the entries were written
+         */
+        boolean warm(DataPointsRowKey rowKey, int rowKeyTtl) throws DatastoreOverloadedException;
+    }
+
+    private final CacheWarmingUpConfiguration m_config;
+    private final CacheWarmingUpLogic m_logic;
+    private final RowKeyWarmer m_warmer;
+    private final long m_rowWidth;
+    private final LongSupplier m_clock;
+    private final RateLimiter m_rateLimiter;
+
+    private final ConcurrentNavigableMap<Long, Bucket> m_buckets = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService m_executor;
+
+    private final AtomicLong m_written = new AtomicLong();
+    private final AtomicLong m_skipped = new AtomicLong();
+    private final AtomicLong m_deferred = new AtomicLong();
+    private volatile long m_trackedSeries;
+    private volatile long m_progressPercent;
+
+    NextBucketWarmer(CacheWarmingUpConfiguration config, CacheWarmingUpLogic logic, RowKeyWarmer warmer,
+                     long rowWidth, LongSupplier clock) {
+        m_config = config;
+        m_logic = logic;
+        m_warmer = warmer;
+        m_rowWidth = rowWidth;
+        m_clock = clock;
+        m_rateLimiter = RateLimiter.create(Math.max(1, config.getMaxRowsPerSecond()));
+    }
+
+    void start() {
+        m_executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("next-bucket-warmer-%d").setDaemon(true).build());
+        m_executor.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void close() {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Remembers a series that was just written. Only keys of the current bucket are tracked, a series already
+     * tracked costs a set lookup.
+     */
+    void track(DataPointsRowKey rowKey, int rowKeyTtl) {
+        if (!m_config.isEnabled() || rowKey.getTimestamp() != rowTime(m_clock.getAsLong())) {
+            return;
+        }
+        final Bucket bucket = bucket(rowKey.getTimestamp());
+        if (bucket.m_series.contains(rowKey)) {
+            return;
+        }
+        // Held until the next bucket is warmed, so keep only compact tags and shared strings
+        final DataPointsRowKey tracked = new DataPointsRowKey(TagInterner.intern(rowKey.getMetricName()),
+                rowKey.getTimestamp(), rowKey.getDataType(), CompactTagMap.copyOf(rowKey.getTags()));
+        bucket.add(tracked, rowKeyTtl);
+    }
+
+    /**
+     * Warms as many series as the current progress of the warm-up period and the rate limit allow.
+     */
+    void tick() {
+        try {
+            final long now = m_clock.getAsLong();
+            final long currentRowTime = rowTime(now);
+            final long nextRowTime = currentRowTime + m_rowWidth;
+            m_buckets.headMap(currentRowTime).clear();
+
+            if (!m_config.isEnabled()) {
+                m_buckets.clear();
+                m_trackedSeries = 0;
+                m_progressPercent = 0;
+                return;
+            }
+
+            final Bucket bucket = m_buckets.get(currentRowTime);
+            if (bucket == null) {
+                m_trackedSeries = 0;
+                m_progressPercent = 0;
+                return;
+            }
+
+            final long tracked = bucket.m_series.size();
+            final double progress = m_logic.getWarmUpProgress(now, nextRowTime,
+                    m_config.getHeatingIntervalMinutes(), m_config.getRowIntervalMinutes());
+            final long target = (long) Math.ceil(tracked * progress);
+
+            if (bucket.m_warmed < target) {
+                final Bucket next = bucket(nextRowTime);
+                while (bucket.m_warmed < target) {
+                    final TrackedSeries series = bucket.m_pending.poll();
+                    if (series == null) {
+                        break;
+                    }
+                    // Blocks the warm-up thread only
+                    m_rateLimiter.acquire();
+                    final DataPointsRowKey nextKey = new DataPointsRowKey(series.m_rowKey.getMetricName(),
+                            nextRowTime, series.m_rowKey.getDataType(), series.m_rowKey.getTags());
+                    try {
+                        if (m_warmer.warm(nextKey, series.m_rowKeyTtl)) {
+                            m_written.incrementAndGet();
+                        } else {
+                            m_skipped.incrementAndGet();
+                        }
+                    } catch (DatastoreOverloadedException e) {
+                        // Ingest comes first, try again on the next tick
+                        bucket.m_pending.add(series);
+                        m_deferred.incrementAndGet();
+                        break;
+                    }
+                    bucket.m_warmed++;
+                    next.add(nextKey, series.m_rowKeyTtl);
+                }
+            }
+
+            m_trackedSeries = tracked;
+            m_progressPercent = tracked == 0 ? 0 : bucket.m_warmed * 100 / tracked;
+        } catch (Exception e) {
+            logger.error("Failed to warm up row keys of the next bucket", e);
+        }
+    }
+
+    long getAndResetWritten() {
+        return m_written.getAndSet(0);
+    }
+
+    long getAndResetSkipped() {
+        return m_skipped.getAndSet(0);
+    }
+
+    long getAndResetDeferred() {
+        return m_deferred.getAndSet(0);
+    }
+
+    long getTrackedSeries() {
+        return m_trackedSeries;
+    }
+
+    long getProgressPercent() {
+        return m_progressPercent;
+    }
+
+    private long rowTime(long timestamp) {
+        return timestamp - (Math.abs(timestamp) % m_rowWidth);
+    }
+
+    private Bucket bucket(long rowTime) {
+        return m_buckets.computeIfAbsent(rowTime, k -> new Bucket());
+    }
+
+    private static class Bucket {
+        private final Set<DataPointsRowKey> m_series = ConcurrentHashMap.newKeySet();
+        private final Queue<TrackedSeries> m_pending = new ConcurrentLinkedQueue<>();
+        // Only touched by the warm-up thread
+        private long m_warmed;
+
+        private void add(DataPointsRowKey rowKey, int rowKeyTtl) {
+            if (m_series.add(rowKey)) {
+                m_pending.add(new TrackedSeries(rowKey, rowKeyTtl));
+            }
+        }
+    }
+
+    private static class TrackedSeries {
+        private final DataPointsRowKey m_rowKey;
+        private final int m_rowKeyTtl;
+
+        private TrackedSeries(DataPointsRowKey rowKey, int rowKeyTtl) {
+            m_rowKey = rowKey;
+            m_rowKeyTtl = rowKeyTtl;
+        }
+    }
+}
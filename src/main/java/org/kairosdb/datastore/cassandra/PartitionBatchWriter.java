@@ -0,0 +1,312 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Groups write statements by their Cassandra partition and sends them as UNLOGGED single-partition batches.
+ * <p>
+ * Statements are held for at most the configured window before a background thread flushes them. A batch that
+ * reaches the maximum size is flushed right away by the thread that filled it. A window of zero disables
+ * batching and every statement is executed on its own.
+ * <p>
+ * Every accepted statement holds a permit of the {@link InFlightWriteBudget} until Cassandra answered for it.
+ * Statements whose write failed are handed to the failed write handler, one by one also for batches. The handler
+ * runs on its own thread, never on the driver's I/O threads, and failures beyond its bounded queue are dropped and
+ * counted. A statement executed directly for its caller that can't be sent at all fails the call instead.
+ */
+class PartitionBatchWriter {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionBatchWriter.class);
+
+    private static final int FAILED_WRITE_QUEUE_SIZE = 10_000;
+
+    private final Session m_session;
+    private final InFlightWriteBudget m_budget;
+    private final long m_windowMs;
+    private final int m_maxBatchSize;
+    private final Consumer<Statement> m_failedWriteHandler;
+
+    private final ConcurrentMap<Object, PendingBatch> m_pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService m_flusher;
+    private final ExecutorService m_failedWriteExecutor;
+
+    private final AtomicLong m_flushCount = new AtomicLong();
+    private final AtomicLong m_flushedStatements = new AtomicLong();
+    private final AtomicLong m_maxFlushSize = new AtomicLong();
+    private final AtomicLong m_completedFlushes = new AtomicLong();
+    private final AtomicLong m_flushLatencySum = new AtomicLong();
+    private final AtomicLong m_maxFlushLatency = new AtomicLong();
+    private final AtomicLong m_writeFailures = new AtomicLong();
+    private final AtomicLong m_droppedFailedWrites = new AtomicLong();
+    private volatile long m_lastFailureTime;
+
+    PartitionBatchWriter(Session session, InFlightWriteBudget budget, long windowMs, int maxBatchSize) {
+        this(session, budget, windowMs, maxBatchSize, statement -> {
+        });
+    }
+
+    PartitionBatchWriter(Session session, InFlightWriteBudget budget, long windowMs, int maxBatchSize,
+                         Consumer<Statement> failedWriteHandler) {
+        m_session = session;
+        m_budget = budget;
+        m_windowMs = windowMs;
+        m_maxBatchSize = Math.max(1, maxBatchSize);
+        m_failedWriteHandler = failedWriteHandler;
+        m_failedWriteExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(FAILED_WRITE_QUEUE_SIZE),
+                new ThreadFactoryBuilder().setNameFormat("failed-write-handler-%d").setDaemon(true).build());
+
+        if (m_windowMs > 0) {
+            m_flusher = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("partition-batch-flusher-%d").setDaemon(true).build());
+            m_flusher.scheduleWithFixedDelay(this::flushAll, m_windowMs, m_windowMs, TimeUnit.MILLISECONDS);
+        } else {
+            m_flusher = null;
+        }
+    }
+
+    /**
+     * Queues the statement for the given partition. Statements added with equal partition keys end up in the
+     * same batch, so the key must identify the table as well as the partition within it.
+     *
+     * @throws DatastoreOverloadedException if the in-flight budget stays exhausted for too long
+     */
+    void add(Object partitionKey, Statement statement) throws DatastoreOverloadedException {
+        m_budget.acquire();
+
+        if (m_flusher == null) {
+            execute(statement, 1, true);
+            return;
+        }
+
+        while (true) {
+            final PendingBatch batch = m_pending.computeIfAbsent(partitionKey, k -> new PendingBatch());
+            final List<Statement> full;
+            synchronized (batch) {
+                if (batch.m_closed) {
+                    // Flushed concurrently, pick up a fresh batch for this partition
+                    continue;
+                }
+                batch.m_statements.add(statement);
+                if (batch.m_statements.size() < m_maxBatchSize) {
+                    return;
+                }
+                batch.m_closed = true;
+                full = batch.m_statements;
+            }
+            m_pending.remove(partitionKey, batch);
+            send(full);
+            return;
+        }
+    }
+
+    /**
+     * Sends all pending batches regardless of their age.
+     */
+    void flushAll() {
+        try {
+            for (Object partitionKey : m_pending.keySet()) {
+                final PendingBatch batch = m_pending.remove(partitionKey);
+                if (batch == null) {
+                    continue;
+                }
+                final List<Statement> statements;
+                synchronized (batch) {
+                    if (batch.m_closed) {
+                        continue;
+                    }
+                    batch.m_closed = true;
+                    statements = batch.m_statements;
+                }
+                send(statements);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to flush partition batches", e);
+        }
+    }
+
+    void close() {
+        if (m_flusher != null) {
+            m_flusher.shutdown();
+            try {
+                m_flusher.awaitTermination(m_windowMs * 10, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushAll();
+
+        m_failedWriteExecutor.shutdown();
+        try {
+            m_failedWriteExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int getPendingPartitions() {
+        return m_pending.size();
+    }
+
+    long getAndResetFlushCount() {
+        return m_flushCount.getAndSet(0);
+    }
+
+    long getAndResetFlushedStatements() {
+        return m_flushedStatements.getAndSet(0);
+    }
+
+    long getAndResetMaxFlushSize() {
+        return m_maxFlushSize.getAndSet(0);
+    }
+
+    long getAndResetMaxFlushLatency() {
+        return m_maxFlushLatency.getAndSet(0);
+    }
+
+    long getAndResetWriteFailures() {
+        return m_writeFailures.getAndSet(0);
+    }
+
+    /**
+     * Failed statements not handed to the failed write handler because its queue was full.
+     */
+    long getAndResetDroppedFailedWrites() {
+        return m_droppedFailedWrites.getAndSet(0);
+    }
+
+    /**
+     * Time of the last failed write in milliseconds, 0 if no write failed yet.
+     */
+    long getLastFailureTime() {
+        return m_lastFailureTime;
+    }
+
+    /**
+     * Average round trip of the flushes completed since the last call, in milliseconds.
+     */
+    long getAndResetAverageFlushLatency() {
+        final long completed = m_completedFlushes.getAndSet(0);
+        final long sum = m_flushLatencySum.getAndSet(0);
+        return completed == 0 ? 0 : sum / completed;
+    }
+
+    private void send(List<Statement> statements) {
+        if (statements.isEmpty()) {
+            return;
+        }
+        if (statements.size() == 1) {
+            execute(statements.get(0), 1, false);
+            return;
+        }
+
+        final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.addAll(statements);
+        final Statement first = statements.get(0);
+        if (first.getConsistencyLevel() != null) {
+            batch.setConsistencyLevel(first.getConsistencyLevel());
+        }
+        execute(batch, statements.size(), false);
+    }
+
+    /**
+     * @param direct true if the statement is executed for the calling request alone, which then gets the error of a
+     *               statement that can't be sent. Batched statements belong to requests that already returned, so
+     *               they go to the failed write handler instead.
+     */
+    private void execute(Statement statement, int size, boolean direct) {
+        final long start = System.currentTimeMillis();
+        final ResultSetFuture future;
+        try {
+            future = m_session.executeAsync(statement);
+        } catch (RuntimeException e) {
+            m_budget.release(size);
+            m_writeFailures.addAndGet(size);
+            m_lastFailureTime = System.currentTimeMillis();
+            if (direct) {
+                throw e;
+            }
+            logger.error("Failed to send {} statement(s) to Cassandra: {}", size, e.getMessage());
+            handleFailedWrite(statement, size);
+            return;
+        }
+
+        m_flushCount.incrementAndGet();
+        m_flushedStatements.addAndGet(size);
+        updateMax(m_maxFlushSize, size);
+
+        Futures.addCallback(future, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet result) {
+                m_budget.release(size);
+                final long latency = System.currentTimeMillis() - start;
+                m_completedFlushes.incrementAndGet();
+                m_flushLatencySum.addAndGet(latency);
+                updateMax(m_maxFlushLatency, latency);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                m_budget.release(size);
+                m_writeFailures.addAndGet(size);
+                m_lastFailureTime = System.currentTimeMillis();
+                logger.error("Failed to write {} statement(s) to Cassandra: {}", size, t.getMessage());
+                handleFailedWrite(statement, size);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private void handleFailedWrite(Statement statement, int size) {
+        try {
+            m_failedWriteExecutor.execute(() -> {
+                try {
+                    if (statement instanceof BatchStatement) {
+                        ((BatchStatement) statement).getStatements().forEach(m_failedWriteHandler);
+                    } else {
+                        m_failedWriteHandler.accept(statement);
+                    }
+                } catch (Exception e) {
+                    logger.error("Failed to handle failed write", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            m_droppedFailedWrites.addAndGet(size);
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static class PendingBatch {
+        private final List<Statement> m_statements = new ArrayList<>();
+        private boolean m_closed;
+    }
+}
@@ -0,0 +1,142 @@
+package org.kairosdb.datastore.cassandra;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partition reads of one query, shared by all of its {@link CQLQueryRunner}s.
+ * <p>
+ * Caps the reads in flight, records the peak of reads in flight, the latency of each read and the time until the
+ * first row was decoded, counts reads that failed, and learns how many columns per millisecond the partitions of the
+ * query hold so runners can size their pages.
+ */
+class QueryReadTracker {
+    static final int DEFAULT_FETCH_SIZE = 1000;
+    private static final int MIN_FETCH_SIZE = 100;
+    private static final int MAX_FETCH_SIZE = 10_000;
+
+    private final Semaphore m_permits;
+    private final long m_startNanos = System.nanoTime();
+
+    private final AtomicInteger m_inFlight = new AtomicInteger();
+    private final AtomicInteger m_peakInFlight = new AtomicInteger();
+    private final AtomicLong m_firstRowNanos = new AtomicLong(-1);
+    private final AtomicLong m_readCount = new AtomicLong();
+    private final AtomicLong m_failedReadCount = new AtomicLong();
+    private final AtomicLong m_observedColumns = new AtomicLong();
+    private final AtomicLong m_observedRangeMs = new AtomicLong();
+
+    private final LatencyRecorder m_latencyRecorder;
+
+    interface LatencyRecorder {
+        void record(long latencyMs);
+    }
+
+    /**
+     * @param maxConcurrentReads reads in flight at most, 0 for no limit
+     */
+    QueryReadTracker(int maxConcurrentReads, LatencyRecorder latencyRecorder) {
+        m_permits = maxConcurrentReads > 0 ? new Semaphore(maxConcurrentReads) : null;
+        m_latencyRecorder = latencyRecorder;
+    }
+
+    /**
+     * Takes a permit for a read, waiting for one if none is free.
+     */
+    void acquire() {
+        if (m_permits != null) {
+            m_permits.acquireUninterruptibly();
+        }
+        started();
+    }
+
+    /**
+     * Takes a permit for a read if one is free.
+     */
+    boolean tryAcquire() {
+        if (m_permits != null && !m_permits.tryAcquire()) {
+            return false;
+        }
+        started();
+        return true;
+    }
+
+    /**
+     * Gives back the permit of a read that completed, successfully or not.
+     *
+     * @param submitNanos {@link System#nanoTime()} when the read was sent
+     */
+    void completed(long submitNanos) {
+        final long latencyNanos = System.nanoTime() - submitNanos;
+        m_inFlight.decrementAndGet();
+        if (m_permits != null) {
+            m_permits.release();
+        }
+        m_readCount.incrementAndGet();
+        m_latencyRecorder.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    /**
+     * Counts a read whose data points were not passed on because it failed.
+     */
+    void failed() {
+        m_failedReadCount.incrementAndGet();
+    }
+
+    void firstRow() {
+        m_firstRowNanos.compareAndSet(-1, System.nanoTime() - m_startNanos);
+    }
+
+    /**
+     * Remembers how many columns a partition held for the given time range.
+     */
+    void observe(long columns, long rangeMs) {
+        m_observedColumns.addAndGet(columns);
+        m_observedRangeMs.addAndGet(Math.max(1, rangeMs));
+    }
+
+    /**
+     * Page size for a partition read of the given time range, large enough for the whole range at the column
+     * density seen so far.
+     */
+    int fetchSize(long rangeMs) {
+        final long observedRange = m_observedRangeMs.get();
+        if (observedRange == 0) {
+            return DEFAULT_FETCH_SIZE;
+        }
+        final double expectedColumns = (double) m_observedColumns.get() / observedRange * rangeMs;
+        // Some headroom so a slightly denser partition still fits into one page
+        final long fetchSize = (long) Math.ceil(expectedColumns * 1.25) + 16;
+        return (int) Math.max(MIN_FETCH_SIZE, Math.min(MAX_FETCH_SIZE, fetchSize));
+    }
+
+    int getPeakInFlight() {
+        return m_peakInFlight.get();
+    }
+
+    /**
+     * Time from the start of the query until a runner decoded the first row, -1 if no row was read.
+     */
+    long getTimeToFirstRowMs() {
+        final long nanos = m_firstRowNanos.get();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    long getReadCount() {
+        return m_readCount.get();
+    }
+
+    long getFailedReadCount() {
+        return m_failedReadCount.get();
+    }
+
+    private void started() {
+        final int inFlight = m_inFlight.incrementAndGet();
+        int peak = m_peakInFlight.get();
+        while (inFlight > peak && !m_peakInFlight.compareAndSet(peak, inFlight)) {
+            peak = m_peakInFlight.get();
+        }
+    }
+}
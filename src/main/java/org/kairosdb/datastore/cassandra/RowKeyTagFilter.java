@@ -0,0 +1,121 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.SetMultimap;
+import org.kairosdb.util.TagMatcherCompiler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Matches the tag filters of a query against serialized row keys, so only keys that are kept have to be turned into
+ * {@link DataPointsRowKey}s.
+ * <p>
+ * The {@code tag=value:} region of the key is scanned in place. Tag names are compared byte by byte, values are
+ * matched by the {@link TagMatcherCompiler.TagMatcher} compiled for the values of the tag. A key matches if it has
+ * every filtered tag with one of the values given for it, the same as for deserialized keys.
+ */
+class RowKeyTagFilter {
+    private static final byte TAG_SEPARATOR = '=';
+    private static final byte VALUE_SEPARATOR = ':';
+
+    private final TagCondition[] m_conditions;
+
+    RowKeyTagFilter(SetMultimap<String, String> filterTags, TagMatcherCompiler compiler) {
+        m_conditions = new TagCondition[filterTags.keySet().size()];
+        int i = 0;
+        for (String tag : filterTags.keySet()) {
+            m_conditions[i++] = new TagCondition(tag, compiler.compile(filterTags.get(tag)));
+        }
+    }
+
+    /**
+     * Returns whether the serialized row key has all filtered tags with a matching value. The position of the buffer
+     * is left unchanged.
+     */
+    boolean matches(ByteBuffer rowKey) {
+        if (m_conditions.length == 0) {
+            return true;
+        }
+
+        final int end = rowKey.limit();
+        int position = tagsStart(rowKey);
+        int matched = 0;
+        while (position < end) {
+            final int nameEnd = indexOf(rowKey, TAG_SEPARATOR, position, end);
+            if (nameEnd < 0) {
+                break;
+            }
+            final int valueStart = nameEnd + 1;
+            final int valueEnd = indexOf(rowKey, VALUE_SEPARATOR, valueStart, end);
+            if (valueEnd < 0) {
+                break;
+            }
+
+            final TagCondition condition = find(rowKey, position, nameEnd);
+            if (condition != null) {
+                if (!condition.m_matcher.matches(rowKey, valueStart, valueEnd)) {
+                    return false;
+                }
+                if (++matched == m_conditions.length) {
+                    return true;
+                }
+            }
+            position = valueEnd + 1;
+        }
+        return false;
+    }
+
+    private TagCondition find(ByteBuffer rowKey, int start, int end) {
+        for (TagCondition condition : m_conditions) {
+            if (equals(rowKey, start, end, condition.m_name)) {
+                return condition;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips metric name, row time and data type, see {@link DataPointsRowKeySerializer#fromByteBuffer(ByteBuffer)}.
+     */
+    private static int tagsStart(ByteBuffer rowKey) {
+        int position = rowKey.position();
+        while (rowKey.get(position++) != 0x0) ;
+        position += 8;
+        if (position < rowKey.limit() && rowKey.get(position) == 0x0) {
+            final int dataTypeSize = rowKey.get(position + 1);
+            position += 2 + dataTypeSize;
+        }
+        return position;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(ByteBuffer buffer, int start, int end, byte[] bytes) {
+        if (end - start != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class TagCondition {
+        private final byte[] m_name;
+        private final TagMatcherCompiler.TagMatcher m_matcher;
+
+        private TagCondition(String name, TagMatcherCompiler.TagMatcher matcher) {
+            m_name = name.getBytes(StandardCharsets.UTF_8);
+            m_matcher = matcher;
+        }
+    }
+}
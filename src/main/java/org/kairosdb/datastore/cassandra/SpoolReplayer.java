@@ -0,0 +1,121 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Drains the {@link WriteSpool} back into Cassandra once the write path is healthy again.
+ * <p>
+ * A background thread replays spooled writes oldest first at no more than the configured rate, so the backlog does
+ * not compete with live ingestion. Health is checked before every batch of writes, and a replayed write that runs into
+ * the in-flight budget stays in the spool for the next attempt.
+ */
+class SpoolReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolReplayer.class);
+
+    private static final long TICK_MS = 1000;
+    private static final int HEALTH_CHECK_INTERVAL = 100;
+
+    interface SpooledWriteHandler {
+        /**
+         * Writes a spooled data point to Cassandra.
+         *
+         * @throws DatastoreOverloadedException if the write should be retried later
+         */
+        void replay(WriteSpool.SpooledWrite write) throws DatastoreException;
+    }
+
+    private final WriteSpool m_spool;
+    private final SpooledWriteHandler m_handler;
+    private final BooleanSupplier m_healthy;
+    private final RateLimiter m_rateLimiter;
+
+    private ScheduledExecutorService m_executor;
+    private volatile boolean m_closed;
+
+    private final AtomicLong m_replayed = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+
+    SpoolReplayer(WriteSpool spool, SpooledWriteHandler handler, BooleanSupplier healthy, int maxWritesPerSecond) {
+        m_spool = spool;
+        m_handler = handler;
+        m_healthy = healthy;
+        m_rateLimiter = RateLimiter.create(Math.max(1, maxWritesPerSecond));
+    }
+
+    void start() {
+        m_executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("spool-replayer-%d").setDaemon(true).build());
+        m_executor.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void close() {
+        m_closed = true;
+        if (m_executor != null) {
+            m_executor.shutdown();
+            try {
+                m_executor.awaitTermination(TICK_MS * 5, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        m_spool.close();
+    }
+
+    /**
+     * Replays spooled writes until the spool is empty or the write path is degraded again.
+     */
+    void tick() {
+        try {
+            m_spool.force();
+
+            int sinceHealthCheck = HEALTH_CHECK_INTERVAL;
+            while (!m_closed) {
+                if (sinceHealthCheck++ >= HEALTH_CHECK_INTERVAL) {
+                    if (!m_healthy.getAsBoolean()) {
+                        return;
+                    }
+                    sinceHealthCheck = 0;
+                }
+
+                final WriteSpool.SpooledWrite write = m_spool.peek();
+                if (write == null) {
+                    return;
+                }
+                m_rateLimiter.acquire();
+                try {
+                    m_handler.replay(write);
+                    m_replayed.incrementAndGet();
+                } catch (DatastoreOverloadedException e) {
+                    // Kept for the next tick
+                    return;
+                } catch (Exception e) {
+                    // A write that can't be replayed must not block the ones after it
+                    logger.error("Dropping spooled write that failed to replay", e);
+                    m_failed.incrementAndGet();
+                }
+                m_spool.remove();
+            }
+        } catch (Exception e) {
+            logger.error("Failed to replay spooled writes", e);
+        }
+    }
+
+    long getAndResetReplayed() {
+        return m_replayed.getAndSet(0);
+    }
+
+    long getAndResetFailed() {
+        return m_failed.getAndSet(0);
+    }
+}
@@ -0,0 +1,349 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Append-only local log of data point writes that could not be handed to Cassandra, kept in memory-mapped segment
+ * files of a fixed size.
+ * <p>
+ * Every segment starts with the position up to which it has been replayed, followed by records of the form
+ * {@code length, crc32, spooled at, row key, column name, value, ttl}. The data of a fresh segment file is zero, so
+ * on restart the records of each segment are read until a zero length or a bad checksum. Replayed segments are deleted
+ * once the writer moved on to a newer one. Records that were replayed but not yet marked as such when the process
+ * stopped are written again, which Cassandra treats as an overwrite.
+ * <p>
+ * Appending and reading are synchronized, the spool is only written to while the write path is degraded.
+ */
+class WriteSpool {
+    private static final Logger logger = LoggerFactory.getLogger(WriteSpool.class);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private final File m_directory;
+    private final int m_segmentSize;
+    private final int m_maxSegments;
+    private final LongSupplier m_clock;
+
+    private final Deque<Segment> m_segments = new ArrayDeque<>();
+    private long m_nextSequence;
+    private long m_records;
+    private long m_bytes;
+
+    WriteSpool(File directory, int segmentSize, long maxSize, LongSupplier clock) throws IOException {
+        checkArgument(segmentSize > SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE, "segment size too small");
+        m_directory = directory;
+        m_segmentSize = segmentSize;
+        m_maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        m_clock = clock;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+        recover();
+    }
+
+    /**
+     * Appends a data point write.
+     *
+     * @return false if the spool is full
+     */
+    synchronized boolean append(ByteBuffer rowKey, ByteBuffer columnName, ByteBuffer value, int ttl) {
+        final int payloadSize = 3 * 4 + rowKey.remaining() + columnName.remaining() + value.remaining() + 4;
+        final int recordSize = RECORD_HEADER_SIZE + payloadSize;
+        if (SEGMENT_HEADER_SIZE + recordSize > m_segmentSize) {
+            return false;
+        }
+
+        Segment tail = m_segments.peekLast();
+        if (tail == null || tail.m_writePosition + recordSize > m_segmentSize) {
+            if (m_segments.size() >= m_maxSegments) {
+                return false;
+            }
+            if (tail != null) {
+                tail.m_buffer.force();
+            }
+            try {
+                tail = createSegment();
+            } catch (IOException e) {
+                logger.error("Failed to create spool segment in {}", m_directory, e);
+                return false;
+            }
+        }
+
+        final ByteBuffer buffer = tail.m_buffer.duplicate();
+        final int start = tail.m_writePosition;
+        buffer.position(start + RECORD_HEADER_SIZE);
+        putBytes(buffer, rowKey);
+        putBytes(buffer, columnName);
+        putBytes(buffer, value);
+        buffer.putInt(ttl);
+
+        buffer.putLong(start + 8, m_clock.getAsLong());
+        buffer.putInt(start + 4, checksum(tail.m_buffer, start + 8, payloadSize + 8));
+        // The length is written last, a record is only visible after a restart once it is complete
+        buffer.putInt(start, payloadSize);
+
+        tail.m_writePosition += recordSize;
+        m_records++;
+        m_bytes += recordSize;
+        return true;
+    }
+
+    /**
+     * Returns the oldest record that has not been replayed yet, or null if there is none.
+     */
+    synchronized SpooledWrite peek() {
+        final Segment head = head();
+        if (head == null) {
+            return null;
+        }
+
+        final ByteBuffer buffer = head.m_buffer.duplicate();
+        final int start = head.m_readPosition;
+        final long spooledAt = buffer.getLong(start + 8);
+        buffer.position(start + RECORD_HEADER_SIZE);
+        final ByteBuffer rowKey = getBytes(buffer);
+        final ByteBuffer columnName = getBytes(buffer);
+        final ByteBuffer value = getBytes(buffer);
+        final int ttl = buffer.getInt();
+        return new SpooledWrite(rowKey, columnName, value, ttl, spooledAt);
+    }
+
+    /**
+     * Marks the record returned by the last {@link #peek()} as replayed.
+     */
+    synchronized void remove() {
+        final Segment head = head();
+        if (head == null) {
+            return;
+        }
+        final int recordSize = RECORD_HEADER_SIZE + head.m_buffer.getInt(head.m_readPosition);
+        head.m_readPosition += recordSize;
+        head.m_buffer.putInt(0, head.m_readPosition);
+        m_records--;
+        m_bytes -= recordSize;
+    }
+
+    /**
+     * Flushes the segment being written to disk.
+     */
+    synchronized void force() {
+        final Segment tail = m_segments.peekLast();
+        if (tail != null) {
+            tail.m_buffer.force();
+        }
+    }
+
+    synchronized void close() {
+        for (Segment segment : m_segments) {
+            segment.m_buffer.force();
+        }
+    }
+
+    synchronized long getRecords() {
+        return m_records;
+    }
+
+    /**
+     * Size of the records not yet replayed, in bytes.
+     */
+    synchronized long getBytes() {
+        return m_bytes;
+    }
+
+    /**
+     * Time since the oldest record not yet replayed was spooled, in milliseconds.
+     */
+    synchronized long getOldestAge() {
+        final Segment head = head();
+        return head == null ? 0 : Math.max(0, m_clock.getAsLong() - head.m_buffer.getLong(head.m_readPosition + 8));
+    }
+
+    /**
+     * Returns the oldest segment with records left, deleting segments that have been replayed completely.
+     */
+    private Segment head() {
+        while (true) {
+            final Segment head = m_segments.peekFirst();
+            if (head == null) {
+                return null;
+            }
+            if (head.m_readPosition < head.m_writePosition) {
+                return head;
+            }
+            if (head == m_segments.peekLast()) {
+                return null;
+            }
+            m_segments.removeFirst();
+            // The mapping itself is released once the buffer is garbage collected
+            if (!head.m_file.delete()) {
+                logger.warn("Failed to delete replayed spool segment {}", head.m_file);
+            }
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        final File file = new File(m_directory, String.format("%s%019d%s", SEGMENT_PREFIX, m_nextSequence++, SEGMENT_SUFFIX));
+        final Segment segment = new Segment(file, map(file, true));
+        segment.m_buffer.putInt(0, SEGMENT_HEADER_SIZE);
+        segment.m_readPosition = SEGMENT_HEADER_SIZE;
+        segment.m_writePosition = SEGMENT_HEADER_SIZE;
+        m_segments.addLast(segment);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        final File[] files = m_directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            final long sequence;
+            try {
+                sequence = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(),
+                        file.getName().length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (file.length() != m_segmentSize) {
+                logger.warn("Ignoring spool segment {} of unexpected size {}", file, file.length());
+                continue;
+            }
+
+            final Segment segment = new Segment(file, map(file, false));
+            final int readPosition = segment.m_buffer.getInt(0);
+            int position = SEGMENT_HEADER_SIZE;
+            long records = 0;
+            while (true) {
+                final int recordSize = validRecordSize(segment.m_buffer, position);
+                if (recordSize == 0) {
+                    break;
+                }
+                if (position >= readPosition) {
+                    records++;
+                }
+                position += recordSize;
+            }
+            segment.m_writePosition = position;
+            segment.m_readPosition = Math.max(SEGMENT_HEADER_SIZE, Math.min(readPosition, position));
+
+            m_segments.addLast(segment);
+            m_nextSequence = Math.max(m_nextSequence, sequence + 1);
+            m_records += records;
+            m_bytes += segment.m_writePosition - segment.m_readPosition;
+        }
+
+        if (m_records > 0) {
+            logger.info("Recovered {} spooled writes ({} bytes) from {}", m_records, m_bytes, m_directory);
+        }
+    }
+
+    private int validRecordSize(ByteBuffer buffer, int position) {
+        if (position + RECORD_HEADER_SIZE > m_segmentSize) {
+            return 0;
+        }
+        final int payloadSize = buffer.getInt(position);
+        if (payloadSize <= 0 || position + RECORD_HEADER_SIZE + payloadSize > m_segmentSize) {
+            return 0;
+        }
+        if (buffer.getInt(position + 4) != checksum(buffer, position + 8, payloadSize + 8)) {
+            return 0;
+        }
+        return RECORD_HEADER_SIZE + payloadSize;
+    }
+
+    private MappedByteBuffer map(File file, boolean create) throws IOException {
+        final StandardOpenOption openOption = create ? StandardOpenOption.CREATE_NEW : StandardOpenOption.READ;
+        try (FileChannel channel = FileChannel.open(file.toPath(), openOption, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, m_segmentSize);
+        }
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer region = buffer.duplicate();
+        region.limit(offset + length).position(offset);
+        final CRC32 crc = new CRC32();
+        crc.update(region);
+        return (int) crc.getValue();
+    }
+
+    private static void putBytes(ByteBuffer buffer, ByteBuffer bytes) {
+        buffer.putInt(bytes.remaining());
+        buffer.put(bytes.duplicate());
+    }
+
+    private static ByteBuffer getBytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    private static class Segment {
+        private final File m_file;
+        private final MappedByteBuffer m_buffer;
+        private int m_readPosition;
+        private int m_writePosition;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            m_file = file;
+            m_buffer = buffer;
+        }
+    }
+
+    static class SpooledWrite {
+        private final ByteBuffer m_rowKey;
+        private final ByteBuffer m_columnName;
+        private final ByteBuffer m_value;
+        private final int m_ttl;
+        private final long m_spooledAt;
+
+        private SpooledWrite(ByteBuffer rowKey, ByteBuffer columnName, ByteBuffer value, int ttl, long spooledAt) {
+            m_rowKey = rowKey;
+            m_columnName = columnName;
+            m_value = value;
+            m_ttl = ttl;
+            m_spooledAt = spooledAt;
+        }
+
+        ByteBuffer getRowKey() {
+            return m_rowKey;
+        }
+
+        ByteBuffer getColumnName() {
+            return m_columnName;
+        }
+
+        ByteBuffer getValue() {
+            return m_value;
+        }
+
+        int getTtl() {
+            return m_ttl;
+        }
+
+        long getSpooledAt() {
+            return m_spooledAt;
+        }
+    }
+}
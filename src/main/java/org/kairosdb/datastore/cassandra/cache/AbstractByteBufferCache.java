@@ -2,6 +2,7 @@ package org.kairosdb.datastore.cassandra.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
 import com.google.common.annotations.VisibleForTesting;
 import org.kairosdb.core.admin.CacheMetricsProvider;
 import org.slf4j.Logger;
@@ -10,12 +11,13 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.OptionalLong;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.hash.Hashing.murmur3_128;
 import static net.openhft.hashing.LongHashFunction.xx;
 
-public abstract class AbstractByteBufferCache {
+public abstract class AbstractByteBufferCache implements FingerprintCache {
     private final Logger LOG = LoggerFactory.getLogger(AbstractByteBufferCache.class);
 
     private static final int MURMUR_SEED = 0xDEADBEEF;
@@ -41,9 +43,13 @@ public abstract class AbstractByteBufferCache {
     BigInteger doubleHash(final ByteBuffer payload) {
         final long murmurHash = murmur3_128(MURMUR_SEED).hashBytes(payload.array()).asLong();
         final long xxHash = xx(XX_SEED).hashBytes(payload);
+        return toBigInteger(murmurHash, xxHash);
+    }
+
+    private static BigInteger toBigInteger(final long first, final long second) {
         final ByteBuffer doubleHash = ByteBuffer.allocate((Long.SIZE * 2) / 8)
-                .putLong(murmurHash)
-                .putLong(xxHash);
+                .putLong(first)
+                .putLong(second);
         doubleHash.flip();
         return new BigInteger(doubleHash.array());
     }
@@ -63,4 +69,28 @@ public abstract class AbstractByteBufferCache {
         return false;
 
     }
+
+    public void invalidate(@Nonnull final ByteBuffer key) {
+        this.internalCache.invalidate(doubleHash(key));
+    }
+
+    @Override
+    public void forEachFingerprint(@Nonnull final FingerprintVisitor visitor) {
+        final long now = System.currentTimeMillis();
+        final Policy.Expiration<BigInteger, Boolean> expiration = this.internalCache.policy().expireAfterWrite().get();
+        for (final BigInteger hash : this.internalCache.asMap().keySet()) {
+            final OptionalLong age = expiration.ageOf(hash, TimeUnit.MILLISECONDS);
+            if (age.isPresent()) {
+                visitor.visit(hash.shiftRight(Long.SIZE).longValue(), hash.longValue(), now - age.getAsLong());
+            }
+        }
+    }
+
+    /**
+     * Restored entries start a new TTL, Caffeine can't take over the original write time.
+     */
+    @Override
+    public void restoreFingerprint(final long first, final long second, final long writtenAt) {
+        this.internalCache.put(toBigInteger(first, second), Boolean.TRUE);
+    }
 }
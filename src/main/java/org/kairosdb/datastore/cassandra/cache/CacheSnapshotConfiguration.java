@@ -0,0 +1,30 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+public class CacheSnapshotConfiguration {
+    private static final String PREFIX = "kairosdb.datastore.cassandra.cache.snapshot.";
+    private static final String PATH = PREFIX + "path";
+    private static final String SCHEDULE = PREFIX + "schedule";
+
+    @Inject(optional = true)
+    @Named(PATH)
+    private String path = ""; // disabled
+
+    @Inject(optional = true)
+    @Named(SCHEDULE)
+    private String schedule = "0 */5 * * * ?";
+
+    public boolean isEnabled() {
+        return !path.isEmpty();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getSchedule() {
+        return schedule;
+    }
+}
@@ -0,0 +1,44 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.google.inject.Inject;
+import org.kairosdb.core.scheduler.KairosDBJob;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.JobExecutionContext;
+import org.quartz.Trigger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.quartz.TriggerBuilder.newTrigger;
+
+public class CacheSnapshotJob implements KairosDBJob {
+    private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotJob.class);
+
+    private final CacheSnapshotter snapshotter;
+    private final CacheSnapshotConfiguration config;
+
+    @Inject
+    public CacheSnapshotJob(final CacheSnapshotter snapshotter, final CacheSnapshotConfiguration config) {
+        this.snapshotter = snapshotter;
+        this.config = config;
+    }
+
+    @Override
+    public Trigger getTrigger() {
+        return (newTrigger()
+                .withIdentity(this.getClass().getSimpleName())
+                .withSchedule(CronScheduleBuilder.cronSchedule(config.getSchedule()))
+                .build());
+    }
+
+    @Override
+    public void execute(final JobExecutionContext ctx) {
+        if (!config.isEnabled()) {
+            return;
+        }
+        try {
+            snapshotter.snapshot();
+        } catch (Exception e) {
+            logger.error("Failed to write cache snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import org.kairosdb.datastore.cassandra.CassandraConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.kairosdb.datastore.cassandra.cache.DefaultMetricNameCache.METRIC_NAME_CACHE;
+import static org.kairosdb.datastore.cassandra.cache.DefaultRowKeyCache.ROW_KEY_CACHE;
+import static org.kairosdb.datastore.cassandra.cache.DefaultTagNameCache.TAG_NAME_CACHE;
+import static org.kairosdb.datastore.cassandra.cache.DefaultTagValueCache.TAG_VALUE_CACHE;
+
+/**
+ * Writes the fingerprints of the write path caches to a local file and loads them back on startup, so a restarted
+ * node doesn't rewrite the index entries of every active series.
+ * <p>
+ * The file starts with a magic number, the format version, the snapshot time and the number of sections. Each
+ * section holds the cache name, the number of entries and the entries as (first, second, writtenAt) longs. Row key
+ * entries are restored if they were written during the current or the previous row; a fingerprint doesn't tell
+ * the row of its key, and keys warmed up for the current row were written during the previous one. Other entries are
+ * restored while they are within their cache TTL.
+ */
+public class CacheSnapshotter {
+    private static final Logger logger = LoggerFactory.getLogger(CacheSnapshotter.class);
+
+    private static final int MAGIC = 0x4B434653;
+    private static final int VERSION = 1;
+    private static final int ENTRY_BYTES = 3 * Long.BYTES;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long rowWidthMillis;
+    private final LongSupplier clock;
+    private final Map<String, Section> sections = new LinkedHashMap<>();
+
+    @Inject
+    public CacheSnapshotter(final CacheSnapshotConfiguration config,
+                            final CassandraConfiguration cassandraConfiguration,
+                            final RowKeyCache rowKeyCache,
+                            final RowKeyCacheConfiguration rowKeyCacheConfiguration,
+                            @Named(METRIC_NAME_CACHE) final StringKeyCache metricNameCache,
+                            final MetricNameCacheConfiguration metricNameCacheConfiguration,
+                            @Named(TAG_NAME_CACHE) final StringKeyCache tagNameCache,
+                            final TagNameCacheConfiguration tagNameCacheConfiguration,
+                            @Named(TAG_VALUE_CACHE) final StringKeyCache tagValueCache,
+                            final TagValueCacheConfiguration tagValueCacheConfiguration) {
+        this(config.isEnabled() ? Paths.get(config.getPath()) : null, cassandraConfiguration.getRowWidthWrite(),
+                System::currentTimeMillis);
+        register(ROW_KEY_CACHE, rowKeyCache, rowKeyCacheConfiguration, true);
+        register(METRIC_NAME_CACHE, metricNameCache, metricNameCacheConfiguration, false);
+        register(TAG_NAME_CACHE, tagNameCache, tagNameCacheConfiguration, false);
+        register(TAG_VALUE_CACHE, tagValueCache, tagValueCacheConfiguration, false);
+    }
+
+    @VisibleForTesting
+    CacheSnapshotter(final Path path, final long rowWidthMillis, final LongSupplier clock) {
+        this.path = path;
+        this.rowWidthMillis = rowWidthMillis;
+        this.clock = clock;
+    }
+
+    private void register(final String name, final FingerprintCache cache, final CacheConfiguration config,
+                          final boolean rowBound) {
+        register(name, cache, config.getTtlInSeconds() * 1000L, rowBound);
+    }
+
+    @VisibleForTesting
+    void register(final String name, final FingerprintCache cache, final long ttlMillis, final boolean rowBound) {
+        sections.put(name, new Section(name, cache, ttlMillis, rowBound));
+    }
+
+    /**
+     * Writes all registered caches to a temporary file that replaces the previous snapshot once it is complete.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (path == null) {
+            return;
+        }
+
+        final long start = clock.getAsLong();
+        final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long entries = 0;
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES + Integer.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putLong(start).putInt(sections.size()).flip();
+            writeFully(channel, header);
+
+            for (Section section : sections.values()) {
+                final SectionWriter writer = new SectionWriter(channel, section.name);
+                try {
+                    section.cache.forEachFingerprint(writer);
+                    entries += writer.finish();
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+
+        logger.info("Wrote {} cache entries to snapshot {} in {} ms", entries, path, clock.getAsLong() - start);
+    }
+
+    /**
+     * Loads the last snapshot into the registered caches. A missing or unreadable snapshot leaves the caches empty.
+     */
+    public void restore() {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+
+        final long now = clock.getAsLong();
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.warn("Ignoring cache snapshot {} with unknown format", path);
+                return;
+            }
+            final long snapshotTime = buffer.getLong();
+            final int sectionCount = buffer.getInt();
+
+            for (int i = 0; i < sectionCount; i++) {
+                final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                final long entries = buffer.getLong();
+
+                final Section section = sections.get(new String(name, UTF_8));
+                if (section == null) {
+                    buffer.position((int) (buffer.position() + entries * ENTRY_BYTES));
+                    continue;
+                }
+
+                long restored = 0;
+                for (long entry = 0; entry < entries; entry++) {
+                    final long first = buffer.getLong();
+                    final long second = buffer.getLong();
+                    final long writtenAt = buffer.getLong();
+                    if (section.isCurrent(writtenAt, now, rowWidthMillis)) {
+                        section.cache.restoreFingerprint(first, second, writtenAt);
+                        restored++;
+                    }
+                }
+                logger.info("Restored {} of {} entries of cache {} from snapshot taken {} s ago", restored, entries,
+                        section.name, (now - snapshotTime) / 1000);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable cache snapshot " + path, e);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class Section {
+        private final String name;
+        private final FingerprintCache cache;
+        private final long ttlMillis;
+        private final boolean rowBound;
+
+        private Section(final String name, final FingerprintCache cache, final long ttlMillis, final boolean rowBound) {
+            this.name = name;
+            this.cache = cache;
+            this.ttlMillis = ttlMillis;
+            this.rowBound = rowBound;
+        }
+
+        private boolean isCurrent(final long writtenAt, final long now, final long rowWidthMillis) {
+            if (writtenAt > now || now - writtenAt >= ttlMillis) {
+                return false;
+            }
+            return !rowBound || writtenAt / rowWidthMillis >= now / rowWidthMillis - 1;
+        }
+    }
+
+    /**
+     * Streams one section, the entry count in the section header is filled in once all entries are written.
+     */
+    private static class SectionWriter implements FingerprintCache.FingerprintVisitor {
+        private final FileChannel channel;
+        private final long countPosition;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        private long count;
+
+        private SectionWriter(final FileChannel channel, final String name) throws IOException {
+            this.channel = channel;
+            final byte[] nameBytes = name.getBytes(UTF_8);
+            buffer.putShort((short) nameBytes.length).put(nameBytes);
+            countPosition = channel.position() + buffer.position();
+            buffer.putLong(0L);
+        }
+
+        @Override
+        public void visit(final long first, final long second, final long writtenAt) {
+            if (buffer.remaining() < ENTRY_BYTES) {
+                flush();
+            }
+            buffer.putLong(first).putLong(second).putLong(writtenAt);
+            count++;
+        }
+
+        private void flush() {
+            buffer.flip();
+            try {
+                writeFully(channel, buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            buffer.clear();
+        }
+
+        private long finish() {
+            flush();
+            final ByteBuffer countBuffer = ByteBuffer.allocate(Long.BYTES);
+            countBuffer.putLong(count).flip();
+            try {
+                while (countBuffer.hasRemaining()) {
+                    channel.write(countBuffer, countPosition + countBuffer.position());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count;
+        }
+    }
+}
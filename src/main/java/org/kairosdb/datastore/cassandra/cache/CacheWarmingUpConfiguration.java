@@ -1,5 +1,7 @@
 package org.kairosdb.datastore.cassandra.cache;
 
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +15,10 @@ public class CacheWarmingUpConfiguration {
     private final AtomicInteger heatingIntervalMinutes = new AtomicInteger(120);
     private final AtomicInteger rowIntervalInMinutes = new AtomicInteger(2);
 
+    @Inject(optional = true)
+    @Named("kairosdb.cache.warmup.max_rows_per_second")
+    private int maxRowsPerSecond = 1000;
+
     public boolean isEnabled() {
         return enabled.get();
     }
@@ -25,6 +31,10 @@ public class CacheWarmingUpConfiguration {
         return rowIntervalInMinutes.get();
     }
 
+    public int getMaxRowsPerSecond() {
+        return maxRowsPerSecond;
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled.set(enabled);
     }
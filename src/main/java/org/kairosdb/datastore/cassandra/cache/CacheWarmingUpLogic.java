@@ -17,11 +17,29 @@ public class CacheWarmingUpLogic {
         final long currentRowOfGracePeriod = (currentTime - warmingUpPeriodStartsAt) / 1000 / 60 / rowSize;
         final int modulo = Math.abs(hashCode % numberOfRows);
         boolean result = modulo == currentRowOfGracePeriod;
-        logger.debug(String.format("Result '%b' is calculated based on following: " +
-                        "hash code of byte buffer = '%d', " +
-                        "number of rows = '%d', current row of grace period = '%d', " +
-                        "hashCode %% numberOfRows is '%d'",
-                result, hashCode, numberOfRows, currentRowOfGracePeriod, modulo));
+        if (logger.isDebugEnabled()) {
+            logger.debug(String.format("Result '%b' is calculated based on following: " +
+                            "hash code of byte buffer = '%d', " +
+                            "number of rows = '%d', current row of grace period = '%d', " +
+                            "hashCode %% numberOfRows is '%d'",
+                    result, hashCode, numberOfRows, currentRowOfGracePeriod, modulo));
+        }
         return result;
     }
+
+    /**
+     * Returns the share of series, between 0 and 1, that should have been warmed up for the next bucket by now.
+     * The warming up period is split into rows of rowSize minutes and the share grows by one row at the start of
+     * each of them.
+     */
+    public double getWarmUpProgress(final long currentTime, final long nextBucketStartsAt,
+                                    final int minutesBeforeNextBucket, final int rowSize) {
+        final long warmingUpPeriodStartsAt = nextBucketStartsAt - minutesBeforeNextBucket * 1000L * 60;
+        if (currentTime < warmingUpPeriodStartsAt) {
+            return 0;
+        }
+        final int numberOfRows = Math.max(1, minutesBeforeNextBucket / rowSize);
+        final long currentRowOfGracePeriod = (currentTime - warmingUpPeriodStartsAt) / 1000 / 60 / rowSize;
+        return Math.min(1.0, (currentRowOfGracePeriod + 1) / (double) numberOfRows);
+    }
 }
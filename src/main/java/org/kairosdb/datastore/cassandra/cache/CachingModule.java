@@ -1,6 +1,9 @@
 package org.kairosdb.datastore.cassandra.cache;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
 
 import static com.google.inject.Scopes.SINGLETON;
 import static com.google.inject.name.Names.named;
@@ -12,10 +15,28 @@ public class CachingModule extends AbstractModule {
     @Override
     protected void configure() {
         bind(RowKeyCacheConfiguration.class).in(SINGLETON);
-        bind(RowKeyCache.class).to(DefaultRowKeyCache.class).in(SINGLETON);
+        bind(IndexCacheConfiguration.class).in(SINGLETON);
+        bind(IndexBucketCache.class).in(SINGLETON);
         bindStringCache(METRIC_NAME_CACHE, MetricNameCacheConfiguration.class, DefaultMetricNameCache.class);
         bindStringCache(TAG_NAME_CACHE, TagNameCacheConfiguration.class, DefaultTagNameCache.class);
         bindStringCache(TAG_VALUE_CACHE, TagValueCacheConfiguration.class, DefaultTagValueCache.class);
+
+        bind(CacheSnapshotConfiguration.class).in(SINGLETON);
+        bind(CacheSnapshotter.class).in(SINGLETON);
+        bind(CacheSnapshotJob.class).in(SINGLETON);
+    }
+
+    @Provides
+    @Singleton
+    RowKeyCache provideRowKeyCache(final RowKeyCacheConfiguration configuration, final Injector injector) {
+        switch (configuration.getType()) {
+            case RowKeyCacheConfiguration.TYPE_DEFAULT:
+                return injector.getInstance(DefaultRowKeyCache.class);
+            case RowKeyCacheConfiguration.TYPE_OFF_HEAP:
+                return injector.getInstance(OffHeapRowKeyCache.class);
+            default:
+                throw new IllegalArgumentException("Unknown row key cache type: " + configuration.getType());
+        }
     }
 
     private void bindStringCache(final String cacheName, final Class<? extends CacheConfiguration> configClass,
@@ -0,0 +1,22 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A cache that only keeps 128 bit fingerprints of its keys, so its content can be copied without the keys.
+ */
+public interface FingerprintCache {
+    /**
+     * Visits every live entry, the write time is the epoch millisecond the entry was put.
+     */
+    void forEachFingerprint(@Nonnull FingerprintVisitor visitor);
+
+    /**
+     * Adds an entry that was previously returned by {@link #forEachFingerprint(FingerprintVisitor)}.
+     */
+    void restoreFingerprint(long first, long second, long writtenAt);
+
+    interface FingerprintVisitor {
+        void visit(long first, long second, long writtenAt);
+    }
+}
@@ -0,0 +1,217 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+import org.kairosdb.datastore.cassandra.CassandraConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Serialized row keys read from one time bucket of the row_time_key_index or the row_time_key_split_index.
+ * <p>
+ * Buckets whose write row width ended more than the closed bucket delay ago get no more writes, they are kept
+ * until the first of their index entries may expire. The still open bucket is kept for a short TTL only. Only complete reads are
+ * cached, a read that hit its limit is not. The cache is bounded by the size of the cached keys in bytes.
+ */
+public class IndexBucketCache {
+    private static final Logger LOG = LoggerFactory.getLogger(IndexBucketCache.class);
+
+    public static final String INDEX_CACHE = "indexCache";
+
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int KEY_OVERHEAD = 48;
+
+    private final Cache<Key, Entry> m_cache;
+    private final long m_rowWidthWrite;
+    private final long m_rowKeyTtlMillis;
+    private final long m_openBucketTtlMillis;
+    private final long m_closedBucketDelayMillis;
+    private final LongSupplier m_clock;
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    @Inject
+    public IndexBucketCache(final CacheMetricsProvider cacheMetricsProvider,
+                            final IndexCacheConfiguration configuration,
+                            final CassandraConfiguration cassandraConfiguration) {
+        this(cacheMetricsProvider, configuration.getMaxSizeMb() * 1024L * 1024L,
+                cassandraConfiguration.getRowWidthWrite(), cassandraConfiguration.getDatapointTtl(),
+                configuration.getOpenBucketTtlInSeconds() * 1000L,
+                configuration.getClosedBucketDelayInSeconds() * 1000L, System::currentTimeMillis);
+    }
+
+    /**
+     * @param datapointTtl TTL of data points in seconds, 0 if they don't expire
+     */
+    @VisibleForTesting
+    IndexBucketCache(final CacheMetricsProvider cacheMetricsProvider, final long maxBytes, final long rowWidthWrite,
+                     final int datapointTtl, final long openBucketTtlMillis, final long closedBucketDelayMillis,
+                     final LongSupplier clock) {
+        m_rowWidthWrite = rowWidthWrite;
+        // Index entries live one write row width longer than the data points, see CassandraDatastore
+        m_rowKeyTtlMillis = datapointTtl == 0 ? 0 : datapointTtl * 1000L + rowWidthWrite;
+        m_openBucketTtlMillis = openBucketTtlMillis;
+        m_closedBucketDelayMillis = closedBucketDelayMillis;
+        m_clock = clock;
+
+        if (maxBytes <= 0) {
+            m_cache = null;
+            return;
+        }
+        m_cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Entry entry) -> entry.m_weight)
+                .recordStats()
+                .build();
+
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "hit-count", m_hits::get);
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "miss-count", m_misses::get);
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "hit-rate", this::hitRate);
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "eviction-count", () -> m_cache.stats().evictionCount());
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "size", m_cache::estimatedSize);
+        cacheMetricsProvider.registerGauge(INDEX_CACHE, "weighted-size", this::weightedSize);
+
+        LOG.warn("Settings for cache {}: max_bytes={}, open_bucket_ttl_ms={}, closed_bucket_delay_ms={}",
+                INDEX_CACHE, maxBytes, openBucketTtlMillis, closedBucketDelayMillis);
+    }
+
+    public boolean isEnabled() {
+        return m_cache != null;
+    }
+
+    /**
+     * Returns the cached row keys of the bucket, or null if they are not cached or expired.
+     */
+    public List<ByteBuffer> get(final Key key) {
+        if (m_cache == null) {
+            return null;
+        }
+        final Entry entry = m_cache.getIfPresent(key);
+        if (entry == null || entry.m_expiresAt <= m_clock.getAsLong()) {
+            if (entry != null) {
+                m_cache.asMap().remove(key, entry);
+            }
+            m_misses.incrementAndGet();
+            return null;
+        }
+        m_hits.incrementAndGet();
+        return entry.m_rowKeys;
+    }
+
+    /**
+     * Caches the row keys read from a bucket with the given limit, unless the read was cut off by the limit.
+     *
+     * @param rowKeys keys that are not changed afterwards
+     */
+    public void put(final Key key, final List<ByteBuffer> rowKeys, final int limit) {
+        if (m_cache == null || rowKeys.size() >= limit) {
+            return;
+        }
+        final long now = m_clock.getAsLong();
+        final long expiresAt = expiresAt(key.m_bucket, now);
+        if (expiresAt <= now) {
+            return;
+        }
+
+        long weight = ENTRY_OVERHEAD + key.weight();
+        for (ByteBuffer rowKey : rowKeys) {
+            weight += KEY_OVERHEAD + rowKey.remaining();
+        }
+        m_cache.put(key, new Entry(rowKeys, expiresAt, (int) Math.min(Integer.MAX_VALUE, weight)));
+    }
+
+    /**
+     * Drops the cached row keys of the bucket, because a row key was written to it.
+     */
+    public void invalidate(final Key key) {
+        if (m_cache != null) {
+            m_cache.invalidate(key);
+        }
+    }
+
+    @VisibleForTesting
+    long expiresAt(final long bucket, final long now) {
+        final long bucketEnd = bucket + m_rowWidthWrite;
+        if (bucketEnd + m_closedBucketDelayMillis > now) {
+            return now + m_openBucketTtlMillis;
+        }
+        // Entries of the bucket are written after its start, none of them expires before the TTL passed since then
+        return m_rowKeyTtlMillis == 0 ? Long.MAX_VALUE : bucket + m_rowKeyTtlMillis;
+    }
+
+    private double hitRate() {
+        final long hits = m_hits.get();
+        final long requests = hits + m_misses.get();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    private long weightedSize() {
+        return m_cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+    }
+
+    /**
+     * Bucket of the row_time_key_index, or of the row_time_key_split_index if a split tag is given.
+     */
+    public static class Key {
+        private final String m_metricName;
+        private final String m_splitTagName;
+        private final String m_splitTagValue;
+        private final long m_bucket;
+
+        public Key(final String metricName, final long bucket) {
+            this(metricName, null, null, bucket);
+        }
+
+        public Key(final String metricName, final String splitTagName, final String splitTagValue, final long bucket) {
+            m_metricName = metricName;
+            m_splitTagName = splitTagName;
+            m_splitTagValue = splitTagValue;
+            m_bucket = bucket;
+        }
+
+        private int weight() {
+            return 2 * (m_metricName.length()
+                    + (m_splitTagName == null ? 0 : m_splitTagName.length())
+                    + (m_splitTagValue == null ? 0 : m_splitTagValue.length()));
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            final Key key = (Key) o;
+            return m_bucket == key.m_bucket &&
+                    m_metricName.equals(key.m_metricName) &&
+                    Objects.equals(m_splitTagName, key.m_splitTagName) &&
+                    Objects.equals(m_splitTagValue, key.m_splitTagValue);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(m_metricName, m_splitTagName, m_splitTagValue, m_bucket);
+        }
+    }
+
+    private static class Entry {
+        private final List<ByteBuffer> m_rowKeys;
+        private final long m_expiresAt;
+        private final int m_weight;
+
+        private Entry(final List<ByteBuffer> rowKeys, final long expiresAt, final int weight) {
+            m_rowKeys = rowKeys;
+            m_expiresAt = expiresAt;
+            m_weight = weight;
+        }
+    }
+}
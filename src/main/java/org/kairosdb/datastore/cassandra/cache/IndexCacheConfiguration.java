@@ -0,0 +1,35 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+public class IndexCacheConfiguration {
+    private static final String PREFIX = "kairosdb.datastore.cassandra.cache.index";
+    private static final String MAX_SIZE_MB = PREFIX + ".max_size_mb";
+    private static final String OPEN_BUCKET_TTL_IN_SECONDS = PREFIX + ".open_bucket_ttl_in_seconds";
+    private static final String CLOSED_BUCKET_DELAY_IN_SECONDS = PREFIX + ".closed_bucket_delay_in_seconds";
+
+    @Inject(optional = true)
+    @Named(MAX_SIZE_MB)
+    private int maxSizeMb = 64;
+
+    @Inject(optional = true)
+    @Named(OPEN_BUCKET_TTL_IN_SECONDS)
+    private int openBucketTtlInSeconds = 30;
+
+    @Inject(optional = true)
+    @Named(CLOSED_BUCKET_DELAY_IN_SECONDS)
+    private int closedBucketDelayInSeconds = 3_600; // late writes
+
+    public int getMaxSizeMb() {
+        return maxSizeMb;
+    }
+
+    public int getOpenBucketTtlInSeconds() {
+        return openBucketTtlInSeconds;
+    }
+
+    public int getClosedBucketDelayInSeconds() {
+        return closedBucketDelayInSeconds;
+    }
+}
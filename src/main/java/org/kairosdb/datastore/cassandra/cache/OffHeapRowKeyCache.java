@@ -0,0 +1,327 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import net.openhft.hashing.LongHashFunction;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+import org.kairosdb.datastore.cassandra.CassandraConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+import static org.kairosdb.datastore.cassandra.cache.DefaultRowKeyCache.ROW_KEY_CACHE;
+
+/**
+ * Row key cache that keeps 128 bit fingerprints of the keys in off-heap, open-addressed hash tables.
+ * <p>
+ * Entries are grouped into generations of one write row width each. Keys are added to the generation of the
+ * current time and found in any live generation. There are enough generations to keep entries for at least the
+ * configured TTL. When time moves into a new generation, the oldest generation takes over a spare table that was
+ * cleared in the background, and its previous table is cleared to become the next spare. This keeps the clearing off
+ * the write path. A full generation stops accepting keys, which only leads to additional index writes.
+ */
+public class OffHeapRowKeyCache implements RowKeyCache {
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapRowKeyCache.class);
+
+    private static final LongHashFunction MURMUR = LongHashFunction.murmur_3(0xDEADBEEF);
+    private static final LongHashFunction XX = LongHashFunction.xx(0xCAFEBABE);
+
+    private static final int ENTRY_BYTES = 16;
+    private static final long REMOVED = -1L;
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / ENTRY_BYTES;
+
+    private final long m_generationMillis;
+    private final Generation[] m_generations;
+    private final int m_slots;
+    private final int m_maxEntries;
+    private final LongSupplier m_clock;
+    private final AtomicReference<ByteBuffer> m_spare;
+    private final ExecutorService m_clearer;
+
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+    private final AtomicLong m_rejectedPuts = new AtomicLong();
+
+    @Inject
+    public OffHeapRowKeyCache(final CacheMetricsProvider cacheMetricsProvider,
+                              final RowKeyCacheConfiguration configuration,
+                              final CassandraConfiguration cassandraConfiguration) {
+        this(cacheMetricsProvider, configuration.getMaxSize(), configuration.getTtlInSeconds() * 1000L,
+                cassandraConfiguration.getRowWidthWrite(), System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    OffHeapRowKeyCache(final CacheMetricsProvider cacheMetricsProvider, final int maxSize, final long ttlMillis,
+                       final long generationMillis, final LongSupplier clock) {
+        m_generationMillis = generationMillis;
+        m_clock = clock;
+        m_maxEntries = Math.max(1, maxSize);
+        m_slots = (int) Math.min(MAX_SLOTS, m_maxEntries * 4L / 3 + 1);
+
+        final int generations = (int) Math.max(2, (ttlMillis + generationMillis - 1) / generationMillis + 1);
+        m_generations = new Generation[generations];
+        for (int i = 0; i < generations; i++) {
+            m_generations[i] = new Generation(m_slots);
+        }
+        m_spare = new AtomicReference<>(ByteBuffer.allocateDirect(m_slots * ENTRY_BYTES));
+        m_clearer = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat("row-key-cache-clearer-%d").setDaemon(true).build());
+        final long offHeapBytes = (generations + 1L) * m_slots * ENTRY_BYTES;
+
+        cacheMetricsProvider.registerGauge(ROW_KEY_CACHE, "hit-count", m_hits::get);
+        cacheMetricsProvider.registerGauge(ROW_KEY_CACHE, "miss-count", m_misses::get);
+        cacheMetricsProvider.registerGauge(ROW_KEY_CACHE, "rejected-put-count", m_rejectedPuts::get);
+        cacheMetricsProvider.registerGauge(ROW_KEY_CACHE, "size", this::size);
+        cacheMetricsProvider.registerGauge(ROW_KEY_CACHE, "off-heap-bytes", () -> offHeapBytes);
+
+        LOG.warn("Settings for off-heap cache {}: size={}, generations={}, generation_ms={}, off_heap_bytes={}",
+                ROW_KEY_CACHE, maxSize, generations, generationMillis, offHeapBytes);
+    }
+
+    @Override
+    public void put(@Nonnull final ByteBuffer rowKey) {
+        final long first = fingerprint(MURMUR.hashBytes(rowKey));
+        final long second = XX.hashBytes(rowKey);
+
+        final Generation generation = currentGeneration();
+        if (!generation.put(first, second, m_maxEntries)) {
+            m_rejectedPuts.incrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean isKnown(@Nonnull final ByteBuffer rowKey) {
+        final long first = fingerprint(MURMUR.hashBytes(rowKey));
+        final long second = XX.hashBytes(rowKey);
+
+        final long current = m_clock.getAsLong() / m_generationMillis;
+        for (int i = 0; i < m_generations.length; i++) {
+            final long id = current - i;
+            final Generation generation = m_generations[slotOf(id)];
+            if (generation.m_id == id && generation.contains(first, second)) {
+                m_hits.incrementAndGet();
+                return true;
+            }
+        }
+        m_misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Removes the key from all live generations.
+     */
+    @Override
+    public void invalidate(@Nonnull final ByteBuffer rowKey) {
+        final long first = fingerprint(MURMUR.hashBytes(rowKey));
+        final long second = XX.hashBytes(rowKey);
+
+        final long current = m_clock.getAsLong() / m_generationMillis;
+        for (int i = 0; i < m_generations.length; i++) {
+            final long id = current - i;
+            final Generation generation = m_generations[slotOf(id)];
+            if (generation.m_id == id) {
+                generation.remove(first, second);
+            }
+        }
+    }
+
+    /**
+     * Entries don't keep their own write time, they report the latest time that falls into their generation.
+     */
+    @Override
+    public void forEachFingerprint(@Nonnull final FingerprintVisitor visitor) {
+        final long now = m_clock.getAsLong();
+        final long current = now / m_generationMillis;
+        for (Generation generation : m_generations) {
+            final long id = generation.m_id;
+            if (id > current - m_generations.length) {
+                generation.forEach(visitor, Math.min(now, (id + 1) * m_generationMillis - 1));
+            }
+        }
+    }
+
+    @Override
+    public void restoreFingerprint(final long first, final long second, final long writtenAt) {
+        final long current = m_clock.getAsLong() / m_generationMillis;
+        final long id = writtenAt / m_generationMillis;
+        if (id > current || id <= current - m_generations.length) {
+            return;
+        }
+
+        final Generation generation = m_generations[slotOf(id)];
+        if (generation.m_id < id) {
+            reset(generation, id);
+        }
+        if (generation.m_id != id || !generation.put(fingerprint(first), second, m_maxEntries)) {
+            m_rejectedPuts.incrementAndGet();
+        }
+    }
+
+    long size() {
+        final long current = m_clock.getAsLong() / m_generationMillis;
+        long size = 0;
+        for (Generation generation : m_generations) {
+            if (generation.m_id > current - m_generations.length) {
+                size += generation.m_size.get();
+            }
+        }
+        return size;
+    }
+
+    private Generation currentGeneration() {
+        final long id = m_clock.getAsLong() / m_generationMillis;
+        final Generation generation = m_generations[slotOf(id)];
+        if (generation.m_id != id) {
+            reset(generation, id);
+        }
+        return generation;
+    }
+
+    private void reset(final Generation generation, final long id) {
+        final ByteBuffer retired = generation.reset(id, m_spare);
+        if (retired != null) {
+            m_clearer.execute(() -> {
+                clear(retired);
+                m_spare.set(retired);
+            });
+        }
+    }
+
+    private static void clear(final ByteBuffer table) {
+        for (int offset = 0; offset < table.capacity(); offset += 8) {
+            table.putLong(offset, 0L);
+        }
+    }
+
+    private int slotOf(long generationId) {
+        return (int) Math.floorMod(generationId, (long) m_generations.length);
+    }
+
+    /**
+     * An all zero fingerprint marks an empty slot and {@link #REMOVED} a removed one.
+     */
+    private static long fingerprint(long hash) {
+        return hash == 0 || hash == REMOVED ? 1 : hash;
+    }
+
+    private static class Generation {
+        private volatile ByteBuffer m_table;
+        private final int m_slots;
+        private final AtomicInteger m_size = new AtomicInteger();
+        private volatile long m_id = Long.MIN_VALUE;
+
+        private Generation(int slots) {
+            m_slots = slots;
+            m_table = ByteBuffer.allocateDirect(slots * ENTRY_BYTES);
+        }
+
+        /**
+         * Starts the generation on the cleared spare table and returns the previous table, which has to be cleared
+         * before it can be the spare again. Without a spare, as after several quick rollovers, the table is cleared
+         * in place and null is returned.
+         */
+        private synchronized ByteBuffer reset(long id, AtomicReference<ByteBuffer> spare) {
+            if (m_id == id) {
+                return null;
+            }
+            final ByteBuffer table = spare.getAndSet(null);
+            final ByteBuffer retired;
+            if (table == null) {
+                clear(m_table);
+                retired = null;
+            } else {
+                retired = m_table;
+                m_table = table;
+            }
+            m_size.set(0);
+            m_id = id;
+            return retired;
+        }
+
+        private int startSlot(long first) {
+            return (int) ((first & Long.MAX_VALUE) % m_slots);
+        }
+
+        /**
+         * Lookups do not lock. A racing put or reset can only make a lookup miss.
+         */
+        private boolean contains(long first, long second) {
+            final ByteBuffer table = m_table;
+            int slot = startSlot(first);
+            for (int probe = 0; probe < m_slots; probe++) {
+                final int offset = slot * ENTRY_BYTES;
+                final long storedFirst = table.getLong(offset);
+                if (storedFirst == 0) {
+                    return false;
+                }
+                if (storedFirst == first && table.getLong(offset + 8) == second) {
+                    return true;
+                }
+                slot = slot + 1 == m_slots ? 0 : slot + 1;
+            }
+            return false;
+        }
+
+        private void forEach(FingerprintVisitor visitor, long writtenAt) {
+            final ByteBuffer table = m_table;
+            for (int offset = 0; offset < table.capacity(); offset += ENTRY_BYTES) {
+                final long first = table.getLong(offset);
+                if (first != 0 && first != REMOVED) {
+                    visitor.visit(first, table.getLong(offset + 8), writtenAt);
+                }
+            }
+        }
+
+        private synchronized boolean put(long first, long second, int maxEntries) {
+            int slot = startSlot(first);
+            for (int probe = 0; probe < m_slots; probe++) {
+                final int offset = slot * ENTRY_BYTES;
+                final long storedFirst = m_table.getLong(offset);
+                if (storedFirst == 0) {
+                    if (m_size.get() >= maxEntries) {
+                        return false;
+                    }
+                    // The first half marks the slot as used, so it is written last
+                    m_table.putLong(offset + 8, second);
+                    m_table.putLong(offset, first);
+                    m_size.incrementAndGet();
+                    return true;
+                }
+                if (storedFirst == first && m_table.getLong(offset + 8) == second) {
+                    return true;
+                }
+                slot = slot + 1 == m_slots ? 0 : slot + 1;
+            }
+            return false;
+        }
+
+        /**
+         * Marks the slot of the entry as removed, it stays in the probe chains of other entries and is not reused
+         * until the generation is reset.
+         */
+        private synchronized void remove(long first, long second) {
+            int slot = startSlot(first);
+            for (int probe = 0; probe < m_slots; probe++) {
+                final int offset = slot * ENTRY_BYTES;
+                final long storedFirst = m_table.getLong(offset);
+                if (storedFirst == 0) {
+                    return;
+                }
+                if (storedFirst == first && m_table.getLong(offset + 8) == second) {
+                    m_table.putLong(offset, REMOVED);
+                    return;
+                }
+                slot = slot + 1 == m_slots ? 0 : slot + 1;
+            }
+        }
+    }
+}
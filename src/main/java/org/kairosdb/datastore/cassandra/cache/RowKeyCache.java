@@ -3,7 +3,8 @@ package org.kairosdb.datastore.cassandra.cache;
 import javax.annotation.Nonnull;
 import java.nio.ByteBuffer;
 
-public interface RowKeyCache {
+public interface RowKeyCache extends FingerprintCache {
     void put(@Nonnull ByteBuffer rowKey);
     boolean isKnown(@Nonnull ByteBuffer rowKey);
+    void invalidate(@Nonnull ByteBuffer rowKey);
 }
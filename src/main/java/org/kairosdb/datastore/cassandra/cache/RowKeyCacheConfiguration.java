@@ -7,6 +7,10 @@ public class RowKeyCacheConfiguration implements CacheConfiguration {
     private static final String PREFIX = "kairosdb.datastore.cassandra.cache.row_key";
     private static final String TTL_IN_SECONDS = PREFIX + ".ttl_in_seconds";
     private static final String SIZE = PREFIX + ".size";
+    private static final String TYPE = PREFIX + ".type";
+
+    public static final String TYPE_DEFAULT = "default";
+    public static final String TYPE_OFF_HEAP = "off_heap";
 
     @Inject(optional = true)
     @Named(TTL_IN_SECONDS)
@@ -16,6 +20,10 @@ public class RowKeyCacheConfiguration implements CacheConfiguration {
     @Named(SIZE)
     private int maxSize = 16_000_000;
 
+    @Inject(optional = true)
+    @Named(TYPE)
+    private String type = TYPE_DEFAULT;
+
     public int getTtlInSeconds() {
         return ttlInSeconds;
     }
@@ -23,4 +31,8 @@ public class RowKeyCacheConfiguration implements CacheConfiguration {
     public int getMaxSize() {
         return maxSize;
     }
+
+    public String getType() {
+        return type;
+    }
 }
@@ -2,7 +2,7 @@ package org.kairosdb.datastore.cassandra.cache;
 
 import javax.annotation.Nonnull;
 
-public interface StringKeyCache {
+public interface StringKeyCache extends FingerprintCache {
     void put(@Nonnull String metricName);
     boolean isKnown(@Nonnull String metricName);
 }
@@ -0,0 +1,230 @@
+package org.kairosdb.util;
+
+import java.io.DataOutput;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+
+/**
+ DataOutput that appends values to a shared byte chunk and hands out buffers
+ that view the written region.  Regions are never reused, a chunk is simply
+ left to the garbage collector once all buffers pointing into it are gone, so
+ buffers returned by {@link #finish()} stay valid while they are queued for
+ an asynchronous write.
+
+ One instance is meant to be used by a single thread, typically through a
+ ThreadLocal.  Each value is written between a call to {@link #start()} and
+ {@link #finish()}.
+ */
+public class ByteArenaOutput implements DataOutput
+{
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private final int m_chunkSize;
+	private byte[] m_chunk;
+	private int m_mark;
+	private int m_position;
+
+	public ByteArenaOutput()
+	{
+		this(DEFAULT_CHUNK_SIZE);
+	}
+
+	public ByteArenaOutput(int chunkSize)
+	{
+		m_chunkSize = chunkSize;
+		m_chunk = new byte[chunkSize];
+	}
+
+	/**
+	 Begins a new value.  Anything written since the last call to finish is
+	 discarded.
+	 */
+	public void start()
+	{
+		m_mark = m_position;
+	}
+
+	/**
+	 Ends the current value and returns a buffer whose remaining bytes are the
+	 bytes written since {@link #start()}.  The buffer position is generally
+	 not zero, so callers must not rely on {@code array()} offsets.
+	 */
+	public ByteBuffer finish()
+	{
+		ByteBuffer ret = ByteBuffer.wrap(m_chunk, m_mark, m_position - m_mark);
+		m_mark = m_position;
+		return ret;
+	}
+
+	/**
+	 Number of bytes written since {@link #start()}.
+	 */
+	public int size()
+	{
+		return m_position - m_mark;
+	}
+
+	private void ensureCapacity(int needed)
+	{
+		if (m_position + needed <= m_chunk.length)
+			return;
+
+		int current = m_position - m_mark;
+		byte[] chunk = new byte[Math.max(m_chunkSize, (current + needed) * 2)];
+		System.arraycopy(m_chunk, m_mark, chunk, 0, current);
+		m_chunk = chunk;
+		m_mark = 0;
+		m_position = current;
+	}
+
+	@Override
+	public void write(int b)
+	{
+		ensureCapacity(1);
+		m_chunk[m_position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b)
+	{
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len)
+	{
+		ensureCapacity(len);
+		System.arraycopy(b, off, m_chunk, m_position, len);
+		m_position += len;
+	}
+
+	@Override
+	public void writeBoolean(boolean v)
+	{
+		write(v ? 1 : 0);
+	}
+
+	@Override
+	public void writeByte(int v)
+	{
+		write(v);
+	}
+
+	@Override
+	public void writeShort(int v)
+	{
+		ensureCapacity(2);
+		m_chunk[m_position++] = (byte) (v >>> 8);
+		m_chunk[m_position++] = (byte) v;
+	}
+
+	@Override
+	public void writeChar(int v)
+	{
+		writeShort(v);
+	}
+
+	@Override
+	public void writeInt(int v)
+	{
+		ensureCapacity(4);
+		m_chunk[m_position++] = (byte) (v >>> 24);
+		m_chunk[m_position++] = (byte) (v >>> 16);
+		m_chunk[m_position++] = (byte) (v >>> 8);
+		m_chunk[m_position++] = (byte) v;
+	}
+
+	@Override
+	public void writeLong(long v)
+	{
+		ensureCapacity(8);
+		m_chunk[m_position++] = (byte) (v >>> 56);
+		m_chunk[m_position++] = (byte) (v >>> 48);
+		m_chunk[m_position++] = (byte) (v >>> 40);
+		m_chunk[m_position++] = (byte) (v >>> 32);
+		m_chunk[m_position++] = (byte) (v >>> 24);
+		m_chunk[m_position++] = (byte) (v >>> 16);
+		m_chunk[m_position++] = (byte) (v >>> 8);
+		m_chunk[m_position++] = (byte) v;
+	}
+
+	@Override
+	public void writeFloat(float v)
+	{
+		writeInt(Float.floatToIntBits(v));
+	}
+
+	@Override
+	public void writeDouble(double v)
+	{
+		writeLong(Double.doubleToLongBits(v));
+	}
+
+	@Override
+	public void writeBytes(String s)
+	{
+		int len = s.length();
+		ensureCapacity(len);
+		for (int i = 0; i < len; i++)
+			m_chunk[m_position++] = (byte) s.charAt(i);
+	}
+
+	@Override
+	public void writeChars(String s)
+	{
+		int len = s.length();
+		ensureCapacity(len * 2);
+		for (int i = 0; i < len; i++)
+		{
+			char c = s.charAt(i);
+			m_chunk[m_position++] = (byte) (c >>> 8);
+			m_chunk[m_position++] = (byte) c;
+		}
+	}
+
+	/**
+	 Same modified UTF-8 encoding as DataOutputStream.writeUTF.
+	 */
+	@Override
+	public void writeUTF(String s) throws UTFDataFormatException
+	{
+		int strlen = s.length();
+		int utflen = 0;
+		for (int i = 0; i < strlen; i++)
+		{
+			char c = s.charAt(i);
+			if ((c >= 0x0001) && (c <= 0x007F))
+				utflen++;
+			else if (c > 0x07FF)
+				utflen += 3;
+			else
+				utflen += 2;
+		}
+
+		if (utflen > 65535)
+			throw new UTFDataFormatException("encoded string too long: " + utflen + " bytes");
+
+		ensureCapacity(utflen + 2);
+		m_chunk[m_position++] = (byte) (utflen >>> 8);
+		m_chunk[m_position++] = (byte) utflen;
+		for (int i = 0; i < strlen; i++)
+		{
+			char c = s.charAt(i);
+			if ((c >= 0x0001) && (c <= 0x007F))
+			{
+				m_chunk[m_position++] = (byte) c;
+			}
+			else if (c > 0x07FF)
+			{
+				m_chunk[m_position++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+				m_chunk[m_position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				m_chunk[m_position++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else
+			{
+				m_chunk[m_position++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+				m_chunk[m_position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package org.kairosdb.util;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ DataInput reading from the remaining bytes of a ByteBuffer, without copying
+ them.  Reading advances the position of the buffer, the buffer is meant to
+ be a duplicate owned by the reader.
+ */
+public class ByteBufferDataInput implements DataInput
+{
+	private final ByteBuffer m_buffer;
+
+	public ByteBufferDataInput(ByteBuffer buffer)
+	{
+		m_buffer = buffer;
+	}
+
+	public ByteBuffer getBuffer()
+	{
+		return m_buffer;
+	}
+
+	private void require(int bytes) throws EOFException
+	{
+		if (m_buffer.remaining() < bytes)
+			throw new EOFException();
+	}
+
+	@Override
+	public void readFully(byte[] b) throws IOException
+	{
+		readFully(b, 0, b.length);
+	}
+
+	@Override
+	public void readFully(byte[] b, int off, int len) throws IOException
+	{
+		require(len);
+		m_buffer.get(b, off, len);
+	}
+
+	@Override
+	public int skipBytes(int n)
+	{
+		int skipped = Math.max(0, Math.min(n, m_buffer.remaining()));
+		m_buffer.position(m_buffer.position() + skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean readBoolean() throws IOException
+	{
+		return readByte() != 0;
+	}
+
+	@Override
+	public byte readByte() throws IOException
+	{
+		require(1);
+		return m_buffer.get();
+	}
+
+	@Override
+	public int readUnsignedByte() throws IOException
+	{
+		return readByte() & 0xFF;
+	}
+
+	@Override
+	public short readShort() throws IOException
+	{
+		require(2);
+		return m_buffer.getShort();
+	}
+
+	@Override
+	public int readUnsignedShort() throws IOException
+	{
+		return readShort() & 0xFFFF;
+	}
+
+	@Override
+	public char readChar() throws IOException
+	{
+		require(2);
+		return m_buffer.getChar();
+	}
+
+	@Override
+	public int readInt() throws IOException
+	{
+		require(4);
+		return m_buffer.getInt();
+	}
+
+	@Override
+	public long readLong() throws IOException
+	{
+		require(8);
+		return m_buffer.getLong();
+	}
+
+	@Override
+	public float readFloat() throws IOException
+	{
+		require(4);
+		return m_buffer.getFloat();
+	}
+
+	@Override
+	public double readDouble() throws IOException
+	{
+		require(8);
+		return m_buffer.getDouble();
+	}
+
+	/**
+	 Reads bytes up to a line terminator like DataInputStream.readLine, every
+	 byte is taken as one character.  Returns null at the end of the buffer.
+	 */
+	@Override
+	public String readLine()
+	{
+		if (!m_buffer.hasRemaining())
+			return null;
+
+		StringBuilder line = new StringBuilder();
+		while (m_buffer.hasRemaining())
+		{
+			int c = m_buffer.get() & 0xFF;
+			if (c == '\n')
+				break;
+			if (c == '\r')
+			{
+				if (m_buffer.hasRemaining() && m_buffer.get(m_buffer.position()) == '\n')
+					m_buffer.get();
+				break;
+			}
+			line.append((char) c);
+		}
+		return line.toString();
+	}
+
+	@Override
+	public String readUTF() throws IOException
+	{
+		return DataInputStream.readUTF(this);
+	}
+}
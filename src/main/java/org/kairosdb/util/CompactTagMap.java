@@ -0,0 +1,248 @@
+package org.kairosdb.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ Immutable tag map that keeps names and values in a single sorted array.
+ Meant for tag maps held per series for a long time, like the keys of the
+ row key caches, where an ImmutableSortedMap costs several objects per map.
+ Names and values are interned through {@link TagInterner} when the map is
+ created.
+
+ Equal to any other Map with the same entries.  Sub maps are copies.
+ */
+public final class CompactTagMap extends AbstractMap<String, String> implements SortedMap<String, String>
+{
+	private static final CompactTagMap EMPTY = new CompactTagMap(new String[0]);
+
+	// name0, value0, name1, value1, ... sorted by name
+	private final String[] m_entries;
+	private int m_hashCode;
+
+	private CompactTagMap(String[] entries)
+	{
+		m_entries = entries;
+	}
+
+	/**
+	 Returns a compact copy of the tags, or the tags themselves if they are
+	 compact already.  Null names or values are not allowed.
+	 */
+	public static CompactTagMap copyOf(Map<String, String> tags)
+	{
+		if (tags instanceof CompactTagMap)
+			return (CompactTagMap) tags;
+		if (tags.isEmpty())
+			return EMPTY;
+
+		String[] entries = toArray(tags);
+		if (!isSorted(entries))
+			entries = toArray(new TreeMap<>(tags));
+		return new CompactTagMap(entries);
+	}
+
+	private static String[] toArray(Map<String, String> tags)
+	{
+		String[] entries = new String[tags.size() * 2];
+		int i = 0;
+		for (Map.Entry<String, String> entry : tags.entrySet())
+		{
+			if (entry.getKey() == null || entry.getValue() == null)
+				throw new NullPointerException("Tag names and values must not be null");
+			entries[i++] = TagInterner.intern(entry.getKey());
+			entries[i++] = TagInterner.intern(entry.getValue());
+		}
+		return entries;
+	}
+
+	private static boolean isSorted(String[] entries)
+	{
+		for (int i = 2; i < entries.length; i += 2)
+		{
+			if (entries[i - 2].compareTo(entries[i]) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 Binary search over the names.
+	 @return the index of the name, or -(insertion point) - 1
+	 */
+	private int indexOf(Object key)
+	{
+		if (!(key instanceof String))
+			return -1;
+
+		int low = 0;
+		int high = m_entries.length / 2 - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = m_entries[mid * 2].compareTo((String) key);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -(low + 1);
+	}
+
+	private int lowerBound(String key)
+	{
+		int index = indexOf(key);
+		return index >= 0 ? index : -(index + 1);
+	}
+
+	private CompactTagMap range(int from, int to)
+	{
+		if (from >= to)
+			return EMPTY;
+		if (from == 0 && to == size())
+			return this;
+		return new CompactTagMap(Arrays.copyOfRange(m_entries, from * 2, to * 2));
+	}
+
+	@Override
+	public int size()
+	{
+		return m_entries.length / 2;
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		return m_entries.length == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	public String get(Object key)
+	{
+		int index = indexOf(key);
+		return index >= 0 ? m_entries[index * 2 + 1] : null;
+	}
+
+	@Override
+	public Comparator<? super String> comparator()
+	{
+		return null;
+	}
+
+	@Override
+	public SortedMap<String, String> subMap(String fromKey, String toKey)
+	{
+		if (fromKey.compareTo(toKey) > 0)
+			throw new IllegalArgumentException("fromKey > toKey");
+		return range(lowerBound(fromKey), lowerBound(toKey));
+	}
+
+	@Override
+	public SortedMap<String, String> headMap(String toKey)
+	{
+		return range(0, lowerBound(toKey));
+	}
+
+	@Override
+	public SortedMap<String, String> tailMap(String fromKey)
+	{
+		return range(lowerBound(fromKey), size());
+	}
+
+	@Override
+	public String firstKey()
+	{
+		if (isEmpty())
+			throw new NoSuchElementException();
+		return m_entries[0];
+	}
+
+	@Override
+	public String lastKey()
+	{
+		if (isEmpty())
+			throw new NoSuchElementException();
+		return m_entries[m_entries.length - 2];
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet()
+	{
+		return new AbstractSet<Entry<String, String>>()
+		{
+			@Override
+			public Iterator<Entry<String, String>> iterator()
+			{
+				return new Iterator<Entry<String, String>>()
+				{
+					private int m_next;
+
+					@Override
+					public boolean hasNext()
+					{
+						return m_next < m_entries.length;
+					}
+
+					@Override
+					public Entry<String, String> next()
+					{
+						if (!hasNext())
+							throw new NoSuchElementException();
+						Entry<String, String> entry = new SimpleImmutableEntry<>(m_entries[m_next], m_entries[m_next + 1]);
+						m_next += 2;
+						return entry;
+					}
+				};
+			}
+
+			@Override
+			public int size()
+			{
+				return CompactTagMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (o instanceof CompactTagMap)
+		{
+			CompactTagMap that = (CompactTagMap) o;
+			return hashCode() == that.hashCode() && Arrays.equals(m_entries, that.m_entries);
+		}
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		// Same value as Map.hashCode, without creating the entries
+		int hashCode = m_hashCode;
+		if (hashCode == 0)
+		{
+			for (int i = 0; i < m_entries.length; i += 2)
+				hashCode += m_entries[i].hashCode() ^ m_entries[i + 1].hashCode();
+			m_hashCode = hashCode;
+		}
+		return hashCode;
+	}
+}
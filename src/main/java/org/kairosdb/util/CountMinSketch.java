@@ -0,0 +1,75 @@
+package org.kairosdb.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ Approximate counts per key in fixed memory.  Each key is counted in one cell
+ of every row, the estimate is the smallest of those cells, so it never
+ undercounts and overcounts only by what colliding keys added.  With the
+ default depth of 4 and a width well above the number of busy keys the error
+ is small.
+
+ Adding and estimating are thread safe and lock free.
+ */
+public class CountMinSketch
+{
+	private static final int DEFAULT_DEPTH = 4;
+
+	private final int m_depth;
+	private final int m_mask;
+	private final AtomicLongArray m_cells;
+
+	/**
+	 @param width cells per row, rounded up to a power of two
+	 */
+	public CountMinSketch(int width)
+	{
+		this(width, DEFAULT_DEPTH);
+	}
+
+	public CountMinSketch(int width, int depth)
+	{
+		checkArgument(width > 0, "width must be positive");
+		checkArgument(depth > 0, "depth must be positive");
+
+		int rowWidth = Integer.highestOneBit(width);
+		if (rowWidth < width)
+			rowWidth <<= 1;
+
+		m_depth = depth;
+		m_mask = rowWidth - 1;
+		m_cells = new AtomicLongArray(rowWidth * depth);
+	}
+
+	/**
+	 Adds count for the key.
+	 @return the estimate for the key including this count
+	 */
+	public long add(String key, long count)
+	{
+		int hash = key.hashCode();
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < m_depth; row++)
+			estimate = Math.min(estimate, m_cells.addAndGet(index(hash, row), count));
+		return estimate;
+	}
+
+	public long estimate(String key)
+	{
+		int hash = key.hashCode();
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < m_depth; row++)
+			estimate = Math.min(estimate, m_cells.get(index(hash, row)));
+		return estimate;
+	}
+
+	private int index(int hash, int row)
+	{
+		// Different odd multiplier per row, the high bits of the product are the best mixed
+		int h = (hash ^ (hash >>> 16)) * (0x9E3779B9 + 2 * row * 0x632BE5AB);
+		h ^= h >>> 15;
+		return row * (m_mask + 1) + (h & m_mask);
+	}
+}
@@ -0,0 +1,57 @@
+package org.kairosdb.util;
+
+import java.util.Collection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GLOB style patterns of tag query values, shared by the datastores and the in-memory query paths.
+ */
+public class GlobPatterns {
+    private static final Pattern GLOB_PATTERN = Pattern.compile("[?*]");
+
+    private GlobPatterns() {
+    }
+
+    /**
+     * Convert a GLOB style pattern ("*" for any number of any char, "?" for exactly one char) to a regex pattern.
+     * <p>
+     * Code borrowed from Spring's AntPathMatcher.java (Apache 2 license)
+     */
+    public static Pattern convertGlobToPattern(String pattern) {
+        StringBuilder patternBuilder = new StringBuilder();
+        Matcher matcher = GLOB_PATTERN.matcher(pattern);
+        int end = 0;
+        while (matcher.find()) {
+            patternBuilder.append(quote(pattern, end, matcher.start()));
+            String match = matcher.group();
+            if ("?".equals(match)) {
+                patternBuilder.append('.');
+            } else if ("*".equals(match)) {
+                patternBuilder.append(".*");
+            }
+            end = matcher.end();
+        }
+        patternBuilder.append(quote(pattern, end, pattern.length()));
+        return Pattern.compile(patternBuilder.toString());
+    }
+
+    private static String quote(String s, int start, int end) {
+        if (start == end) {
+            return "";
+        }
+        return Pattern.quote(s.substring(start, end));
+    }
+
+    /**
+     * Return whether the given input value matches any of the given GLOB-style patterns.
+     */
+    public static boolean matchesAny(final String value, final Collection<Pattern> patterns) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(value).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package org.kairosdb.util;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ Shares one String instance per distinct tag name and value across the
+ ingest path, the row key serializer and the tag maps held by caches.  A
+ handful of tag names and frequently repeated values otherwise exist once for
+ every series or even every request that uses them.
+
+ Entries are weakly referenced, so strings no series refers to anymore are
+ dropped by the garbage collector and the interner does not grow with the
+ number of distinct values ever seen.
+ */
+public class TagInterner
+{
+	private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+	private TagInterner()
+	{
+	}
+
+	/**
+	 @return the shared instance equal to str, or null if str is null
+	 */
+	public static String intern(String str)
+	{
+		if (str == null)
+			return null;
+		return INTERNER.intern(str);
+	}
+}
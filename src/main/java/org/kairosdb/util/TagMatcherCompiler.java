@@ -0,0 +1,206 @@
+package org.kairosdb.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.kairosdb.util.GlobPatterns.convertGlobToPattern;
+import static org.kairosdb.util.GlobPatterns.matchesAny;
+
+/**
+ * Compiles the filter values of a tag into a matcher for serialized tag values.
+ * <p>
+ * Exact values of a tag are merged into one hash set, globs of the forms {@code abc*}, {@code *abc} and {@code *abc*}
+ * are matched as prefix, suffix and substring of the value bytes. Only the remaining globs are matched as regular
+ * expression against the decoded value. Compiled matchers are kept by filter values across queries.
+ * <p>
+ * The Cassandra row key filter and the hot tail store both match with it, so they agree on the glob semantics.
+ */
+public class TagMatcherCompiler {
+    private static final char ANY = '*';
+    private static final char SINGLE = '?';
+
+    /**
+     * Matches a serialized tag value, the bytes from start to end of the buffer. Implementations are thread safe.
+     */
+    public interface TagMatcher {
+        boolean matches(ByteBuffer buffer, int start, int end);
+
+        /**
+         * Matches a tag value that is not serialized.
+         */
+        default boolean matches(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return matches(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+    }
+
+    private final Cache<Set<String>, TagMatcher> m_cache;
+
+    public TagMatcherCompiler(int cacheSize) {
+        m_cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
+    /**
+     * Returns a matcher accepting any of the given values or globs.
+     */
+    public TagMatcher compile(Collection<String> values) {
+        return m_cache.get(ImmutableSet.copyOf(values), TagMatcherCompiler::build);
+    }
+
+    public long getCachedMatchers() {
+        return m_cache.estimatedSize();
+    }
+
+    private static TagMatcher build(Set<String> values) {
+        final Set<ByteBuffer> exact = new HashSet<>();
+        final List<TagMatcher> matchers = new ArrayList<>();
+        final List<Pattern> patterns = new ArrayList<>();
+
+        for (String value : values) {
+            if (value.indexOf(ANY) < 0 && value.indexOf(SINGLE) < 0) {
+                exact.add(ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8)));
+                continue;
+            }
+
+            final boolean leading = value.charAt(0) == ANY;
+            final boolean trailing = value.length() > 1 && value.charAt(value.length() - 1) == ANY;
+            final String literal = value.substring(leading ? 1 : 0, value.length() - (trailing ? 1 : 0));
+            if (literal.indexOf(ANY) >= 0 || literal.indexOf(SINGLE) >= 0) {
+                patterns.add(convertGlobToPattern(value));
+                continue;
+            }
+
+            final byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            if (leading && (trailing || bytes.length == 0)) {
+                matchers.add(new ContainsMatcher(bytes));
+            } else if (leading) {
+                matchers.add(new SuffixMatcher(bytes));
+            } else {
+                matchers.add(new PrefixMatcher(bytes));
+            }
+        }
+
+        if (!exact.isEmpty()) {
+            matchers.add(0, new ExactMatcher(exact));
+        }
+        if (!patterns.isEmpty()) {
+            matchers.add(new RegexMatcher(patterns));
+        }
+        return matchers.size() == 1 ? matchers.get(0) : new AnyMatcher(matchers);
+    }
+
+    private static boolean regionMatches(ByteBuffer buffer, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class ExactMatcher implements TagMatcher {
+        private final Set<ByteBuffer> m_values;
+
+        private ExactMatcher(Set<ByteBuffer> values) {
+            m_values = values;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            // Equality and hash code of a buffer are those of its remaining bytes
+            final ByteBuffer value = buffer.duplicate();
+            value.limit(end);
+            value.position(start);
+            return m_values.contains(value);
+        }
+    }
+
+    private static class PrefixMatcher implements TagMatcher {
+        private final byte[] m_prefix;
+
+        private PrefixMatcher(byte[] prefix) {
+            m_prefix = prefix;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            return end - start >= m_prefix.length && regionMatches(buffer, start, m_prefix);
+        }
+    }
+
+    private static class SuffixMatcher implements TagMatcher {
+        private final byte[] m_suffix;
+
+        private SuffixMatcher(byte[] suffix) {
+            m_suffix = suffix;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            return end - start >= m_suffix.length && regionMatches(buffer, end - m_suffix.length, m_suffix);
+        }
+    }
+
+    private static class ContainsMatcher implements TagMatcher {
+        private final byte[] m_infix;
+
+        private ContainsMatcher(byte[] infix) {
+            m_infix = infix;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            for (int offset = start; offset <= end - m_infix.length; offset++) {
+                if (regionMatches(buffer, offset, m_infix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class RegexMatcher implements TagMatcher {
+        private final List<Pattern> m_patterns;
+
+        private RegexMatcher(List<Pattern> patterns) {
+            m_patterns = patterns;
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            final byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(start + i);
+            }
+            return matchesAny(new String(bytes, StandardCharsets.UTF_8), m_patterns);
+        }
+    }
+
+    private static class AnyMatcher implements TagMatcher {
+        private final TagMatcher[] m_matchers;
+
+        private AnyMatcher(List<TagMatcher> matchers) {
+            m_matchers = matchers.toArray(new TagMatcher[0]);
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buffer, int start, int end) {
+            for (TagMatcher matcher : m_matchers) {
+                if (matcher.matches(buffer, start, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -558,4 +558,24 @@ public class RangeAggregatorTest
 
 
 	}
+
+	@Test
+	public void test_isSingleRange()
+	{
+		DateTimeZone utc = DateTimeZone.UTC;
+		long start = new DateTime(2014, 1, 1, 0, 30, 0, 0, utc).getMillis();
+
+		LastAggregator aggregator = new LastAggregator(new DoubleDataPointFactoryImpl());
+		aggregator.setSampling(new Sampling(1, TimeUnit.HOURS));
+		aggregator.setStartTime(start);
+
+		assertThat(aggregator.isSingleRange(start, start + 3_599_999L), is(true));
+		assertThat(aggregator.isSingleRange(start, start + 3_600_000L), is(false));
+		assertThat(aggregator.isSingleRange(start - 1, start + 1000L), is(false));
+
+		// Aligned to the start of the day, the range ends at one o'clock
+		aggregator.setAlignSampling(true);
+		assertThat(aggregator.isSingleRange(start, start + 1_799_999L), is(true));
+		assertThat(aggregator.isSingleRange(start, start + 1_800_000L), is(false));
+	}
 }
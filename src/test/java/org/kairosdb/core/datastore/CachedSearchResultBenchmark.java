@@ -0,0 +1,140 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes and reads the cache files of a one day query over 200 series at one minute resolution, half of them long
+ * counters and half double gauges, in both file formats. The sizes of the written files are printed on setup.
+ */
+@Fork(2)
+@State(Scope.Thread)
+public class CachedSearchResultBenchmark {
+    private static final int SERIES = 200;
+    private static final int POINTS = 1440;
+    private static final long START = 1_500_000_000_000L;
+
+    @Param({"1", "2"})
+    private int formatVersion;
+
+    private final KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+    private final List<Map<String, String>> tags = new ArrayList<>();
+    private final List<List<DataPoint>> series = new ArrayList<>();
+    private String writeFile;
+    private String readFile;
+
+    @Setup
+    public void setup() throws IOException {
+        final Random random = new Random(42);
+        for (int i = 0; i < SERIES; i++) {
+            tags.add(ImmutableSortedMap.<String, String>naturalOrder()
+                    .put("application_id", "application-" + (i % 20))
+                    .put("entity", "host-10-160-" + (i % 250) + "-" + (i / 10))
+                    .put("key", "cpu." + (i % 7))
+                    .put("stack_name", "stack-" + (i % 20))
+                    .put("stack_version", String.valueOf(i % 3))
+                    .build());
+
+            final List<DataPoint> points = new ArrayList<>(POINTS);
+            long counter = random.nextInt(1_000_000);
+            double gauge = random.nextInt(100);
+            for (int j = 0; j < POINTS; j++) {
+                // Checks run every minute with a few milliseconds of jitter
+                final long timestamp = START + j * 60_000L + random.nextInt(50);
+                if (i % 2 == 0) {
+                    counter += random.nextInt(1000);
+                    points.add(new LongDataPoint(timestamp, counter));
+                } else {
+                    gauge = Math.max(0, Math.round((gauge + random.nextGaussian()) * 100) / 100.0);
+                    points.add(new DoubleDataPoint(timestamp, gauge));
+                }
+            }
+            series.add(points);
+        }
+
+        final File directory = Files.createTempDirectory("kairos_cache_benchmark").toFile();
+        writeFile = new File(directory, "write").getPath();
+        readFile = new File(directory, "read").getPath();
+
+        measureWrite();
+        closeAll(write(readFile).getRows());
+        System.out.printf("%nFormat v%d: %d data bytes, %d index bytes%n", formatVersion,
+                new File(readFile + ".data").length(), new File(readFile + ".index").length());
+    }
+
+    private CachedSearchResult write(String baseFileName) throws IOException {
+        final CachedSearchResult result = CachedSearchResult.createCachedSearchResult("zmon.check.1234",
+                baseFileName, dataPointFactory, formatVersion);
+        for (int i = 0; i < SERIES; i++) {
+            result.startDataPointSet(i % 2 == 0 ? LongDataPointFactoryImpl.DST_LONG : DoubleDataPointFactoryImpl.DST_DOUBLE,
+                    tags.get(i));
+            for (DataPoint dataPoint : series.get(i)) {
+                result.addDataPoint(dataPoint);
+            }
+        }
+        result.endDataPoints();
+        return result;
+    }
+
+    private static void closeAll(List<DataPointRow> rows) {
+        for (DataPointRow row : rows) {
+            row.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public long measureWrite() throws IOException {
+        // Closing the rows writes the index
+        final List<DataPointRow> rows = write(writeFile).getRows();
+        closeAll(rows);
+        return rows.size();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public long measureRead() throws IOException {
+        final List<DataPointRow> rows = CachedSearchResult.openCachedSearchResult("zmon.check.1234", readFile,
+                Integer.MAX_VALUE, dataPointFactory).getRows();
+        long sum = 0;
+        for (DataPointRow row : rows) {
+            while (row.hasNext()) {
+                sum += row.next().getTimestamp();
+            }
+            row.close();
+        }
+        return sum;
+    }
+}
@@ -22,6 +22,7 @@ import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.TestDataPointFactory;
 import org.kairosdb.core.datapoints.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
@@ -179,6 +180,136 @@ public class CachedSearchResultTest
 
 	}
 
+	@Test
+	public void test_formatV2_longAndDoubleRows() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/baseFileV2";
+		CachedSearchResult csResult = CachedSearchResult.createCachedSearchResult(
+				"metric4", tempFile, dataPointFactory, CachedSearchResult.FORMAT_V2);
+
+		long[] timestamps = {1000L, 61000L, 121000L, 121001L, 50000L, Long.MAX_VALUE};
+		long[] longs = {0L, -5L, Long.MIN_VALUE, Long.MAX_VALUE, 42L, 42L};
+		double[] doubles = {0.0, -1.5, Double.NaN, Double.MAX_VALUE, 42.1, 42.1};
+
+		csResult.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, Collections.singletonMap("host", "A"));
+		for (int i = 0; i < timestamps.length; i++)
+			csResult.addDataPoint(new LongDataPoint(timestamps[i], longs[i]));
+
+		csResult.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, Collections.singletonMap("host", "A"));
+		for (int i = 0; i < timestamps.length; i++)
+			csResult.addDataPoint(new DoubleDataPoint(timestamps[i], doubles[i]));
+
+		csResult.endDataPoints();
+
+		List<DataPointRow> rows = csResult.getRows();
+		assertRows(rows, timestamps, longs, doubles);
+		for (DataPointRow row : rows)
+			row.close();
+
+		csResult = CachedSearchResult.openCachedSearchResult("metric4", tempFile, 100, dataPointFactory);
+
+		rows = csResult.getRows();
+		assertRows(rows, timestamps, longs, doubles);
+		assertThat(rows.get(1).getTagValue("host"), equalTo("A"));
+		assertThat(rows.get(1).getDatastoreType(), equalTo(DoubleDataPointFactoryImpl.DST_DOUBLE));
+		for (DataPointRow row : rows)
+			row.close();
+	}
+
+	@Test
+	public void test_openCachedSearchResult_readsFormatV1() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/baseFileV1";
+		CachedSearchResult csResult = CachedSearchResult.createCachedSearchResult(
+				"metric5", tempFile, dataPointFactory, CachedSearchResult.FORMAT_V1);
+
+		csResult.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, Collections.singletonMap("host", "A"));
+		csResult.addDataPoint(new LongDataPoint(1000L, 1L));
+		csResult.addDataPoint(new LongDataPoint(2000L, 2L));
+		csResult.endDataPoints();
+
+		for (DataPointRow row : csResult.getRows())
+			row.close();
+
+		csResult = CachedSearchResult.openCachedSearchResult("metric5", tempFile, 100, dataPointFactory);
+
+		List<DataPointRow> rows = csResult.getRows();
+		assertEquals(1, rows.size());
+		assertValues(rows.get(0), 1L, 2L);
+		rows.get(0).close();
+	}
+
+	@Test
+	public void test_createMemoryResult_keepsSmallResultInMemory() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/baseFileMemory";
+		new File(tempFile + ".data").delete();
+		ResultBufferPool pool = new ResultBufferPool("hostname", 64, 1);
+		CachedSearchResult csResult = CachedSearchResult.createMemoryResult("metric6", tempFile, dataPointFactory, pool);
+
+		csResult.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, Collections.singletonMap("host", "A"));
+		csResult.addDataPoint(new LongDataPoint(1000L, 1L));
+		csResult.addDataPoint(new LongDataPoint(2000L, 2L));
+		csResult.startDataPointSet(DoubleDataPointFactoryImpl.DST_DOUBLE, Collections.singletonMap("host", "B"));
+		csResult.addDataPoint(new DoubleDataPoint(1000L, 1.5));
+		csResult.endDataPoints();
+
+		List<DataPointRow> rows = csResult.getRows();
+		assertEquals(2, rows.size());
+		assertValues(rows.get(0), 1L, 2L);
+		assertValues(rows.get(1), 1.5);
+		rows.get(0).close();
+		rows.get(1).close();
+
+		assertEquals(false, new File(tempFile + ".data").exists());
+		assertEquals(ResultBufferPool.MIN_BUFFER_SIZE, pool.getPooledBytes());
+	}
+
+	@Test
+	public void test_createMemoryResult_spillsLargeResult() throws IOException
+	{
+		String tempFile = System.getProperty("java.io.tmpdir") + "/baseFileSpilled";
+		ResultBufferPool pool = new ResultBufferPool("hostname", 16, 1);
+		CachedSearchResult csResult = CachedSearchResult.createMemoryResult("metric7", tempFile, dataPointFactory, pool);
+
+		int numberOfDataPoints = 10000;
+		csResult.startDataPointSet(LongDataPointFactoryImpl.DST_LONG, Collections.singletonMap("host", "A"));
+		for (int i = 0; i < numberOfDataPoints; i++)
+			csResult.addDataPoint(new LongDataPoint(i * 1000L + (i % 7), i * 31L));
+		csResult.endDataPoints();
+
+		List<DataPointRow> rows = csResult.getRows();
+		assertEquals(true, new File(tempFile + ".data").exists());
+
+		DataPointRow row = rows.get(0);
+		for (int i = 0; i < numberOfDataPoints; i++)
+		{
+			DataPoint dataPoint = row.next();
+			assertEquals(i * 1000L + (i % 7), dataPoint.getTimestamp());
+			assertEquals(i * 31L, dataPoint.getLongValue());
+		}
+		assertEquals(false, row.hasNext());
+		row.close();
+	}
+
+	private void assertRows(List<DataPointRow> rows, long[] timestamps, long[] longs, double[] doubles)
+	{
+		assertEquals(2, rows.size());
+		for (int i = 0; i < timestamps.length; i++)
+		{
+			DataPoint dataPoint = rows.get(0).next();
+			assertEquals(timestamps[i], dataPoint.getTimestamp());
+			assertEquals(longs[i], dataPoint.getLongValue());
+		}
+		for (int i = 0; i < timestamps.length; i++)
+		{
+			DataPoint dataPoint = rows.get(1).next();
+			assertEquals(timestamps[i], dataPoint.getTimestamp());
+			assertEquals(Double.doubleToRawLongBits(doubles[i]), Double.doubleToRawLongBits(dataPoint.getDoubleValue()));
+		}
+		assertEquals(false, rows.get(0).hasNext());
+	}
+
 	private void assertValues(DataPointRow dataPoints, Number... numbers)
 	{
 		int count = 0;
@@ -0,0 +1,169 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.StringDataPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class HotTailStoreTest
+{
+	private static final long START = 1_500_000_000_000L;
+	private static final long MINUTE = 60_000L;
+
+	private final AtomicLong clock = new AtomicLong(START);
+	private final HotTailStore store = new HotTailStore("hostname", clock::get, 10, 64);
+
+	private static ImmutableSortedMap<String, String> tags(String host)
+	{
+		return ImmutableSortedMap.of("host", host, "dc", "eu");
+	}
+
+	private void ingest(String host, long minutes)
+	{
+		for (long i = 0; i < minutes; i++)
+		{
+			long timestamp = clock.get();
+			store.dataPoint("metric", tags(host), new LongDataPoint(timestamp, i));
+			clock.addAndGet(MINUTE);
+		}
+	}
+
+	private static QueryMetric query(long start, long end, String host)
+	{
+		QueryMetric query = new QueryMetric(start, end, 0, "metric");
+		if (host != null)
+			query.addTag("host", host);
+		return query;
+	}
+
+	private static List<Long> values(DataPointRow row)
+	{
+		List<Long> values = new ArrayList<>();
+		while (row.hasNext())
+			values.add(row.next().getLongValue());
+		return values;
+	}
+
+	@Test
+	public void test_query_withinTail()
+	{
+		ingest("a", 8);
+
+		List<DataPointRow> rows = store.query(query(START + 2 * MINUTE, START + 4 * MINUTE, "a"));
+
+		assertNotNull(rows);
+		assertThat(rows.size(), equalTo(1));
+		assertThat(rows.get(0).getTagValue("host"), equalTo("a"));
+		assertThat(rows.get(0).getDatastoreType(), equalTo("kairos_long"));
+		assertThat(values(rows.get(0)), equalTo(Arrays.asList(2L, 3L, 4L)));
+	}
+
+	@Test
+	public void test_query_filtersTags()
+	{
+		long now = clock.get();
+		store.dataPoint("metric", tags("a1"), new LongDataPoint(now, 1));
+		store.dataPoint("metric", tags("a2"), new LongDataPoint(now, 2));
+		store.dataPoint("metric", tags("b1"), new DoubleDataPoint(now, 3.0));
+
+		assertThat(store.query(query(now, now, "a*")).size(), equalTo(2));
+		assertThat(store.query(query(now, now, "b1")).size(), equalTo(1));
+		assertThat(store.query(query(now, now, null)).size(), equalTo(3));
+		assertTrue(store.query(query(now, now, "c")).isEmpty());
+	}
+
+	@Test
+	public void test_query_beforeFirstPoint_misses()
+	{
+		clock.addAndGet(MINUTE);
+		ingest("a", 3);
+
+		assertNull(store.query(query(START, START + 3 * MINUTE, "a")));
+		assertNull(store.query(new QueryMetric(START + MINUTE, START + 3 * MINUTE, 0, "other_metric")));
+	}
+
+	@Test
+	public void test_query_beyondRetention_misses()
+	{
+		ingest("a", 15);
+
+		assertNull(store.query(query(START + 4 * MINUTE, clock.get(), "a")));
+		assertNotNull(store.query(query(START + 5 * MINUTE, clock.get(), "a")));
+	}
+
+	@Test
+	public void test_outOfOrderPoint_movesCoverage()
+	{
+		ingest("a", 5);
+		store.dataPoint("metric", tags("a"), new LongDataPoint(START + MINUTE, 42));
+
+		assertNull(store.query(query(START + MINUTE, clock.get(), "a")));
+		assertNotNull(store.query(query(START + MINUTE + 1, clock.get(), "a")));
+	}
+
+	@Test
+	public void test_unsupportedType_movesCoverage()
+	{
+		ingest("a", 5);
+		DataPoint string = new StringDataPoint(START + 2 * MINUTE, "value");
+		store.dataPoint("metric", tags("b"), string);
+
+		assertNull(store.query(query(START + 2 * MINUTE, clock.get(), null)));
+		assertNotNull(store.query(query(START + 2 * MINUTE + 1, clock.get(), null)));
+	}
+
+	@Test
+	public void test_invalidate()
+	{
+		ingest("a", 5);
+		store.invalidate("metric");
+
+		assertNull(store.query(query(START, clock.get(), "a")));
+		ingest("a", 2);
+		assertNotNull(store.query(query(START + 5 * MINUTE, clock.get(), "a")));
+	}
+
+	@Test
+	public void test_trim_dropsOldBlocks()
+	{
+		for (int i = 0; i < 3 * TailBlock.MAX_POINTS; i++)
+		{
+			store.dataPoint("metric", tags("a"), new LongDataPoint(clock.get(), i));
+			clock.addAndGet(1_000);
+		}
+		// Retention starts at the 184th second, only the first block is older
+		clock.addAndGet(10 * MINUTE - 200_000);
+		store.trim();
+
+		List<DataPointRow> rows = store.query(query(clock.get() - 10 * MINUTE, clock.get(), "a"));
+		assertThat(rows.get(0).getDataPointCount(), equalTo(200));
+
+		// Nothing is left, the metric is removed and queries fall back to the datastore
+		clock.addAndGet(10 * MINUTE);
+		store.trim();
+		assertNull(store.query(query(clock.get() - MINUTE, clock.get(), "a")));
+	}
+
+	@Test
+	public void test_disabled()
+	{
+		HotTailStore disabled = new HotTailStore("hostname");
+		disabled.dataPoint("metric", tags("a"), new LongDataPoint(System.currentTimeMillis(), 1));
+
+		assertNull(disabled.query(query(System.currentTimeMillis() - MINUTE, System.currentTimeMillis(), "a")));
+		assertTrue(disabled.getMetrics(System.currentTimeMillis()).isEmpty());
+	}
+}
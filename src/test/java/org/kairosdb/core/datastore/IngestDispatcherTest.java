@@ -0,0 +1,219 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.collect.ImmutableSortedMap;
+import io.opentracing.mock.MockTracer;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointListener;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class IngestDispatcherTest
+{
+	private static final int SERIES = 50;
+	private static final int POINTS = 200;
+
+	private final RecordingDatastore datastore = new RecordingDatastore();
+
+	private IngestDispatcher createDispatcher(int shards) throws DatastoreException
+	{
+		KairosDatastore kairosDatastore = new KairosDatastore(datastore, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), new MockTracer(),
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
+		return new IngestDispatcher(kairosDatastore, "hostname", shards, 2, 16);
+	}
+
+	@Test(timeout = 10000)
+	public void test_seriesOrderIsKept() throws DatastoreException
+	{
+		IngestDispatcher dispatcher = createDispatcher(4);
+
+		IngestDispatcher.Batch batch = dispatcher.newBatch();
+		for (int i = 0; i < POINTS; i++)
+		{
+			for (int series = 0; series < SERIES; series++)
+				batch.add("metric", ImmutableSortedMap.of("series", String.valueOf(series)), new LongDataPoint(i, i), 0);
+		}
+		batch.await();
+
+		// Every point is written when await returns, in order per series
+		assertThat(datastore.series.size(), equalTo(SERIES));
+		for (List<Long> timestamps : datastore.series.values())
+		{
+			assertThat(timestamps.size(), equalTo(POINTS));
+			for (int i = 0; i < POINTS; i++)
+				assertThat(timestamps.get(i), equalTo((long) i));
+		}
+		assertThat(datastore.threads.size() > 1, equalTo(true));
+	}
+
+	@Test(timeout = 10000)
+	public void test_failureIsReturned() throws DatastoreException
+	{
+		DatastoreOverloadedException overloaded = new DatastoreOverloadedException("overloaded");
+		datastore.failure = overloaded;
+		IngestDispatcher dispatcher = createDispatcher(2);
+
+		IngestDispatcher.Batch batch = dispatcher.newBatch();
+		try
+		{
+			for (int i = 0; i < POINTS; i++)
+				batch.add("metric", ImmutableSortedMap.of("host", "a"), new LongDataPoint(i, i), 0);
+			batch.await();
+			fail("Expected the write failure");
+		}
+		catch (DatastoreOverloadedException e)
+		{
+			assertSame(overloaded, e);
+		}
+		finally
+		{
+			batch.abort();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void test_interruptedShardFailsLaterBatches() throws DatastoreException, InterruptedException
+	{
+		IngestDispatcher dispatcher = createDispatcher(1);
+
+		IngestDispatcher.Batch batch = dispatcher.newBatch();
+		batch.add("metric", ImmutableSortedMap.of("host", "a"), new LongDataPoint(1, 1), 0);
+		batch.await();
+
+		Thread shard = datastore.writer;
+		shard.interrupt();
+		shard.join();
+
+		// The shard exits instead of ignoring the interrupt, requests sent to it fail instead of hanging
+		IngestDispatcher.Batch next = dispatcher.newBatch();
+		try
+		{
+			next.add("metric", ImmutableSortedMap.of("host", "a"), new LongDataPoint(2, 2), 0);
+			next.await();
+			fail("Expected the stopped shard to fail the batch");
+		}
+		catch (DatastoreException e)
+		{
+			assertThat(e.getMessage(), equalTo("Ingest shard stopped before writing data points"));
+		}
+		assertThat(datastore.series.get("metric" + ImmutableSortedMap.of("host", "a")).size(), equalTo(1));
+	}
+
+	@Test
+	public void test_noShardsWritesDirectly() throws DatastoreException
+	{
+		IngestDispatcher dispatcher = createDispatcher(0);
+
+		IngestDispatcher.Batch batch = dispatcher.newBatch();
+		batch.add("metric", ImmutableSortedMap.of("host", "a"), new LongDataPoint(1, 1), 0);
+
+		assertThat(datastore.series.get("metric" + ImmutableSortedMap.of("host", "a")).size(), equalTo(1));
+		assertThat(datastore.threads, equalTo(Collections.singleton(Thread.currentThread().getName())));
+		assertThat(dispatcher.getMetrics(0).isEmpty(), equalTo(true));
+	}
+
+	@Test(timeout = 10000)
+	public void test_metrics() throws DatastoreException
+	{
+		IngestDispatcher dispatcher = createDispatcher(2);
+
+		IngestDispatcher.Batch batch = dispatcher.newBatch();
+		for (int i = 0; i < POINTS; i++)
+			batch.add("metric", ImmutableSortedMap.of("host", "a"), new LongDataPoint(i, i), 0);
+		batch.await();
+
+		long written = 0;
+		double skew = 0;
+		for (DataPointSet dataPointSet : dispatcher.getMetrics(0))
+		{
+			if (dataPointSet.getName().equals(IngestDispatcher.SHARD_DATAPOINTS))
+				written += dataPointSet.getDataPoints().get(0).getLongValue();
+			else if (dataPointSet.getName().equals(IngestDispatcher.SHARD_SKEW))
+				skew = dataPointSet.getDataPoints().get(0).getDoubleValue();
+			else if (dataPointSet.getName().equals(IngestDispatcher.QUEUE_DEPTH))
+				assertThat(dataPointSet.getDataPoints().get(0).getLongValue(), equalTo(0L));
+		}
+
+		// A single series lands on one of the two shards
+		assertThat(written, equalTo((long) POINTS));
+		assertThat(skew, equalTo(2.0));
+	}
+
+	private static class RecordingDatastore implements Datastore
+	{
+		private final Map<String, List<Long>> series = new HashMap<>();
+		private final Set<String> threads = new HashSet<>();
+		private DatastoreException failure;
+		private volatile Thread writer;
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public synchronized void putDataPoint(String metricName, ImmutableSortedMap<String, String> tags,
+				DataPoint dataPoint, int ttl) throws DatastoreException
+		{
+			if (failure != null)
+				throw failure;
+
+			String key = metricName + tags;
+			List<Long> timestamps = series.get(key);
+			if (timestamps == null)
+			{
+				timestamps = new ArrayList<>();
+				series.put(key, timestamps);
+			}
+			timestamps.add(dataPoint.getTimestamp());
+			threads.add(Thread.currentThread().getName());
+			writer = Thread.currentThread();
+		}
+
+		@Override
+		public Iterable<String> getMetricNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Iterable<String> getTagNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
+		{
+		}
+
+		@Override
+		public void deleteDataPoints(DatastoreMetricQuery deleteQuery)
+		{
+		}
+
+		@Override
+		public TagSet queryMetricTags(DatastoreMetricQuery query)
+		{
+			return null;
+		}
+	}
+}
@@ -27,6 +27,7 @@ import org.kairosdb.core.aggregator.TestAggregatorFactory;
 import org.kairosdb.core.datapoints.LegacyDataPointFactory;
 import org.kairosdb.core.datapoints.LegacyLongDataPoint;
 import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.DataPointDroppedException;
 import org.kairosdb.core.exception.DatastoreException;
 import org.kairosdb.core.exception.KairosDBException;
 import org.kairosdb.core.formatter.FormatterException;
@@ -64,7 +65,9 @@ public class KairosDatastoreTest
 	{
 		TestDatastore testds = new TestDatastore();
 		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer);
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer,
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
 
 		datastore.createQuery(null);
 	}
@@ -74,7 +77,9 @@ public class KairosDatastoreTest
 	{
 		TestDatastore testds = new TestDatastore();
 		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer);
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer,
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
 		QueryMetric metric = new QueryMetric(1L, 1, "metric1");
 		metric.addAggregator(aggFactory.createAggregator("sum"));
 
@@ -103,7 +108,9 @@ public class KairosDatastoreTest
 	{
 		TestDatastore testds = new TestDatastore();
 		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer);
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer,
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
 		QueryMetric metric = new QueryMetric(1L, 1, "metric1");
 
 		DatastoreQuery dq = datastore.createQuery(metric);
@@ -177,7 +184,9 @@ public class KairosDatastoreTest
 	{
 		TestDatastore testds = new TestDatastore();
 		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer);
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer,
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
 
 		// Create files in the cache directory
 		File cacheDir = new File(datastore.getCacheDir());
@@ -304,6 +313,23 @@ public class KairosDatastoreTest
 
 	}
 
+	@Test
+	public void test_putDataPoint_droppedPointSkipsListeners() throws DatastoreException
+	{
+		TestDatastore testds = new TestDatastore();
+		List<Long> heard = new ArrayList<Long>();
+		DataPointListener listener = (metricName, tags, dataPoint) -> heard.add(dataPoint.getTimestamp());
+		KairosDatastore datastore = new KairosDatastore(testds, new QueryQueuingManager(1, "hostname"),
+				Collections.singletonList(listener), new TestDataPointFactory(), tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
+
+		datastore.putDataPoint("metric1", ImmutableSortedMap.of("host", "A"), new LongDataPoint(1, 1));
+		testds.throwPutException(new DataPointDroppedException("sampled out"));
+		datastore.putDataPoint("metric1", ImmutableSortedMap.of("host", "A"), new LongDataPoint(2, 2));
+
+		assertThat(heard, equalTo(Collections.singletonList(1L)));
+	}
+
 	private Map<String, String> getTagGroupMap(DataPointGroup dataPointGroup)
 	{
 		for (GroupByResult groupByResult : dataPointGroup.getGroupByResult())
@@ -322,13 +348,15 @@ public class KairosDatastoreTest
 		                           List<DataPointListener> dataPointListeners,
 		                           KairosDataPointFactory dataPointFactory) throws DatastoreException
 		{
-			super(datastore, queuingManager, dataPointListeners, dataPointFactory, tracer);
+			super(datastore, queuingManager, dataPointListeners, dataPointFactory, tracer, new HotTailStore("hostname"),
+					new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		}
 	}
 
 	private class TestDatastore implements Datastore
 	{
 		private DatastoreException m_toThrow = null;
+		private DatastoreException m_toThrowOnPut = null;
 
 		protected TestDatastore() throws DatastoreException
 		{
@@ -344,6 +372,13 @@ public class KairosDatastoreTest
 				ImmutableSortedMap<String, String> tags,
 				DataPoint dataPoint, int ttl) throws DatastoreException
 		{
+			if (m_toThrowOnPut != null)
+				throw m_toThrowOnPut;
+		}
+
+		public void throwPutException(DatastoreException toThrow)
+		{
+			m_toThrowOnPut = toThrow;
 		}
 
 		@Override
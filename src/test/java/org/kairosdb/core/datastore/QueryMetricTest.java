@@ -0,0 +1,97 @@
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+import org.kairosdb.core.aggregator.FirstAggregator;
+import org.kairosdb.core.aggregator.LastAggregator;
+import org.kairosdb.core.aggregator.MaxAggregator;
+import org.kairosdb.core.aggregator.RangeAggregator;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.groupby.TagGroupBy;
+import org.kairosdb.core.groupby.ValueGroupBy;
+
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class QueryMetricTest
+{
+	private static final long START = 1_500_000_000_000L;
+	private static final long END = START + 300_000L;
+
+	@Test
+	public void test_boundaryRead_firstAndLast()
+	{
+		assertThat(query(first(5)).getBoundaryRead(), equalTo(BoundaryRead.OLDEST));
+		assertThat(query(last(5)).getBoundaryRead(), equalTo(BoundaryRead.OLDEST_AND_NEWEST));
+
+		LastAggregator aligned = last(5);
+		aligned.setAlignStartTime(true);
+		assertThat(query(aligned).getBoundaryRead(), equalTo(BoundaryRead.NEWEST));
+	}
+
+	@Test
+	public void test_boundaryRead_descending()
+	{
+		QueryMetric first = query(first(5));
+		first.setOrder(Order.DESC);
+		assertThat(first.getBoundaryRead(), equalTo(BoundaryRead.NEWEST));
+
+		LastAggregator aligned = last(5);
+		aligned.setAlignStartTime(true);
+		QueryMetric last = query(aligned);
+		last.setOrder(Order.DESC);
+		assertThat(last.getBoundaryRead(), equalTo(BoundaryRead.OLDEST));
+	}
+
+	@Test
+	public void test_boundaryRead_groupedByTag()
+	{
+		QueryMetric query = query(last(5));
+		query.addGroupBy(new TagGroupBy(Collections.singletonList("host")));
+		assertThat(query.getBoundaryRead(), equalTo(BoundaryRead.OLDEST_AND_NEWEST));
+	}
+
+	@Test
+	public void test_boundaryRead_all()
+	{
+		assertThat(new QueryMetric(START, END, 0, "metric").getBoundaryRead(), equalTo(BoundaryRead.ALL));
+		assertThat(query(last(4)).getBoundaryRead(), equalTo(BoundaryRead.ALL));
+		assertThat(query(first(5)).addAggregator(last(5)).getBoundaryRead(), equalTo(BoundaryRead.ALL));
+
+		MaxAggregator max = new MaxAggregator(new DoubleDataPointFactoryImpl());
+		max.setSampling(new Sampling(5, TimeUnit.MINUTES));
+		max.setStartTime(START);
+		assertThat(query(max).getBoundaryRead(), equalTo(BoundaryRead.ALL));
+
+		QueryMetric limited = query(last(5));
+		limited.setLimit(10);
+		assertThat(limited.getBoundaryRead(), equalTo(BoundaryRead.ALL));
+
+		QueryMetric groupedByValue = query(last(5));
+		groupedByValue.addGroupBy(new ValueGroupBy(10));
+		assertThat(groupedByValue.getBoundaryRead(), equalTo(BoundaryRead.ALL));
+	}
+
+	private static QueryMetric query(RangeAggregator aggregator)
+	{
+		return new QueryMetric(START, END, 0, "metric").addAggregator(aggregator);
+	}
+
+	private static FirstAggregator first(int minutes)
+	{
+		return withSampling(new FirstAggregator(new DoubleDataPointFactoryImpl()), minutes);
+	}
+
+	private static LastAggregator last(int minutes)
+	{
+		return withSampling(new LastAggregator(new DoubleDataPointFactoryImpl()), minutes);
+	}
+
+	private static <T extends RangeAggregator> T withSampling(T aggregator, int minutes)
+	{
+		aggregator.setSampling(new Sampling(minutes, TimeUnit.MINUTES));
+		aggregator.setStartTime(START);
+		return aggregator;
+	}
+}
@@ -0,0 +1,308 @@
+package org.kairosdb.core.datastore;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.exception.DatastoreException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+public class SlidingWindowCacheTest
+{
+	private static final long START = 1_500_000_000_000L;
+	private static final long MINUTE = 60_000L;
+	private static final long PARTITION = 10 * MINUTE;
+
+	private final AtomicLong clock = new AtomicLong(START);
+	private final RecordingDatastore datastore = new RecordingDatastore();
+	private final SlidingWindowCache cache = new SlidingWindowCache(new TestDataPointFactory(), clock::get,
+			1000, 120, 1800);
+
+	private static QueryMetric query(long start, long end)
+	{
+		QueryMetric query = new QueryMetric(start, end, 0, "metric");
+		query.setCacheString("Duration{value=30, unit=MINUTES}:");
+		return query;
+	}
+
+	private static Map<String, List<Long>> values(List<DataPointRow> rows)
+	{
+		Map<String, List<Long>> values = new TreeMap<>();
+		for (DataPointRow row : rows)
+		{
+			List<Long> timestamps = new ArrayList<>();
+			while (row.hasNext())
+			{
+				DataPoint dataPoint = row.next();
+				assertThat(dataPoint.getLongValue(), equalTo(dataPoint.getTimestamp() / MINUTE));
+				timestamps.add((dataPoint.getTimestamp() - START) / MINUTE);
+			}
+			values.put(row.getTagValue("host"), timestamps);
+		}
+		return values;
+	}
+
+	private static List<Long> minutes(long from, long to)
+	{
+		List<Long> minutes = new ArrayList<>();
+		for (long minute = from; minute <= to; minute++)
+			minutes.add(minute);
+		return minutes;
+	}
+
+	@Test
+	public void test_query_readsOnlyNewDataPoints() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		List<DataPointRow> rows = cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+
+		assertThat(datastore.ranges, equalTo(Arrays.asList(
+				Arrays.asList(0L, 30L),
+				Arrays.asList(28L, 35L))));
+		assertThat(values(rows).get("a"), equalTo(minutes(5, 35)));
+		assertThat(rows.get(0).getDataPointCount(), equalTo(31));
+	}
+
+	@Test
+	public void test_query_picksUpLateDataWithinOverlap() throws DatastoreException
+	{
+		datastore.write("a", 0, 28);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		datastore.write("a", 29, 32);
+		List<DataPointRow> rows = cache.query(query(START + MINUTE, START + 31 * MINUTE), datastore);
+
+		assertThat(values(rows).get("a"), equalTo(minutes(1, 31)));
+	}
+
+	@Test
+	public void test_query_addsNewSeries() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		datastore.write("b", 33, 40);
+		Map<String, List<Long>> values = values(cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore));
+
+		assertThat(values.get("a"), equalTo(minutes(5, 35)));
+		assertThat(values.get("b"), equalTo(minutes(33, 35)));
+	}
+
+	@Test
+	public void test_query_dropsSeriesThatSlidOut() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+		datastore.write("b", 0, 3);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		Map<String, List<Long>> values = values(cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore));
+
+		assertThat(values.keySet().size(), equalTo(1));
+		assertThat(values.get("a"), equalTo(minutes(5, 35)));
+	}
+
+	@Test
+	public void test_query_readsCompletelyAfterMaxAge() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		clock.addAndGet(30 * MINUTE);
+		cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+
+		assertThat(datastore.ranges.get(1), equalTo(Arrays.asList(5L, 35L)));
+	}
+
+	@Test
+	public void test_query_readsCompletelyIfWindowMovedBack() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+		List<DataPointRow> rows = cache.query(query(START, START + 30 * MINUTE), datastore);
+
+		assertThat(datastore.ranges.get(1), equalTo(Arrays.asList(0L, 30L)));
+		assertThat(values(rows).get("a"), equalTo(minutes(0, 30)));
+	}
+
+	@Test
+	public void test_query_doesNotKeepWindowsOverLimit() throws DatastoreException
+	{
+		SlidingWindowCache small = new SlidingWindowCache(new TestDataPointFactory(), clock::get, 20, 120, 1800);
+		datastore.write("a", 0, 40);
+
+		small.query(query(START, START + 30 * MINUTE), datastore);
+		small.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+
+		assertThat(datastore.ranges.get(1), equalTo(Arrays.asList(5L, 35L)));
+	}
+
+	@Test
+	public void test_invalidate() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		cache.invalidate("metric");
+		cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+
+		assertThat(datastore.ranges.get(1), equalTo(Arrays.asList(5L, 35L)));
+	}
+
+	@Test
+	public void test_query_limitNotKept() throws DatastoreException
+	{
+		QueryMetric query = query(START, START + 30 * MINUTE);
+		query.setLimit(10);
+
+		assertNull(cache.query(query, datastore));
+	}
+
+	@Test
+	public void test_query_disabled() throws DatastoreException
+	{
+		SlidingWindowCache disabled = new SlidingWindowCache(new TestDataPointFactory(), clock::get, 0, 120, 1800);
+
+		assertNull(disabled.query(query(START, START + 30 * MINUTE), datastore));
+		assertThat(datastore.ranges.size(), equalTo(0));
+	}
+
+	@Test
+	public void test_query_emptyWindow() throws DatastoreException
+	{
+		List<DataPointRow> rows = cache.query(query(START, START + 30 * MINUTE), datastore);
+
+		assertNotNull(rows);
+		assertThat(rows.size(), equalTo(0));
+	}
+
+	@Test
+	public void test_query_doesNotKeepIncompleteWindow() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		datastore.failReads = true;
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		datastore.failReads = false;
+		cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+
+		assertThat(datastore.ranges.get(1), equalTo(Arrays.asList(5L, 35L)));
+	}
+
+	@Test
+	public void test_query_dropsWindowOnIncompleteDelta() throws DatastoreException
+	{
+		datastore.write("a", 0, 40);
+
+		cache.query(query(START, START + 30 * MINUTE), datastore);
+		datastore.failReads = true;
+		cache.query(query(START + 5 * MINUTE, START + 35 * MINUTE), datastore);
+		datastore.failReads = false;
+		List<DataPointRow> rows = cache.query(query(START + 6 * MINUTE, START + 36 * MINUTE), datastore);
+
+		assertThat(datastore.ranges, equalTo(Arrays.asList(
+				Arrays.asList(0L, 30L),
+				Arrays.asList(28L, 35L),
+				Arrays.asList(6L, 36L))));
+		assertThat(values(rows).get("a"), equalTo(minutes(6, 36)));
+	}
+
+	/**
+	 Returns the data points of each host in partitions of ten minutes and records the queried minutes.
+	 */
+	private static class RecordingDatastore implements Datastore
+	{
+		private final Map<String, TreeMap<Long, Long>> series = new HashMap<>();
+		private final List<List<Long>> ranges = new ArrayList<>();
+		private boolean failReads;
+
+		private void write(String host, long fromMinute, long toMinute)
+		{
+			TreeMap<Long, Long> points = series.computeIfAbsent(host, k -> new TreeMap<>());
+			for (long minute = fromMinute; minute <= toMinute; minute++)
+			{
+				long timestamp = START + minute * MINUTE;
+				points.put(timestamp, timestamp / MINUTE);
+			}
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public void putDataPoint(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+		{
+		}
+
+		@Override
+		public Iterable<String> getMetricNames()
+		{
+			return null;
+		}
+
+		@Override
+		public Iterable<String> getTagNames()
+		{
+			return null;
+		}
+
+		@Override
+		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback) throws DatastoreException
+		{
+			ranges.add(Arrays.asList((query.getStartTime() - START) / MINUTE, (query.getEndTime() - START) / MINUTE));
+			try
+			{
+				for (Map.Entry<String, TreeMap<Long, Long>> entry : series.entrySet())
+				{
+					Map<Long, Long> points = entry.getValue().subMap(query.getStartTime(), true, query.getEndTime(), true);
+					long partition = -1;
+					for (Map.Entry<Long, Long> point : points.entrySet())
+					{
+						if (point.getKey() / PARTITION != partition)
+						{
+							partition = point.getKey() / PARTITION;
+							queryCallback.startDataPointSet("kairos_long", ImmutableSortedMap.of("host", entry.getKey()));
+						}
+						queryCallback.addDataPoint(new LongDataPoint(point.getKey(), point.getValue()));
+					}
+				}
+				if (failReads)
+					queryCallback.readFailed();
+				queryCallback.endDataPoints();
+			}
+			catch (IOException e)
+			{
+				throw new DatastoreException(e);
+			}
+		}
+
+		@Override
+		public void deleteDataPoints(DatastoreMetricQuery deleteQuery)
+		{
+		}
+
+		@Override
+		public TagSet queryMetricTags(DatastoreMetricQuery query)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPointSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class SpillingOutputStreamTest
+{
+	private final ResultBufferPool pool = new ResultBufferPool("hostname", 64, 1);
+	private final ByteArrayOutputStream spilled = new ByteArrayOutputStream();
+	private int spills;
+
+	private SpillingOutputStream newOutput()
+	{
+		return new SpillingOutputStream(pool, () ->
+		{
+			spills++;
+			return spilled;
+		});
+	}
+
+	private static byte[] bytes(int length)
+	{
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte) i;
+		return bytes;
+	}
+
+	private static byte[] toArray(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void test_write_keepsSmallOutputInMemory() throws IOException
+	{
+		SpillingOutputStream output = newOutput();
+		byte[] expected = bytes(40 * 1024);
+
+		output.write(expected[0]);
+		output.write(expected, 1, 1000);
+		output.write(expected, 1001, expected.length - 1001);
+
+		assertThat(output.isSpilled(), equalTo(false));
+		assertThat(output.size(), equalTo((long) expected.length));
+		assertArrayEquals(expected, toArray(output.getBuffer()));
+		assertThat(spills, equalTo(0));
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		output.writeBufferTo(copy);
+		assertArrayEquals(expected, copy.toByteArray());
+	}
+
+	@Test
+	public void test_write_spillsOverMaxResultSize() throws IOException
+	{
+		SpillingOutputStream output = newOutput();
+		byte[] expected = bytes(100 * 1024);
+
+		for (int i = 0; i < expected.length; i += 1000)
+			output.write(expected, i, Math.min(1000, expected.length - i));
+
+		assertThat(output.isSpilled(), equalTo(true));
+		assertThat(output.size(), equalTo((long) expected.length));
+		assertThat(spills, equalTo(1));
+		assertArrayEquals(expected, spilled.toByteArray());
+	}
+
+	@Test
+	public void test_release_reusesBuffers() throws IOException
+	{
+		SpillingOutputStream output = newOutput();
+		output.write(bytes(100));
+		output.release();
+
+		assertThat(pool.getPooledBytes(), equalTo((long) ResultBufferPool.MIN_BUFFER_SIZE));
+
+		SpillingOutputStream next = newOutput();
+		next.write(bytes(10));
+		assertThat(pool.getPooledBytes(), equalTo(0L));
+		next.release();
+		assertThat(pool.getPooledBytes(), equalTo((long) ResultBufferPool.MIN_BUFFER_SIZE));
+	}
+
+	@Test
+	public void test_release_dropsBuffersOverPoolSize()
+	{
+		ResultBufferPool small = new ResultBufferPool("hostname", 64, 0);
+
+		small.release(small.acquire(100));
+
+		assertThat(small.getPooledBytes(), equalTo(0L));
+	}
+
+	@Test
+	public void test_getMetrics_spillRate() throws IOException
+	{
+		SpillingOutputStream memory = newOutput();
+		memory.write(bytes(10));
+		memory.recordResult();
+		memory.recordResult();
+
+		SpillingOutputStream file = newOutput();
+		file.write(bytes(100 * 1024));
+		file.recordResult();
+
+		List<DataPointSet> metrics = pool.getMetrics(1000L);
+
+		assertThat(metrics.get(0).getTags().get("storage"), equalTo("memory"));
+		assertThat(metrics.get(0).getDataPoints().get(0).getLongValue(), equalTo(1L));
+		assertThat(metrics.get(1).getTags().get("storage"), equalTo("file"));
+		assertThat(metrics.get(1).getDataPoints().get(0).getLongValue(), equalTo(1L));
+		assertThat(metrics.get(2).getName(), equalTo(ResultBufferPool.SPILL_RATE));
+		assertThat(metrics.get(2).getDataPoints().get(0).getDoubleValue(), equalTo(0.5));
+	}
+
+	@Test
+	public void test_disabledPool_spillsImmediately() throws IOException
+	{
+		ResultBufferPool disabled = new ResultBufferPool("hostname", 0, 1);
+		SpillingOutputStream output = new SpillingOutputStream(disabled, () -> spilled);
+
+		output.write(bytes(3));
+
+		assertThat(output.isSpilled(), equalTo(true));
+		assertArrayEquals(bytes(3), spilled.toByteArray());
+	}
+}
@@ -0,0 +1,74 @@
+package org.kairosdb.core.datastore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TailBlockTest
+{
+	@Test
+	public void test_decode_regularSeries()
+	{
+		TailBlock block = new TailBlock();
+		List<List<Long>> expected = new ArrayList<>();
+		for (int i = 0; i < TailBlock.MAX_POINTS; i++)
+		{
+			long timestamp = 1_500_000_000_000L + i * 10_000L;
+			long value = Double.doubleToRawLongBits(20.0 + (i % 3));
+			block.append(timestamp, value);
+			expected.add(Arrays.asList(timestamp, value));
+		}
+		block.seal();
+
+		assertTrue(block.isFull());
+		assertThat(decode(block, Long.MIN_VALUE, Long.MAX_VALUE), equalTo(expected));
+		// Regular timestamps and few distinct values take a fraction of the 16 bytes of a raw point
+		assertTrue(block.getSizeInBytes() < TailBlock.MAX_POINTS * 4);
+	}
+
+	@Test
+	public void test_decode_irregularSeries()
+	{
+		Random random = new Random(42);
+		TailBlock block = new TailBlock();
+		List<List<Long>> expected = new ArrayList<>();
+		long timestamp = 0;
+		for (int i = 0; i < TailBlock.MAX_POINTS; i++)
+		{
+			timestamp += 1 + random.nextInt(i % 2 == 0 ? 10 : 1_000_000_000);
+			long value = random.nextLong() >> random.nextInt(64);
+			block.append(timestamp, value);
+			expected.add(Arrays.asList(timestamp, value));
+		}
+
+		assertThat(decode(block, Long.MIN_VALUE, Long.MAX_VALUE), equalTo(expected));
+	}
+
+	@Test
+	public void test_decode_range()
+	{
+		TailBlock block = new TailBlock();
+		for (int i = 0; i < 10; i++)
+			block.append(i * 100, i);
+
+		List<List<Long>> points = decode(block, 250, 500);
+		assertThat(points.size(), equalTo(3));
+		assertThat(points.get(0).get(0), equalTo(300L));
+		assertThat(points.get(2).get(0), equalTo(500L));
+		assertTrue(decode(block, 1000, 2000).isEmpty());
+	}
+
+	private static List<List<Long>> decode(TailBlock block, long start, long end)
+	{
+		List<List<Long>> points = new ArrayList<>();
+		block.decode(start, end, (timestamp, value) -> points.add(Arrays.asList(timestamp, value)));
+		return points;
+	}
+}
@@ -33,6 +33,7 @@ import org.kairosdb.core.aggregator.TestAggregatorFactory;
 import org.kairosdb.core.datapoints.*;
 import org.kairosdb.core.datastore.*;
 import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
 import org.kairosdb.core.groupby.GroupByFactory;
 import org.kairosdb.core.groupby.TestGroupByFactory;
 import org.kairosdb.core.http.WebServer;
@@ -287,6 +288,26 @@ public class MetricsResourceTest
 		}
 	}
 
+	@Test
+	public void testAddDatastoreOverloaded() throws Exception
+	{
+		datastore.throwPutException(new DatastoreOverloadedException("overloaded"));
+
+		try
+		{
+			String json = Resources.toString(Resources.getResource("single-metric-long.json"), Charsets.UTF_8);
+
+			JsonResponse response = client.post(json, ADD_METRIC_URL);
+
+			assertResponse(response, 503, "{\"errors\":[\"overloaded\"]}");
+			assertThat(response.getHeader("Retry-After"), equalTo("5"));
+		}
+		finally
+		{
+			datastore.throwPutException(null);
+		}
+	}
+
 	private void assertResponse(JsonResponse response, int responseCode, String expectedContent)
 	{
 		assertThat(response.getStatusCode(), equalTo(responseCode));
@@ -304,6 +325,7 @@ public class MetricsResourceTest
 	public static class TestDatastore implements Datastore
 	{
 		private DatastoreException m_toThrow = null;
+		private DatastoreException m_putToThrow = null;
 
 		protected TestDatastore() throws DatastoreException
 		{
@@ -314,6 +336,11 @@ public class MetricsResourceTest
 			m_toThrow = toThrow;
 		}
 
+		public void throwPutException(DatastoreException toThrow)
+		{
+			m_putToThrow = toThrow;
+		}
+
 		@Override
 		public void close() throws InterruptedException
 		{
@@ -324,6 +351,8 @@ public class MetricsResourceTest
 				ImmutableSortedMap<String, String> tags,
 				DataPoint dataPoint, int ttl) throws DatastoreException
 		{
+			if (m_putToThrow != null)
+				throw m_putToThrow;
 		}
 
 		@Override
@@ -0,0 +1,174 @@
+package org.kairosdb.core.http.rest.binary;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.kairosdb.core.http.rest.binary.BinaryDataPointsParser.MAGIC;
+import static org.kairosdb.core.http.rest.binary.BinaryDataPointsParser.TYPE_DOUBLE;
+import static org.kairosdb.core.http.rest.binary.BinaryDataPointsParser.TYPE_LONG;
+
+/**
+ Reference encoder for the format read by {@link BinaryDataPointsParser}, for tests and for
+ collectors to compare against.
+ */
+public class BinaryDataPointsEncoder
+{
+	private final OutputStream out;
+	private final Map<String, Integer> dictionary = new HashMap<>();
+	private final List<String> newStrings = new ArrayList<>();
+	private final Buffer series = new Buffer();
+	private final Buffer body = new Buffer();
+	private final Buffer header = new Buffer();
+
+	public BinaryDataPointsEncoder(OutputStream out) throws IOException
+	{
+		this.out = out;
+		header.writeInt(MAGIC);
+		header.writeTo(out);
+	}
+
+	public void addSeries(String name, Map<String, String> tags, int ttl, long[] timestamps, long[] values) throws IOException
+	{
+		startSeries(name, tags, ttl, TYPE_LONG, timestamps.length);
+		long previous = 0;
+		for (int i = 0; i < timestamps.length; i++)
+		{
+			series.writeZigZag(timestamps[i] - previous);
+			series.writeZigZag(values[i]);
+			previous = timestamps[i];
+		}
+		finishSeries();
+	}
+
+	public void addSeries(String name, Map<String, String> tags, int ttl, long[] timestamps, double[] values) throws IOException
+	{
+		startSeries(name, tags, ttl, TYPE_DOUBLE, timestamps.length);
+		long previous = 0;
+		for (int i = 0; i < timestamps.length; i++)
+		{
+			series.writeZigZag(timestamps[i] - previous);
+			series.writeLong(Double.doubleToLongBits(values[i]));
+			previous = timestamps[i];
+		}
+		finishSeries();
+	}
+
+	/**
+	 Writes the end marker, the stream is left open.
+	 */
+	public void finish() throws IOException
+	{
+		header.writeVarint(0);
+		header.writeTo(out);
+		out.flush();
+	}
+
+	private void startSeries(String name, Map<String, String> tags, int ttl, byte type, int pointCount)
+	{
+		// Indexes first, the strings they add go in front of them
+		body.size = 0;
+		body.writeVarint(index(name));
+		body.writeVarint(ttl);
+		body.writeVarint(tags.size());
+		for (Map.Entry<String, String> tag : tags.entrySet())
+		{
+			body.writeVarint(index(tag.getKey()));
+			body.writeVarint(index(tag.getValue()));
+		}
+		body.write(type);
+		body.writeVarint(pointCount);
+
+		series.writeVarint(newStrings.size());
+		for (String string : newStrings)
+		{
+			byte[] bytes = string.getBytes(UTF_8);
+			series.writeVarint(bytes.length);
+			series.write(bytes, bytes.length);
+		}
+		newStrings.clear();
+		series.write(body.bytes, body.size);
+	}
+
+	private void finishSeries() throws IOException
+	{
+		header.writeVarint(series.size);
+		header.writeTo(out);
+		series.writeTo(out);
+	}
+
+	private int index(String string)
+	{
+		Integer index = dictionary.get(string);
+		if (index == null)
+		{
+			index = dictionary.size();
+			dictionary.put(string, index);
+			newStrings.add(string);
+		}
+		return index;
+	}
+
+	private static class Buffer
+	{
+		private byte[] bytes = new byte[1024];
+		private int size;
+
+		private void write(int b)
+		{
+			ensure(1);
+			bytes[size++] = (byte) b;
+		}
+
+		private void write(byte[] source, int length)
+		{
+			ensure(length);
+			System.arraycopy(source, 0, bytes, size, length);
+			size += length;
+		}
+
+		private void writeInt(int value)
+		{
+			for (int shift = 24; shift >= 0; shift -= 8)
+				write(value >>> shift);
+		}
+
+		private void writeLong(long value)
+		{
+			for (int shift = 56; shift >= 0; shift -= 8)
+				write((int) (value >>> shift));
+		}
+
+		private void writeVarint(long value)
+		{
+			while ((value & ~0x7FL) != 0)
+			{
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		private void writeZigZag(long value)
+		{
+			writeVarint((value << 1) ^ (value >> 63));
+		}
+
+		private void writeTo(OutputStream out) throws IOException
+		{
+			out.write(bytes, 0, size);
+			size = 0;
+		}
+
+		private void ensure(int length)
+		{
+			if (size + length > bytes.length)
+				bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+		}
+	}
+}
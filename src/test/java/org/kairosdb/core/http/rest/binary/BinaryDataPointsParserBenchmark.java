@@ -0,0 +1,226 @@
+package org.kairosdb.core.http.rest.binary;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.Gson;
+import io.opentracing.mock.MockTracer;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datastore.Datastore;
+import org.kairosdb.core.datastore.DatastoreMetricQuery;
+import org.kairosdb.core.datastore.HotTailStore;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SlidingWindowCache;
+import org.kairosdb.core.datastore.TagSet;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.http.rest.json.DataPointsParser;
+import org.kairosdb.core.http.rest.json.DataPointsParserBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ Compares ingesting the same data points as JSON, gzip compressed JSON and in the binary format.
+ The data is the first 10 MB of the recorded large_import.gz payload, re-encoded with
+ {@link BinaryDataPointsEncoder} for the binary case.
+ */
+@Fork(2)
+@State(Scope.Thread)
+public class BinaryDataPointsParserBenchmark
+{
+	private static final int PAYLOAD_SIZE = 10 * 1024 * 1024;
+
+	private final KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private final Gson gson = new Gson();
+	private final SeriesDatastore seriesDatastore = new SeriesDatastore();
+	private KairosDatastore datastore;
+
+	private String json;
+	private byte[] gzipJson;
+	private byte[] binary;
+
+	@Setup
+	public void setUp() throws IOException, DatastoreException
+	{
+		json = DataPointsParserBenchmark.readLargeImport(PAYLOAD_SIZE);
+
+		ByteArrayOutputStream gzipOut = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(gzipOut))
+		{
+			gzip.write(json.getBytes(UTF_8));
+		}
+		gzipJson = gzipOut.toByteArray();
+
+		// Collect the series once, the benchmarks only count the points afterwards
+		datastore = new KairosDatastore(seriesDatastore, new QueryQueuingManager(1, "hostname"),
+				Collections.emptyList(), dataPointFactory, new MockTracer(), new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
+		new DataPointsParser(datastore, new StringReader(json), gson, dataPointFactory).parse();
+		binary = encode(seriesDatastore.series);
+		seriesDatastore.series = null;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public int measureJson() throws IOException, DatastoreException
+	{
+		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json), gson, dataPointFactory);
+		parser.parse();
+		return parser.getDataPointCount();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public int measureGzipJson() throws IOException, DatastoreException
+	{
+		DataPointsParser parser = new DataPointsParser(datastore, new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(gzipJson)), UTF_8), gson, dataPointFactory);
+		parser.parse();
+		return parser.getDataPointCount();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public int measureBinary() throws IOException, DatastoreException
+	{
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(datastore, new ByteArrayInputStream(binary),
+				dataPointFactory);
+		parser.parse();
+		return parser.getDataPointCount();
+	}
+
+	private static byte[] encode(List<Series> seriesList) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		for (Series series : seriesList)
+		{
+			long[] timestamps = new long[series.dataPoints.size()];
+			long[] longs = new long[timestamps.length];
+			double[] doubles = new double[timestamps.length];
+			for (int i = 0; i < timestamps.length; i++)
+			{
+				DataPoint dataPoint = series.dataPoints.get(i);
+				timestamps[i] = dataPoint.getTimestamp();
+				if (dataPoint.isLong())
+					longs[i] = dataPoint.getLongValue();
+				else
+					doubles[i] = dataPoint.getDoubleValue();
+			}
+
+			if (series.isLong)
+				encoder.addSeries(series.name, series.tags, series.ttl, timestamps, longs);
+			else
+				encoder.addSeries(series.name, series.tags, series.ttl, timestamps, doubles);
+		}
+		encoder.finish();
+		return out.toByteArray();
+	}
+
+	private static class Series
+	{
+		private final String name;
+		private final ImmutableSortedMap<String, String> tags;
+		private final int ttl;
+		private final boolean isLong;
+		private final List<DataPoint> dataPoints = new ArrayList<>();
+
+		private Series(String name, ImmutableSortedMap<String, String> tags, int ttl, boolean isLong)
+		{
+			this.name = name;
+			this.tags = tags;
+			this.ttl = ttl;
+			this.isLong = isLong;
+		}
+	}
+
+	/**
+	 Groups consecutive points of a series while the series list is set, afterwards it drops them.
+	 */
+	private static class SeriesDatastore implements Datastore
+	{
+		private List<Series> series = new ArrayList<>();
+		private Series last;
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public void putDataPoint(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+		{
+			if (series == null)
+				return;
+
+			if (last == null || !last.name.equals(metricName) || !last.tags.equals(tags) || last.ttl != ttl ||
+					last.isLong != dataPoint.isLong())
+			{
+				last = new Series(metricName, tags, ttl, dataPoint.isLong());
+				series.add(last);
+			}
+			last.dataPoints.add(dataPoint);
+		}
+
+		@Override
+		public Iterable<String> getMetricNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Iterable<String> getTagNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
+		{
+		}
+
+		@Override
+		public void deleteDataPoints(DatastoreMetricQuery deleteQuery)
+		{
+		}
+
+		@Override
+		public TagSet queryMetricTags(DatastoreMetricQuery query)
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,291 @@
+package org.kairosdb.core.http.rest.binary;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import io.opentracing.mock.MockTracer;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointListener;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datastore.Datastore;
+import org.kairosdb.core.datastore.DatastoreMetricQuery;
+import org.kairosdb.core.datastore.HotTailStore;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SlidingWindowCache;
+import org.kairosdb.core.datastore.TagSet;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.http.rest.json.ValidationErrors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class BinaryDataPointsParserTest
+{
+	private static final KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+
+	private FakeDataStore fakeds;
+	private KairosDatastore datastore;
+
+	@Before
+	public void setUp() throws DatastoreException
+	{
+		fakeds = new FakeDataStore();
+		datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), dataPointFactory, new MockTracer(),
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(dataPointFactory, "hostname"));
+	}
+
+	@Test
+	public void test_roundTrip() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a", "dc", "eu"), 0,
+				new long[]{1000, 2000, 1500}, new long[]{1, -42, Long.MAX_VALUE});
+		encoder.addSeries("metric2", ImmutableMap.of("host", "a"), 3600,
+				new long[]{-5, 0}, new double[]{1.5, Double.NaN});
+		encoder.finish();
+
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(datastore, new ByteArrayInputStream(out.toByteArray()),
+				dataPointFactory);
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+		assertThat(parser.getDataPointCount(), equalTo(5));
+
+		List<DataPointSet> dataPointSetList = fakeds.getDataPointSetList();
+		assertThat(dataPointSetList.size(), equalTo(2));
+
+		DataPointSet longs = dataPointSetList.get(0);
+		assertThat(longs.getName(), equalTo("metric1"));
+		assertThat(longs.getTags(), equalTo(ImmutableSortedMap.of("dc", "eu", "host", "a")));
+		assertThat(longs.getDataPoints().get(0).getTimestamp(), equalTo(1000L));
+		assertThat(longs.getDataPoints().get(0).getLongValue(), equalTo(1L));
+		assertThat(longs.getDataPoints().get(1).getTimestamp(), equalTo(2000L));
+		assertThat(longs.getDataPoints().get(1).getLongValue(), equalTo(-42L));
+		assertThat(longs.getDataPoints().get(2).getTimestamp(), equalTo(1500L));
+		assertThat(longs.getDataPoints().get(2).getLongValue(), equalTo(Long.MAX_VALUE));
+
+		DataPointSet doubles = dataPointSetList.get(1);
+		assertThat(doubles.getName(), equalTo("metric2"));
+		assertThat(doubles.getTags(), equalTo(ImmutableSortedMap.of("host", "a")));
+		assertThat(doubles.getDataPoints().get(0).getTimestamp(), equalTo(-5L));
+		assertThat(doubles.getDataPoints().get(0).getDoubleValue(), equalTo(1.5));
+		assertThat(doubles.getDataPoints().get(1).getTimestamp(), equalTo(0L));
+		assertThat(Double.isNaN(doubles.getDataPoints().get(1).getDoubleValue()), equalTo(true));
+		assertThat(fakeds.ttls, equalTo(Arrays.asList(0, 0, 0, 3600, 3600)));
+	}
+
+	@Test
+	public void test_invalidTagValue_Invalid() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a=b"), 0, new long[]{1}, new long[]{1});
+		encoder.addSeries("metric2", ImmutableMap.of("host", "a=b"), 0, new long[]{1}, new long[]{1});
+		encoder.addSeries("metric3", ImmutableMap.of("host", "c"), 0, new long[]{1}, new long[]{1});
+		encoder.finish();
+
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(datastore, new ByteArrayInputStream(out.toByteArray()),
+				dataPointFactory);
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.size(), equalTo(2));
+		assertThat(validationErrors.getErrors().get(0), equalTo("metric[0](name=metric1).tag[host].value may contain any character except colon ':', and equals '='."));
+		assertThat(validationErrors.getErrors().get(1), equalTo("metric[1](name=metric2).tag[host].value may contain any character except colon ':', and equals '='."));
+		assertThat(parser.getDataPointCount(), equalTo(1));
+		assertThat(fakeds.getDataPointSetList().get(0).getName(), equalTo("metric3"));
+	}
+
+	@Test
+	public void test_noTags_Invalid() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.<String, String>of(), 0, new long[]{1}, new long[]{1});
+		encoder.finish();
+
+		BinaryDataPointsParser parser = new BinaryDataPointsParser(datastore, new ByteArrayInputStream(out.toByteArray()),
+				dataPointFactory);
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.size(), equalTo(1));
+		assertThat(validationErrors.getFirstError(), equalTo("metric[0](name=metric1).tags count must be greater than or equal to 1."));
+	}
+
+	@Test(expected = BinaryFormatException.class)
+	public void test_invalidMagic() throws IOException, DatastoreException
+	{
+		new BinaryDataPointsParser(datastore, new ByteArrayInputStream("[{}]".getBytes()), dataPointFactory).parse();
+	}
+
+	@Test(expected = BinaryFormatException.class)
+	public void test_missingEndMarker() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a"), 0, new long[]{1}, new long[]{1});
+
+		new BinaryDataPointsParser(datastore, new ByteArrayInputStream(out.toByteArray()), dataPointFactory).parse();
+	}
+
+	@Test(expected = BinaryFormatException.class)
+	public void test_truncatedSeries() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.finish();
+
+		// Shorten the series by one byte without touching its length prefix
+		byte[] bytes = out.toByteArray();
+		bytes[4]--;
+
+		new BinaryDataPointsParser(datastore, new ByteArrayInputStream(bytes), dataPointFactory).parse();
+	}
+
+	@Test
+	public void test_truncatedRequest_storesNothing() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.addSeries("metric2", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.finish();
+		byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 3);
+
+		try
+		{
+			new BinaryDataPointsParser(datastore, new ByteArrayInputStream(bytes), dataPointFactory).parse();
+			fail("Expected BinaryFormatException");
+		}
+		catch (BinaryFormatException expected)
+		{
+		}
+		assertThat(fakeds.getDataPointSetList().size(), equalTo(0));
+	}
+
+	@Test
+	public void test_pointCountOverSeriesLength_storesNothing() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.addSeries("metric2", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new double[]{1, 2});
+		encoder.finish();
+
+		// The point count of the second series is the byte before its first timestamp delta
+		byte[] bytes = out.toByteArray();
+		int pointCount = bytes.length - 1 - 2 * (1 + Double.BYTES) - 1;
+		assertThat((int) bytes[pointCount], equalTo(2));
+		bytes[pointCount] = 3;
+
+		try
+		{
+			new BinaryDataPointsParser(datastore, new ByteArrayInputStream(bytes), dataPointFactory).parse();
+			fail("Expected BinaryFormatException");
+		}
+		catch (BinaryFormatException e)
+		{
+			assertThat(e.getMessage(), equalTo("metric[1] declares 3 data points but is truncated."));
+		}
+		assertThat(fakeds.getDataPointSetList().size(), equalTo(0));
+	}
+
+	@Test
+	public void test_requestOverMaxSize_storesNothing() throws IOException, DatastoreException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryDataPointsEncoder encoder = new BinaryDataPointsEncoder(out);
+		encoder.addSeries("metric1", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.addSeries("metric2", ImmutableMap.of("host", "a"), 0, new long[]{1, 2}, new long[]{1, 2});
+		encoder.finish();
+
+		try
+		{
+			new BinaryDataPointsParser(datastore, new ByteArrayInputStream(out.toByteArray()), dataPointFactory,
+					null, 30).parse();
+			fail("Expected BinaryRequestTooLargeException");
+		}
+		catch (BinaryRequestTooLargeException e)
+		{
+			assertThat(e.getMessage(), equalTo("Binary data points are larger than 30 bytes."));
+		}
+		assertThat(fakeds.getDataPointSetList().size(), equalTo(0));
+	}
+
+	private static class FakeDataStore implements Datastore
+	{
+		private final List<DataPointSet> dataPointSetList = new ArrayList<>();
+		private final List<Integer> ttls = new ArrayList<>();
+		private DataPointSet lastDataPointSet;
+
+		public List<DataPointSet> getDataPointSetList()
+		{
+			return dataPointSetList;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public void putDataPoint(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+		{
+			if ((lastDataPointSet == null) || (!lastDataPointSet.getName().equals(metricName)) ||
+					(!lastDataPointSet.getTags().equals(tags)))
+			{
+				lastDataPointSet = new DataPointSet(metricName, tags, Collections.<DataPoint>emptyList());
+				dataPointSetList.add(lastDataPointSet);
+			}
+
+			lastDataPointSet.addDataPoint(dataPoint);
+			ttls.add(ttl);
+		}
+
+		@Override
+		public Iterable<String> getMetricNames()
+		{
+			return null;
+		}
+
+		@Override
+		public Iterable<String> getTagNames()
+		{
+			return null;
+		}
+
+		@Override
+		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
+		{
+		}
+
+		@Override
+		public void deleteDataPoints(DatastoreMetricQuery deleteQuery)
+		{
+		}
+
+		@Override
+		public TagSet queryMetricTags(DatastoreMetricQuery query)
+		{
+			return null;
+		}
+	}
+}
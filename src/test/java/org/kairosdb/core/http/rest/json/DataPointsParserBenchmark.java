@@ -0,0 +1,148 @@
+package org.kairosdb.core.http.rest.json;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.gson.Gson;
+import io.opentracing.mock.MockTracer;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.KairosDataPointFactory;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datastore.Datastore;
+import org.kairosdb.core.datastore.DatastoreMetricQuery;
+import org.kairosdb.core.datastore.HotTailStore;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SlidingWindowCache;
+import org.kairosdb.core.datastore.TagSet;
+import org.kairosdb.core.exception.DatastoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ Parses the first 10 MB of the recorded large_import.gz payload into a datastore that drops
+ the data points. Run with {@code -prof gc} to see the allocation rate per request.
+ */
+@Fork(2)
+@State(Scope.Thread)
+public class DataPointsParserBenchmark
+{
+	private static final int PAYLOAD_SIZE = 10 * 1024 * 1024;
+
+	private final KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
+	private final Gson gson = new Gson();
+	private final NullDatastore nullDatastore = new NullDatastore();
+	private KairosDatastore datastore;
+	private String payload;
+
+	@Setup
+	public void setUp() throws IOException, DatastoreException
+	{
+		datastore = new KairosDatastore(nullDatastore, new QueryQueuingManager(1, "hostname"),
+				Collections.emptyList(), dataPointFactory, new MockTracer(), new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
+
+		payload = readLargeImport(PAYLOAD_SIZE);
+	}
+
+	/**
+	 Returns about the first maxSize characters of large_import.gz as a complete JSON array.
+	 */
+	public static String readLargeImport(int maxSize) throws IOException
+	{
+		// One metric per line, each followed by a comma
+		StringBuilder sb = new StringBuilder(maxSize + 1024);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(ClassLoader.getSystemResourceAsStream("large_import.gz")), UTF_8)))
+		{
+			String line;
+			while (sb.length() < maxSize && (line = reader.readLine()) != null)
+			{
+				if (line.startsWith("{"))
+					sb.append(line).append('\n');
+				else if (sb.length() == 0)
+					sb.append("[\n");
+			}
+		}
+		int end = sb.lastIndexOf(",");
+		sb.setLength(end);
+		sb.append("\n]");
+		return sb.toString();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public int measureParse() throws IOException, DatastoreException
+	{
+		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(payload), gson, dataPointFactory);
+		ValidationErrors errors = parser.parse();
+		if (errors.hasErrors())
+			throw new IllegalStateException(errors.getFirstError());
+		return parser.getDataPointCount() + (int) nullDatastore.checksum;
+	}
+
+	private static class NullDatastore implements Datastore
+	{
+		private long checksum;
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public void putDataPoint(String metricName, ImmutableSortedMap<String, String> tags, DataPoint dataPoint, int ttl)
+		{
+			checksum += dataPoint.getTimestamp();
+		}
+
+		@Override
+		public Iterable<String> getMetricNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public Iterable<String> getTagNames()
+		{
+			return Collections.emptyList();
+		}
+
+		@Override
+		public void queryDatabase(DatastoreMetricQuery query, QueryCallback queryCallback)
+		{
+		}
+
+		@Override
+		public void deleteDataPoints(DatastoreMetricQuery deleteQuery)
+		{
+		}
+
+		@Override
+		public TagSet queryMetricTags(DatastoreMetricQuery query)
+		{
+			return null;
+		}
+	}
+}
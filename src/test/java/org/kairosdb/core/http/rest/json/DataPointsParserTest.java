@@ -52,7 +52,9 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer);
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), tracer,
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
 
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json), new Gson(),
 				dataPointFactory);
@@ -70,7 +72,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
@@ -88,7 +91,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -105,7 +109,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -122,7 +127,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -139,7 +145,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -156,7 +163,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -173,7 +181,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -190,7 +199,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -207,7 +217,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -224,7 +235,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -241,7 +253,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -258,7 +271,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -275,7 +289,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -292,7 +307,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -310,7 +326,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -328,7 +345,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -345,7 +363,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -363,7 +382,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -384,7 +404,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -400,7 +421,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -426,7 +448,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -451,7 +474,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -481,7 +505,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -521,7 +546,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -574,7 +600,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -600,7 +627,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -626,7 +654,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -652,7 +681,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -678,7 +708,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
 				new Gson(), dataPointFactory);
 
@@ -699,6 +730,65 @@ public class DataPointsParserTest
 		assertThat(parser.getDataPointCount(), equalTo(1));
 	}
 
+	@Test(expected = JsonSyntaxException.class)
+	public void test_duplicateTagName_Invalid() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":{\"foo\":\"bar\", \"foo\":\"baz\"}, \"datapoints\": [[1,2]]}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
+		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		parser.parse();
+	}
+
+	@Test
+	public void test_tagsAsArrayOfPairs_Valid() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":[[\"foo\",\"bar\"],[\"abc\",\"def\"]], \"datapoints\": [[1,2]]}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
+		DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
+				new Gson(), dataPointFactory);
+
+		ValidationErrors validationErrors = parser.parse();
+
+		assertThat(validationErrors.hasErrors(), equalTo(false));
+
+		List<DataPointSet> dataPointSetList = fakeds.getDataPointSetList();
+		assertThat(dataPointSetList.size(), equalTo(1));
+		assertThat(dataPointSetList.get(0).getTags(), equalTo(ImmutableSortedMap.of("abc", "def", "foo", "bar")));
+	}
+
+	@Test
+	public void test_invalidTagValue_InvalidOnEveryRequest() throws DatastoreException, IOException
+	{
+		String json = "[{\"name\": \"metric1\", \"tags\":{\"foo\":\"bar\", \"host\":\"a=b\"}, \"datapoints\": [[1,2]]}]";
+
+		FakeDataStore fakeds = new FakeDataStore();
+		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
+
+		for (int i = 0; i < 2; i++)
+		{
+			DataPointsParser parser = new DataPointsParser(datastore, new StringReader(json),
+					new Gson(), dataPointFactory);
+
+			ValidationErrors validationErrors = parser.parse();
+
+			assertThat(validationErrors.size(), equalTo(1));
+			assertThat(validationErrors.getFirstError(), equalTo("metric[0](name=metric1).tag[host].value may contain any character except colon ':', and equals '='."));
+		}
+		assertThat(fakeds.getDataPointSetList().size(), equalTo(0));
+	}
+
 	@Test
 	public void test_parserSpeed() throws DatastoreException, IOException
 	{
@@ -710,7 +800,8 @@ public class DataPointsParserTest
 
 		FakeDataStore fakeds = new FakeDataStore();
 		KairosDatastore datastore = new KairosDatastore(fakeds, new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 
 		DataPointsParser parser = new DataPointsParser(datastore, skipReader,
 				new Gson(), dataPointFactory);
@@ -0,0 +1,135 @@
+package org.kairosdb.core.telnet;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+
+import java.text.ParseException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PutLineParserTest
+{
+	private final PutLineParser parser = new PutLineParser(new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl());
+
+	private boolean parse(String line) throws ParseException
+	{
+		// Surround the line with other bytes to check the bounds are respected
+		byte[] bytes = ("xx" + line + "\nput").getBytes(UTF_8);
+		return parser.parse(bytes, 2, bytes.length - 4);
+	}
+
+	@Test
+	public void test_put_seconds() throws ParseException
+	{
+		assertThat(parse("put sys.cpu 1500000000 42 host=a dc=eu"), equalTo(true));
+
+		assertThat(parser.getMetricName(), equalTo("sys.cpu"));
+		assertThat(parser.getTags(), equalTo(ImmutableSortedMap.of("dc", "eu", "host", "a")));
+		assertThat(parser.getDataPoint().getTimestamp(), equalTo(1500000000000L));
+		assertThat(parser.getDataPoint().isLong(), equalTo(true));
+		assertThat(parser.getDataPoint().getLongValue(), equalTo(42L));
+	}
+
+	@Test
+	public void test_put_milliseconds() throws ParseException
+	{
+		parse("put sys.cpu 1500000000123 -7 host=a");
+
+		assertThat(parser.getDataPoint().getTimestamp(), equalTo(1500000000123L));
+		assertThat(parser.getDataPoint().getLongValue(), equalTo(-7L));
+	}
+
+	@Test
+	public void test_putm() throws ParseException
+	{
+		parse("putm sys.cpu 1000 1.5 host=a\r");
+
+		assertThat(parser.getDataPoint().getTimestamp(), equalTo(1000L));
+		assertThat(parser.getDataPoint().isDouble(), equalTo(true));
+		assertThat(parser.getDataPoint().getDoubleValue(), equalTo(1.5));
+		assertThat(parser.getTags(), equalTo(ImmutableSortedMap.of("host", "a")));
+	}
+
+	@Test
+	public void test_extraWhitespace() throws ParseException
+	{
+		parse("  put\tsys.cpu  1500000000   1e3 host=a  ");
+
+		assertThat(parser.getMetricName(), equalTo("sys.cpu"));
+		assertThat(parser.getDataPoint().getDoubleValue(), equalTo(1000.0));
+	}
+
+	@Test
+	public void test_longLimits() throws ParseException
+	{
+		parse("putm m 1 9223372036854775807 host=a");
+		assertThat(parser.getDataPoint().getLongValue(), equalTo(Long.MAX_VALUE));
+
+		parse("putm m 1 -9223372036854775808 host=a");
+		assertThat(parser.getDataPoint().getLongValue(), equalTo(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void test_emptyLine() throws ParseException
+	{
+		assertThat(parse("  \r"), equalTo(false));
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_unknownCommand() throws ParseException
+	{
+		parse("get sys.cpu 1500000000 42 host=a");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_missingValue() throws ParseException
+	{
+		parse("put sys.cpu 1500000000");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_noTags() throws ParseException
+	{
+		parse("put sys.cpu 1500000000 42");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_invalidTimestamp() throws ParseException
+	{
+		parse("put sys.cpu 15000x0000 42 host=a");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_longOverflow() throws ParseException
+	{
+		parse("putm m 1 9223372036854775808 host=a");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_invalidDouble() throws ParseException
+	{
+		parse("put sys.cpu 1500000000 1.2.3 host=a");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_emptyTagValue() throws ParseException
+	{
+		parse("put sys.cpu 1500000000 42 host=");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_invalidTagCharacter() throws ParseException
+	{
+		parse("put sys.cpu 1500000000 42 host=a:b");
+	}
+
+	@Test(expected = ParseException.class)
+	public void test_duplicateTag() throws ParseException
+	{
+		parse("put sys.cpu 1500000000 42 host=a host=b");
+	}
+}
@@ -0,0 +1,198 @@
+package org.kairosdb.core.telnet;
+
+import com.google.common.collect.ImmutableSortedMap;
+import io.opentracing.mock.MockTracer;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.DataPointListener;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.Datastore;
+import org.kairosdb.core.datastore.HotTailStore;
+import org.kairosdb.core.datastore.KairosDatastore;
+import org.kairosdb.core.datastore.QueryQueuingManager;
+import org.kairosdb.core.datastore.ResultBufferPool;
+import org.kairosdb.core.datastore.SlidingWindowCache;
+import org.kairosdb.core.exception.DatastoreException;
+import org.kairosdb.core.exception.KairosDBException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class TelnetServerTest
+{
+	private Datastore datastore;
+	private TelnetServer server;
+
+	@Before
+	public void setUp() throws DatastoreException, KairosDBException
+	{
+		datastore = mock(Datastore.class);
+		KairosDatastore kairosDatastore = new KairosDatastore(datastore, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), new MockTracer(),
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
+
+		server = new TelnetServer(kairosDatastore, new LongDataPointFactoryImpl(), new DoubleDataPointFactoryImpl(),
+				"127.0.0.1", 0, 2);
+		server.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void test_concurrentConnections() throws IOException, DatastoreException
+	{
+		try (Socket first = new Socket("127.0.0.1", server.getLocalPort());
+		     Socket second = new Socket("127.0.0.1", server.getLocalPort()))
+		{
+			OutputStream firstOut = first.getOutputStream();
+			OutputStream secondOut = second.getOutputStream();
+
+			// A line split over two writes is put together again
+			firstOut.write("put metric1 1500000000 1 host=a\nput metr".getBytes(UTF_8));
+			firstOut.flush();
+			secondOut.write("putm metric2 1000 2.5 host=b\n".getBytes(UTF_8));
+			secondOut.flush();
+			firstOut.write("ic1 1500000001 2 host=a\n".getBytes(UTF_8));
+			firstOut.flush();
+
+			verify(datastore, timeout(5000)).putDataPoint(eq("metric1"), eq(ImmutableSortedMap.of("host", "a")),
+					eqTimestamp(1500000000000L), eq(0));
+			verify(datastore, timeout(5000)).putDataPoint(eq("metric1"), eq(ImmutableSortedMap.of("host", "a")),
+					eqTimestamp(1500000001000L), eq(0));
+			verify(datastore, timeout(5000)).putDataPoint(eq("metric2"), eq(ImmutableSortedMap.of("host", "b")),
+					eqTimestamp(1000L), eq(0));
+		}
+	}
+
+	@Test
+	public void test_metrics() throws IOException, DatastoreException
+	{
+		try (Socket socket = new Socket("127.0.0.1", server.getLocalPort()))
+		{
+			OutputStream out = socket.getOutputStream();
+			out.write("put metric1 1500000000 1 host=a\nbogus line\nput metric1 1500000001 2\nput metric1 1500000002 3 host=a\n".getBytes(UTF_8));
+			out.flush();
+
+			verify(datastore, timeout(5000).times(2)).putDataPoint(eq("metric1"), any(ImmutableSortedMap.class),
+					any(DataPoint.class), anyInt());
+
+			Map<String, Long> metrics = new HashMap<>();
+			for (DataPointSet dataPointSet : server.getMetrics(System.currentTimeMillis()))
+				metrics.put(dataPointSet.getName(), dataPointSet.getDataPoints().get(0).getLongValue());
+
+			assertThat(metrics.get(TelnetServer.CONNECTIONS), equalTo(1L));
+			assertThat(metrics.get(TelnetServer.CONNECTIONS_ACCEPTED), equalTo(1L));
+			assertThat(metrics.get(TelnetServer.PARSE_ERRORS), equalTo(2L));
+			assertThat(metrics.get(TelnetServer.WRITE_ERRORS), equalTo(0L));
+			assertThat(metrics.get(TelnetServer.BYTES_READ) > 0, equalTo(true));
+		}
+	}
+
+	@Test
+	public void test_longLineIsDropped() throws IOException, DatastoreException
+	{
+		StringBuilder longLine = new StringBuilder("put metric1 1500000000 1 host=");
+		for (int i = 0; i < 3000; i++)
+			longLine.append('a');
+
+		try (Socket socket = new Socket("127.0.0.1", server.getLocalPort()))
+		{
+			OutputStream out = socket.getOutputStream();
+			out.write((longLine + "\nput metric2 1500000000 1 host=a\n").getBytes(UTF_8));
+			out.flush();
+
+			verify(datastore, timeout(5000)).putDataPoint(eq("metric2"), eq(ImmutableSortedMap.of("host", "a")),
+					any(DataPoint.class), eq(0));
+		}
+	}
+
+	@Test
+	public void test_failedAcceptPausesAccepting() throws IOException, DatastoreException, KairosDBException
+	{
+		KairosDatastore kairosDatastore = new KairosDatastore(datastore, new QueryQueuingManager(1, "hostname"),
+				Collections.<DataPointListener>emptyList(), new TestDataPointFactory(), new MockTracer(),
+				new HotTailStore("hostname"), new ResultBufferPool("hostname"),
+				new SlidingWindowCache(new TestDataPointFactory(), "hostname"));
+		AtomicBoolean failAccept = new AtomicBoolean(true);
+		TelnetServer failing = new TelnetServer(kairosDatastore, new LongDataPointFactoryImpl(),
+				new DoubleDataPointFactoryImpl(), "127.0.0.1", 0, 2)
+		{
+			@Override
+			SocketChannel acceptChannel() throws IOException
+			{
+				if (failAccept.getAndSet(false))
+					throw new IOException("Too many open files");
+				return super.acceptChannel();
+			}
+		};
+		failing.start();
+
+		try (Socket socket = new Socket("127.0.0.1", failing.getLocalPort()))
+		{
+			OutputStream out = socket.getOutputStream();
+			out.write("put metric1 1500000000 1 host=a\n".getBytes(UTF_8));
+			out.flush();
+
+			// The connection waits in the backlog until accepting resumes
+			verify(datastore, timeout(5000)).putDataPoint(eq("metric1"), eq(ImmutableSortedMap.of("host", "a")),
+					eqTimestamp(1500000000000L), eq(0));
+
+			Map<String, Long> metrics = new HashMap<>();
+			for (DataPointSet dataPointSet : failing.getMetrics(System.currentTimeMillis()))
+				metrics.put(dataPointSet.getName(), dataPointSet.getDataPoints().get(0).getLongValue());
+			assertThat(metrics.get(TelnetServer.ACCEPT_ERRORS), equalTo(1L));
+			assertThat(metrics.get(TelnetServer.CONNECTIONS_ACCEPTED), equalTo(1L));
+		}
+		finally
+		{
+			failing.stop();
+		}
+	}
+
+	private static DataPoint eqTimestamp(final long timestamp)
+	{
+		return argThat(new BaseMatcher<DataPoint>()
+		{
+			@Override
+			public boolean matches(Object item)
+			{
+				return item instanceof DataPoint && ((DataPoint) item).getTimestamp() == timestamp;
+			}
+
+			@Override
+			public void describeTo(Description description)
+			{
+				description.appendText("data point at " + timestamp);
+			}
+		});
+	}
+}
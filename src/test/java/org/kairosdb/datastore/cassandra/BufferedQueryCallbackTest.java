@@ -0,0 +1,117 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datastore.QueryCallback;
+import org.kairosdb.util.MemoryMonitor;
+import org.kairosdb.util.MemoryMonitorException;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class BufferedQueryCallbackTest {
+    @Test
+    public void test_replayKeepsOrder() throws IOException {
+        final BufferedQueryCallback buffer = new BufferedQueryCallback(new MemoryMonitor(20));
+        final LongDataPoint first = new LongDataPoint(1, 10);
+        final LongDataPoint second = new LongDataPoint(2, 20);
+        final DoubleDataPoint third = new DoubleDataPoint(1, 1.5);
+
+        buffer.startDataPointSet("kairos_long", ImmutableMap.of("host", "a"));
+        buffer.addDataPoint(first);
+        buffer.addDataPoint(second);
+        buffer.startDataPointSet("kairos_double", ImmutableMap.of("host", "b"));
+        buffer.addDataPoint(third);
+        buffer.endDataPoints();
+
+        final QueryCallback callback = mock(QueryCallback.class);
+        buffer.replayTo(callback);
+
+        final InOrder inOrder = inOrder(callback);
+        inOrder.verify(callback).startDataPointSet("kairos_long", ImmutableMap.of("host", "a"));
+        inOrder.verify(callback).addDataPoint(first);
+        inOrder.verify(callback).addDataPoint(second);
+        inOrder.verify(callback).startDataPointSet("kairos_double", ImmutableMap.of("host", "b"));
+        inOrder.verify(callback).addDataPoint(third);
+        verify(callback, never()).endDataPoints();
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test(expected = MemoryMonitorException.class)
+    public void test_bufferingFailsOnLowMemory() {
+        final BufferedQueryCallback buffer = new BufferedQueryCallback(new LowMemoryMonitor(3));
+
+        buffer.startDataPointSet("kairos_long", ImmutableMap.of("host", "a"));
+        for (int i = 0; i < 10; i++) {
+            buffer.addDataPoint(new LongDataPoint(i, i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void test_runInOrderReplaysRunnersInOrder() throws IOException {
+        final List<CQLQueryRunner> runners = new ArrayList<>();
+        final List<LongDataPoint> dataPoints = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final LongDataPoint dataPoint = new LongDataPoint(i, i);
+            // Later runners finish first
+            runners.add(runner(ImmutableMap.of("runner", String.valueOf(i)), dataPoint, (4 - i) * 50));
+            dataPoints.add(dataPoint);
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final QueryCallback callback = mock(QueryCallback.class);
+
+        try {
+            BufferedQueryCallback.runInOrder(runners, callback, executor, 3, new MemoryMonitor(1));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final InOrder inOrder = inOrder(callback);
+        for (int i = 0; i < 4; i++) {
+            inOrder.verify(callback).startDataPointSet("kairos_long", ImmutableMap.of("runner", String.valueOf(i)));
+            inOrder.verify(callback).addDataPoint(dataPoints.get(i));
+        }
+        verifyNoMoreInteractions(callback);
+    }
+
+    private static CQLQueryRunner runner(Map<String, String> tags, LongDataPoint dataPoint, long delayMs)
+            throws IOException {
+        final CQLQueryRunner runner = mock(CQLQueryRunner.class);
+        doAnswer(invocation -> {
+            Thread.sleep(delayMs);
+            final QueryCallback buffer = (QueryCallback) invocation.getArguments()[0];
+            buffer.startDataPointSet("kairos_long", tags);
+            buffer.addDataPoint(dataPoint);
+            return null;
+        }).when(runner).runQuery(any(QueryCallback.class));
+        return runner;
+    }
+
+    private static class LowMemoryMonitor extends MemoryMonitor {
+        private int m_remainingChecks;
+
+        private LowMemoryMonitor(int checks) {
+            m_remainingChecks = checks;
+        }
+
+        @Override
+        public boolean isMemoryLow() {
+            return --m_remainingChecks < 0;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
+import org.kairosdb.core.datastore.Order;
+import org.kairosdb.core.datastore.QueryCallback;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.datastax.driver.core.ProtocolVersion.NEWEST_SUPPORTED;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CQLQueryRunnerTest {
+    private static final long ROW_WIDTH = 1000;
+
+    private final Map<ByteBuffer, DataPointsRowKey> rowKeys = new HashMap<>();
+    private final Map<DataPointsRowKey, List<DataPoint>> partitions = new HashMap<>();
+    private final List<DataPointsRowKey> sortedRowKeys = new ArrayList<>();
+    private final List<DataPointsRowKey> reads = new CopyOnWriteArrayList<>();
+    private final Set<Object> seriesInFlight = ConcurrentHashMap.newKeySet();
+    private final Set<DataPointsRowKey> failingRowKeys = ConcurrentHashMap.newKeySet();
+    private final QueryReadTracker tracker = new QueryReadTracker(0, latencyMs -> {
+    });
+    private volatile boolean concurrentSeriesRead;
+
+    private ScheduledExecutorService completer;
+    private Session session;
+    private PreparedStatement dataPointQuery;
+    private Order order;
+
+    @Before
+    public void setUp() {
+        completer = Executors.newSingleThreadScheduledExecutor();
+        session = mock(Session.class);
+        dataPointQuery = mock(PreparedStatement.class);
+        when(dataPointQuery.bind()).thenAnswer(invocation -> bind());
+
+        // Host a has two data points per row, host b one
+        for (long rowTime = 0; rowTime < 3 * ROW_WIDTH; rowTime += ROW_WIDTH) {
+            addPartition("a", rowTime, rowTime + 100, rowTime + 200);
+            addPartition("b", rowTime, rowTime + 100);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        completer.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void test_limitSkipsRemainingPartitionsAscending() throws IOException {
+        final Map<String, List<Long>> result = runQuery(2, Order.ASC);
+
+        assertThat(result.get("a"), equalTo(Arrays.asList(100L, 200L)));
+        assertThat(result.get("b"), equalTo(Arrays.asList(100L, 1100L)));
+        assertThat(readRowTimes("a"), equalTo(Collections.singletonList(0L)));
+        assertThat(readRowTimes("b"), equalTo(Arrays.asList(0L, 1000L)));
+        assertFalse(concurrentSeriesRead);
+    }
+
+    @Test(timeout = 10000)
+    public void test_limitSkipsRemainingPartitionsDescending() throws IOException {
+        final Map<String, List<Long>> result = runQuery(2, Order.DESC);
+
+        assertThat(result.get("a"), equalTo(Arrays.asList(2200L, 2100L)));
+        assertThat(result.get("b"), equalTo(Arrays.asList(2100L, 1100L)));
+        assertThat(readRowTimes("a"), equalTo(Collections.singletonList(2000L)));
+        assertThat(readRowTimes("b"), equalTo(Arrays.asList(2000L, 1000L)));
+        assertFalse(concurrentSeriesRead);
+    }
+
+    @Test(timeout = 10000)
+    public void test_limitSpanningPartitions() throws IOException {
+        final Map<String, List<Long>> result = runQuery(3, Order.ASC);
+
+        // Whole partitions are passed on, the limit aggregator trims the series later
+        assertThat(result.get("a"), equalTo(Arrays.asList(100L, 200L, 1100L, 1200L)));
+        assertThat(result.get("b"), equalTo(Arrays.asList(100L, 1100L, 2100L)));
+        assertThat(readRowTimes("a"), equalTo(Arrays.asList(0L, 1000L)));
+        assertThat(readRowTimes("b"), equalTo(Arrays.asList(0L, 1000L, 2000L)));
+        assertFalse(concurrentSeriesRead);
+    }
+
+    @Test(timeout = 10000)
+    public void test_noLimitReadsAllPartitions() throws IOException {
+        final Map<String, List<Long>> result = runQuery(0, Order.ASC);
+
+        assertThat(result.get("a").size(), equalTo(6));
+        assertThat(result.get("b").size(), equalTo(3));
+        assertThat(reads.size(), equalTo(6));
+    }
+
+    @Test(timeout = 10000)
+    public void test_failedReadIsCounted() throws IOException {
+        failingRowKeys.add(sortedRowKeys.get(2));
+
+        final Map<String, List<Long>> result = runQuery(0, Order.ASC);
+
+        // The other partitions are still passed on
+        assertThat(result.get("a"), equalTo(Arrays.asList(100L, 200L, 2100L, 2200L)));
+        assertThat(result.get("b").size(), equalTo(3));
+        assertThat(tracker.getFailedReadCount(), equalTo(1L));
+        assertThat(tracker.getReadCount(), equalTo(6L));
+    }
+
+    private Map<String, List<Long>> runQuery(int limit, Order order) throws IOException {
+        this.order = order;
+        final RecordingCallback callback = new RecordingCallback();
+        final CQLQueryRunner runner = new CQLQueryRunner(session, dataPointQuery, new TestDataPointFactory(),
+                sortedRowKeys, 0, 3 * ROW_WIDTH - 1, ROW_WIDTH, callback, limit, order, tracker);
+
+        runner.runQuery();
+        return callback.series;
+    }
+
+    private List<Long> readRowTimes(String host) {
+        final List<Long> rowTimes = new ArrayList<>();
+        for (DataPointsRowKey rowKey : reads) {
+            if (rowKey.getTags().get("host").equals(host)) {
+                rowTimes.add(rowKey.getTimestamp());
+            }
+        }
+        return rowTimes;
+    }
+
+    private void addPartition(String host, long rowTime, long... timestamps) {
+        final DataPointsRowKey rowKey = new DataPointsRowKey("metric", rowTime, LongDataPointFactoryImpl.DST_LONG,
+                ImmutableSortedMap.of("host", host));
+        final List<DataPoint> dataPoints = new ArrayList<>();
+        for (long timestamp : timestamps) {
+            dataPoints.add(new LongDataPoint(timestamp, timestamp));
+        }
+        rowKeys.put(CQLQueryRunner.ROW_KEY_SERIALIZER.toByteBuffer(rowKey), rowKey);
+        partitions.put(rowKey, dataPoints);
+        sortedRowKeys.add(rowKey);
+    }
+
+    private BoundStatement bind() {
+        final BoundStatement statement = mock(BoundStatement.class);
+        final BoundRead read = new BoundRead();
+        when(statement.setBytes(eq(0), any(ByteBuffer.class))).thenAnswer(invocation -> {
+            read.m_rowKey = rowKeys.get((ByteBuffer) invocation.getArguments()[1]);
+            return statement;
+        });
+        when(statement.setInt(eq(3), anyInt())).thenAnswer(invocation -> {
+            read.m_limit = (Integer) invocation.getArguments()[1];
+            return statement;
+        });
+        when(session.executeAsync(statement)).thenAnswer(invocation -> execute(read));
+        return statement;
+    }
+
+    private ResultSetFuture execute(BoundRead read) throws IOException {
+        final DataPointsRowKey rowKey = read.m_rowKey;
+        final Object seriesId = rowKey.getTags();
+        reads.add(rowKey);
+        if (!seriesInFlight.add(seriesId)) {
+            concurrentSeriesRead = true;
+        }
+
+        final List<DataPoint> dataPoints = new ArrayList<>(partitions.get(rowKey));
+        if (order == Order.DESC) {
+            Collections.reverse(dataPoints);
+        }
+        final List<Row> rows = new ArrayList<>();
+        for (DataPoint dataPoint : dataPoints.subList(0, read.m_limit > 0 ? Math.min(read.m_limit, dataPoints.size()) : dataPoints.size())) {
+            rows.add(row(rowKey.getTimestamp(), dataPoint));
+        }
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.iterator()).thenReturn(rows.iterator());
+        when(resultSet.isFullyFetched()).thenReturn(true);
+
+        final ResultSetFuture future = mock(ResultSetFuture.class);
+        if (failingRowKeys.contains(rowKey)) {
+            when(future.getUninterruptibly()).thenThrow(new IllegalStateException("read timed out"));
+        } else {
+            when(future.getUninterruptibly()).thenReturn(resultSet);
+        }
+        doAnswer(invocation -> {
+            final Runnable listener = (Runnable) invocation.getArguments()[0];
+            // Complete later, so other reads can be sent meanwhile
+            completer.schedule(() -> {
+                seriesInFlight.remove(seriesId);
+                listener.run();
+            }, 5, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(future).addListener(any(Runnable.class), any(Executor.class));
+        return future;
+    }
+
+    private static Row row(long rowTime, DataPoint dataPoint) throws IOException {
+        final ByteArrayDataOutput value = ByteStreams.newDataOutput();
+        dataPoint.writeValueToBuffer(value);
+
+        final Row row = mock(Row.class);
+        when(row.getBytes("column1")).thenReturn(CQLQueryRunner.INTEGER_CODEC.serialize(
+                CassandraDatastore.getColumnName(rowTime, dataPoint.getTimestamp()), NEWEST_SUPPORTED));
+        when(row.getBytes("value")).thenReturn(ByteBuffer.wrap(value.toByteArray()));
+        return row;
+    }
+
+    private static class BoundRead {
+        private DataPointsRowKey m_rowKey;
+        private int m_limit;
+    }
+
+    private static class RecordingCallback implements QueryCallback {
+        private final Map<String, List<Long>> series = new HashMap<>();
+        private List<Long> current;
+
+        @Override
+        public void startDataPointSet(String dataType, Map<String, String> tags) {
+            current = series.computeIfAbsent(tags.get("host"), host -> new ArrayList<>());
+        }
+
+        @Override
+        public void addDataPoint(DataPoint datapoint) {
+            current.add(datapoint.getTimestamp());
+        }
+
+        @Override
+        public void endDataPoints() {
+        }
+    }
+}
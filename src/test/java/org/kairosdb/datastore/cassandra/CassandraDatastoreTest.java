@@ -15,7 +15,9 @@
  */
 package org.kairosdb.datastore.cassandra;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.SetMultimap;
 import io.opentracing.mock.MockTracer;
 import org.hamcrest.CoreMatchers;
@@ -27,6 +29,11 @@ import org.kairosdb.core.DataPoint;
 import org.kairosdb.core.DataPointSet;
 import org.kairosdb.core.KairosDataPointFactory;
 import org.kairosdb.core.TestDataPointFactory;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+import org.kairosdb.core.aggregator.FirstAggregator;
+import org.kairosdb.core.aggregator.LastAggregator;
+import org.kairosdb.core.aggregator.RangeAggregator;
+import org.kairosdb.core.datapoints.DoubleDataPointFactoryImpl;
 import org.kairosdb.core.datapoints.LongDataPoint;
 import org.kairosdb.core.datapoints.LongDataPointFactory;
 import org.kairosdb.core.datapoints.LongDataPointFactoryImpl;
@@ -36,6 +43,9 @@ import org.kairosdb.datastore.DatastoreMetricQueryImpl;
 import org.kairosdb.datastore.DatastoreTestHelper;
 import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpConfiguration;
 import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpLogic;
+import org.kairosdb.datastore.cassandra.cache.CacheSnapshotter;
+import org.kairosdb.datastore.cassandra.cache.IndexBucketCache;
+import org.kairosdb.datastore.cassandra.cache.IndexCacheConfiguration;
 import org.kairosdb.datastore.cassandra.cache.RowKeyCache;
 import org.kairosdb.datastore.cassandra.cache.StringKeyCache;
 
@@ -63,6 +73,7 @@ public class CassandraDatastoreTest extends DatastoreTestHelper {
     private static KairosDataPointFactory dataPointFactory = new TestDataPointFactory();
     private static LongDataPointFactory longDataPointFactory = new LongDataPointFactoryImpl();
     private static Random random = new Random();
+    private static CassandraConfiguration s_cassandraConfig;
     private static CassandraDatastore s_datastore;
     private static long s_dataPointTime;
     private static final HashMultimap<String, String> EMPTY_MAP = HashMultimap.create();
@@ -188,17 +199,16 @@ public class CassandraDatastoreTest extends DatastoreTestHelper {
 
         System.out.println("Starting Cassandra Connection: " + cassandraHost);
 
-        CassandraConfiguration cassandraConfig = new CassandraConfiguration(1, cassandraHost, "kairosdb_test");
+        s_cassandraConfig = new CassandraConfiguration(1, cassandraHost, "kairosdb_test");
 
         // TODO: test the caches being hit
-        final StringKeyCache stringCache = mock(StringKeyCache.class);
-        s_datastore = new CassandraDatastore(new CassandraClientImpl(cassandraConfig), cassandraConfig,
-                dataPointFactory, longDataPointFactory, new CacheWarmingUpLogic(), new CacheWarmingUpConfiguration(), new CassandraConsistencyLevelConfiguration(cassandraConfig), mock(RowKeyCache.class), stringCache, stringCache, tracer);
+        s_datastore = createDatastore(mock(IndexBucketCache.class));
 
         System.out.println("Creating KairosDataStore");
         DatastoreTestHelper.s_datastore = new KairosDatastore(s_datastore,
                 new QueryQueuingManager(1, "hostname"),
-                Collections.emptyList(), dataPointFactory, tracer);
+                Collections.emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+                new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 
         System.out.println("Loading Cassandra data");
         loadCassandraData();
@@ -207,6 +217,13 @@ public class CassandraDatastoreTest extends DatastoreTestHelper {
         Thread.sleep(2000);
     }
 
+    private static CassandraDatastore createDatastore(IndexBucketCache indexBucketCache) {
+        final CassandraConfiguration cassandraConfig = s_cassandraConfig;
+        final StringKeyCache stringCache = mock(StringKeyCache.class);
+        return new CassandraDatastore(new CassandraClientImpl(cassandraConfig), cassandraConfig,
+                dataPointFactory, longDataPointFactory, new CacheWarmingUpLogic(), new CacheWarmingUpConfiguration(), new CassandraConsistencyLevelConfiguration(cassandraConfig), mock(RowKeyCache.class), stringCache, stringCache, mock(CacheSnapshotter.class), indexBucketCache, new IngestQuota(cassandraConfig), new MetricRegistry(), tracer);
+    }
+
     @AfterClass
     public static void closeDatastore() {
         for (String metricName : metricNames) {
@@ -244,6 +261,31 @@ public class CassandraDatastoreTest extends DatastoreTestHelper {
         assertEquals(2, keys.size());
     }
 
+    @Test
+    public void test_getKeysForQuery_rowKeyWrittenToCachedClosedBucket() throws DatastoreException, InterruptedException {
+        final String metricName = "closed_bucket_metric";
+        metricNames.add(metricName);
+        final IndexBucketCache indexBucketCache = new IndexBucketCache(mock(CacheMetricsProvider.class),
+                new IndexCacheConfiguration(), s_cassandraConfig);
+        final CassandraDatastore datastore = createDatastore(indexBucketCache);
+        try {
+            // Far older than the closed bucket delay, the bucket is cached until its index entries expire
+            final long time = s_dataPointTime - 30L * 24 * 3600 * 1000;
+            final DatastoreMetricQuery query = new DatastoreMetricQueryImpl(metricName, EMPTY_MAP, time, time);
+
+            datastore.putDataPoint(metricName, ImmutableSortedMap.of("host", "A"), new LongDataPoint(time, 1), 0);
+            Thread.sleep(2000);
+            assertEquals(1, datastore.getKeysForQueryIterator(query).size());
+
+            // A late series, like one replayed from the write spool
+            datastore.putDataPoint(metricName, ImmutableSortedMap.of("host", "B"), new LongDataPoint(time, 2), 0);
+            Thread.sleep(2000);
+            assertEquals(2, datastore.getKeysForQueryIterator(query).size());
+        } finally {
+            datastore.close();
+        }
+    }
+
     @Test
     public void test_rowLargerThanMaxReadSize() throws DatastoreException {
         Map<String, String> tagFilter = new HashMap<>();
@@ -468,4 +510,54 @@ public class CassandraDatastoreTest extends DatastoreTestHelper {
             dq.close();
         }
     }
+
+    @Test
+    public void test_boundaryRead_sampleSizeCountsPointsRead() throws DatastoreException, InterruptedException {
+        metricNames.add("boundaryMetric");
+        DataPointSet set = new DataPointSet("boundaryMetric");
+        set.addTag("host", "A");
+        for (long time = 1; time <= 5; time++) {
+            set.addDataPoint(new LongDataPoint(time, time));
+        }
+        putDataPoints(set);
+
+        set = new DataPointSet("boundaryMetric");
+        set.addTag("host", "B");
+        for (long time = 1; time <= 3; time++) {
+            set.addDataPoint(new LongDataPoint(time, time * 10));
+        }
+        putDataPoints(set);
+        Thread.sleep(2000);
+
+        // First reads the oldest data point of each series
+        QueryMetric first = new QueryMetric(0, 500, 0, "boundaryMetric")
+                .addAggregator(wholeRange(new FirstAggregator(new DoubleDataPointFactoryImpl())));
+        assertThat(first.getBoundaryRead(), equalTo(BoundaryRead.OLDEST));
+        assertThat(querySampleSize(first), equalTo(2));
+
+        // Last reads the oldest and the newest data point of each series
+        QueryMetric last = new QueryMetric(0, 500, 0, "boundaryMetric")
+                .addAggregator(wholeRange(new LastAggregator(new DoubleDataPointFactoryImpl())));
+        assertThat(last.getBoundaryRead(), equalTo(BoundaryRead.OLDEST_AND_NEWEST));
+        assertThat(querySampleSize(last), equalTo(4));
+
+        // Without the aggregator every data point is read
+        assertThat(querySampleSize(new QueryMetric(0, 500, 0, "boundaryMetric")), equalTo(8));
+    }
+
+    private static <T extends RangeAggregator> T wholeRange(T aggregator) {
+        aggregator.setSampling(new Sampling(1, TimeUnit.HOURS));
+        aggregator.setStartTime(0);
+        return aggregator;
+    }
+
+    private static int querySampleSize(QueryMetric query) throws DatastoreException {
+        DatastoreQuery dq = DatastoreTestHelper.s_datastore.createQuery(query);
+        try {
+            dq.execute();
+            return dq.getSampleSize();
+        } finally {
+            dq.close();
+        }
+    }
 }
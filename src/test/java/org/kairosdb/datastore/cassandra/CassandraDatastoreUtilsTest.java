@@ -1,35 +1,42 @@
 package org.kairosdb.datastore.cassandra;
 
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Sets;
 import org.junit.Test;
+import org.kairosdb.util.GlobPatterns;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.kairosdb.datastore.cassandra.CassandraDatastore.convertGlobToPattern;
+import static org.kairosdb.util.GlobPatterns.convertGlobToPattern;
 
 public class CassandraDatastoreUtilsTest {
 
     @Test
     public void matchesAny() {
-        assertFalse(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("b"))));
-        assertFalse(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("ba*b"))));
-        assertTrue(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("a"))));
-        assertTrue(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("*"))));
-        assertTrue(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("a*"))));
-        assertTrue(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("*a"))));
-        assertTrue(CassandraDatastore.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("f*o"))));
-        assertFalse(CassandraDatastore.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("x*o"))));
-        assertTrue(CassandraDatastore.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("x*o"), convertGlobToPattern("foo"))));
+        assertFalse(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("b"))));
+        assertFalse(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("ba*b"))));
+        assertTrue(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("a"))));
+        assertTrue(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("*"))));
+        assertTrue(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("a*"))));
+        assertTrue(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("*a"))));
+        assertTrue(GlobPatterns.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("f*o"))));
+        assertFalse(GlobPatterns.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("x*o"))));
+        assertTrue(GlobPatterns.matchesAny("foo", Sets.newHashSet(convertGlobToPattern("x*o"), convertGlobToPattern("foo"))));
 
-        assertFalse(CassandraDatastore.matchesAny("a", Sets.newHashSet(convertGlobToPattern("b?"))));
-        assertTrue(CassandraDatastore.matchesAny("ba", Sets.newHashSet(convertGlobToPattern("b?"))));
-        assertFalse(CassandraDatastore.matchesAny("bab", Sets.newHashSet(convertGlobToPattern("b?"))));
+        assertFalse(GlobPatterns.matchesAny("a", Sets.newHashSet(convertGlobToPattern("b?"))));
+        assertTrue(GlobPatterns.matchesAny("ba", Sets.newHashSet(convertGlobToPattern("b?"))));
+        assertFalse(GlobPatterns.matchesAny("bab", Sets.newHashSet(convertGlobToPattern("b?"))));
     }
 
     @Test
@@ -37,14 +44,14 @@ public class CassandraDatastoreUtilsTest {
         int matches = 0;
         Set<Pattern> patterns = Sets.newHashSet(convertGlobToPattern("foo-*-xy"));
         for (int i = 0; i < 10000; i++) {
-            if (CassandraDatastore.matchesAny("foo-" + i + "-xy", patterns)) {
+            if (GlobPatterns.matchesAny("foo-" + i + "-xy", patterns)) {
                 matches++;
             }
         }
         matches = 0;
         long start = System.currentTimeMillis();
         for (int i = 0; i < 10000; i++) {
-            if (CassandraDatastore.matchesAny("foo-" + i + "-xy", patterns)) {
+            if (GlobPatterns.matchesAny("foo-" + i + "-xy", patterns)) {
                 matches++;
             }
         }
@@ -65,6 +72,34 @@ public class CassandraDatastoreUtilsTest {
     }
 
 
+    @Test
+    public void test_groupBySeries() {
+        final List<DataPointsRowKey> rowKeys = new ArrayList<>();
+        for (long rowTime = 0; rowTime < 3; rowTime++) {
+            for (int host = 0; host < 4; host++) {
+                rowKeys.add(new DataPointsRowKey("metric", rowTime, "kairos_long",
+                        ImmutableSortedMap.of("host", String.valueOf(host))));
+            }
+        }
+
+        final List<List<DataPointsRowKey>> groups = CassandraDatastore.groupBySeries(rowKeys, 5);
+
+        // Two series of three partitions each per group, every series in a single group
+        assertEquals(2, groups.size());
+        for (List<DataPointsRowKey> group : groups) {
+            assertEquals(6, group.size());
+            final Set<Map<String, String>> series = new HashSet<>();
+            for (DataPointsRowKey rowKey : group) {
+                series.add(rowKey.getTags());
+            }
+            assertEquals(2, series.size());
+        }
+
+        final List<List<DataPointsRowKey>> single = CassandraDatastore.groupBySeries(rowKeys, 100);
+        assertEquals(1, single.size());
+        assertEquals(12, single.get(0).size());
+    }
+
     @Test
     public void test_parseMetricIndexTagMap() {
         final String metricIndexTagList = "zmon.check.1=entity,key,application_id,stack_name;zmon.check.2=stack_name,application_id,key";
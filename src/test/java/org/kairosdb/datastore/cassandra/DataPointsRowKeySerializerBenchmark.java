@@ -0,0 +1,45 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+
+@Fork(2)
+@State(Scope.Benchmark)
+public class DataPointsRowKeySerializerBenchmark {
+    private static final ImmutableSortedMap<String, String> TAGS = ImmutableSortedMap.<String, String>naturalOrder()
+            .put("application_id", "zmon-scheduler")
+            .put("entity", "host-10-160-12-34")
+            .put("key", "cpu.user")
+            .put("stack_name", "zmon-scheduler-42")
+            .put("stack_version", "42")
+            .put("worker", "zmon-worker-7")
+            .build();
+
+    private final DataPointsRowKeySerializer plain = new DataPointsRowKeySerializer();
+    private final DataPointsRowKeySerializer cached = new DataPointsRowKeySerializer(false, 1000);
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public ByteBuffer measureUncached() {
+        return plain.toByteBuffer(new DataPointsRowKey("zmon.check.1234", 1_500_000_000_000L, "kairos_long", TAGS));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public ByteBuffer measureTemplateCache() {
+        return cached.toByteBuffer(new DataPointsRowKey("zmon.check.1234", 1_500_000_000_000L, "kairos_long", TAGS));
+    }
+}
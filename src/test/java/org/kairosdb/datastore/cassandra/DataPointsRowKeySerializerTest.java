@@ -78,4 +78,33 @@ public class DataPointsRowKeySerializerTest
 		assertThat(rowKey.getTags().get("e"), equalTo("f"));
 
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void test_toByteBuffer_templateCacheMatchesUncached()
+	{
+		SortedMap<String, String> map = new TreeMap<String, String>();
+		map.put("a", "b");
+		map.put("host", "h\u00f6st");
+
+		DataPointsRowKeySerializer plain = new DataPointsRowKeySerializer();
+		DataPointsRowKeySerializer cached = new DataPointsRowKeySerializer(false, 10);
+
+		for (long timestamp : new long[]{12345L, 67890L, 12345L})
+		{
+			assertThat(cached.toByteBuffer(new DataPointsRowKey("myMetric", timestamp, "myDataType", map)),
+					equalTo(plain.toByteBuffer(new DataPointsRowKey("myMetric", timestamp, "myDataType", map))));
+			assertThat(cached.toByteBuffer(new DataPointsRowKey("myMetric", timestamp, LegacyDataPointFactory.DATASTORE_TYPE, map)),
+					equalTo(plain.toByteBuffer(new DataPointsRowKey("myMetric", timestamp, LegacyDataPointFactory.DATASTORE_TYPE, map))));
+		}
+
+		DataPointsRowKey endKey = new DataPointsRowKey("myMetric", 67890L, "myDataType", map);
+		endKey.setEndSearchKey(true);
+		DataPointsRowKey plainEndKey = new DataPointsRowKey("myMetric", 67890L, "myDataType", map);
+		plainEndKey.setEndSearchKey(true);
+		assertThat(cached.toByteBuffer(endKey), equalTo(plain.toByteBuffer(plainEndKey)));
+
+		DataPointsRowKey rowKey = cached.fromByteBuffer(cached.toByteBuffer(new DataPointsRowKey("myMetric", 67890L, "myDataType", map)));
+		assertThat(rowKey.getTimestamp(), equalTo(67890L));
+		assertThat(rowKey.getTags(), equalTo(map));
+	}
+}
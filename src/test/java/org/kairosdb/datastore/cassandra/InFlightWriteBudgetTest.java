@@ -0,0 +1,72 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Test;
+import org.kairosdb.core.datastore.IngestDeadline;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightWriteBudgetTest {
+
+    @Test
+    public void testRejectsWhenExhausted() throws Exception {
+        final InFlightWriteBudget budget = new InFlightWriteBudget(2, 10);
+        budget.acquire();
+        budget.acquire();
+        assertEquals(2, budget.getInFlight());
+
+        try {
+            budget.acquire();
+            fail("Expected DatastoreOverloadedException");
+        } catch (DatastoreOverloadedException expected) {
+        }
+        assertEquals(1, budget.getAndResetRejected());
+        assertEquals(1, budget.getAndResetWaitCount());
+    }
+
+    @Test
+    public void testReleaseFreesPermits() throws Exception {
+        final InFlightWriteBudget budget = new InFlightWriteBudget(2, 10);
+        budget.acquire();
+        budget.acquire();
+        budget.release(2);
+        assertEquals(0, budget.getInFlight());
+
+        budget.acquire();
+        assertEquals(1, budget.getInFlight());
+        assertEquals(0, budget.getAndResetRejected());
+    }
+
+    @Test
+    public void testZeroDisablesLimit() throws Exception {
+        final InFlightWriteBudget budget = new InFlightWriteBudget(0, 10);
+        for (int i = 0; i < 100; i++) {
+            budget.acquire();
+        }
+        assertEquals(0, budget.getInFlight());
+    }
+
+    @Test
+    public void testDeadlineBoundsAllWaitsOfRequest() throws Exception {
+        final InFlightWriteBudget budget = new InFlightWriteBudget(1, 100);
+        final IngestDeadline deadline = new IngestDeadline();
+        budget.acquire(deadline);
+
+        for (int i = 0; i < 5; i++) {
+            final long start = System.nanoTime();
+            try {
+                budget.acquire(deadline);
+                fail("Expected DatastoreOverloadedException");
+            } catch (DatastoreOverloadedException expected) {
+            }
+            final long waitedMs = (System.nanoTime() - start) / 1_000_000;
+            if (i > 0) {
+                // The first wait used up the time of the request
+                assertTrue("waited " + waitedMs + " ms", waitedMs < 50);
+            }
+        }
+        assertEquals(5, budget.getAndResetRejected());
+    }
+}
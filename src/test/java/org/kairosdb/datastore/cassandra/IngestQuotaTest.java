@@ -0,0 +1,139 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Test;
+import org.kairosdb.core.DataPointSet;
+import org.kairosdb.core.exception.QuotaExceededException;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IngestQuotaTest {
+    private final AtomicLong m_now = new AtomicLong(1_000_000);
+
+    @Test
+    public void test_unlimitedByDefault() throws QuotaExceededException {
+        final IngestQuota quota = new IngestQuota(0, 0, IngestQuota.Policy.REJECT, 1024, m_now::get);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(quota.acceptPoint("metric"));
+            assertTrue(quota.acceptNewSeries("metric"));
+        }
+        assertTrue(quota.getTopOffenders(10).isEmpty());
+    }
+
+    @Test
+    public void test_rejectPointsOverQuota() throws QuotaExceededException {
+        final IngestQuota quota = new IngestQuota(100, 0, IngestQuota.Policy.REJECT, 1024, m_now::get);
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(quota.acceptPoint("noisy"));
+        }
+        try {
+            quota.acceptPoint("noisy");
+            fail("Expected QuotaExceededException");
+        } catch (QuotaExceededException e) {
+            assertThat(e.getMetricName(), equalTo("noisy"));
+        }
+
+        // Other metrics and the next second are not affected
+        assertTrue(quota.acceptPoint("quiet"));
+        m_now.addAndGet(1000);
+        assertTrue(quota.acceptPoint("noisy"));
+    }
+
+    @Test
+    public void test_rejectNewSeriesOverQuota() throws QuotaExceededException {
+        final IngestQuota quota = new IngestQuota(0, 10, IngestQuota.Policy.REJECT, 1024, m_now::get);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(quota.acceptNewSeries("exploding"));
+        }
+        try {
+            quota.acceptNewSeries("exploding");
+            fail("Expected QuotaExceededException");
+        } catch (QuotaExceededException e) {
+            assertThat(e.getMetricName(), equalTo("exploding"));
+        }
+
+        m_now.addAndGet(30_000);
+        try {
+            quota.acceptNewSeries("exploding");
+            fail("Expected QuotaExceededException within the same minute");
+        } catch (QuotaExceededException ignored) {
+        }
+
+        m_now.addAndGet(60_000);
+        assertTrue(quota.acceptNewSeries("exploding"));
+
+        final List<IngestQuota.OffenderStatus> offenders = quota.getTopOffenders(10);
+        assertThat(offenders.size(), equalTo(1));
+        assertThat(offenders.get(0).getMetricName(), equalTo("exploding"));
+        assertThat(offenders.get(0).getRejectedSeries(), equalTo(2L));
+        assertThat(offenders.get(0).getRejectedPoints(), equalTo(0L));
+    }
+
+    @Test
+    public void test_sampleKeepsAboutQuota() throws QuotaExceededException {
+        final IngestQuota quota = new IngestQuota(1000, 0, IngestQuota.Policy.SAMPLE, 1024, m_now::get);
+
+        int accepted = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (quota.acceptPoint("noisy")) {
+                accepted++;
+            }
+        }
+
+        assertThat(accepted, greaterThan(1000));
+        assertThat(accepted, lessThan(5000));
+        assertThat(quota.getTopOffenders(10).get(0).getRejectedPoints(), equalTo(10_000L - accepted));
+    }
+
+    @Test
+    public void test_topOffendersOrderedAndPruned() {
+        final IngestQuota quota = new IngestQuota(1, 0, IngestQuota.Policy.REJECT, 1024, m_now::get);
+        offend(quota, "first", 5);
+        offend(quota, "second", 10);
+
+        List<IngestQuota.OffenderStatus> offenders = quota.getTopOffenders(10);
+        assertThat(offenders.size(), equalTo(2));
+        assertThat(offenders.get(0).getMetricName(), equalTo("second"));
+        assertThat(offenders.get(1).getMetricName(), equalTo("first"));
+        assertThat(quota.getTopOffenders(1).size(), equalTo(1));
+
+        m_now.addAndGet(3_600_001);
+        assertTrue(quota.getTopOffenders(10).isEmpty());
+    }
+
+    @Test
+    public void test_metricsReportRejections() {
+        final IngestQuota quota = new IngestQuota(1, 0, IngestQuota.Policy.REJECT, 1024, m_now::get);
+        offend(quota, "noisy", 3);
+
+        final List<DataPointSet> metrics = quota.getMetrics(m_now.get());
+        assertThat(metrics.get(0).getName(), equalTo("kairosdb.datastore.cassandra.quota.rejected_points"));
+        assertThat(metrics.get(0).getDataPoints().get(0).getLongValue(), equalTo(3L));
+        assertThat(metrics.get(3).getName(), equalTo("kairosdb.datastore.cassandra.quota.offender_rejected"));
+        assertThat(metrics.get(3).getTags().get("metric_name"), equalTo("noisy"));
+
+        // Counts are reported once
+        final List<DataPointSet> next = quota.getMetrics(m_now.get());
+        assertThat(next.get(0).getDataPoints().get(0).getLongValue(), equalTo(0L));
+        assertThat(next.size(), equalTo(3));
+    }
+
+    private static void offend(IngestQuota quota, String metricName, int rejections) {
+        for (int i = 0; i <= rejections; i++) {
+            try {
+                quota.acceptPoint(metricName);
+            } catch (QuotaExceededException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpConfiguration;
+import org.kairosdb.datastore.cassandra.cache.CacheWarmingUpLogic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NextBucketWarmerTest {
+    private static final long MINUTE = 60_000;
+    private static final long ROW_WIDTH = 60 * MINUTE;
+
+    private CacheWarmingUpConfiguration config;
+    private AtomicLong clock;
+    private List<DataPointsRowKey> warmed;
+    private NextBucketWarmer warmer;
+
+    @Before
+    public void setUp() {
+        config = new CacheWarmingUpConfiguration();
+        config.setEnabled(true);
+        config.setHeatingIntervalMinutes(20);
+        config.setRowIntervalInMinutes(10);
+        clock = new AtomicLong(10 * ROW_WIDTH);
+        warmed = new ArrayList<>();
+        warmer = new NextBucketWarmer(config, new CacheWarmingUpLogic(), (rowKey, ttl) -> warmed.add(rowKey),
+                ROW_WIDTH, clock::get);
+    }
+
+    private DataPointsRowKey rowKey(String metric, long rowTime) {
+        return new DataPointsRowKey(metric, rowTime, "kairos_long", ImmutableSortedMap.of("host", "a"));
+    }
+
+    @Test
+    public void testNothingIsWarmedBeforeTheWarmUpPeriod() {
+        warmer.track(rowKey("m1", 10 * ROW_WIDTH), 0);
+
+        warmer.tick();
+
+        assertTrue(warmed.isEmpty());
+        assertEquals(1, warmer.getTrackedSeries());
+    }
+
+    @Test
+    public void testWarmingIsSpreadOverTheWarmUpPeriod() {
+        for (int i = 0; i < 4; i++) {
+            warmer.track(rowKey("m" + i, 10 * ROW_WIDTH), 0);
+        }
+
+        clock.set(11 * ROW_WIDTH - 20 * MINUTE);
+        warmer.tick();
+        assertEquals(2, warmed.size());
+        assertEquals(50, warmer.getProgressPercent());
+
+        clock.set(11 * ROW_WIDTH - 10 * MINUTE);
+        warmer.tick();
+        assertEquals(4, warmed.size());
+        assertEquals(11 * ROW_WIDTH, warmed.get(0).getTimestamp());
+        assertEquals(4, warmer.getAndResetWritten());
+    }
+
+    @Test
+    public void testWarmedSeriesAreTrackedForTheNextBucket() {
+        warmer.track(rowKey("m1", 10 * ROW_WIDTH), 0);
+        clock.set(11 * ROW_WIDTH - MINUTE);
+        warmer.tick();
+
+        clock.set(12 * ROW_WIDTH - MINUTE);
+        warmer.tick();
+
+        assertEquals(2, warmed.size());
+        assertEquals(12 * ROW_WIDTH, warmed.get(1).getTimestamp());
+    }
+
+    @Test
+    public void testSeriesIsTrackedOncePerBucket() {
+        for (int i = 0; i < 3; i++) {
+            warmer.track(rowKey("m1", 10 * ROW_WIDTH), 0);
+        }
+        clock.set(11 * ROW_WIDTH - MINUTE);
+
+        warmer.tick();
+
+        assertEquals(1, warmer.getTrackedSeries());
+        assertEquals(1, warmed.size());
+    }
+
+    @Test
+    public void testOnlyCurrentBucketIsTracked() {
+        warmer.track(rowKey("m1", 9 * ROW_WIDTH), 0);
+
+        warmer.tick();
+
+        assertEquals(0, warmer.getTrackedSeries());
+    }
+
+    @Test
+    public void testOverloadedWarmUpIsRetried() {
+        final AtomicLong calls = new AtomicLong();
+        warmer = new NextBucketWarmer(config, new CacheWarmingUpLogic(), (rowKey, ttl) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new DatastoreOverloadedException("busy");
+            }
+            return warmed.add(rowKey);
+        }, ROW_WIDTH, clock::get);
+        warmer.track(rowKey("m1", 10 * ROW_WIDTH), 0);
+        clock.set(11 * ROW_WIDTH - MINUTE);
+
+        warmer.tick();
+        assertTrue(warmed.isEmpty());
+        assertEquals(1, warmer.getAndResetDeferred());
+
+        warmer.tick();
+        assertEquals(1, warmed.size());
+    }
+}
@@ -0,0 +1,144 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PartitionBatchWriterTest {
+    private Session session;
+    private PartitionBatchWriter writer;
+
+    @Before
+    public void setUp() {
+        session = mock(Session.class);
+        when(session.executeAsync(any(Statement.class))).thenReturn(mock(ResultSetFuture.class));
+    }
+
+    @After
+    public void tearDown() {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testZeroWindowExecutesImmediately() throws Exception {
+        writer = new PartitionBatchWriter(session, new InFlightWriteBudget(0, 0), 0, 10);
+        final Statement statement = new SimpleStatement("INSERT 1");
+
+        writer.add("a", statement);
+
+        verify(session).executeAsync(statement);
+        assertEquals(1, writer.getAndResetFlushCount());
+    }
+
+    @Test
+    public void testFullBatchIsSentAsUnloggedBatch() throws Exception {
+        writer = new PartitionBatchWriter(session, new InFlightWriteBudget(0, 0), 60_000, 3);
+
+        writer.add("a", new SimpleStatement("INSERT 1"));
+        writer.add("a", new SimpleStatement("INSERT 2"));
+        verify(session, never()).executeAsync(any(Statement.class));
+
+        writer.add("a", new SimpleStatement("INSERT 3"));
+
+        final ArgumentCaptor<Statement> captor = ArgumentCaptor.forClass(Statement.class);
+        verify(session).executeAsync(captor.capture());
+        assertThat(captor.getValue(), instanceOf(BatchStatement.class));
+        assertEquals(3, ((BatchStatement) captor.getValue()).size());
+        assertEquals(0, writer.getPendingPartitions());
+        assertEquals(3, writer.getAndResetMaxFlushSize());
+    }
+
+    @Test
+    public void testFlushGroupsByPartition() throws Exception {
+        writer = new PartitionBatchWriter(session, new InFlightWriteBudget(0, 0), 60_000, 100);
+        final Statement single = new SimpleStatement("INSERT 3");
+
+        writer.add("a", new SimpleStatement("INSERT 1"));
+        writer.add("a", new SimpleStatement("INSERT 2"));
+        writer.add("b", single);
+        assertEquals(2, writer.getPendingPartitions());
+
+        writer.flushAll();
+
+        final ArgumentCaptor<Statement> captor = ArgumentCaptor.forClass(Statement.class);
+        verify(session, times(2)).executeAsync(captor.capture());
+        final List<Statement> sent = captor.getAllValues();
+        int batches = 0;
+        for (Statement statement : sent) {
+            if (statement instanceof BatchStatement) {
+                assertEquals(2, ((BatchStatement) statement).size());
+                batches++;
+            } else {
+                assertSame(single, statement);
+            }
+        }
+        assertEquals(1, batches);
+        assertEquals(3, writer.getAndResetFlushedStatements());
+        assertEquals(0, writer.getPendingPartitions());
+    }
+
+    @Test
+    public void testDirectStatementThatCannotBeSentFailsTheCall() throws Exception {
+        final List<Statement> failed = new CopyOnWriteArrayList<>();
+        writer = new PartitionBatchWriter(session, new InFlightWriteBudget(0, 0), 0, 10, failed::add);
+        when(session.executeAsync(any(Statement.class))).thenThrow(new IllegalStateException("closed"));
+
+        try {
+            writer.add("a", new SimpleStatement("INSERT 1"));
+            fail("Expected the send failure");
+        } catch (IllegalStateException expected) {
+        }
+        writer.close();
+
+        // The caller retries, so the statement is not spooled as well
+        assertEquals(0, failed.size());
+        assertEquals(1, writer.getAndResetWriteFailures());
+    }
+
+    @Test
+    public void testBatchThatCannotBeSentGoesToHandlerThread() throws Exception {
+        final List<Statement> failed = new CopyOnWriteArrayList<>();
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        writer = new PartitionBatchWriter(session, new InFlightWriteBudget(0, 0), 60_000, 100, statement -> {
+            failed.add(statement);
+            threads.add(Thread.currentThread().getName());
+        });
+        when(session.executeAsync(any(Statement.class))).thenThrow(new IllegalStateException("closed"));
+
+        writer.add("a", new SimpleStatement("INSERT 1"));
+        writer.add("a", new SimpleStatement("INSERT 2"));
+        writer.flushAll();
+        writer.close();
+
+        assertEquals(2, failed.size());
+        for (String thread : threads) {
+            assertThat(thread, startsWith("failed-write-handler-"));
+        }
+        assertEquals(2, writer.getAndResetWriteFailures());
+        assertEquals(0, writer.getAndResetDroppedFailedWrites());
+    }
+}
@@ -0,0 +1,68 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryReadTrackerTest {
+    private static final long HOUR = 3_600_000;
+
+    @Test
+    public void test_permitsAndPeak() {
+        final List<Long> latencies = new ArrayList<>();
+        final QueryReadTracker reads = new QueryReadTracker(2, latencies::add);
+
+        assertTrue(reads.tryAcquire());
+        assertTrue(reads.tryAcquire());
+        assertFalse(reads.tryAcquire());
+
+        reads.completed(System.nanoTime());
+        assertTrue(reads.tryAcquire());
+        reads.completed(System.nanoTime());
+        reads.completed(System.nanoTime());
+
+        assertEquals(2, reads.getPeakInFlight());
+        assertEquals(3, reads.getReadCount());
+        assertEquals(3, latencies.size());
+    }
+
+    @Test
+    public void test_unlimited() {
+        final QueryReadTracker reads = new QueryReadTracker(0, latency -> {
+        });
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(reads.tryAcquire());
+        }
+        assertEquals(1000, reads.getPeakInFlight());
+    }
+
+    @Test
+    public void test_fetchSizeFollowsObservedDensity() {
+        final QueryReadTracker reads = new QueryReadTracker(0, latency -> {
+        });
+        assertEquals(QueryReadTracker.DEFAULT_FETCH_SIZE, reads.fetchSize(HOUR));
+
+        // One point per 10 seconds
+        reads.observe(360, HOUR);
+        assertEquals(466, reads.fetchSize(HOUR));
+        assertEquals(100, reads.fetchSize(HOUR / 60));
+
+        // Dense partitions are capped
+        reads.observe(10_000_000, HOUR);
+        assertEquals(10_000, reads.fetchSize(HOUR));
+    }
+
+    @Test
+    public void test_timeToFirstRow() {
+        final QueryReadTracker reads = new QueryReadTracker(0, latency -> {
+        });
+        assertEquals(-1, reads.getTimeToFirstRowMs());
+        reads.firstRow();
+        assertTrue(reads.getTimeToFirstRowMs() >= 0);
+    }
+}
@@ -0,0 +1,104 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import org.kairosdb.util.GlobPatterns;
+import org.kairosdb.util.TagMatcherCompiler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Filters a row_time_key_index partition of 200k row keys for one application out of 400, deserializing every key
+ * before matching compared to matching the serialized keys.
+ */
+@Fork(2)
+@State(Scope.Benchmark)
+public class RowKeyTagFilterBenchmark {
+    private static final int ROWS = 200_000;
+
+    private final DataPointsRowKeySerializer serializer = new DataPointsRowKeySerializer();
+    private final TagMatcherCompiler compiler = new TagMatcherCompiler(100);
+    private final List<ByteBuffer> index = new ArrayList<>(ROWS);
+    private final SetMultimap<String, String> filterTags = HashMultimap.create();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < ROWS; i++) {
+            final ImmutableSortedMap<String, String> tags = ImmutableSortedMap.<String, String>naturalOrder()
+                    .put("application_id", "application-" + (i % 400))
+                    .put("entity", "host-10-160-" + (i % 250) + "-" + (i / 250 % 250))
+                    .put("key", "cpu." + (i % 7))
+                    .put("stack_name", "stack-" + (i % 400) + "-" + (i % 3))
+                    .put("stack_version", String.valueOf(i % 3))
+                    .build();
+            index.add(serializer.toByteBuffer(new DataPointsRowKey("zmon.check.1234", 1_500_000_000_000L, "kairos_double", tags)));
+        }
+        filterTags.put("application_id", "application-42");
+        filterTags.put("key", "cpu.*");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public List<DataPointsRowKey> measureDeserializeAndFilter() {
+        final SetMultimap<String, Pattern> tagPatterns = HashMultimap.create();
+        for (Map.Entry<String, String> entry : filterTags.entries()) {
+            tagPatterns.put(entry.getKey(), GlobPatterns.convertGlobToPattern(entry.getValue()));
+        }
+
+        final List<DataPointsRowKey> kept = new ArrayList<>();
+        for (ByteBuffer serializedKey : index) {
+            final DataPointsRowKey key = serializer.fromByteBuffer(serializedKey.duplicate());
+            if (matches(key.getTags(), tagPatterns)) {
+                kept.add(key);
+            }
+        }
+        return kept;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public List<DataPointsRowKey> measureSerializedFilter() {
+        final RowKeyTagFilter tagFilter = new RowKeyTagFilter(filterTags, compiler);
+
+        final List<DataPointsRowKey> kept = new ArrayList<>();
+        for (ByteBuffer serializedKey : index) {
+            if (tagFilter.matches(serializedKey)) {
+                kept.add(serializer.fromByteBuffer(serializedKey.duplicate()));
+            }
+        }
+        return kept;
+    }
+
+    private static boolean matches(Map<String, String> tags, SetMultimap<String, Pattern> tagPatterns) {
+        for (Map.Entry<String, Collection<Pattern>> entry : tagPatterns.asMap().entrySet()) {
+            final String value = tags.get(entry.getKey());
+            if (value == null || !GlobPatterns.matchesAny(value, entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
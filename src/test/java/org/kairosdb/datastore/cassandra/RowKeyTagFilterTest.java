@@ -0,0 +1,72 @@
+package org.kairosdb.datastore.cassandra;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.SetMultimap;
+import org.junit.Test;
+import org.kairosdb.core.datapoints.LegacyDataPointFactory;
+import org.kairosdb.util.TagMatcherCompiler;
+
+import java.nio.ByteBuffer;
+import java.util.SortedMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RowKeyTagFilterTest {
+    private final DataPointsRowKeySerializer serializer = new DataPointsRowKeySerializer();
+    private final TagMatcherCompiler compiler = new TagMatcherCompiler(100);
+
+    @Test
+    public void test_noFilter() {
+        final RowKeyTagFilter filter = new RowKeyTagFilter(HashMultimap.create(), compiler);
+        assertTrue(filter.matches(key("kairos_long", ImmutableSortedMap.of())));
+        assertTrue(filter.matches(key("kairos_long", ImmutableSortedMap.of("host", "a"))));
+    }
+
+    @Test
+    public void test_literalAndGlobValues() {
+        final SetMultimap<String, String> tags = HashMultimap.create();
+        tags.put("host", "host-1.example.org");
+        tags.put("host", "web-*");
+        tags.put("dc", "eu?");
+        final RowKeyTagFilter filter = new RowKeyTagFilter(tags, compiler);
+
+        assertTrue(filter.matches(key("kairos_long", ImmutableSortedMap.of("dc", "eu1", "host", "host-1.example.org"))));
+        assertTrue(filter.matches(key("kairos_double", ImmutableSortedMap.of("dc", "eu2", "host", "web-12", "key", "x"))));
+        assertTrue(filter.matches(key(LegacyDataPointFactory.DATASTORE_TYPE, ImmutableSortedMap.of("dc", "eu1", "host", "web-1"))));
+
+        assertFalse(filter.matches(key("kairos_long", ImmutableSortedMap.of("dc", "eu12", "host", "web-12"))));
+        assertFalse(filter.matches(key("kairos_long", ImmutableSortedMap.of("dc", "eu1", "host", "host-1Xexample.org"))));
+        assertFalse(filter.matches(key("kairos_long", ImmutableSortedMap.of("dc", "eu1", "hosts", "web-12"))));
+        assertFalse(filter.matches(key("kairos_long", ImmutableSortedMap.of("host", "web-12"))));
+    }
+
+    @Test
+    public void test_valueContainingSeparator() {
+        final SetMultimap<String, String> tags = HashMultimap.create();
+        tags.put("query", "a=b");
+        final RowKeyTagFilter filter = new RowKeyTagFilter(tags, compiler);
+
+        assertTrue(filter.matches(key("kairos_long", ImmutableSortedMap.of("query", "a=b"))));
+        assertFalse(filter.matches(key("kairos_long", ImmutableSortedMap.of("query", "a"))));
+    }
+
+    @Test
+    public void test_positionUnchanged() {
+        final SetMultimap<String, String> tags = HashMultimap.create();
+        tags.put("host", "a");
+        final ByteBuffer key = key("kairos_long", ImmutableSortedMap.of("host", "a"));
+        final int position = key.position();
+
+        assertTrue(new RowKeyTagFilter(tags, compiler).matches(key));
+        assertThat(key.position(), equalTo(position));
+        assertThat(serializer.fromByteBuffer(key).getTags().get("host"), equalTo("a"));
+    }
+
+    private ByteBuffer key(String dataType, SortedMap<String, String> tags) {
+        return serializer.toByteBuffer(new DataPointsRowKey("metric", 1_500_000_000_000L, dataType, tags));
+    }
+}
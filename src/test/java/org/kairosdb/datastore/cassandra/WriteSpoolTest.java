@@ -0,0 +1,188 @@
+package org.kairosdb.datastore.cassandra;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kairosdb.core.exception.DatastoreOverloadedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteSpoolTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private AtomicLong clock;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("spool");
+        clock = new AtomicLong(1_000_000);
+    }
+
+    @Test
+    public void test_appendAndReplayInOrder() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(append(spool, "row" + i, i));
+        }
+        assertEquals(20, spool.getRecords());
+
+        for (int i = 0; i < 20; i++) {
+            final WriteSpool.SpooledWrite write = spool.peek();
+            assertEquals("row" + i, string(write.getRowKey()));
+            assertEquals(i, write.getTtl());
+            assertEquals(1_000_000, write.getSpooledAt());
+            spool.remove();
+        }
+        assertNull(spool.peek());
+        assertEquals(0, spool.getRecords());
+        assertEquals(0, spool.getBytes());
+        // Only the segment still being written to is kept
+        assertEquals(1, segmentFiles().length);
+    }
+
+    @Test
+    public void test_fullSpoolRejects() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 2 * SEGMENT_SIZE, clock::get);
+        int appended = 0;
+        while (append(spool, "row" + appended, 0)) {
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertEquals(2, segmentFiles().length);
+
+        // Replaying a whole segment makes room again
+        for (int i = 0; i < appended; i++) {
+            spool.peek();
+            spool.remove();
+        }
+        assertNull(spool.peek());
+        assertTrue(append(spool, "more", 0));
+    }
+
+    @Test
+    public void test_oldestAge() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        assertEquals(0, spool.getOldestAge());
+
+        append(spool, "first", 0);
+        clock.addAndGet(5000);
+        append(spool, "second", 0);
+        clock.addAndGet(1000);
+        assertEquals(6000, spool.getOldestAge());
+
+        spool.peek();
+        spool.remove();
+        assertEquals(1000, spool.getOldestAge());
+    }
+
+    @Test
+    public void test_recoverContinuesAfterReplayed() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        for (int i = 0; i < 10; i++) {
+            append(spool, "row" + i, i);
+        }
+        for (int i = 0; i < 3; i++) {
+            spool.peek();
+            spool.remove();
+        }
+        spool.close();
+
+        final WriteSpool recovered = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        assertEquals(7, recovered.getRecords());
+        assertEquals("row3", string(recovered.peek().getRowKey()));
+
+        assertTrue(append(recovered, "row10", 10));
+        int count = 0;
+        while (recovered.peek() != null) {
+            recovered.remove();
+            count++;
+        }
+        assertEquals(8, count);
+    }
+
+    @Test
+    public void test_recoverStopsAtCorruptRecord() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        append(spool, "row0", 0);
+        append(spool, "row1", 0);
+        spool.close();
+
+        // Flip the last byte of the second record, the ttl
+        final File segment = segmentFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            final int firstSize = 16 + 12 + 4 + 4 + 1 + 4;
+            final long lastByte = 8 + firstSize + firstSize - 1;
+            file.seek(lastByte);
+            final int b = file.read();
+            file.seek(lastByte);
+            file.write(b ^ 0xff);
+        }
+
+        final WriteSpool recovered = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        assertEquals(1, recovered.getRecords());
+        assertEquals("row0", string(recovered.peek().getRowKey()));
+    }
+
+    @Test
+    public void test_replayerStopsWhenOverloadedOrUnhealthy() throws IOException {
+        final WriteSpool spool = new WriteSpool(directory, SEGMENT_SIZE, 10 * SEGMENT_SIZE, clock::get);
+        for (int i = 0; i < 5; i++) {
+            append(spool, "row" + i, 0);
+        }
+
+        final List<String> replayed = new ArrayList<>();
+        final AtomicBoolean healthy = new AtomicBoolean(false);
+        final SpoolReplayer replayer = new SpoolReplayer(spool, write -> {
+            if (replayed.size() == 2) {
+                replayed.add("overloaded");
+                throw new DatastoreOverloadedException("busy");
+            }
+            replayed.add(string(write.getRowKey()));
+        }, healthy::get, 1000);
+
+        replayer.tick();
+        assertTrue(replayed.isEmpty());
+
+        healthy.set(true);
+        replayer.tick();
+        assertEquals(3, replayed.size());
+        assertEquals(3, spool.getRecords());
+        assertEquals(2, replayer.getAndResetReplayed());
+
+        replayer.tick();
+        assertEquals("row2", replayed.get(3));
+        assertEquals(0, spool.getRecords());
+    }
+
+    private File[] segmentFiles() {
+        return directory.listFiles((dir, name) -> name.endsWith(".seg"));
+    }
+
+    private static boolean append(WriteSpool spool, String rowKey, int ttl) {
+        return spool.append(ByteBuffer.wrap(rowKey.getBytes(StandardCharsets.UTF_8)), ByteBuffer.allocate(4),
+                ByteBuffer.wrap(new byte[]{1}), ttl);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
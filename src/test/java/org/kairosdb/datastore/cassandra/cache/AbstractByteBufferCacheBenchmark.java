@@ -6,11 +6,16 @@ import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.Warmup;
 
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 @Fork(2)
 public class AbstractByteBufferCacheBenchmark {
@@ -25,4 +30,60 @@ public class AbstractByteBufferCacheBenchmark {
         final ByteBuffer prefixed = ByteBuffer.allocate(KEY_PREFIX.length + rowKey.limit()).put(KEY_PREFIX).put(rowKey);
         cache.doubleHash(prefixed);
     }
-}
\ No newline at end of file
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public boolean measureDefaultRowKeyCacheLookup(final RowKeys keys) {
+        return keys.defaultCache.isKnown(keys.next());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public boolean measureOffHeapRowKeyCacheLookup(final RowKeys keys) {
+        return keys.offHeapCache.isKnown(keys.next());
+    }
+
+    @State(Scope.Thread)
+    public static class RowKeys {
+        private static final int KEYS = 1_000_000;
+
+        RowKeyCache defaultCache;
+        RowKeyCache offHeapCache;
+        ByteBuffer[] rowKeys;
+        int index;
+
+        @Setup
+        public void setUp() {
+            final CacheMetricsProvider metricsProvider = mock(CacheMetricsProvider.class);
+            final RowKeyCacheConfiguration configuration = mock(RowKeyCacheConfiguration.class);
+            when(configuration.getMaxSize()).thenReturn(KEYS);
+            when(configuration.getTtlInSeconds()).thenReturn(3600);
+            defaultCache = new DefaultRowKeyCache(metricsProvider, configuration);
+            offHeapCache = new OffHeapRowKeyCache(metricsProvider, KEYS, 3_600_000L, 3_600_000L,
+                    System::currentTimeMillis);
+
+            final Random random = new Random(42);
+            rowKeys = new ByteBuffer[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                final byte[] key = new byte[60];
+                random.nextBytes(key);
+                rowKeys[i] = ByteBuffer.wrap(key);
+                // Every other key is known, so lookups see hits and misses
+                if (i % 2 == 0) {
+                    defaultCache.put(rowKeys[i]);
+                    offHeapCache.put(rowKeys[i]);
+                }
+            }
+        }
+
+        ByteBuffer next() {
+            final ByteBuffer key = rowKeys[index];
+            index = index + 1 == KEYS ? 0 : index + 1;
+            return key;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CacheSnapshotterTest {
+    private static final long ROW_WIDTH = 10_000;
+    private static final ByteBuffer ROW_KEY = ByteBuffer.wrap(new byte[]{42, 69});
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AtomicLong clock;
+    private Path path;
+    private CacheMetricsProvider cacheMetricsProvider;
+    private MetricNameCacheConfiguration nameConfiguration;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new AtomicLong(10 * ROW_WIDTH + 1);
+        path = folder.getRoot().toPath().resolve("cache.snapshot");
+        cacheMetricsProvider = mock(CacheMetricsProvider.class);
+        nameConfiguration = mock(MetricNameCacheConfiguration.class);
+        when(nameConfiguration.getMaxSize()).thenReturn(42);
+        when(nameConfiguration.getTtlInSeconds()).thenReturn(3600);
+    }
+
+    private OffHeapRowKeyCache createRowKeyCache() {
+        return new OffHeapRowKeyCache(cacheMetricsProvider, 42, ROW_WIDTH, ROW_WIDTH, clock::get);
+    }
+
+    private CacheSnapshotter createSnapshotter(final RowKeyCache rowKeyCache, final StringKeyCache nameCache) {
+        final CacheSnapshotter snapshotter = new CacheSnapshotter(path, ROW_WIDTH, clock::get);
+        snapshotter.register("rowKeyCache", rowKeyCache, 3_600_000L, true);
+        snapshotter.register("metricNameCache", nameCache, 3_600_000L, false);
+        return snapshotter;
+    }
+
+    @Test
+    public void testRestoresSnapshot() throws Exception {
+        final RowKeyCache rowKeyCache = createRowKeyCache();
+        final StringKeyCache nameCache = new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration);
+        rowKeyCache.put(ROW_KEY);
+        nameCache.put("foo");
+        createSnapshotter(rowKeyCache, nameCache).snapshot();
+
+        final RowKeyCache restoredRowKeyCache = createRowKeyCache();
+        final StringKeyCache restoredNameCache = new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration);
+        createSnapshotter(restoredRowKeyCache, restoredNameCache).restore();
+
+        assertTrue(restoredRowKeyCache.isKnown(ROW_KEY));
+        assertTrue(restoredNameCache.isKnown("foo"));
+        assertFalse(restoredNameCache.isKnown("bar"));
+    }
+
+    @Test
+    public void testRestoresRowKeysWarmedBeforeRollover() throws Exception {
+        final RowKeyCache rowKeyCache = createRowKeyCache();
+        final StringKeyCache nameCache = new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration);
+        clock.set(11 * ROW_WIDTH - 1);
+        rowKeyCache.put(ROW_KEY);
+        createSnapshotter(rowKeyCache, nameCache).snapshot();
+
+        clock.set(11 * ROW_WIDTH + 1);
+        final RowKeyCache restoredRowKeyCache = createRowKeyCache();
+        createSnapshotter(restoredRowKeyCache, new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration))
+                .restore();
+
+        assertTrue(restoredRowKeyCache.isKnown(ROW_KEY));
+    }
+
+    @Test
+    public void testDropsRowKeysOfOlderRows() throws Exception {
+        final RowKeyCache rowKeyCache = createRowKeyCache();
+        final StringKeyCache nameCache = new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration);
+        rowKeyCache.put(ROW_KEY);
+        nameCache.put("foo");
+        createSnapshotter(rowKeyCache, nameCache).snapshot();
+
+        clock.addAndGet(2 * ROW_WIDTH);
+        final RowKeyCache restoredRowKeyCache = createRowKeyCache();
+        final StringKeyCache restoredNameCache = new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration);
+        createSnapshotter(restoredRowKeyCache, restoredNameCache).restore();
+
+        assertFalse(restoredRowKeyCache.isKnown(ROW_KEY));
+        assertTrue(restoredNameCache.isKnown("foo"));
+    }
+
+    @Test
+    public void testIgnoresUnreadableSnapshot() throws Exception {
+        Files.write(path, new byte[]{1, 2, 3});
+
+        final RowKeyCache rowKeyCache = createRowKeyCache();
+        createSnapshotter(rowKeyCache, new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration)).restore();
+
+        assertFalse(rowKeyCache.isKnown(ROW_KEY));
+    }
+
+    @Test
+    public void testMissingSnapshotIsIgnored() throws Exception {
+        final RowKeyCache rowKeyCache = createRowKeyCache();
+        createSnapshotter(rowKeyCache, new DefaultMetricNameCache(cacheMetricsProvider, nameConfiguration)).restore();
+
+        assertFalse(rowKeyCache.isKnown(ROW_KEY));
+    }
+}
@@ -65,4 +65,17 @@ public class CacheWarmingUpLogicTest {
             Assert.assertEquals(10 * rowSize, cnt);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWarmUpProgressGrowsWithEachRow() {
+        Assert.assertEquals(0.0, logic.getWarmUpProgress(99 * MINUTES, 120 * MINUTES, 20, 5), 0.0);
+        Assert.assertEquals(0.25, logic.getWarmUpProgress(100 * MINUTES, 120 * MINUTES, 20, 5), 0.0);
+        Assert.assertEquals(0.5, logic.getWarmUpProgress(109 * MINUTES, 120 * MINUTES, 20, 5), 0.0);
+        Assert.assertEquals(1.0, logic.getWarmUpProgress(119 * MINUTES, 120 * MINUTES, 20, 5), 0.0);
+    }
+
+    @Test
+    public void testWarmUpProgressWithRowLargerThanInterval() {
+        Assert.assertEquals(1.0, logic.getWarmUpProgress(100 * MINUTES, 120 * MINUTES, 20, 30), 0.0);
+    }
+}
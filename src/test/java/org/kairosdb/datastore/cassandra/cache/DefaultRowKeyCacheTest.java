@@ -42,4 +42,13 @@ public class DefaultRowKeyCacheTest {
         final ByteBuffer given = ByteBuffer.wrap(new byte[]{42, 69});
         assertFalse(cache.isKnown(given));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testInvalidate() throws Exception {
+        final DefaultRowKeyCache cache = createDefaultCache();
+        final ByteBuffer given = ByteBuffer.wrap(new byte[]{42, 69});
+        cache.put(given);
+        cache.invalidate(given);
+        assertFalse(cache.isKnown(given));
+    }
+}
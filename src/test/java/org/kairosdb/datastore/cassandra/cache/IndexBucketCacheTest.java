@@ -0,0 +1,124 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class IndexBucketCacheTest {
+    private static final long ROW_WIDTH = 1000;
+    private static final int TTL_SECONDS = 10;
+    private static final long OPEN_TTL = 50;
+    private static final long DELAY = 100;
+
+    private static final List<ByteBuffer> ROW_KEYS = Arrays.asList(
+            ByteBuffer.wrap(new byte[]{42, 69}), ByteBuffer.wrap(new byte[]{1, 2, 3}));
+
+    private AtomicLong clock;
+    private IndexBucketCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new AtomicLong(5 * ROW_WIDTH);
+        cache = createCache(1024 * 1024, TTL_SECONDS);
+    }
+
+    private IndexBucketCache createCache(long maxBytes, int ttlSeconds) {
+        return new IndexBucketCache(mock(CacheMetricsProvider.class), maxBytes, ROW_WIDTH, ttlSeconds, OPEN_TTL,
+                DELAY, clock::get);
+    }
+
+    @Test
+    public void testGetMiss() throws Exception {
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+    }
+
+    @Test
+    public void testGetHit() throws Exception {
+        cache.put(new IndexBucketCache.Key("metric", 0), ROW_KEYS, 10);
+        assertEquals(ROW_KEYS, cache.get(new IndexBucketCache.Key("metric", 0)));
+        assertNull(cache.get(new IndexBucketCache.Key("other", 0)));
+        assertNull(cache.get(new IndexBucketCache.Key("metric", ROW_WIDTH)));
+    }
+
+    @Test
+    public void testSplitIndexBucketsAreKeptApart() throws Exception {
+        cache.put(new IndexBucketCache.Key("metric", "key", "value", 0), ROW_KEYS, 10);
+        assertEquals(ROW_KEYS, cache.get(new IndexBucketCache.Key("metric", "key", "value", 0)));
+        assertNull(cache.get(new IndexBucketCache.Key("metric", "key", "other", 0)));
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+    }
+
+    @Test
+    public void testReadsCutOffByLimitAreNotCached() throws Exception {
+        cache.put(new IndexBucketCache.Key("metric", 0), ROW_KEYS, 2);
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+    }
+
+    @Test
+    public void testOpenBucketExpiresAfterShortTtl() throws Exception {
+        final long bucket = 5 * ROW_WIDTH;
+        cache.put(new IndexBucketCache.Key("metric", bucket), ROW_KEYS, 10);
+
+        clock.addAndGet(OPEN_TTL - 1);
+        assertEquals(ROW_KEYS, cache.get(new IndexBucketCache.Key("metric", bucket)));
+        clock.addAndGet(1);
+        assertNull(cache.get(new IndexBucketCache.Key("metric", bucket)));
+    }
+
+    @Test
+    public void testBucketWithinDelayIsStillOpen() throws Exception {
+        final long bucket = 4 * ROW_WIDTH;
+        assertEquals(clock.get() + OPEN_TTL, cache.expiresAt(bucket, clock.get()));
+        clock.addAndGet(DELAY);
+        assertEquals(bucket + TTL_SECONDS * 1000L + ROW_WIDTH, cache.expiresAt(bucket, clock.get()));
+    }
+
+    @Test
+    public void testClosedBucketIsKeptUntilItsEntriesExpire() throws Exception {
+        cache.put(new IndexBucketCache.Key("metric", 0), ROW_KEYS, 10);
+
+        clock.set(TTL_SECONDS * 1000L + ROW_WIDTH - 1);
+        assertEquals(ROW_KEYS, cache.get(new IndexBucketCache.Key("metric", 0)));
+        clock.incrementAndGet();
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+    }
+
+    @Test
+    public void testClosedBucketWithoutTtlNeverExpires() throws Exception {
+        final IndexBucketCache cache = createCache(1024 * 1024, 0);
+        assertEquals(Long.MAX_VALUE, cache.expiresAt(0, clock.get()));
+    }
+
+    @Test
+    public void testInvalidateClosedBucket() throws Exception {
+        cache.put(new IndexBucketCache.Key("metric", 0), ROW_KEYS, 10);
+        cache.put(new IndexBucketCache.Key("metric", "key", "value", 0), ROW_KEYS, 10);
+
+        cache.invalidate(new IndexBucketCache.Key("metric", 0));
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+        assertEquals(ROW_KEYS, cache.get(new IndexBucketCache.Key("metric", "key", "value", 0)));
+
+        cache.invalidate(new IndexBucketCache.Key("metric", "key", "value", 0));
+        assertNull(cache.get(new IndexBucketCache.Key("metric", "key", "value", 0)));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final IndexBucketCache cache = createCache(0, TTL_SECONDS);
+        assertFalse(cache.isEnabled());
+        cache.put(new IndexBucketCache.Key("metric", 0), ROW_KEYS, 10);
+        assertNull(cache.get(new IndexBucketCache.Key("metric", 0)));
+        assertTrue(this.cache.isEnabled());
+    }
+}
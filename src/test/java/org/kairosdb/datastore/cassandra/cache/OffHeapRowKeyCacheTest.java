@@ -0,0 +1,130 @@
+package org.kairosdb.datastore.cassandra.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.kairosdb.core.admin.CacheMetricsProvider;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class OffHeapRowKeyCacheTest {
+    private static final long GENERATION = 1000;
+
+    private AtomicLong clock;
+    private CacheMetricsProvider cacheMetricsProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        clock = new AtomicLong(10 * GENERATION);
+        cacheMetricsProvider = mock(CacheMetricsProvider.class);
+    }
+
+    private OffHeapRowKeyCache createCache(int maxSize) {
+        return new OffHeapRowKeyCache(cacheMetricsProvider, maxSize, 2 * GENERATION, GENERATION, clock::get);
+    }
+
+    @Test
+    public void testGetHit() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        final ByteBuffer given = ByteBuffer.wrap(new byte[]{42, 69});
+        cache.put(given);
+        assertTrue(cache.isKnown(given));
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{42, 69})));
+    }
+
+    @Test
+    public void testGetMiss() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        cache.put(ByteBuffer.wrap(new byte[]{42, 69}));
+        assertFalse(cache.isKnown(ByteBuffer.wrap(new byte[]{42, 70})));
+    }
+
+    @Test
+    public void testRespectsBufferPosition() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        final ByteBuffer given = ByteBuffer.wrap(new byte[]{1, 2, 42, 69});
+        given.position(2);
+        cache.put(given);
+        assertEquals(2, given.position());
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{42, 69})));
+    }
+
+    @Test
+    public void testEntriesExpireWithTheirGeneration() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        final ByteBuffer given = ByteBuffer.wrap(new byte[]{42, 69});
+        cache.put(given);
+
+        clock.addAndGet(2 * GENERATION);
+        assertTrue(cache.isKnown(given));
+
+        clock.addAndGet(GENERATION);
+        assertFalse(cache.isKnown(given));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFullGenerationRejectsNewKeys() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(2);
+        cache.put(ByteBuffer.wrap(new byte[]{1}));
+        cache.put(ByteBuffer.wrap(new byte[]{2}));
+        cache.put(ByteBuffer.wrap(new byte[]{3}));
+
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{1})));
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{2})));
+        assertFalse(cache.isKnown(ByteBuffer.wrap(new byte[]{3})));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testReusedGenerationStartsEmpty() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        for (byte i = 0; i < 10; i++) {
+            final ByteBuffer given = ByteBuffer.wrap(new byte[]{i});
+            cache.put(given);
+            assertTrue(cache.isKnown(given));
+
+            // Moves into the generation that reuses the slot of the key
+            clock.addAndGet(3 * GENERATION);
+            assertFalse(cache.isKnown(given));
+            cache.put(ByteBuffer.wrap(new byte[]{42}));
+            assertFalse(cache.isKnown(given));
+            assertEquals(1, cache.size());
+            clock.addAndGet(3 * GENERATION);
+        }
+    }
+
+    @Test
+    public void testInvalidateRemovesKeyFromAllGenerations() throws Exception {
+        final OffHeapRowKeyCache cache = createCache(42);
+        final ByteBuffer given = ByteBuffer.wrap(new byte[]{42, 69});
+        cache.put(given);
+        clock.addAndGet(GENERATION);
+        cache.put(given);
+
+        cache.invalidate(given);
+        assertFalse(cache.isKnown(given));
+
+        cache.put(given);
+        assertTrue(cache.isKnown(given));
+    }
+
+    @Test
+    public void testInvalidateKeepsOtherKeys() throws Exception {
+        // A nearly full table, the removed slot stays in the probe chains of the other keys
+        final OffHeapRowKeyCache cache = createCache(3);
+        for (byte i = 0; i < 3; i++) {
+            cache.put(ByteBuffer.wrap(new byte[]{i}));
+        }
+
+        cache.invalidate(ByteBuffer.wrap(new byte[]{0}));
+        assertFalse(cache.isKnown(ByteBuffer.wrap(new byte[]{0})));
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{1})));
+        assertTrue(cache.isKnown(ByteBuffer.wrap(new byte[]{2})));
+    }
+}
@@ -70,7 +70,8 @@ public class H2DatastoreTest extends DatastoreTestHelper
 
 		s_datastore = new KairosDatastore(new H2Datastore(DB_PATH, dataPointFactory),
 				new QueryQueuingManager(1, "hostname"),
-				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer);
+				Collections.<DataPointListener>emptyList(), dataPointFactory, tracer, new HotTailStore("hostname"),
+				new ResultBufferPool("hostname"), new SlidingWindowCache(dataPointFactory, "hostname"));
 
 		loadData();
 	}
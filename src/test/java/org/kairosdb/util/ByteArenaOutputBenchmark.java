@@ -0,0 +1,65 @@
+package org.kairosdb.util;
+
+import org.kairosdb.core.DataPoint;
+import org.kairosdb.core.datapoints.DoubleDataPoint;
+import org.kairosdb.core.datapoints.LongDataPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares the per point write path serialization of the column name and value. Run with {@code -prof gc} to
+ * see the allocation rate per operation.
+ */
+@Fork(2)
+@State(Scope.Thread)
+public class ByteArenaOutputBenchmark {
+    private final DataPoint longPoint = new LongDataPoint(1_500_000_000_000L, 42L);
+    private final DataPoint doublePoint = new DoubleDataPoint(1_500_000_000_000L, 42.5);
+    private final ByteArenaOutput arena = new ByteArenaOutput();
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public void measureKDataOutput(Blackhole blackhole) throws IOException {
+        blackhole.consume(serializeWithKDataOutput(longPoint));
+        blackhole.consume(serializeWithKDataOutput(doublePoint));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 10)
+    public void measureByteArenaOutput(Blackhole blackhole) throws IOException {
+        blackhole.consume(serializeWithArena(longPoint));
+        blackhole.consume(serializeWithArena(doublePoint));
+    }
+
+    private static ByteBuffer serializeWithKDataOutput(DataPoint dataPoint) throws IOException {
+        final KDataOutput kDataOutput = new KDataOutput();
+        dataPoint.writeValueToBuffer(kDataOutput);
+        final ByteBuffer column = ByteBuffer.allocate(4);
+        column.putInt(1234 << 1);
+        column.rewind();
+        return ByteBuffer.wrap(kDataOutput.getBytes());
+    }
+
+    private ByteBuffer serializeWithArena(DataPoint dataPoint) throws IOException {
+        arena.start();
+        arena.writeInt(1234 << 1);
+        arena.finish();
+        arena.start();
+        dataPoint.writeValueToBuffer(arena);
+        return arena.finish();
+    }
+}
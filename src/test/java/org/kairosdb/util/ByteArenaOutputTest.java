@@ -0,0 +1,67 @@
+package org.kairosdb.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+public class ByteArenaOutputTest
+{
+	private static byte[] remaining(ByteBuffer buffer)
+	{
+		byte[] ret = new byte[buffer.remaining()];
+		buffer.duplicate().get(ret);
+		return ret;
+	}
+
+	@Test
+	public void test_matchesDataOutputStream() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream expected = new DataOutputStream(bytes);
+		ByteArenaOutput arena = new ByteArenaOutput();
+		arena.start();
+
+		expected.writeInt(-42);
+		expected.writeLong(Long.MIN_VALUE + 3);
+		expected.writeDouble(3.25);
+		expected.writeShort(65000);
+		expected.writeBoolean(true);
+		expected.writeUTF("h\u00e9llo \u20ac\u0000");
+		arena.writeInt(-42);
+		arena.writeLong(Long.MIN_VALUE + 3);
+		arena.writeDouble(3.25);
+		arena.writeShort(65000);
+		arena.writeBoolean(true);
+		arena.writeUTF("h\u00e9llo \u20ac\u0000");
+
+		assertArrayEquals(bytes.toByteArray(), remaining(arena.finish()));
+	}
+
+	@Test
+	public void test_finishedBuffersSurviveChunkRollover()
+	{
+		ByteArenaOutput arena = new ByteArenaOutput(16);
+
+		arena.start();
+		arena.writeLong(1L);
+		ByteBuffer first = arena.finish();
+
+		arena.start();
+		arena.writeInt(7);
+		arena.writeLong(2L);
+		ByteBuffer second = arena.finish();
+
+		assertThat(first.remaining(), equalTo(8));
+		assertThat(first.getLong(first.position()), equalTo(1L));
+		assertThat(second.remaining(), equalTo(12));
+		assertThat(second.getInt(second.position()), equalTo(7));
+		assertThat(second.getLong(second.position() + 4), equalTo(2L));
+	}
+}
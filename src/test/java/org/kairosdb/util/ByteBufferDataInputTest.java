@@ -0,0 +1,36 @@
+package org.kairosdb.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ByteBufferDataInputTest
+{
+	@Test
+	@SuppressWarnings("deprecation")
+	public void test_readLine_matchesDataInputStream() throws IOException
+	{
+		byte[] bytes = "first\nsecond\r\nthird\r\rlast \u00e9".getBytes(StandardCharsets.ISO_8859_1);
+		DataInputStream expected = new DataInputStream(new ByteArrayInputStream(bytes));
+		ByteBufferDataInput input = new ByteBufferDataInput(ByteBuffer.wrap(bytes));
+
+		for (int i = 0; i < 6; i++)
+			assertThat(input.readLine(), equalTo(expected.readLine()));
+	}
+
+	@Test
+	public void test_readLine_keepsFollowingBytes() throws IOException
+	{
+		ByteBufferDataInput input = new ByteBufferDataInput(ByteBuffer.wrap(new byte[]{'a', '\r', 0, 42}));
+
+		assertThat(input.readLine(), equalTo("a"));
+		assertThat(input.readShort(), equalTo((short) 42));
+	}
+}
@@ -0,0 +1,101 @@
+package org.kairosdb.util;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+public class CompactTagMapTest
+{
+	private static final ImmutableSortedMap<String, String> TAGS = ImmutableSortedMap.of(
+			"dc", "eu", "host", "server1", "key", "cpu");
+
+	@Test
+	public void test_equalToOtherMaps()
+	{
+		CompactTagMap compact = CompactTagMap.copyOf(TAGS);
+
+		assertThat(compact, equalTo((SortedMap<String, String>) TAGS));
+		assertThat((SortedMap<String, String>) TAGS, equalTo((SortedMap<String, String>) compact));
+		assertThat(compact.hashCode(), equalTo(TAGS.hashCode()));
+		assertThat(compact.toString(), equalTo(TAGS.toString()));
+		assertThat(compact, equalTo(CompactTagMap.copyOf(new TreeMap<>(TAGS))));
+	}
+
+	@Test
+	public void test_unsortedInputIsSorted()
+	{
+		CompactTagMap compact = CompactTagMap.copyOf(ImmutableMap.of("key", "cpu", "dc", "eu", "host", "server1"));
+
+		assertThat(new ArrayList<>(compact.keySet()), equalTo(new ArrayList<>(TAGS.keySet())));
+		assertThat(new ArrayList<>(compact.values()), equalTo(new ArrayList<>(TAGS.values())));
+		assertThat(compact, equalTo((SortedMap<String, String>) TAGS));
+	}
+
+	@Test
+	public void test_get()
+	{
+		CompactTagMap compact = CompactTagMap.copyOf(TAGS);
+
+		assertThat(compact.size(), equalTo(3));
+		assertThat(compact.get("dc"), equalTo("eu"));
+		assertThat(compact.get("host"), equalTo("server1"));
+		assertThat(compact.get("key"), equalTo("cpu"));
+		assertThat(compact.get("missing"), nullValue());
+		assertThat(compact.get(42), nullValue());
+		assertThat(compact.containsKey("host"), equalTo(true));
+		assertThat(compact.containsKey("a"), equalTo(false));
+	}
+
+	@Test
+	public void test_sortedMapOperations()
+	{
+		CompactTagMap compact = CompactTagMap.copyOf(TAGS);
+
+		assertThat(compact.firstKey(), equalTo("dc"));
+		assertThat(compact.lastKey(), equalTo("key"));
+		assertThat(compact.headMap("host"), equalTo(TAGS.headMap("host")));
+		assertThat(compact.tailMap("e"), equalTo(TAGS.tailMap("e")));
+		assertThat(compact.subMap("dc", "key"), equalTo(TAGS.subMap("dc", "key")));
+		assertThat(compact.subMap("x", "y").isEmpty(), equalTo(true));
+	}
+
+	@Test
+	public void test_stringsAreInterned()
+	{
+		CompactTagMap first = CompactTagMap.copyOf(ImmutableSortedMap.of(new String("host"), new String("server1")));
+		CompactTagMap second = CompactTagMap.copyOf(ImmutableSortedMap.of(new String("host"), new String("server1")));
+
+		assertSame(first.firstKey(), second.firstKey());
+		assertSame(first.get("host"), second.get("host"));
+	}
+
+	@Test
+	public void test_copyOfCompactReturnsSame()
+	{
+		CompactTagMap compact = CompactTagMap.copyOf(TAGS);
+
+		assertSame(compact, CompactTagMap.copyOf(compact));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void test_immutable()
+	{
+		CompactTagMap.copyOf(TAGS).put("a", "b");
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void test_emptyFirstKey()
+	{
+		CompactTagMap.copyOf(new TreeMap<String, String>()).firstKey();
+	}
+}
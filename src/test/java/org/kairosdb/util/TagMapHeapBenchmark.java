@@ -0,0 +1,127 @@
+package org.kairosdb.util;
+
+import com.google.common.collect.ImmutableSortedMap;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ Heap retained per series by the tag maps of 200k series, as reported in the
+ bytesPerSeries counter.  The tags are built from fresh strings the way the
+ ingest parsers produce them: tag names and most values repeat across series,
+ one value is unique per series.
+ */
+@Fork(2)
+public class TagMapHeapBenchmark
+{
+	private static final int SERIES = 200_000;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Heap
+	{
+		public long bytesPerSeries;
+
+		private long m_before;
+
+		@Setup(Level.Iteration)
+		public void setUp()
+		{
+			bytesPerSeries = 0;
+		}
+
+		private void start()
+		{
+			m_before = usedHeap();
+		}
+
+		private void finish()
+		{
+			bytesPerSeries = (usedHeap() - m_before) / SERIES;
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public Object measureImmutableSortedMap(Heap heap)
+	{
+		heap.start();
+		SortedMap<?, ?>[] retained = new SortedMap[SERIES];
+		for (int i = 0; i < SERIES; i++)
+			retained[i] = parsedTags(i, false);
+		heap.finish();
+		return retained;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public Object measureInternedImmutableSortedMap(Heap heap)
+	{
+		heap.start();
+		SortedMap<?, ?>[] retained = new SortedMap[SERIES];
+		for (int i = 0; i < SERIES; i++)
+			retained[i] = parsedTags(i, true);
+		heap.finish();
+		return retained;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 5, time = 1)
+	@Measurement(iterations = 5, time = 10)
+	public Object measureCompactTagMap(Heap heap)
+	{
+		heap.start();
+		SortedMap<?, ?>[] retained = new SortedMap[SERIES];
+		for (int i = 0; i < SERIES; i++)
+			retained[i] = CompactTagMap.copyOf(parsedTags(i, false));
+		heap.finish();
+		return retained;
+	}
+
+	private static ImmutableSortedMap<String, String> parsedTags(int series, boolean intern)
+	{
+		return ImmutableSortedMap.<String, String>naturalOrder()
+				.put(parsed("application_id", intern), parsed("zmon-app-" + series % 50, intern))
+				.put(parsed("dc", intern), parsed("dc-" + series % 3, intern))
+				.put(parsed("entity", intern), parsed("host-10-160-" + series % 5000, intern))
+				.put(parsed("key", intern), parsed("check.key." + series, intern))
+				.put(parsed("stack_name", intern), parsed("zmon-stack-" + series % 50, intern))
+				.put(parsed("stack_version", intern), parsed(String.valueOf(series % 10), intern))
+				.build();
+	}
+
+	private static String parsed(String str, boolean intern)
+	{
+		// A new instance per occurrence, like strings read from a request
+		String copy = new String(str.toCharArray());
+		return intern ? TagInterner.intern(copy) : copy;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,79 @@
+package org.kairosdb.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TagMatcherCompilerTest {
+    private static final List<String> GLOBS = ImmutableList.of("foo", "", "*", "**", "foo*", "*foo", "*foo*", "f*o",
+            "f?o", "*o?", "fo*o*", "?", "größe*", "*ö*");
+    private static final List<String> VALUES = ImmutableList.of("foo", "", "f", "fo", "fooo", "afoo", "afoob", "fxo",
+            "foxo", "bar", "o", "größe", "grosse", "ö");
+
+    private final TagMatcherCompiler compiler = new TagMatcherCompiler(100);
+
+    @Test
+    public void test_matchesLikeGlobPattern() {
+        for (String glob : GLOBS) {
+            final TagMatcherCompiler.TagMatcher matcher = compiler.compile(Collections.singleton(glob));
+            for (String value : VALUES) {
+                final boolean expected = GlobPatterns.matchesAny(value,
+                        Collections.singleton(GlobPatterns.convertGlobToPattern(glob)));
+                assertThat(glob + " ~ " + value, matches(matcher, value), equalTo(expected));
+            }
+        }
+    }
+
+    @Test
+    public void test_anyOfValues() {
+        final TagMatcherCompiler.TagMatcher matcher = compiler.compile(ImmutableSet.of("a", "b", "c*", "*x?"));
+        assertTrue(matches(matcher, "a"));
+        assertTrue(matches(matcher, "b"));
+        assertTrue(matches(matcher, "cd"));
+        assertTrue(matches(matcher, "dxy"));
+        assertFalse(matches(matcher, "d"));
+        assertFalse(matches(matcher, "ab"));
+    }
+
+    @Test
+    public void test_regionOfLargerBuffer() {
+        final TagMatcherCompiler.TagMatcher matcher = compiler.compile(ImmutableSet.of("web", "db*", "*-1"));
+        final ByteBuffer buffer = ByteBuffer.wrap("host=web:role=db-1:".getBytes(StandardCharsets.UTF_8));
+        assertTrue(matcher.matches(buffer, 5, 8));
+        assertTrue(matcher.matches(buffer, 14, 18));
+        assertFalse(matcher.matches(buffer, 0, 4));
+        assertThat(buffer.position(), equalTo(0));
+    }
+
+    @Test
+    public void test_matchesUnserializedValue() {
+        final TagMatcherCompiler.TagMatcher matcher = compiler.compile(ImmutableSet.of("web", "größe*", "*-1"));
+        assertTrue(matcher.matches("web"));
+        assertTrue(matcher.matches("größer"));
+        assertTrue(matcher.matches("db-1"));
+        assertFalse(matcher.matches("db-2"));
+    }
+
+    @Test
+    public void test_cachedByValues() {
+        final TagMatcherCompiler.TagMatcher matcher = compiler.compile(ImmutableList.of("a*", "b"));
+        assertThat(compiler.compile(ImmutableSet.of("b", "a*")), sameInstance(matcher));
+        assertThat(compiler.getCachedMatchers(), equalTo(1L));
+    }
+
+    private static boolean matches(TagMatcherCompiler.TagMatcher matcher, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return matcher.matches(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}